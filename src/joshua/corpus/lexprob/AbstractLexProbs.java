@@ -17,7 +17,15 @@
  */
 package joshua.corpus.lexprob;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.Corpus;
+import joshua.corpus.MatchedHierarchicalPhrases;
+import joshua.corpus.ParallelCorpus;
 import joshua.corpus.alignment.AlignmentGrid;
+import joshua.corpus.alignment.Alignments;
+import joshua.corpus.suffix_array.HierarchicalPhrase;
 import joshua.corpus.suffix_array.Pattern;
 import joshua.corpus.vocab.SymbolTable;
 import joshua.util.Lists;
@@ -31,6 +39,11 @@ import joshua.util.Lists.IndexedInt;
  */
 public abstract class AbstractLexProbs implements LexicalProbabilities {
 
+	/** Logger for this class. */
+	private static final Logger logger = 
+		Logger.getLogger(AbstractLexProbs.class.getName());
+	
+
 	/* See Javadoc for LexicalProbabilities#getTargetGivenSourceAlignments(Pattern,Pattern). */
 	public AlignmentGrid getTargetGivenSourceAlignments(Pattern targetPattern, Pattern sourcePattern) {
 		
@@ -176,4 +189,141 @@ public abstract class AbstractLexProbs implements LexicalProbabilities {
 		return targetGivenSource;
 	}
 	
+	
+	/**
+	 * Gets the lexical translation probability of a source
+	 * phrase given a target phrase, using the word alignments
+	 * of a particular instance of the phrase pair.
+	 * 
+	 * @param parallelCorpus Aligned parallel corpus containing
+	 *                       the phrase pair
+	 * @see LexicalProbabilities#lexProbSourceGivenTarget(MatchedHierarchicalPhrases,int,HierarchicalPhrase)
+	 */
+	protected float lexProbSourceGivenTarget(ParallelCorpus parallelCorpus, MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
+		
+		float sourceGivenTarget = 1.0f;
+		
+		Corpus sourceCorpus = parallelCorpus.getSourceCorpus();
+		Corpus targetCorpus = parallelCorpus.getTargetCorpus();
+		Alignments alignments = parallelCorpus.getAlignments();
+		
+		// Iterate over each terminal sequence in the source phrase
+		for (int seq=0; seq<sourcePhrases.getNumberOfTerminalSequences(); seq++) {
+			
+			// Iterate over each source index in the current terminal sequence
+			for (int sourceWordIndex=sourcePhrases.getTerminalSequenceStartIndex(sourcePhraseIndex, seq),
+						end=sourcePhrases.getTerminalSequenceEndIndex(sourcePhraseIndex, seq);
+					sourceWordIndex<end; 
+					sourceWordIndex++) {
+				
+								
+				int sourceWord = sourceCorpus.getWordID(sourceWordIndex);
+				int[] targetIndices = alignments.getAlignedTargetIndices(sourceWordIndex);
+				
+				float sum = 0.0f;
+				float average;
+				
+				if (targetIndices==null) {
+					
+					sum += this.sourceGivenTarget(sourceWord, null);
+					average = sum;
+					
+				} else {
+					for (int targetIndex : targetIndices) {
+
+						int targetWord = targetCorpus.getWordID(targetIndex);
+						sum += sourceGivenTarget(sourceWord, targetWord);
+						
+					}
+					average = sum / targetIndices.length;
+				}
+				
+				sourceGivenTarget *= average;
+			}
+			
+		}
+		
+		return sourceGivenTarget;
+	}
+
+	/**
+	 * Gets the lexical translation probability of a target
+	 * phrase given a source phrase, using the word alignments
+	 * of a particular instance of the phrase pair.
+	 * 
+	 * @param parallelCorpus Aligned parallel corpus containing
+	 *                       the phrase pair
+	 * @see LexicalProbabilities#lexProbTargetGivenSource(MatchedHierarchicalPhrases,int,HierarchicalPhrase)
+	 */
+	protected float lexProbTargetGivenSource(ParallelCorpus parallelCorpus, MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
+		
+		final boolean LOGGING_FINEST = logger.isLoggable(Level.FINEST);
+		
+		Corpus sourceCorpus = parallelCorpus.getSourceCorpus();
+		Corpus targetCorpus = parallelCorpus.getTargetCorpus();
+		Alignments alignments = parallelCorpus.getAlignments();
+		
+		StringBuilder s;
+		if (LOGGING_FINEST) {
+			s = new StringBuilder();
+			s.append("lexProb( ");
+			s.append(sourcePhrases.getPattern().toString());
+			s.append(" | ");
+			s.append(targetPhrase.toString());
+			s.append(" )  =  1.0");
+		} else {
+			s = null;
+		}
+		
+		float targetGivenSource = 1.0f;
+
+		// Iterate over each terminal sequence in the target phrase
+		for (int seq=0; seq<targetPhrase.getNumberOfTerminalSequences(); seq++) {
+			
+			// Iterate over each source index in the current terminal sequence
+			for (int targetWordIndex=targetPhrase.getTerminalSequenceStartIndex(seq),
+						end=targetPhrase.getTerminalSequenceEndIndex(seq);
+					targetWordIndex<end; 
+					targetWordIndex++) {
+				
+				int targetWord = targetCorpus.getWordID(targetWordIndex);
+				int[] sourceIndices = alignments.getAlignedSourceIndices(targetWordIndex);
+				
+				float sum = 0.0f;
+				float average;
+				
+				if (LOGGING_FINEST) s.append(" * (");
+								
+				if (sourceIndices==null) {
+
+					sum += targetGivenSource(targetWord, null);
+					average = sum;
+					if (LOGGING_FINEST) s.append(sum);
+					
+				} else {
+					
+					for (int sourceIndex : sourceIndices) {
+
+						int sourceWord = sourceCorpus.getWordID(sourceIndex);
+						float value = targetGivenSource(targetWord, sourceWord);
+						sum += value;
+						if (LOGGING_FINEST) {
+							s.append('+');
+							s.append(value);
+						}
+					}
+					average = sum / sourceIndices.length;
+				}
+
+				if (LOGGING_FINEST) s.append(')');
+				targetGivenSource *= average;
+				
+			}
+			
+		}
+		
+		if (LOGGING_FINEST) logger.finest(s.toString());
+		
+		return targetGivenSource;
+	}
 }
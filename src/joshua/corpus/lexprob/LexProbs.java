@@ -246,123 +246,12 @@ public class LexProbs extends AbstractLexProbs {
 	
 	/* See Javadoc for LexicalProbabilities#lexProbSourceGivenTarget(MatchedHierarchicalPhrases,int,HierarchicalPhrase). */
 	public float lexProbSourceGivenTarget(MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
-		
-		float sourceGivenTarget = 1.0f;
-		
-		Corpus sourceCorpus = parallelCorpus.getSourceCorpus();
-		Corpus targetCorpus = parallelCorpus.getTargetCorpus();
-		Alignments alignments = parallelCorpus.getAlignments();
-		
-		// Iterate over each terminal sequence in the source phrase
-		for (int seq=0; seq<sourcePhrases.getNumberOfTerminalSequences(); seq++) {
-			
-			// Iterate over each source index in the current terminal sequence
-			for (int sourceWordIndex=sourcePhrases.getTerminalSequenceStartIndex(sourcePhraseIndex, seq),
-						end=sourcePhrases.getTerminalSequenceEndIndex(sourcePhraseIndex, seq);
-					sourceWordIndex<end; 
-					sourceWordIndex++) {
-				
-								
-				int sourceWord = sourceCorpus.getWordID(sourceWordIndex);
-				int[] targetIndices = alignments.getAlignedTargetIndices(sourceWordIndex);
-				
-				float sum = 0.0f;
-				float average;
-				
-				if (targetIndices==null) {
-					
-					sum += this.sourceGivenTarget(sourceWord, null);
-					average = sum;
-					
-				} else {
-					for (int targetIndex : targetIndices) {
-
-						int targetWord = targetCorpus.getWordID(targetIndex);
-						sum += sourceGivenTarget(sourceWord, targetWord);
-						
-					}
-					average = sum / targetIndices.length;
-				}
-				
-				sourceGivenTarget *= average;
-			}
-			
-		}
-		
-		return sourceGivenTarget;
+		return lexProbSourceGivenTarget(parallelCorpus, sourcePhrases, sourcePhraseIndex, targetPhrase);
 	}
 
 	/* See Javadoc for LexicalProbabilities#lexProbTargetGivenSource(MatchedHierarchicalPhrases,int,HierarchicalPhrase). */
 	public float lexProbTargetGivenSource(MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
-		
-		final boolean LOGGING_FINEST = logger.isLoggable(Level.FINEST);
-		
-		Corpus sourceCorpus = parallelCorpus.getSourceCorpus();
-		Corpus targetCorpus = parallelCorpus.getTargetCorpus();
-		Alignments alignments = parallelCorpus.getAlignments();
-		
-		StringBuilder s;
-		if (LOGGING_FINEST) {
-			s = new StringBuilder();
-			s.append("lexProb( ");
-			s.append(sourcePhrases.getPattern().toString());
-			s.append(" | ");
-			s.append(targetPhrase.toString());
-			s.append(" )  =  1.0");
-		} else {
-			s = null;
-		}
-		
-		float targetGivenSource = 1.0f;
-
-		// Iterate over each terminal sequence in the target phrase
-		for (int seq=0; seq<targetPhrase.getNumberOfTerminalSequences(); seq++) {
-			
-			// Iterate over each source index in the current terminal sequence
-			for (int targetWordIndex=targetPhrase.getTerminalSequenceStartIndex(seq),
-						end=targetPhrase.getTerminalSequenceEndIndex(seq);
-					targetWordIndex<end; 
-					targetWordIndex++) {
-				
-				int targetWord = targetCorpus.getWordID(targetWordIndex);
-				int[] sourceIndices = alignments.getAlignedSourceIndices(targetWordIndex);
-				
-				float sum = 0.0f;
-				float average;
-				
-				if (LOGGING_FINEST) s.append(" * (");
-								
-				if (sourceIndices==null) {
-
-					sum += targetGivenSource(targetWord, null);
-					average = sum;
-					if (LOGGING_FINEST) s.append(sum);
-					
-				} else {
-					
-					for (int sourceIndex : sourceIndices) {
-
-						int sourceWord = sourceCorpus.getWordID(sourceIndex);
-						float value = targetGivenSource(targetWord, sourceWord);
-						sum += value;
-						if (LOGGING_FINEST) {
-							s.append('+');
-							s.append(value);
-						}
-					}
-					average = sum / sourceIndices.length;
-				}
-
-				if (LOGGING_FINEST) s.append(')');
-				targetGivenSource *= average;
-				
-			}
-			
-		}
-		
-		if (LOGGING_FINEST) logger.finest(s.toString());
-		
-		return targetGivenSource;
+		return lexProbTargetGivenSource(parallelCorpus, sourcePhrases, sourcePhraseIndex, targetPhrase);
 	}
 
 	/* See Javadoc for LexicalProbabilities#getFloorProbability. */
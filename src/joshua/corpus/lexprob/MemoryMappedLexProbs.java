@@ -0,0 +1,345 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.lexprob;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.MatchedHierarchicalPhrases;
+import joshua.corpus.ParallelCorpus;
+import joshua.corpus.suffix_array.HierarchicalPhrase;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.util.Pair;
+import joshua.util.io.BinaryOut;
+import joshua.util.io.MappedBuffer;
+
+/**
+ * Represents lexical probability distributions in both directions.
+ * <p>
+ * This class reads the probabilities from a memory-mapped table
+ * written ahead of time by <code>write</code>, so it needs no
+ * warmup, takes no heap for the table, and can share the table
+ * with any other process that maps the same file.
+ * <p>
+ * Each direction is stored in compressed sparse row form. The
+ * row of a word holds the words it co-occurs with, sorted by
+ * symbol id, and the probability of each, so a lookup is a
+ * binary search within one row. Row 0 holds the distribution
+ * of the NULL word, and row <code>w+1</code> that of word
+ * <code>w</code>.
+ * <p>
+ * The file is laid out as big-endian ints and floats: the
+ * magic number, then for each of p(source | target) and
+ * p(target | source) the number of rows and of entries; then
+ * for each direction in the same order, the offset of each
+ * row followed by a final offset, the column of each entry,
+ * and the probability of each entry.
+ * 
+ * @version $LastChangedDate$
+ */
+public class MemoryMappedLexProbs extends AbstractLexProbs {
+
+	/** Logger for this class. */
+	private static final Logger logger = 
+		Logger.getLogger(MemoryMappedLexProbs.class.getName());
+	
+	/** First four bytes of a binary lexical translation table. */
+	static final int MAGIC = 0x4A4C5831;
+	
+	/** Column under which the NULL word is stored. */
+	private static final int NULL_COLUMN = Integer.MIN_VALUE;
+	
+	/** Number of bytes in the file header. */
+	private static final int HEADER_SIZE = 20;
+	
+	/** Source language symbol table. */
+	protected final SymbolTable sourceVocab;
+	
+	/** Target language symbol table. */
+	protected final SymbolTable targetVocab;
+	
+	/** Aligned parallel corpus. */
+	protected final ParallelCorpus parallelCorpus;
+	
+	/** 
+	 * The probability returned when no calculated lexical
+	 * translation probability is known.
+	 */
+	protected final float floorProbability;
+	
+	/** Mapped lexical translation table. */
+	private final MappedBuffer buffer;
+	
+	/** Probabilities of source words, in rows by target word. */
+	private final Table sourceGivenTarget;
+	
+	/** Probabilities of target words, in rows by source word. */
+	private final Table targetGivenSource;
+	
+	/**
+	 * Maps a lexical translation table written by
+	 * <code>write</code>.
+	 * 
+	 * @param fileName Binary lexical translation table
+	 * @param parallelCorpus Aligned parallel corpus from which
+	 *                       the table was computed
+	 * @param floorProbability Probability returned for
+	 *                       word pairs not in the table
+	 * @throws IOException
+	 */
+	public MemoryMappedLexProbs(String fileName, ParallelCorpus parallelCorpus, float floorProbability) throws IOException {
+		
+		this.buffer = new MappedBuffer(fileName);
+		if (buffer.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a binary lexical translation table: " + fileName);
+		}
+		
+		int sourceGivenTargetRows = buffer.getInt(4);
+		int sourceGivenTargetEntries = buffer.getInt(8);
+		int targetGivenSourceRows = buffer.getInt(12);
+		int targetGivenSourceEntries = buffer.getInt(16);
+		
+		this.sourceGivenTarget = new Table(HEADER_SIZE, sourceGivenTargetRows, sourceGivenTargetEntries);
+		this.targetGivenSource = new Table(sourceGivenTarget.end, targetGivenSourceRows, targetGivenSourceEntries);
+		
+		if (targetGivenSource.end != buffer.size()) {
+			throw new IOException("Truncated binary lexical translation table: " + fileName);
+		}
+		
+		this.parallelCorpus = parallelCorpus;
+		this.sourceVocab = parallelCorpus.getSourceCorpus().getVocabulary();
+		this.targetVocab = parallelCorpus.getTargetCorpus().getVocabulary();
+		this.floorProbability = floorProbability;
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Mapped " + sourceGivenTargetEntries + " lexical translation probabilities from " + fileName);
+	}
+	
+	/**
+	 * Writes the lexical translation probabilities of every
+	 * word pair seen in a parallel corpus, as a table that can
+	 * be mapped by this class.
+	 * 
+	 * @param fileName File to write the table to
+	 * @param lexProbs Lexical translation probabilities
+	 *                 counted from the parallel corpus
+	 * @throws IOException
+	 */
+	public static void write(String fileName, LexProbs lexProbs) throws IOException {
+		
+		// Each entry is kept as its column in the upper half of a
+		// long and its probability in the lower half, so that
+		// sorting the entries of a row sorts them by column
+		int sourceGivenTargetRows = 1, targetGivenSourceRows = 1, numEntries = 0;
+		for (Pair<Integer,Integer> pair : lexProbs.getCounts()) {
+			sourceGivenTargetRows = Math.max(sourceGivenTargetRows, getRow(pair.second) + 1);
+			targetGivenSourceRows = Math.max(targetGivenSourceRows, getRow(pair.first) + 1);
+			numEntries++;
+		}
+		
+		int[] sourceGivenTargetOffsets = new int[sourceGivenTargetRows + 1];
+		int[] targetGivenSourceOffsets = new int[targetGivenSourceRows + 1];
+		for (Pair<Integer,Integer> pair : lexProbs.getCounts()) {
+			sourceGivenTargetOffsets[getRow(pair.second) + 1]++;
+			targetGivenSourceOffsets[getRow(pair.first) + 1]++;
+		}
+		for (int row = 0; row < sourceGivenTargetRows; row++) {
+			sourceGivenTargetOffsets[row + 1] += sourceGivenTargetOffsets[row];
+		}
+		for (int row = 0; row < targetGivenSourceRows; row++) {
+			targetGivenSourceOffsets[row + 1] += targetGivenSourceOffsets[row];
+		}
+		
+		long[] sourceGivenTargetEntries = new long[numEntries];
+		long[] targetGivenSourceEntries = new long[numEntries];
+		int[] sourceGivenTargetFilled = Arrays.copyOf(sourceGivenTargetOffsets, sourceGivenTargetRows);
+		int[] targetGivenSourceFilled = Arrays.copyOf(targetGivenSourceOffsets, targetGivenSourceRows);
+		for (Pair<Integer,Integer> pair : lexProbs.getCounts()) {
+			Integer sourceWord = pair.first;
+			Integer targetWord = pair.second;
+			sourceGivenTargetEntries[sourceGivenTargetFilled[getRow(targetWord)]++] = 
+				toEntry(sourceWord, lexProbs.sourceGivenTarget(sourceWord, targetWord));
+			targetGivenSourceEntries[targetGivenSourceFilled[getRow(sourceWord)]++] = 
+				toEntry(targetWord, lexProbs.targetGivenSource(targetWord, sourceWord));
+		}
+		for (int row = 0; row < sourceGivenTargetRows; row++) {
+			Arrays.sort(sourceGivenTargetEntries, sourceGivenTargetOffsets[row], sourceGivenTargetOffsets[row + 1]);
+		}
+		for (int row = 0; row < targetGivenSourceRows; row++) {
+			Arrays.sort(targetGivenSourceEntries, targetGivenSourceOffsets[row], targetGivenSourceOffsets[row + 1]);
+		}
+		
+		BinaryOut out = new BinaryOut(new FileOutputStream(fileName), false);
+		out.writeInt(MAGIC);
+		out.writeInt(sourceGivenTargetRows);
+		out.writeInt(numEntries);
+		out.writeInt(targetGivenSourceRows);
+		out.writeInt(numEntries);
+		writeTable(out, sourceGivenTargetOffsets, sourceGivenTargetEntries);
+		writeTable(out, targetGivenSourceOffsets, targetGivenSourceEntries);
+		out.close();
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Wrote " + numEntries + " lexical translation probabilities to " + fileName);
+	}
+	
+	private static void writeTable(BinaryOut out, int[] offsets, long[] entries) throws IOException {
+		for (int offset : offsets) {
+			out.writeInt(offset);
+		}
+		for (long entry : entries) {
+			out.writeInt((int) (entry >> 32));
+		}
+		for (long entry : entries) {
+			out.writeInt((int) entry);
+		}
+	}
+	
+	private static long toEntry(Integer word, float probability) {
+		int column = (word == null) ? NULL_COLUMN : word;
+		return ((long) column << 32) | (Float.floatToIntBits(probability) & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Gets the row holding the distribution of a word.
+	 * 
+	 * @return the row of the word, or -1 if it is a nonterminal
+	 */
+	private static int getRow(Integer word) {
+		if (word == null) {
+			return 0;
+		} else if (word < 0) {
+			return -1;
+		} else {
+			return word + 1;
+		}
+	}
+	
+	/* See Javadoc for LexicalProbabilities#sourceGivenTarget(Integer,Integer). */
+	public float sourceGivenTarget(Integer sourceWord, Integer targetWord) {
+		return sourceGivenTarget.get(targetWord, sourceWord);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#targetGivenSource(Integer,Integer). */
+	public float targetGivenSource(Integer targetWord, Integer sourceWord) {
+		return targetGivenSource.get(sourceWord, targetWord);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#sourceGivenTarget(String,String). */
+	public float sourceGivenTarget(String sourceWord, String targetWord) {
+		Integer targetID = (targetWord==null) ? null : targetVocab.getID(targetWord);
+		Integer sourceID = (sourceWord==null) ? null : sourceVocab.getID(sourceWord);
+		
+		return sourceGivenTarget(sourceID, targetID);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#targetGivenSource(String,String). */
+	public float targetGivenSource(String targetWord, String sourceWord) {
+		Integer targetID = (targetWord==null) ? null : targetVocab.getID(targetWord);
+		Integer sourceID = (sourceWord==null) ? null : sourceVocab.getID(sourceWord);
+		
+		return targetGivenSource(targetID, sourceID);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#lexProbSourceGivenTarget(MatchedHierarchicalPhrases,int,HierarchicalPhrase). */
+	public float lexProbSourceGivenTarget(MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
+		return lexProbSourceGivenTarget(parallelCorpus, sourcePhrases, sourcePhraseIndex, targetPhrase);
+	}
+
+	/* See Javadoc for LexicalProbabilities#lexProbTargetGivenSource(MatchedHierarchicalPhrases,int,HierarchicalPhrase). */
+	public float lexProbTargetGivenSource(MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
+		return lexProbTargetGivenSource(parallelCorpus, sourcePhrases, sourcePhraseIndex, targetPhrase);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#getFloorProbability. */
+	public float getFloorProbability() {
+		return floorProbability;
+	}
+	
+	public SymbolTable getSourceVocab() {
+		return sourceVocab;
+	}
+	
+	public SymbolTable getTargetVocab() {
+		return targetVocab;
+	}
+	
+	/**
+	 * The mapped table is read only.
+	 * 
+	 * @throws UnsupportedOperationException
+	 */
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		throw new UnsupportedOperationException("A memory-mapped lexical translation table cannot be read from a stream");
+	}
+	
+	/**
+	 * The table is written by <code>write</code> instead.
+	 * 
+	 * @throws UnsupportedOperationException
+	 */
+	public void writeExternal(ObjectOutput out) throws IOException {
+		throw new UnsupportedOperationException("A memory-mapped lexical translation table is written with MemoryMappedLexProbs.write");
+	}
+	
+	
+	/** One direction of the mapped table. */
+	private class Table {
+		
+		final int numRows;
+		final long offsets, columns, values, end;
+		
+		Table(long start, int numRows, int numEntries) {
+			this.numRows = numRows;
+			this.offsets = start;
+			this.columns = offsets + 4L * (numRows + 1);
+			this.values = columns + 4L * numEntries;
+			this.end = values + 4L * numEntries;
+		}
+		
+		/**
+		 * Gets the probability of a word given the word of a row.
+		 */
+		float get(Integer rowWord, Integer word) {
+			int row = getRow(rowWord);
+			if (row < 0 || row >= numRows) {
+				return floorProbability;
+			}
+			
+			int column = (word == null) ? NULL_COLUMN : word;
+			int low = buffer.getInt(offsets + 4L * row);
+			int high = buffer.getInt(offsets + 4L * (row + 1)) - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int value = buffer.getInt(columns + 4L * middle);
+				if (value < column) {
+					low = middle + 1;
+				} else if (value > column) {
+					high = middle - 1;
+				} else {
+					return buffer.getFloat(values + 4L * middle);
+				}
+			}
+			
+			return floorProbability;
+		}
+	}
+}
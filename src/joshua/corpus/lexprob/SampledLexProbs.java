@@ -40,7 +40,9 @@ import joshua.corpus.suffix_array.SuffixArray;
 import joshua.corpus.suffix_array.SuffixArrayFactory;
 import joshua.corpus.suffix_array.Suffixes;
 import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
 import joshua.util.Cache;
+import joshua.util.ConcurrentCache;
 import joshua.util.Pair;
 
 
@@ -59,8 +61,8 @@ public class SampledLexProbs extends AbstractLexProbs {
 	/** Logger for this class. */
 	private static final Logger logger = Logger.getLogger(SampledLexProbs.class.getName());
 	
-	private final Cache<Integer,Map<Integer,Float>> sourceGivenTarget;
-	private final Cache<Integer,Map<Integer,Float>> targetGivenSource;
+	private final ConcurrentCache<Integer,Map<Integer,Float>> sourceGivenTarget;
+	private final ConcurrentCache<Integer,Map<Integer,Float>> targetGivenSource;
 	
 	private final Suffixes sourceSuffixArray;
 	private final Suffixes targetSuffixArray;
@@ -99,8 +101,9 @@ public class SampledLexProbs extends AbstractLexProbs {
 		this.targetVocab = targetSuffixArray.getVocabulary();
 		this.thresholdProbability = 1.0f/(sampleSize*100); //TODO come up with a good value for this
 		this.floorProbability = 1.0f/(sampleSize*100);
-		this.sourceGivenTarget = new Cache<Integer,Map<Integer,Float>>(cacheCapacity);
-		this.targetGivenSource = new Cache<Integer,Map<Integer,Float>>(cacheCapacity);
+		int concurrency = 4 * Math.max(1, JoshuaConfiguration.num_parallel_decoders);
+		this.sourceGivenTarget = new ConcurrentCache<Integer,Map<Integer,Float>>(cacheCapacity, concurrency);
+		this.targetGivenSource = new ConcurrentCache<Integer,Map<Integer,Float>>(cacheCapacity, concurrency);
 		
 		if (precalculate) {
 		
@@ -217,13 +220,13 @@ public class SampledLexProbs extends AbstractLexProbs {
 		
 		if (logger.isLoggable(Level.FINE)) logger.fine("Need to get source given target lexprob p(" + sourceVocab.getWord(sourceWord) + " | " +  targetVocab.getWord(targetWord) + "); sourceWord ID == " + sourceWord + "; targetWord ID == " + targetWord);
 				
-		if (!sourceGivenTarget.containsKey(targetWord)) {
-			calculateSourceGivenTarget(targetWord);
+		Map<Integer,Float> map = sourceGivenTarget.get(targetWord);
+		if (map == null) {
+			map = calculateSourceGivenTarget(targetWord);
 		}
 		
-		Map<Integer,Float> map = sourceGivenTarget.get(targetWord);
 		if (map.containsKey(sourceWord)) {
-			return sourceGivenTarget.get(targetWord).get(sourceWord);
+			return map.get(sourceWord);
 		} else {
 			if (logger.isLoggable(Level.FINE)) logger.fine("No source given target lexprob found for p(" + sourceVocab.getWord(sourceWord) + " | " + targetVocab.getWord(targetWord) + "); returning FLOOR_PROBABILITY " + floorProbability);
 			return floorProbability;
@@ -241,11 +244,11 @@ public class SampledLexProbs extends AbstractLexProbs {
 		
 		if (logger.isLoggable(Level.FINE)) logger.fine("Need to get target given source lexprob p(" + targetVocab.getWord(targetWord) + " | " + sourceVocab.getWord(sourceWord) + "); sourceWord ID == " + sourceWord + "; targetWord ID == " + targetWord);
 		
-		if (!targetGivenSource.containsKey(sourceWord)) {
-			calculateTargetGivenSource(sourceWord);
+		Map<Integer,Float> map = targetGivenSource.get(sourceWord);
+		if (map == null) {
+			map = calculateTargetGivenSource(sourceWord);
 		}
 
-		Map<Integer,Float> map = targetGivenSource.get(sourceWord);
 		if (map.containsKey(targetWord)) {
 			return map.get(targetWord);
 		} else {
@@ -420,11 +423,13 @@ public class SampledLexProbs extends AbstractLexProbs {
 	
 	
 	/**
-	 * Calculates the lexical probabilities for a target word.
+	 * Calculates and caches the lexical probabilities for a
+	 * target word.
 	 * 
 	 * @param targetWord
+	 * @return the probabilities of the source words
 	 */
-	private void calculateSourceGivenTarget(Integer targetWord) {
+	private Map<Integer,Float> calculateSourceGivenTarget(Integer targetWord) {
 
 		Map<Integer,Integer> counts = new HashMap<Integer,Integer>();
 		
@@ -472,9 +477,17 @@ public class SampledLexProbs extends AbstractLexProbs {
 			}
 		}
 		sourceGivenTarget.put(targetWord, sourceProbs);
+		return sourceProbs;
 	}
 	
-	private void calculateTargetGivenSource(int sourceWord) {
+	/**
+	 * Calculates and caches the lexical probabilities for a
+	 * source word.
+	 * 
+	 * @param sourceWord
+	 * @return the probabilities of the target words
+	 */
+	private Map<Integer,Float> calculateTargetGivenSource(int sourceWord) {
 
 		if (logger.isLoggable(Level.FINE)) logger.fine("Calculating lexprob distribution P( TARGET | " + sourceVocab.getWord(sourceWord) + "); sourceWord ID == " + sourceWord);
 				
@@ -532,6 +545,7 @@ public class SampledLexProbs extends AbstractLexProbs {
 		}
 		if (logger.isLoggable(Level.FINER)) logger.finer("Storing " + targetProbs.size() + " probabilities for lexprob distribution P( TARGET | " + sourceVocab.getWord(sourceWord) + ")");
 		targetGivenSource.put(sourceWord, targetProbs);
+		return targetProbs;
 		
 	}
 
@@ -322,8 +322,9 @@ public abstract class AbstractHierarchicalPhrases implements
 			logger.finer("queryIntersect("+pattern+" M_a_alpha.size=="+M_a_alpha.size() + ", M_alpha_b.size=="+M_alpha_b.size());			
 		}
 		
-		if (sourceSuffixArray!=null && sourceSuffixArray.getCachedHierarchicalPhrases().containsKey(pattern)) {
-			return sourceSuffixArray.getCachedHierarchicalPhrases().get(pattern);
+		MatchedHierarchicalPhrases cached = (sourceSuffixArray==null) ? null : sourceSuffixArray.getCachedHierarchicalPhrases().get(pattern);
+		if (cached != null) {
+			return cached;
 		} else {
 
 			// results is M_{a_alpha_b} in the paper
@@ -26,8 +26,9 @@ import joshua.corpus.Corpus;
 import joshua.corpus.MatchedHierarchicalPhrases;
 import joshua.corpus.Phrase;
 import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
 import joshua.decoder.ff.tm.Rule;
-import joshua.util.Cache;
+import joshua.util.ConcurrentCache;
 
 /**
  * This class provides a mostly-complete implementation of the
@@ -54,19 +55,23 @@ public abstract class AbstractSuffixArray implements Suffixes {
 	 * <p>
 	 * This cache is a most-recently accessed map, so commonly
 	 * accessed patterns will remain in the cache, while rare
-	 * patterns will eventually drop out of the cache.
+	 * patterns will eventually drop out of the cache. It is
+	 * shared by all threads extracting rules from this suffix
+	 * array.
 	 */
-	protected final Cache<Pattern,MatchedHierarchicalPhrases> hierarchicalPhraseCache;
+	protected final ConcurrentCache<Pattern,MatchedHierarchicalPhrases> hierarchicalPhraseCache;
 	
 	/**
-	 * Maps from patterns to lists of hierarchical phrases that
-	 * match the corresponding pattern in the corpus.
+	 * Maps from patterns to the translation rules extracted
+	 * for the corresponding pattern in the corpus.
 	 * <p>
 	 * This cache is a most-recently accessed map, so commonly
 	 * accessed patterns will remain in the cache, while rare
-	 * patterns will eventually drop out of the cache.
+	 * patterns will eventually drop out of the cache. It is
+	 * shared by all threads extracting rules from this suffix
+	 * array.
 	 */
-	protected final Cache<Pattern,List<Rule>> ruleCache;
+	protected final ConcurrentCache<Pattern,List<Rule>> ruleCache;
 	
 	/**
 	 * Integer array representation of the corpus for this
@@ -85,32 +90,95 @@ public abstract class AbstractSuffixArray implements Suffixes {
 	 * @param hierarchicalPhraseCache Cache to store matched
 	 *               hierarchical phrases for frequently accessed
 	 *               patterns
+	 * @param ruleCache Cache to store the rules extracted for
+	 *               frequently accessed patterns
 	 */
 	public AbstractSuffixArray(
 			Corpus corpus, 
-			Cache<Pattern,MatchedHierarchicalPhrases> hierarchicalPhraseCache, 
-			Cache<Pattern,List<Rule>> ruleCache) {
+			ConcurrentCache<Pattern,MatchedHierarchicalPhrases> hierarchicalPhraseCache, 
+			ConcurrentCache<Pattern,List<Rule>> ruleCache) {
 		
 		this.hierarchicalPhraseCache = hierarchicalPhraseCache;
 		this.ruleCache = ruleCache;
 		this.corpus = corpus;
 	}
 	
+	/**
+	 * Constructs an abstract suffix array based on the provided
+	 * corpus, with caches of the given size.
+	 * <p>
+	 * If JoshuaConfiguration.sa_cache_memory is positive, each
+	 * cache holds up to that many megabytes, as estimated from
+	 * the sizes of its entries; otherwise each cache holds up
+	 * to maxCacheSize entries.
+	 * 
+	 * @param corpus Corpus upon which this suffix array is based.
+	 * @param maxCacheSize Number of entries in each cache, if
+	 *               the caches are not bounded by memory
+	 */
+	public AbstractSuffixArray(Corpus corpus, int maxCacheSize) {
+		this(corpus, 
+				AbstractSuffixArray.<MatchedHierarchicalPhrases>newCache(maxCacheSize, MATCHED_PHRASES_WEIGHER), 
+				AbstractSuffixArray.<List<Rule>>newCache(maxCacheSize, RULES_WEIGHER));
+	}
+	
+	private static <V> ConcurrentCache<Pattern,V> newCache(int maxCacheSize, ConcurrentCache.Weigher<Pattern,V> weigher) {
+		int concurrency = 4 * Math.max(1, JoshuaConfiguration.num_parallel_decoders);
+		if (JoshuaConfiguration.sa_cache_memory > 0) {
+			return new ConcurrentCache<Pattern,V>((long) JoshuaConfiguration.sa_cache_memory << 20, concurrency, weigher);
+		} else {
+			return new ConcurrentCache<Pattern,V>(maxCacheSize, concurrency);
+		}
+	}
+	
+	/** Estimated number of bytes taken by a pattern. */
+	private static long bytes(Pattern pattern) {
+		return 48 + 4 * pattern.size();
+	}
+	
+	/** 
+	 * Estimates the number of bytes taken by the matches of a
+	 * pattern: for each match, the start of each terminal
+	 * sequence and the sentence number.
+	 */
+	private static final ConcurrentCache.Weigher<Pattern,MatchedHierarchicalPhrases> MATCHED_PHRASES_WEIGHER =
+		new ConcurrentCache.Weigher<Pattern,MatchedHierarchicalPhrases>() {
+			public long weigh(Pattern pattern, MatchedHierarchicalPhrases phrases) {
+				return bytes(pattern) + 64 
+					+ 4L * phrases.size() * (phrases.getNumberOfTerminalSequences() + 1);
+			}
+		};
+	
+	/** Estimates the number of bytes taken by a list of rules. */
+	private static final ConcurrentCache.Weigher<Pattern,List<Rule>> RULES_WEIGHER =
+		new ConcurrentCache.Weigher<Pattern,List<Rule>>() {
+			public long weigh(Pattern pattern, List<Rule> rules) {
+				long bytes = bytes(pattern) + 32 + 8 * rules.size();
+				for (Rule rule : rules) {
+					bytes += 128 + 4 * rule.getFrench().length;
+					if (rule.getEnglish() != null) bytes += 4 * rule.getEnglish().length;
+					if (rule.getFeatureScores() != null) bytes += 4 * rule.getFeatureScores().length;
+				}
+				return bytes;
+			}
+		};
+	
 	/* See Javadoc for Suffixes interface.*/
-	public Cache<Pattern,MatchedHierarchicalPhrases> getCachedHierarchicalPhrases() {
+	public ConcurrentCache<Pattern,MatchedHierarchicalPhrases> getCachedHierarchicalPhrases() {
 		return hierarchicalPhraseCache;
 	}
 
 	/* See Javadoc for Suffixes interface.*/
-	public Cache<Pattern,List<Rule>> getCachedRules() {
+	public ConcurrentCache<Pattern,List<Rule>> getCachedRules() {
 		return this.ruleCache;
 	}
 	
 	/* See Javadoc for Suffixes interface.*/
 	public MatchedHierarchicalPhrases createHierarchicalPhrases(Pattern pattern, int minNonterminalSpan, int maxPhraseSpan) {
 		
-		if (hierarchicalPhraseCache.containsKey(pattern)) {
-			return hierarchicalPhraseCache.get(pattern);
+		MatchedHierarchicalPhrases cached = hierarchicalPhraseCache.get(pattern);
+		if (cached != null) {
+			return cached;
 		} else {
 
 			int arity = pattern.arity();
@@ -187,9 +255,10 @@ public abstract class AbstractSuffixArray implements Suffixes {
 	public MatchedHierarchicalPhrases createTriviallyHierarchicalPhrases(int[] startPositions,
 			Pattern pattern, SymbolTable vocab) {
 
-			if (hierarchicalPhraseCache.containsKey(pattern)) {
+			MatchedHierarchicalPhrases cached = hierarchicalPhraseCache.get(pattern);
+			if (cached != null) {
 				if (logger.isLoggable(Level.FINEST)) logger.finest("Cache has " + hierarchicalPhraseCache.size() + " entries, and did contain pattern:    	" + pattern.toString());
-				return hierarchicalPhraseCache.get(pattern);
+				return cached;
 			} else {
 				if (logger.isLoggable(Level.FINEST)) logger.finest("Cache has " + hierarchicalPhraseCache.size() + " entries, but did not contain pattern:	" + pattern.toString());
 				// In the case of contiguous phrases, 
@@ -0,0 +1,287 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.suffix_array;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.MatchedHierarchicalPhrases;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.util.io.BinaryOut;
+
+/**
+ * Memory-mapped index of the precomputed matchings of the most
+ * frequent collocations in a corpus, that is, of the patterns
+ * <code>u X v</code> where <code>u</code> and <code>v</code> are
+ * frequent contiguous phrases.
+ * <p>
+ * Intersecting the matchings of two frequent phrases is the
+ * costliest query made while building a prefix tree. Following
+ * Lopez (2008), the matchings of the most frequent collocations
+ * are instead computed once, when the corpus is compiled, and
+ * looked up when a prefix tree needs them.
+ * <p>
+ * The matchings are computed with the same suffix array lookups
+ * and query intersections as a prefix tree would use, so they
+ * are only valid for the minimum nonterminal span and maximum
+ * phrase span with which the index was written.
+ * <p>
+ * The file is laid out as big-endian ints: first the matchings of
+ * each pattern (the start position of each terminal sequence of
+ * each matching, then the sentence number of each matching),
+ * then a directory giving the words, number of matchings and
+ * data offset of each pattern, and last a trailer holding the
+ * minimum nonterminal span, maximum phrase span, number of
+ * patterns, and directory offset.
+ *
+ * @version $LastChangedDate$
+ */
+public class CollocationIndex {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(CollocationIndex.class.getName());
+
+	/** Number of ints in the trailer of the file. */
+	private static final int TRAILER_SIZE = 4;
+
+	/** Matchings of each pattern, followed by the directory. */
+	private final IntBuffer buffer;
+
+	/** Offset and number of matchings of each indexed pattern. */
+	private final Map<Pattern,int[]> directory;
+
+	private final int minNonterminalSpan;
+	private final int maxPhraseSpan;
+
+	/**
+	 * Memory-maps an index written by <code>write</code>.
+	 *
+	 * @param filename Index file
+	 * @param vocab Symbol table of the source corpus
+	 * @throws IOException
+	 */
+	public CollocationIndex(String filename, SymbolTable vocab) throws IOException {
+
+		RandomAccessFile binaryFile = new RandomAccessFile(filename, "r");
+		FileChannel binaryChannel = binaryFile.getChannel();
+
+		this.buffer = binaryChannel.map(FileChannel.MapMode.READ_ONLY, 0, binaryChannel.size()).asIntBuffer().asReadOnlyBuffer();
+		binaryFile.close();
+
+		int trailer = buffer.limit() - TRAILER_SIZE;
+		this.minNonterminalSpan = buffer.get(trailer);
+		this.maxPhraseSpan = buffer.get(trailer + 1);
+		int numPatterns = buffer.get(trailer + 2);
+		int position = buffer.get(trailer + 3);
+
+		this.directory = new HashMap<Pattern,int[]>(numPatterns * 2);
+		for (int i = 0; i < numPatterns; i++) {
+			int[] words = new int[buffer.get(position++)];
+			for (int j = 0; j < words.length; j++) {
+				words[j] = buffer.get(position++);
+			}
+			int size = buffer.get(position++);
+			int offset = buffer.get(position++);
+			directory.put(new Pattern(vocab, words), new int[] { offset, size });
+		}
+
+		if (logger.isLoggable(Level.INFO)) logger.info("Mapped precomputed matchings of " + numPatterns + " collocations from " + filename);
+	}
+
+	/**
+	 * Gets the precomputed matchings of a pattern.
+	 *
+	 * @param pattern Pattern with a single nonterminal
+	 *                between two terminal sequences
+	 * @return the matchings of the pattern, or null if the
+	 *         pattern is not in this index
+	 */
+	public MatchedHierarchicalPhrases get(Pattern pattern) {
+
+		int[] entry = directory.get(pattern);
+		if (entry == null) {
+			return null;
+		}
+		int offset = entry[0];
+		int size = entry[1];
+
+		// Each thread reads through its own view of the buffer
+		IntBuffer data = buffer.duplicate();
+		data.position(offset);
+
+		int[] startPositions = new int[size * pattern.getTerminalSequenceLengths().length];
+		data.get(startPositions);
+		int[] sentenceNumbers = new int[size];
+		data.get(sentenceNumbers);
+
+		return new HierarchicalPhrases(pattern, startPositions, sentenceNumbers);
+	}
+
+	/** Gets the number of patterns in this index. */
+	public int size() {
+		return directory.size();
+	}
+
+	/**
+	 * Tells whether this index was computed with the given
+	 * constraints on the matchings.
+	 */
+	public boolean isCompatible(int minNonterminalSpan, int maxPhraseSpan) {
+		return this.minNonterminalSpan == minNonterminalSpan
+			&& this.maxPhraseSpan == maxPhraseSpan;
+	}
+
+	/**
+	 * Computes and writes the matchings of the most frequent
+	 * collocations of frequent phrases.
+	 *
+	 * @param filename File to write the index to
+	 * @param frequentPhrases Frequent phrases of the corpus
+	 *                        and their collocations
+	 * @param maxPatterns Number of collocations to index
+	 * @param maxPhraseLength Maximum number of terminals plus
+	 *                        nonterminals in an indexed pattern
+	 * @param minNonterminalSpan Minimum span of a nonterminal
+	 * @param maxPhraseSpan Maximum span of a matching
+	 * @throws IOException
+	 */
+	public static void write(String filename, FrequentPhrases frequentPhrases, int maxPatterns,
+			int maxPhraseLength, int minNonterminalSpan, int maxPhraseSpan) throws IOException {
+
+		Suffixes suffixes = frequentPhrases.getSuffixes();
+		SymbolTable vocab = suffixes.getVocabulary();
+
+		// Most frequent collocations first
+		List<HierarchicalPhrases> collocations = new ArrayList<HierarchicalPhrases>(frequentPhrases.getFrequentCollocations());
+		Collections.sort(collocations, new Comparator<HierarchicalPhrases>() {
+			public int compare(HierarchicalPhrases o1, HierarchicalPhrases o2) {
+				return (o1.size() == o2.size()) ? 0 : (o1.size() > o2.size() ? -1 : 1);
+			}
+		});
+
+		// The nonterminal of a collocation is whichever id the
+		// corpus vocabulary gave it, but prefix trees look for X
+		Set<Pattern> patterns = new LinkedHashSet<Pattern>();
+		for (HierarchicalPhrases collocation : collocations) {
+			if (patterns.size() >= maxPatterns) break;
+			int[] words = collocation.getPattern().getWordIDs().clone();
+			if (words.length > maxPhraseLength) continue;
+			for (int i = 0; i < words.length; i++) {
+				if (words[i] < 0) words[i] = SymbolTable.X;
+			}
+			patterns.add(new Pattern(vocab, words));
+		}
+
+		BinaryOut out = new BinaryOut(new FileOutputStream(filename), false);
+
+		List<int[]> entries = new ArrayList<int[]>(patterns.size());
+		int position = 0;
+		for (Pattern pattern : patterns) {
+			MatchedHierarchicalPhrases matchings = match(pattern, suffixes, minNonterminalSpan, maxPhraseSpan);
+
+			int size = matchings.size();
+			int numTerminalSequences = pattern.getTerminalSequenceLengths().length;
+			entries.add(new int[] { position, size });
+
+			for (int i = 0; i < size; i++) {
+				for (int j = 0; j < numTerminalSequences; j++) {
+					out.writeInt(matchings.getStartPosition(i, j));
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(matchings.getSentenceNumber(i));
+			}
+			position += size * (numTerminalSequences + 1);
+
+			if (logger.isLoggable(Level.FINE)) logger.fine("Precomputed " + size + " matchings of " + pattern);
+		}
+
+		int directoryOffset = position;
+		int index = 0;
+		for (Pattern pattern : patterns) {
+			int[] words = pattern.getWordIDs();
+			out.writeInt(words.length);
+			for (int word : words) {
+				out.writeInt(word);
+			}
+			int[] entry = entries.get(index++);
+			out.writeInt(entry[1]);
+			out.writeInt(entry[0]);
+		}
+
+		out.writeInt(minNonterminalSpan);
+		out.writeInt(maxPhraseSpan);
+		out.writeInt(patterns.size());
+		out.writeInt(directoryOffset);
+		out.close();
+
+		if (logger.isLoggable(Level.INFO)) logger.info("Wrote precomputed matchings of " + patterns.size() + " collocations to " + filename);
+	}
+
+	/**
+	 * Computes the matchings of a pattern the way a prefix tree
+	 * does, from the matchings of its prefix and suffix.
+	 */
+	private static MatchedHierarchicalPhrases match(Pattern pattern, Suffixes suffixes,
+			int minNonterminalSpan, int maxPhraseSpan) {
+
+		MatchedHierarchicalPhrases result = suffixes.getCachedHierarchicalPhrases().get(pattern);
+		if (result != null) {
+			return result;
+		}
+
+		SymbolTable vocab = suffixes.getVocabulary();
+		int[] words = pattern.getWordIDs();
+		int last = words.length - 1;
+
+		if (pattern.arity() == 0) {
+			int[] bounds = suffixes.findPhrase(pattern);
+			if (bounds == null) {
+				result = HierarchicalPhrases.emptyList(pattern);
+			} else {
+				result = suffixes.createTriviallyHierarchicalPhrases(suffixes.getAllPositions(bounds), pattern, vocab);
+			}
+		} else if (words[last] < 0) {
+			result = match(new Pattern(vocab, Arrays.copyOf(words, last)), suffixes, minNonterminalSpan, maxPhraseSpan).copyWithFinalX();
+		} else if (words[0] < 0) {
+			result = match(new Pattern(vocab, Arrays.copyOfRange(words, 1, words.length)), suffixes, minNonterminalSpan, maxPhraseSpan).copyWithInitialX();
+		} else {
+			MatchedHierarchicalPhrases prefix = match(new Pattern(vocab, Arrays.copyOf(words, last)), suffixes, minNonterminalSpan, maxPhraseSpan);
+			MatchedHierarchicalPhrases suffix = match(new Pattern(vocab, Arrays.copyOfRange(words, 1, words.length)), suffixes, minNonterminalSpan, maxPhraseSpan);
+			result = HierarchicalPhrases.queryIntersect(pattern, prefix, suffix, minNonterminalSpan, maxPhraseSpan, suffixes);
+		}
+
+		suffixes.cacheMatchingPhrases(result);
+		return result;
+	}
+}
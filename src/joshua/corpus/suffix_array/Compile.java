@@ -33,7 +33,7 @@ import joshua.corpus.CorpusArray;
 import joshua.corpus.ParallelCorpus;
 import joshua.corpus.alignment.AlignmentGrids;
 import joshua.corpus.lexprob.LexProbs;
-import joshua.corpus.lexprob.LexicalProbabilities;
+import joshua.corpus.lexprob.MemoryMappedLexProbs;
 import joshua.corpus.vocab.Vocabulary;
 import joshua.decoder.JoshuaConfiguration;
 import joshua.util.Cache;
@@ -60,6 +60,8 @@ public class Compile {
 	
 	private int minFrequency = 0;
 	private short maxPhrases = 100;
+	
+	private int maxCollocations = 1000;
 
 	private int maxPhraseLength = JoshuaConfiguration.sa_max_phrase_length;
 	
@@ -83,6 +85,10 @@ public class Compile {
 		this.maxPhrases = maxPhrases;
 	}
 	
+	public void setMaxCollocations(int maxCollocations) {
+		this.maxCollocations = maxCollocations;
+	}
+	
 	public void setMaxPhraseLength(int maxPhraseLength) {
 		this.maxPhraseLength = maxPhraseLength;
 	}
@@ -222,7 +228,7 @@ public class Compile {
 				ParallelCorpus parallelCorpus = new AlignedParallelCorpus(sourceCorpusArray, targetCorpusArray, grids);
 
 				if (logger.isLoggable(Level.INFO)) logger.info("Constructing lexprob table");
-				LexicalProbabilities lexProbs = 
+				LexProbs lexProbs = 
 					new LexProbs(parallelCorpus, Float.MIN_VALUE);
 
 				String lexprobsFilename = outputDirName + File.separator + "lexprobs.txt";
@@ -236,6 +242,11 @@ public class Compile {
 				ObjectOutput lexCountOut = new ObjectOutputStream(new FileOutputStream(binaryLexCountFilename));
 				lexProbs.writeExternal(lexCountOut);
 				lexCountOut.close();
+				
+				String binaryLexiconFilename = outputDirName + File.separator + "lexicon.bin";
+				if (logger.isLoggable(Level.INFO)) logger.info("Writing binary lexical translation table to disk at " + binaryLexiconFilename);
+				MemoryMappedLexProbs.write(binaryLexiconFilename, lexProbs);
+				out.println("Lexical translation table: " + binaryLexiconFilename);
 
 				String s = lexProbs.toString();
 
@@ -293,6 +304,15 @@ public class Compile {
 				BinaryOut frequentPhrasesOut = new BinaryOut(frequentPhrasesFilename);
 				frequentPhrases.writeExternal(frequentPhrasesOut);
 				frequentPhrasesOut.close();
+				
+				out.println("Frequent phrase locations: " + frequentPhrasesFilename);
+				
+				// Precompute and write matchings of the most frequent collocations to disk
+				String collocationsFilename = outputDirName + File.separator + "collocations";
+				if (logger.isLoggable(Level.INFO)) logger.info("Writing precomputed matchings of most frequent collocations at " + collocationsFilename);
+				CollocationIndex.write(collocationsFilename, frequentPhrases, maxCollocations, maxPhraseLength, minNonterminalSpan, maxPhraseSpan);
+				
+				out.println("Frequent collocation matchings: " + collocationsFilename);
 			}
 		}
 		
@@ -18,6 +18,11 @@
 package joshua.corpus.suffix_array;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
 
 import joshua.corpus.AlignedParallelCorpus;
 import joshua.corpus.Phrase;
@@ -27,7 +32,8 @@ import joshua.corpus.lexprob.LexProbs;
 import joshua.corpus.lexprob.LexicalProbabilities;
 import joshua.decoder.ff.FeatureFunction;
 import joshua.decoder.ff.tm.Grammar;
-import joshua.decoder.ff.tm.GrammarFactory;
+import joshua.decoder.ff.tm.DocumentGrammarFactory;
+import joshua.prefix_tree.BatchPrefixTree;
 import joshua.prefix_tree.HierarchicalRuleExtractor;
 import joshua.prefix_tree.PrefixTree;
 
@@ -40,7 +46,11 @@ import joshua.prefix_tree.PrefixTree;
  * 
  * @author Lane Schwartz
  */
-public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implements GrammarFactory {
+public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implements DocumentGrammarFactory {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(ParallelCorpusGrammarFactory.class.getName());
 
 	/** Source language corpus, represented as a suffix array. */
 	private final Suffixes sourceSuffixArray;
@@ -82,6 +92,20 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 	
 	private final float oovFeatureCost;
 	
+	/** 
+	 * Grammars prepared for the latest batch of sentences, and
+	 * for the batch before it, keyed by the words of each sentence.
+	 * <p>
+	 * The previous batch is kept because its last sentences may
+	 * still be waiting for a decoder when the next batch is
+	 * prepared.
+	 */
+	private volatile Map<List<Integer>,Grammar> preparedGrammars = Collections.emptyMap();
+	private volatile Map<List<Integer>,Grammar> previousGrammars = Collections.emptyMap();
+	
+	/** Precomputed matchings of frequent collocations, or null. */
+	private CollocationIndex collocationIndex = null;
+	
 	/**
 	 * Constructs a factory capable of getting a grammar backed
 	 * by a suffix array.
@@ -116,50 +140,10 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 			String defaultLHSSymbol, 
 			float oovFeatureCost) {
 		
-		super((sourceSuffixArray==null)?null:sourceSuffixArray.getCorpus(), 
-				(targetSuffixArray==null)?null:targetSuffixArray.getCorpus(), 
-				alignments);
-		this.sourceSuffixArray = sourceSuffixArray;
-		this.maxPhraseSpan     = maxPhraseSpan;
-		this.maxPhraseLength   = maxPhraseLength;
-		this.maxNonterminals   = maxNonterminals;
-		this.minNonterminalSpan = minNonterminalSpan;
-		this.lexProbs          = new LexProbs(this,lexProbFloor);
-		this.ruleOwner = ruleOwner;
-		this.defaultLHSSymbol = defaultLHSSymbol;
-		this.oovFeatureCost = oovFeatureCost;
-		
-		int maxNonterminalSpan = maxPhraseSpan;
-		
-		this.ruleExtractor = 
-			new HierarchicalRuleExtractor(
-					sourceSuffixArray, 
-					targetSuffixArray, 
-					alignments, 
-					lexProbs, 
-					models,
-					sampleSize, 
-					maxPhraseSpan, 
-					maxPhraseLength,
-//					maxNonterminals, 
-//					minNonterminalSpan
-					minNonterminalSpan,
-					maxNonterminalSpan
-				);	
-		
-		/*
-	public HierarchicalRuleExtractor(
-			Suffixes suffixArray, 
-			Corpus targetCorpus, 
-			Alignments alignments, 
-			LexicalProbabilities lexProbs, 
-			int sampleSize, 
-			int maxPhraseSpan, 
-			int maxPhraseLength, 
-			int minNonterminalSpan, 
-			int maxNonterminalSpan)
-		 
-		 */
+		this(sourceSuffixArray, targetSuffixArray, alignments, models,
+				new LexProbs(parallelCorpus(sourceSuffixArray, targetSuffixArray, alignments), lexProbFloor),
+				sampleSize, maxPhraseSpan, maxPhraseLength, maxNonterminals, minNonterminalSpan,
+				ruleOwner, defaultLHSSymbol, oovFeatureCost);
 	}
 	
 	
@@ -197,6 +181,61 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 			String defaultLHSSymbol, 
 			float oovFeatureCost) {
 		
+		this(sourceSuffixArray, targetSuffixArray, alignments, models,
+				new LexProbs(parallelCorpus(sourceSuffixArray, targetSuffixArray, alignments), lexCountsFilename),
+				sampleSize, maxPhraseSpan, maxPhraseLength, maxNonterminals, minNonterminalSpan,
+				ruleOwner, defaultLHSSymbol, oovFeatureCost);
+	}
+	
+	
+	/**
+	 * Constructs a factory capable of getting a grammar backed
+	 * by a suffix array, using lexical translation probabilities
+	 * that have already been loaded, such as a memory-mapped
+	 * lexical translation table.
+	 * 
+	 * @param sourceSuffixArray Source language corpus, 
+	 *                          represented as a suffix array
+	 * @param targetSuffixArray Target language corpus
+	 *                          represented as a suffix array
+	 * @param alignments        Parallel corpus alignment points
+	 * @param models            Feature functions by which the rules
+	 *                          of each source pattern are sorted,
+	 *                          or null to leave them unsorted
+	 * @param lexProbs          Lexical translation probabilities
+	 *                          of the parallel corpus
+	 * @param sampleSize        Maximum number of instances of a
+	 *                          source pattern from which its rules
+	 *                          are extracted
+	 * @param maxPhraseSpan     Max span in the source corpus of any 
+	 *                          extracted hierarchical phrase
+	 * @param maxPhraseLength   Maximum number of terminals plus nonterminals 
+	 *                          allowed in any extracted hierarchical phrase
+	 * @param maxNonterminals   Maximum number of nonterminals allowed on the 
+	 *                          right-hand side of any extracted rule
+	 * @param minNonterminalSpan Minimum span in the source corpus of any 
+	 *                          nonterminal in an extracted hierarchical phrase
+	 * @param ruleOwner 		Specifies a name identifier for this grammar
+	 * @param defaultLHSSymbol  Left-hand side nonterminal of the rules
+	 *                          that copy out-of-vocabulary words
+	 * @param oovFeatureCost    Cost of the first feature of those rules,
+	 *                          when decoding without a language model
+	 */
+	public ParallelCorpusGrammarFactory(
+			Suffixes sourceSuffixArray, 
+			Suffixes targetSuffixArray, 
+			Alignments alignments, 
+			ArrayList<FeatureFunction> models,
+			LexicalProbabilities lexProbs,
+			int sampleSize, 
+			int maxPhraseSpan, 
+			int maxPhraseLength, 
+			int maxNonterminals, 
+			int minNonterminalSpan,  
+			String ruleOwner, 
+			String defaultLHSSymbol, 
+			float oovFeatureCost) {
+		
 		super((sourceSuffixArray==null)?null:sourceSuffixArray.getCorpus(), 
 				(targetSuffixArray==null)?null:targetSuffixArray.getCorpus(), 
 				alignments);
@@ -205,7 +244,7 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 		this.maxPhraseLength   = maxPhraseLength;
 		this.maxNonterminals   = maxNonterminals;
 		this.minNonterminalSpan = minNonterminalSpan;
-		this.lexProbs          = new LexProbs(this, lexCountsFilename);
+		this.lexProbs          = lexProbs;
 		this.ruleOwner = ruleOwner;
 		this.defaultLHSSymbol = defaultLHSSymbol;
 		this.oovFeatureCost = oovFeatureCost;
@@ -222,25 +261,20 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 					sampleSize, 
 					maxPhraseSpan, 
 					maxPhraseLength,
-//					maxNonterminals, 
-//					minNonterminalSpan
 					minNonterminalSpan,
 					maxNonterminalSpan
 				);	
-		
-		/*
-	public HierarchicalRuleExtractor(
-			Suffixes suffixArray, 
-			Corpus targetCorpus, 
-			Alignments alignments, 
-			LexicalProbabilities lexProbs, 
-			int sampleSize, 
-			int maxPhraseSpan, 
-			int maxPhraseLength, 
-			int minNonterminalSpan, 
-			int maxNonterminalSpan)
-		 
-		 */
+	}
+	
+	/** 
+	 * Gets the parallel corpus of the given suffix arrays, from
+	 * which lexical translation probabilities are computed.
+	 */
+	private static AlignedParallelCorpus parallelCorpus(Suffixes sourceSuffixArray, Suffixes targetSuffixArray, Alignments alignments) {
+		return new AlignedParallelCorpus(
+				(sourceSuffixArray==null)?null:sourceSuffixArray.getCorpus(), 
+				(targetSuffixArray==null)?null:targetSuffixArray.getCorpus(), 
+				alignments);
 	}
 	
 	
@@ -254,9 +288,15 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 	 */
 	public Grammar getGrammarForSentence(Phrase sentence) {
 		
-		int[] words = new int[sentence.size()];
-		for (int i = 0; i < words.length; i++) {
-			words[i] = sentence.getWordID(i);
+		int[] words = getWordIDs(sentence);
+		
+		List<Integer> key = asKey(words);
+		Grammar grammar = preparedGrammars.get(key);
+		if (grammar == null) {
+			grammar = previousGrammars.get(key);
+		}
+		if (grammar != null) {
+			return grammar;
 		}
 		
 		PrefixTree prefixTree = new PrefixTree(
@@ -270,6 +310,80 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 //		return prefixTree.getRoot();
 	}
 	
+	/**
+	 * Builds one prefix tree for a batch of sentences, extracting
+	 * the rules of each pattern in the batch once, and keeps a
+	 * grammar for each sentence until the batch after next is
+	 * prepared.
+	 * 
+	 * @param sentences Sentences about to be translated
+	 */
+	public synchronized void prepareGrammars(List<? extends Phrase> sentences) {
+		
+		List<int[]> batch = new ArrayList<int[]>(sentences.size());
+		for (Phrase sentence : sentences) {
+			batch.add(getWordIDs(sentence));
+		}
+		
+		BatchPrefixTree prefixTree = new BatchPrefixTree(this);
+		List<Grammar> grammars = prefixTree.addAll(batch);
+		
+		Map<List<Integer>,Grammar> prepared = new HashMap<List<Integer>,Grammar>();
+		for (int i = 0; i < grammars.size(); i++) {
+			prepared.put(asKey(batch.get(i)), grammars.get(i));
+		}
+		
+		previousGrammars = preparedGrammars;
+		preparedGrammars = prepared;
+	}
+	
+	private static int[] getWordIDs(Phrase sentence) {
+		int[] words = new int[sentence.size()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = sentence.getWordID(i);
+		}
+		return words;
+	}
+	
+	private static List<Integer> asKey(int[] words) {
+		List<Integer> key = new ArrayList<Integer>(words.length);
+		for (int word : words) {
+			key.add(word);
+		}
+		return key;
+	}
+	
+	/**
+	 * Sets the precomputed matchings of frequent collocations,
+	 * which prefix trees then look up instead of intersecting
+	 * the matchings of the two phrases of a collocation.
+	 * <p>
+	 * An index computed with a different minimum nonterminal
+	 * span or maximum phrase span than this factory's would give
+	 * different matchings, and is not used.
+	 * 
+	 * @param collocationIndex Precomputed matchings of frequent
+	 *                         collocations, or null
+	 */
+	public void setCollocationIndex(CollocationIndex collocationIndex) {
+		if (collocationIndex != null && ! collocationIndex.isCompatible(minNonterminalSpan, maxPhraseSpan)) {
+			logger.warning("Not using precomputed collocations, which were computed with a different minimum nonterminal span or maximum phrase span");
+			this.collocationIndex = null;
+		} else {
+			this.collocationIndex = collocationIndex;
+		}
+	}
+	
+	/**
+	 * Gets the precomputed matchings of frequent collocations.
+	 * 
+	 * @return the precomputed matchings of frequent
+	 *         collocations, or null
+	 */
+	public CollocationIndex getCollocationIndex() {
+		return this.collocationIndex;
+	}
+	
 	/**
 	 * Gets the source side suffix array.
 	 * 
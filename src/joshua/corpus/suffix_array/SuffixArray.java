@@ -18,15 +18,12 @@
 package joshua.corpus.suffix_array;
 
 import joshua.corpus.Corpus;
-import joshua.corpus.MatchedHierarchicalPhrases;
-import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.JoshuaConfiguration;
 import joshua.util.FileUtility;
-import joshua.util.Cache;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutput;
-import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -82,24 +79,38 @@ public class SuffixArray extends AbstractSuffixArray {
 	
 	/** 
 	 * Constructor takes a CorpusArray and creates a sorted
-	 * suffix array from it.
+	 * suffix array from it, using the method named by
+	 * JoshuaConfiguration.sa_suffix_sort.
 	 */
 	public SuffixArray(Corpus corpusArray, int maxCacheSize) {
-		super(corpusArray, 
-				new Cache<Pattern,MatchedHierarchicalPhrases>(maxCacheSize),
-				new Cache<Pattern,List<Rule>>(maxCacheSize));
+		super(corpusArray, maxCacheSize);
 //				(maxCacheSize > 0) ? 
 //						new Cache<Pattern,MatchedHierarchicalPhrases>(maxCacheSize) :
 //						null);
 		
-		suffixes = new int[corpusArray.size()];
+		String method = JoshuaConfiguration.sa_suffix_sort;
+		
+		if ("induced".equals(method)) {
+			suffixes = SuffixSorter.sortInduced(SuffixSorter.wordIDs(corpusArray));
+			
+		} else if ("parallel".equals(method)) {
+			suffixes = SuffixSorter.sortParallel(SuffixSorter.wordIDs(corpusArray), 
+					Runtime.getRuntime().availableProcessors());
+			
+		} else {
+			if (! "quicksort".equals(method)) {
+				logger.warning("Unknown suffix sorting method " + method + "; using quicksort");
+			}
+			
+			suffixes = new int[corpusArray.size()];
 
-		// Create an array of suffix IDs
-		for (int i = 0, n=corpusArray.size(); i < n; i++) {
-			suffixes[i] = i;
+			// Create an array of suffix IDs
+			for (int i = 0, n=corpusArray.size(); i < n; i++) {
+				suffixes[i] = i;
+			}
+			// Sort the array of suffixes
+			sort(suffixes);
 		}
-		// Sort the array of suffixes
-		sort(suffixes);
 
 	}
 	
@@ -0,0 +1,380 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.suffix_array;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import joshua.corpus.Corpus;
+
+/**
+ * Sorts the suffixes of a corpus of word IDs without comparing
+ * suffixes one pair at a time.
+ * <p>
+ * Suffixes are ordered by their word IDs, and a suffix that runs
+ * off the end of the corpus sorts before any longer suffix that
+ * it is a prefix of, as in Corpus.compareSuffixes. Unlike the
+ * quick sort of SuffixArray, which stops comparing after
+ * MAX_COMPARISON_LENGTH words, suffixes are compared to their
+ * ends, so the resulting order is fully determined by the corpus
+ * and both methods here produce the same array.
+ * <p>
+ * <code>sortInduced</code> is the linear-time SA-IS algorithm of
+ * Nong, Zhang and Chan (2009). <code>sortParallel</code> buckets
+ * the suffixes by their first word and sorts the buckets
+ * concurrently with multikey quick sort; it needs no memory
+ * beyond the corpus and the suffixes, but may be slow on corpora
+ * with long repeated passages.
+ *
+ * @version $LastChangedDate$
+ */
+public class SuffixSorter {
+
+	/** Buckets smaller than this are sorted by the calling thread. */
+	private static final int MIN_PARALLEL_BUCKET = 1024;
+
+
+	/**
+	 * Copies the word IDs of a corpus into an array.
+	 */
+	public static int[] wordIDs(Corpus corpus) {
+		int[] text = new int[corpus.size()];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = corpus.getWordID(i);
+		}
+		return text;
+	}
+
+	/**
+	 * Sorts all suffixes of a text with SA-IS.
+	 *
+	 * @param text Non-negative word IDs
+	 * @return The starting positions of the suffixes of the text,
+	 *         in sorted order
+	 */
+	public static int[] sortInduced(int[] text) {
+		int[] suffixes = new int[text.length];
+		sais(text, suffixes, text.length, alphabetSize(text));
+		return suffixes;
+	}
+
+	/**
+	 * Sorts all suffixes of a text by bucketing them on their
+	 * first word and sorting the buckets concurrently.
+	 *
+	 * @param text Non-negative word IDs
+	 * @param numThreads Number of threads to sort with
+	 * @return The starting positions of the suffixes of the text,
+	 *         in sorted order
+	 */
+	public static int[] sortParallel(final int[] text, int numThreads) {
+
+		final int n = text.length;
+		final int[] suffixes = new int[n];
+
+		// Counting sort on the first word
+		int[] starts = new int[alphabetSize(text) + 1];
+		for (int word : text) {
+			starts[word + 1]++;
+		}
+		for (int word = 1; word < starts.length; word++) {
+			starts[word] += starts[word - 1];
+		}
+		int[] next = starts.clone();
+		for (int i = 0; i < n; i++) {
+			suffixes[next[text[i]]++] = i;
+		}
+
+		ExecutorService threads = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+
+			for (int word = 0; word + 1 < starts.length; word++) {
+				final int begin = starts[word];
+				final int end = starts[word + 1];
+
+				if (end - begin < MIN_PARALLEL_BUCKET) {
+					multikeySort(text, suffixes, begin, end, 1);
+				} else {
+					results.add(threads.submit(new Runnable() {
+						public void run() {
+							multikeySort(text, suffixes, begin, end, 1);
+						}
+					}));
+				}
+			}
+
+			for (Future<?> result : results) {
+				result.get();
+			}
+
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while sorting suffixes", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Sorting suffixes failed", e.getCause());
+		} finally {
+			threads.shutdown();
+		}
+
+		return suffixes;
+	}
+
+
+	/**
+	 * Returns one more than the largest word ID in the text,
+	 * checking that there are no negative IDs.
+	 */
+	private static int alphabetSize(int[] text) {
+		int max = -1;
+		for (int word : text) {
+			if (word < 0) {
+				throw new IllegalArgumentException("Cannot sort suffixes containing the negative word ID " + word);
+			}
+			if (word > max) max = word;
+		}
+		return max + 1;
+	}
+
+
+//===============================================================
+// SA-IS
+//===============================================================
+
+	/**
+	 * Sorts the suffixes of s[0..n) into sa[0..n). The end of
+	 * the text acts as a unique sentinel smaller than every word,
+	 * but is not stored.
+	 *
+	 * @param k One more than the largest symbol in s
+	 */
+	private static void sais(int[] s, int[] sa, int n, int k) {
+		if (n == 0) return;
+		if (n == 1) {
+			sa[0] = 0;
+			return;
+		}
+
+		// Classify each suffix as S-type (set) or L-type (clear).
+		// The last suffix is L-type, as it is larger than the
+		// empty suffix that follows it
+		BitSet stype = new BitSet(n);
+		for (int i = n - 2; i >= 0; i--) {
+			if (s[i] < s[i + 1] || (s[i] == s[i + 1] && stype.get(i + 1))) {
+				stype.set(i);
+			}
+		}
+
+		int[] bucket = new int[k];
+
+		// Step 1: sort the LMS substrings by inducing from the
+		// LMS suffixes placed in arbitrary order at their bucket ends
+		Arrays.fill(sa, 0, n, -1);
+		bucketEnds(s, n, bucket);
+		for (int i = 1; i < n; i++) {
+			if (isLMS(stype, i)) sa[--bucket[s[i]]] = i;
+		}
+		induceL(s, sa, n, stype, bucket);
+		induceS(s, sa, n, stype, bucket);
+
+		// Move the sorted LMS substrings to the front
+		int n1 = 0;
+		for (int i = 0; i < n; i++) {
+			if (isLMS(stype, sa[i])) sa[n1++] = sa[i];
+		}
+
+		// Name each LMS substring by its rank among the distinct
+		// ones, storing the names in the back half by position
+		Arrays.fill(sa, n1, n, -1);
+		int names = 0;
+		int previous = -1;
+		for (int i = 0; i < n1; i++) {
+			int position = sa[i];
+			if (previous < 0 || !equalLMS(s, n, stype, position, previous)) {
+				names++;
+				previous = position;
+			}
+			sa[n1 + position / 2] = names - 1;
+		}
+		for (int i = n - 1, j = n - 1; i >= n1; i--) {
+			if (sa[i] >= 0) sa[j--] = sa[i];
+		}
+
+		// Step 2: sort the LMS suffixes, recursing if any two LMS
+		// substrings are the same
+		int[] s1 = Arrays.copyOfRange(sa, n - n1, n);
+		int[] sa1 = new int[n1];
+		if (names < n1) {
+			sais(s1, sa1, n1, names);
+		} else {
+			for (int i = 0; i < n1; i++) {
+				sa1[s1[i]] = i;
+			}
+		}
+
+		// Map ranks in the reduced text back to text positions
+		for (int i = 1, j = 0; i < n; i++) {
+			if (isLMS(stype, i)) s1[j++] = i;
+		}
+		for (int i = 0; i < n1; i++) {
+			sa1[i] = s1[sa1[i]];
+		}
+
+		// Step 3: induce the order of all suffixes from the
+		// sorted LMS suffixes
+		Arrays.fill(sa, 0, n, -1);
+		bucketEnds(s, n, bucket);
+		for (int i = n1 - 1; i >= 0; i--) {
+			int position = sa1[i];
+			sa[--bucket[s[position]]] = position;
+		}
+		induceL(s, sa, n, stype, bucket);
+		induceS(s, sa, n, stype, bucket);
+	}
+
+	private static boolean isLMS(BitSet stype, int i) {
+		return i > 0 && stype.get(i) && !stype.get(i - 1);
+	}
+
+	/** Tests whether the LMS substrings at two positions are equal. */
+	private static boolean equalLMS(int[] s, int n, BitSet stype, int a, int b) {
+		for (int d = 0; ; d++) {
+			if (a + d == n || b + d == n) {
+				// only one LMS substring runs into the sentinel
+				return false;
+			}
+			if (s[a + d] != s[b + d] || stype.get(a + d) != stype.get(b + d)) {
+				return false;
+			}
+			if (d > 0 && (isLMS(stype, a + d) || isLMS(stype, b + d))) {
+				return true;
+			}
+		}
+	}
+
+	private static void bucketStarts(int[] s, int n, int[] bucket) {
+		Arrays.fill(bucket, 0);
+		for (int i = 0; i < n; i++) {
+			bucket[s[i]]++;
+		}
+		for (int c = 0, sum = 0; c < bucket.length; c++) {
+			int count = bucket[c];
+			bucket[c] = sum;
+			sum += count;
+		}
+	}
+
+	private static void bucketEnds(int[] s, int n, int[] bucket) {
+		Arrays.fill(bucket, 0);
+		for (int i = 0; i < n; i++) {
+			bucket[s[i]]++;
+		}
+		for (int c = 0, sum = 0; c < bucket.length; c++) {
+			sum += bucket[c];
+			bucket[c] = sum;
+		}
+	}
+
+	private static void induceL(int[] s, int[] sa, int n, BitSet stype, int[] bucket) {
+		bucketStarts(s, n, bucket);
+
+		// the suffix preceding the sentinel comes first in its bucket
+		sa[bucket[s[n - 1]]++] = n - 1;
+
+		for (int i = 0; i < n; i++) {
+			int j = sa[i] - 1;
+			if (j >= 0 && !stype.get(j)) {
+				sa[bucket[s[j]]++] = j;
+			}
+		}
+	}
+
+	private static void induceS(int[] s, int[] sa, int n, BitSet stype, int[] bucket) {
+		bucketEnds(s, n, bucket);
+		for (int i = n - 1; i >= 0; i--) {
+			int j = sa[i] - 1;
+			if (j >= 0 && stype.get(j)) {
+				sa[--bucket[s[j]]] = j;
+			}
+		}
+	}
+
+
+//===============================================================
+// Multikey quick sort
+//===============================================================
+
+	/**
+	 * Returns the word at a position, or -1 past the end of the
+	 * text, so that shorter suffixes sort first.
+	 */
+	private static int wordAt(int[] text, int position) {
+		return (position < text.length) ? text[position] : -1;
+	}
+
+	/**
+	 * Sorts suffixes[begin..end), all of which share their first
+	 * <code>depth</code> words, using the three-way radix quick
+	 * sort of Bentley and Sedgewick (1997).
+	 */
+	private static void multikeySort(int[] text, int[] suffixes, int begin, int end, int depth) {
+
+		while (end - begin > 1) {
+
+			int pivot = wordAt(text, suffixes[begin + (end - begin) / 2] + depth);
+
+			// Partition into [begin,lt) < pivot, [lt,gt) == pivot,
+			// and [gt,end) > pivot
+			int lt = begin, gt = end;
+			for (int i = begin; i < gt; ) {
+				int word = wordAt(text, suffixes[i] + depth);
+				if (word < pivot) {
+					swap(suffixes, lt++, i++);
+				} else if (word > pivot) {
+					swap(suffixes, i, --gt);
+				} else {
+					i++;
+				}
+			}
+
+			multikeySort(text, suffixes, begin, lt, depth);
+			multikeySort(text, suffixes, gt, end, depth);
+
+			if (pivot < 0) {
+				// at most one suffix ends at this depth
+				return;
+			}
+
+			begin = lt;
+			end = gt;
+			depth++;
+		}
+	}
+
+	private static void swap(int[] array, int i, int j) {
+		int tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+
+}
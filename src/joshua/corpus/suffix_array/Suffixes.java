@@ -24,7 +24,7 @@ import joshua.corpus.MatchedHierarchicalPhrases;
 import joshua.corpus.Phrase;
 import joshua.corpus.vocab.SymbolTable;
 import joshua.decoder.ff.tm.Rule;
-import joshua.util.Cache;
+import joshua.util.ConcurrentCache;
 
 /**
  * A representation of the suffixes in a corpus.
@@ -210,7 +210,7 @@ public interface Suffixes {
 	 * @return the hierarchical phrase objects cached by this
 	 *         suffix array
 	 */
-	Cache<Pattern,MatchedHierarchicalPhrases> getCachedHierarchicalPhrases();
+	ConcurrentCache<Pattern,MatchedHierarchicalPhrases> getCachedHierarchicalPhrases();
 	
 	/**
 	 * Gets the list of rule objects cached by this
@@ -219,6 +219,6 @@ public interface Suffixes {
 	 * @return the list of rule objects cached by this
 	 *         suffix array
 	 */
-	Cache<Pattern,List<Rule>> getCachedRules();
+	ConcurrentCache<Pattern,List<Rule>> getCachedRules();
 
 }
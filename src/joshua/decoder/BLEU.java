@@ -26,6 +26,8 @@ import java.util.Map.Entry;
 
 import joshua.corpus.vocab.SymbolTable;
 import joshua.util.Ngram;
+import joshua.util.NgramMatcher;
+import joshua.util.NgramTable;
 import joshua.util.Regex;
 
 
@@ -53,25 +55,35 @@ public class BLEU {
 	 * @param useShortestRef Probably use false
 	 */
 	public  static double computeSentenceBleu(String[] refSents, String hypSent, boolean doNgramClip, int bleuOrder, boolean useShortestRef){
-		//=== ref tbl
-		HashMap<String, Integer> maxRefCountTbl = constructMaxRefCountTable(refSents, bleuOrder);
-		
-		//== ref len
+		//== ref words and len
+		String[][] refWords = new String[refSents.length][];
 		int[] refLens = new int[refSents.length];
 		for(int i =0; i<refSents.length; i++){
-			String[] refWords = Regex.spaces.split(refSents[i]);
-			refLens[i] = refWords.length;					
+			refWords[i] = Regex.spaces.split(refSents[i]);
+			refLens[i] = refWords[i].length;					
 		}
-		
 		double effectiveRefLen=computeEffectiveLen(refLens, useShortestRef);
 		
-		//=== hyp tbl
+		//=== hyp
 		String[] hypWrds = Regex.spaces.split(hypSent);
-		HashMap<String, Integer> hypNgramTbl = new HashMap<String, Integer>();
-		Ngram.getNgrams(hypNgramTbl, 1, bleuOrder, hypWrds);
-		return computeSentenceBleu(effectiveRefLen, maxRefCountTbl, hypWrds.length, hypNgramTbl, doNgramClip, bleuOrder);
+		int[] numNgramMatch = computeNgramMatches(refWords, hypWrds, doNgramClip, bleuOrder);
+		return computeBleu(hypWrds.length, effectiveRefLen, numNgramMatch, bleuOrder);
+	}
+	
+	
+	/**
+	 * number of matched ngrams of each order (index: order-1), computed on integer
+	 * ngrams without building ngram strings
+	 */
+	private static int[] computeNgramMatches(String[][] refWords, String[] hypWrds, boolean doNgramClip, int bleuOrder){
+		NgramMatcher matcher = new NgramMatcher(bleuOrder);
+		NgramTable maxRefCountTbl = matcher.maxCounts(refWords);
+		int[] numNgramMatch = new int[bleuOrder];
+		matcher.countMatches(matcher.lookupWords(hypWrds), maxRefCountTbl, doNgramClip, numNgramMatch);
+		return numNgramMatch;
 	}
 	
+	
 	public static double computeEffectiveLen(int[] refLens, boolean useShortestRef ){
 		if(useShortestRef){
 			int res=Integer.MAX_VALUE;
@@ -184,11 +196,8 @@ public class BLEU {
 	public  static double computeSentenceBleu(String refSent, String hypSent, boolean doNgramClip, int bleuOrder){
 		String[] refWrds = Regex.spaces.split(refSent);
 		String[] hypWrds = Regex.spaces.split(hypSent);
-		HashMap<String, Integer> refNgramTbl = new HashMap<String, Integer>();
-		Ngram.getNgrams(refNgramTbl, 1, bleuOrder, refWrds);
-		HashMap<String, Integer> hypNgramTbl = new HashMap<String, Integer>();
-		Ngram.getNgrams(hypNgramTbl, 1, bleuOrder, hypWrds);
-		return computeSentenceBleu(refWrds.length, refNgramTbl, hypWrds.length, hypNgramTbl, doNgramClip, bleuOrder);
+		int[] numNgramMatch = computeNgramMatches(new String[][]{refWrds}, hypWrds, doNgramClip, bleuOrder);
+		return computeBleu(hypWrds.length, refWrds.length, numNgramMatch, bleuOrder);
 	}
 	
 	public  static double computeSentenceBleu(int refLen, HashMap<String, Integer> refNgramTbl, int hypLen, HashMap<String, Integer> hypNgramTbl, boolean doNgramClip, int bleuOrder){
@@ -251,11 +260,23 @@ public class BLEU {
 	//================================ Google linear corpus gain ============================================
 	public  static double computeLinearCorpusGain(double[] linearCorpusGainThetas, String[] refSents, String hypSent){
 		int bleuOrder = 4;
-		int hypLength =Regex.spaces.split(hypSent).length;
-		HashMap<String, Integer> refereceNgramTable = BLEU.constructMaxRefCountTable(refSents, bleuOrder);
-		HashMap<String, Integer> hypNgramTable = BLEU.constructNgramTable(hypSent, bleuOrder); 
-		return computeLinearCorpusGain(linearCorpusGainThetas, hypLength, hypNgramTable,  refereceNgramTable);
+		String[] hypWrds = Regex.spaces.split(hypSent);
+		int[] numNgramMatch = computeNgramMatches(splitSentences(refSents), hypWrds, false, bleuOrder);
+		double res = linearCorpusGainThetas[0] * hypWrds.length;
+		for (int t = 0; t < bleuOrder; t++) {
+			res += numNgramMatch[t] * linearCorpusGainThetas[t+1];
+		}
+		return res;
+	}
+	
+	private static String[][] splitSentences(String[] sents){
+		String[][] res = new String[sents.length][];
+		for (int i = 0; i < sents.length; i++) {
+			res[i] = Regex.spaces.split(sents[i]);
+		}
+		return res;
 	}
+	
 	/** 
 	 * speed consideration: assume hypNgramTable has a smaller
 	 * size than referenceNgramTable does
@@ -275,10 +296,12 @@ public class BLEU {
 	
 	public static int[] computeNgramMatches(String[] refSents, String hypSent){
 		int bleuOrder = 4;
-		int hypLength =Regex.spaces.split(hypSent).length;
-		HashMap<String, Integer> refereceNgramTable = BLEU.constructMaxRefCountTable(refSents, bleuOrder);
-		HashMap<String, Integer> hypNgramTable = BLEU.constructNgramTable(hypSent, bleuOrder); 
-		return computeNgramMatches(hypLength, hypNgramTable,  refereceNgramTable, bleuOrder);
+		String[] hypWrds = Regex.spaces.split(hypSent);
+		int[] numNgramMatch = computeNgramMatches(splitSentences(refSents), hypWrds, false, bleuOrder);
+		int[] res = new int[bleuOrder+1];
+		res[0] = hypWrds.length;
+		System.arraycopy(numNgramMatch, 0, res, 1, bleuOrder);
+		return res;
 	}
 	
 	public static int[] computeNgramMatches(int hypLength, Map<String,Integer> hypNgramTable,  Map<String,Integer> referenceNgramTable, int highestOrder) {
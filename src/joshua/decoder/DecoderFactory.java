@@ -19,6 +19,7 @@ package joshua.decoder;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +30,7 @@ import joshua.corpus.vocab.SymbolTable;
 import joshua.decoder.segment_file.Sentence;
 import joshua.decoder.ff.FeatureFunction;
 import joshua.decoder.ff.state_maintenance.StateComputer;
+import joshua.decoder.ff.tm.DocumentGrammarFactory;
 import joshua.decoder.ff.tm.GrammarFactory;
 import joshua.decoder.hypergraph.HyperGraph;
 import joshua.discriminative.FileUtilityOld;
@@ -78,19 +80,76 @@ public class DecoderFactory {
 	 * sentences. This automatically detects whether we should
 	 * run the decoder in parallel or not.
      *
-     * (Matt Post, August 2011) This needs to be rewritten.  The
-     * proper way to do it is to put all the sentences in a queue or
-     * wrap access to them in a thread-safe class.  Then start the
-     * decoder threads.  Each thread obtains the sentece to decode and
-     * deposits it somewhere.  Deposits are then accumulated and
-     * output sequentially.
+     * Sentences are handed out by a SentenceScheduler to a pool of
+     * workers, optionally costliest first; the InputHandler
+     * assembles the translations and outputs them in input order.
 	 */
 	public void decodeTestSet(String testFile, String nbestFile, String oracleFile) {
+		decode(new InputHandler(testFile));
 
-        // create the input manager
-        InputHandler inputHandler = new InputHandler(testFile);
+// 				if (JoshuaConfiguration.save_disk_hg) {
+// 					pdecoder.hypergraphSerializer.writeRulesNonParallel(
+// 						nbestFile + ".hg.rules");
+
+	}
+	
+	/**
+	 * Decodes a set of sentences like decodeTestSet(String,
+	 * String, String), but writes the n-best lists to the given
+	 * stream instead of standard output. The stream is not
+	 * closed.
+	 */
+	public void decodeTestSet(String testFile, OutputStream nbestOutput) {
+		decode(new InputHandler(testFile, nbestOutput));
+	}
+	
+	private void decode(InputHandler inputHandler) {
+		List<DecoderThread> decoders = createDecoders(inputHandler);
 
+        // grammars that can be extracted for many sentences at once
+        List<DocumentGrammarFactory> documentGrammarFactories = new ArrayList<DocumentGrammarFactory>();
+        for (GrammarFactory grammarFactory : grammarFactories) {
+            if (grammarFactory instanceof DocumentGrammarFactory) {
+                documentGrammarFactories.add((DocumentGrammarFactory) grammarFactory);
+            }
+        }
+
+        // the decoders are shared by a pool of workers, which take
+        // sentences from a single queue as they become free
+        SentenceScheduler scheduler = new SentenceScheduler(decoders, inputHandler,
+            JoshuaConfiguration.longest_first,
+            JoshuaConfiguration.sentence_window,
+            JoshuaConfiguration.max_sentences_in_flight,
+            documentGrammarFactories,
+            JoshuaConfiguration.sa_batch_size);
+
+        try {
+            scheduler.run();
+        } catch (InterruptedException e) {
+            if (logger.isLoggable(Level.WARNING))
+                logger.warning("decoding was interrupted");
+        }
+	}
+	
+	/**
+	 * Serves translations over TCP on the given port (see
+	 * DecoderServer), returning only if the server socket fails.
+	 * Requests from all connections are decoded by one shared
+	 * pool of decoders.
+	 */
+	public void serve(int port) throws IOException {
+		List<DecoderThread> decoders = createDecoders(null);
+		
+		new DecoderServer(decoders, JoshuaConfiguration.max_sentences_in_flight).serve(port);
+	}
+	
+	
+	/**
+	 * Creates one decoder per parallel decoding thread.
+	 */
+	private List<DecoderThread> createDecoders(InputHandler inputHandler) {
 		this.decoderThreads = new DecoderThread[JoshuaConfiguration.num_parallel_decoders];
+		List<DecoderThread> decoders = new ArrayList<DecoderThread>();
 
         for (int threadno = 0; threadno < decoderThreads.length; threadno++) {
             try {
@@ -99,33 +158,16 @@ public class DecoderFactory {
                     this.symbolTable, inputHandler);
 				
                 this.decoderThreads[threadno] = thread;
+                decoders.add(thread);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-
-        // start them all
-        for (int threadno = 0; threadno < decoderThreads.length; threadno++) {
-            this.decoderThreads[threadno].start();
-        } 
-
-
-        // wait for them to complete
-        for (int threadno = 0; threadno < decoderThreads.length; threadno++) {
-            try {
-                this.decoderThreads[threadno].join();
-            } catch (InterruptedException e) {
-                if (logger.isLoggable(Level.WARNING))
-					logger.warning("thread " + threadno + " was interupted");
-            }
-        }
-
-// 				if (JoshuaConfiguration.save_disk_hg) {
-// 					pdecoder.hypergraphSerializer.writeRulesNonParallel(
-// 						nbestFile + ".hg.rules");
-
+		
+		return decoders;
 	}
 	
+	
 	/** 
      * Decode a single sentence and return its hypergraph.
 	 **/
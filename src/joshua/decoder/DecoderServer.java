@@ -0,0 +1,269 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.decoder.segment_file.LatticeInput;
+import joshua.decoder.segment_file.Sentence;
+
+/**
+ * Serves translations over TCP, so that grammars and language
+ * models are loaded once for many decoding jobs.
+ * <p>
+ * The protocol is line oriented. Each line a client sends is one
+ * request, in the same format as a line of a test file: a plain
+ * sentence, a sentence wrapped in <code>&lt;seg id=N&gt;</code>
+ * tags, or a lattice in Python Lattice Format (starting with
+ * <code>(((</code>). A request's id is the id given by its seg
+ * tag, or else its 0-indexed line number on the connection.
+ * <p>
+ * Clients may send any number of requests without waiting for
+ * replies. Requests from all connections are decoded concurrently
+ * by a shared pool of decoders, but the replies on a connection
+ * are written back in the order of its requests: an n-best list
+ * that is done early waits for those of the earlier requests.
+ * Every line of a reply starts with the request id, as in the
+ * usual n-best output, and each reply is terminated by an empty
+ * line. Requests and replies are encoded in UTF-8. Once a client
+ * closes its end of the connection, the server finishes the
+ * outstanding requests and then closes the connection.
+ *
+ * @version $LastChangedDate$
+ */
+public class DecoderServer {
+
+	private static final Logger logger =
+		Logger.getLogger(DecoderServer.class.getName());
+
+	private static final Charset FILE_ENCODING = Charset.forName("UTF-8");
+
+	/** Decoders not currently in use by a worker. */
+	private final BlockingQueue<DecoderThread> idleDecoders;
+
+	/** Workers shared by all connections. */
+	private final ExecutorService workers;
+
+	/** Maximum number of unanswered requests per connection. */
+	private final int maxPending;
+
+	/**
+	 * Constructs a server with one worker per decoder.
+	 *
+	 * @param decoders Decoders to share among all connections
+	 * @param maxPending Maximum number of requests read from one
+	 *                   connection but not yet answered, or zero
+	 *                   to choose one from the number of decoders
+	 */
+	public DecoderServer(List<DecoderThread> decoders, int maxPending) {
+		this.idleDecoders = new LinkedBlockingQueue<DecoderThread>(decoders);
+		this.workers = Executors.newFixedThreadPool(decoders.size());
+		this.maxPending = (maxPending > 0) ? maxPending : 8 * decoders.size();
+	}
+
+	/**
+	 * Accepts connections on the given port, returning only if
+	 * the server socket fails.
+	 */
+	public void serve(int port) throws IOException {
+		serve(new ServerSocket(port));
+	}
+
+	/**
+	 * Accepts connections on the given server socket, returning
+	 * only if it fails or is closed.
+	 */
+	public void serve(ServerSocket server) throws IOException {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("Serving translations on port " + server.getLocalPort());
+
+		try {
+			while (true) {
+				Socket socket = server.accept();
+
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("Accepted connection from " + socket.getRemoteSocketAddress());
+
+				Thread reader = new Thread(new Connection(socket),
+					"connection " + socket.getRemoteSocketAddress());
+				reader.setDaemon(true);
+				reader.start();
+			}
+		} finally {
+			server.close();
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Reads the requests of one client and hands them to the
+	 * workers.
+	 */
+	private class Connection implements Runnable {
+
+		private final Socket socket;
+		private final Writer out;
+
+		/** Permits for requests read but not yet answered. */
+		private final Semaphore pending;
+
+		/**
+		 * Translations done but not yet written, by request
+		 * number; null for a request that failed.
+		 */
+		private final Map<Integer,Translation> done = new HashMap<Integer,Translation>();
+
+		/** Number of the next request to answer. */
+		private int nextReply = 0;
+
+		/** Whether writing to the client has failed. */
+		private boolean broken = false;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.out = new BufferedWriter(
+				new OutputStreamWriter(socket.getOutputStream(), FILE_ENCODING));
+			this.pending = new Semaphore(maxPending);
+		}
+
+		public void run() {
+			try {
+				BufferedReader in = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), FILE_ENCODING));
+
+				int lineNo = 0;
+				for (String line; (line = in.readLine()) != null; lineNo++) {
+					Sentence sentence = line.startsWith("(((")
+						? new LatticeInput(line, lineNo)
+						: new Sentence(line, lineNo);
+
+					pending.acquire();
+					workers.execute(new Request(this, lineNo, sentence));
+				}
+
+				// wait for the outstanding replies before closing
+				pending.acquire(maxPending);
+
+			} catch (IOException e) {
+				if (logger.isLoggable(Level.WARNING))
+					logger.warning("Reading from " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+			} catch (InterruptedException e) {
+				if (logger.isLoggable(Level.WARNING))
+					logger.warning("Connection to " + socket.getRemoteSocketAddress() + " was interrupted");
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Writes the reply to a request, followed by the empty line
+		 * that ends it, once the replies to all earlier requests
+		 * have been written. Replies are written whole, one at a
+		 * time.
+		 */
+		synchronized void reply(int requestNo, Translation translation) {
+			done.put(requestNo, translation);
+
+			int answered = 0;
+			while (done.containsKey(nextReply)) {
+				Translation next = done.remove(nextReply++);
+				answered++;
+				try {
+					// once the client is gone, replies are dropped
+					if (! broken) {
+						if (next != null)
+							next.print(out);
+						out.write('\n');
+					}
+				} catch (IOException e) {
+					broken = true;
+					if (logger.isLoggable(Level.FINE))
+						logger.fine("Writing to " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+				}
+			}
+
+			try {
+				if (! broken) out.flush();
+			} catch (IOException e) {
+				broken = true;
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("Writing to " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+			}
+			pending.release(answered);
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing left to do with it
+			}
+		}
+	}
+
+	/** Decodes one request with an idle decoder. */
+	private class Request implements Runnable {
+
+		private final Connection connection;
+		private final int requestNo;
+		private final Sentence sentence;
+
+		Request(Connection connection, int requestNo, Sentence sentence) {
+			this.connection = connection;
+			this.requestNo = requestNo;
+			this.sentence = sentence;
+		}
+
+		public void run() {
+			DecoderThread decoder = null;
+			Translation translation = null;
+			try {
+				decoder = idleDecoders.take();
+				translation = decoder.decode(sentence);
+
+			} catch (Exception e) {
+				// unlike a batch run, one bad request should not
+				// take the server down; the client gets an empty
+				// reply
+				if (logger.isLoggable(Level.WARNING))
+					logger.warning("Decoding sentence " + sentence.id() + " failed: " + e);
+			} finally {
+				if (decoder != null) idleDecoders.add(decoder);
+				connection.reply(requestNo, translation);
+			}
+		}
+	}
+}
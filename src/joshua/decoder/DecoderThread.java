@@ -186,57 +186,70 @@ public class DecoderThread extends Thread {
 
         for (;;) {
 
-            long startTime = System.currentTimeMillis();			
-
             Sentence sentence = inputHandler.next();
             if (sentence == null)
                 break;
 
-            // System.out.println("[" + sentence.id() + "] " + sentence.sentence());
-            HyperGraph hypergraph = translate(sentence, null);
-            Translation translation = null;
+            inputHandler.register(decode(sentence));
+        }
+	}
+
+
+	/**
+	 * Translates a sentence and renders its k-best list, so that
+	 * the resulting Translation no longer holds the hypergraph.
+	 *
+	 * @param sentence The sentence to be translated.
+	 */
+	public Translation decode(Sentence sentence) throws IOException {
+
+		// System.out.println("[" + sentence.id() + "] " + sentence.sentence());
+		HyperGraph hypergraph = translate(sentence, null);
+		Translation translation = null;
 		
-            if (JoshuaConfiguration.visualize_hypergraph) {
-                HyperGraphViewer.visualizeHypergraphInFrame(hypergraph, symbolTable);
-            }
+		if (JoshuaConfiguration.visualize_hypergraph) {
+			HyperGraphViewer.visualizeHypergraphInFrame(hypergraph, symbolTable);
+		}
 		
-            String oracleSentence = inputHandler.oracleSentence();
+		String oracleSentence = (inputHandler == null) ? null : inputHandler.oracleSentence();
 
-            if (oracleSentence != null) {
-                OracleExtractor extractor = new OracleExtractor(this.symbolTable);
-                HyperGraph oracle = extractor.getOracle(hypergraph, 3, oracleSentence);
+		if (oracleSentence != null) {
+			OracleExtractor extractor = new OracleExtractor(this.symbolTable);
+			HyperGraph oracle = extractor.getOracle(hypergraph, 3, oracleSentence);
 			
-                translation = new Translation(sentence, oracle, featureFunctions);
-
-            } else {
+			translation = new Translation(sentence, oracle, featureFunctions);
 
-                translation = new Translation(sentence, hypergraph, featureFunctions);
+		} else {
 
-            // if (null != this.hypergraphSerializer) {
-            //     if(JoshuaConfiguration.use_kbest_hg){
-            //         HyperGraph kbestHG = this.kbestExtractor.extractKbestIntoHyperGraph(hypergraph, JoshuaConfiguration.topN);
-            //         this.hypergraphSerializer.saveHyperGraph(kbestHG);
-            //     }else{
-            //         this.hypergraphSerializer.saveHyperGraph(hypergraph);				
-            //     }
-            // }
+			translation = new Translation(sentence, hypergraph, featureFunctions);
 
-            }
+			// if (null != this.hypergraphSerializer) {
+			//     if(JoshuaConfiguration.use_kbest_hg){
+			//         HyperGraph kbestHG = this.kbestExtractor.extractKbestIntoHyperGraph(hypergraph, JoshuaConfiguration.topN);
+			//         this.hypergraphSerializer.saveHyperGraph(kbestHG);
+			//     }else{
+			//         this.hypergraphSerializer.saveHyperGraph(hypergraph);				
+			//     }
+			// }
 
-            inputHandler.register(translation);
+		}
 
-            /* //debug
-               if (JoshuaConfiguration.use_variational_decoding) {
-               ConstituentVariationalDecoder vd = new ConstituentVariationalDecoder();
-               vd.decoding(hypergraph);
-               System.out.println("#### new 1best is #####\n" + HyperGraph.extract_best_string(p_main_controller.p_symbol, hypergraph.goal_item));
-               }
-               // end */
+		// do the k-best extraction here, in parallel, rather
+		// than while the input handler holds its output lock
+		translation.render();
+
+		/* //debug
+		   if (JoshuaConfiguration.use_variational_decoding) {
+		   ConstituentVariationalDecoder vd = new ConstituentVariationalDecoder();
+		   vd.decoding(hypergraph);
+		   System.out.println("#### new 1best is #####\n" + HyperGraph.extract_best_string(p_main_controller.p_symbol, hypergraph.goal_item));
+		   }
+		   // end */
 		
-            //debug
-            //g_con.get_confusion_in_hyper_graph_cell_specific(hypergraph, hypergraph.sent_len);
-            
-        }
+		//debug
+		//g_con.get_confusion_in_hyper_graph_cell_specific(hypergraph, hypergraph.sent_len);
+		
+		return translation;
 	}
 
 	
@@ -32,6 +32,7 @@ import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -75,8 +76,21 @@ public class InputHandler implements Iterator<Sentence> {
     int lastCompletedId = -1;
     static final Object lock = new Object();
 
+    // where finished translations go; null for standard output
+    OutputStream output = null;
+
     InputHandler(String corpusFile) {
+        this(corpusFile, null);
+    }
+
+    /*
+     * Reads input from corpusFile and writes the translations to
+     * output instead of standard output.  The stream is flushed
+     * but not closed.
+     */
+    InputHandler(String corpusFile, OutputStream output) {
         this.corpusFile = corpusFile;
+        this.output = output;
 
         InputStream inputStream = null;
 
@@ -150,10 +164,17 @@ public class InputHandler implements Iterator<Sentence> {
     
     
     /**
-     * Receives a sentence from a thread that has finished translating it.
+     * Receives a sentence from a thread that has finished translating
+     * it.  Translations should already be rendered (see
+     * Translation.render()), so the only work done while holding the
+     * lock is copying finished output to standard output (or the
+     * stream given to the constructor) in order.
+     *
+     * @return the number of translations written out by this call
      */
-    public synchronized void register(Translation translation) {
+    public int register(Translation translation) {
         int id = translation.id();
+        int printed = 0;
 
         logger.fine("thread " + id + " finished");
 
@@ -170,16 +191,28 @@ public class InputHandler implements Iterator<Sentence> {
                     logger.fine("thread " + id + " printing");
 
                     Translation t = completed.get(i);
-                    t.print();
+                    if (output == null) {
+                        t.print();
+                    } else {
+                        try {
+                            t.print(output);
+                            output.flush();
+                        } catch (IOException e) {
+                            if (logger.isLoggable(Level.WARNING))
+                                logger.warning("could not write translation " + t.id() + ": " + e.getMessage());
+                        }
+                    }
                     // delete it
                     completed.set(i, null);
                     // update the last completed item
                     lastCompletedId++;
+                    printed++;
                 }
             } else {
                 logger.fine("thread " + id + " waiting for thread " + (id-1));
             }
         }
+        return printed;
     }
 
 
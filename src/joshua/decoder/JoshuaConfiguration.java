@@ -43,6 +43,8 @@ public class JoshuaConfiguration {
 	public static boolean use_kenlm                  = false;
 	public static boolean use_bloomfilter_lm         = false;
 	public static boolean use_trie_lm                = false;
+	public static boolean use_binary_lm              = false;
+	public static int     lm_cache_size              = 0;    // n-grams; zero disables the shared cache
 	public static double  lm_ceiling_cost            = 100;
 	public static boolean use_left_equivalent_state  = false;
 	public static boolean use_right_equivalent_state = true;
@@ -102,9 +104,13 @@ public class JoshuaConfiguration {
 	public static boolean sa_precalculate_lexprobs = false;
 	public static int     sa_rule_sample_size      = 300;
 	public static int     sa_rule_cache_size       = 1000;
+	public static int     sa_cache_memory          = 256;  // megabytes per pattern cache; zero bounds them by sa_rule_cache_size entries
+	public static int     sa_batch_size            = 0;    // sentences whose grammars are extracted together; zero extracts each sentence's grammar on its own
+	public static int     sa_parallel_samples      = 0;    // sampled instances from which a pattern's rules are extracted in parallel; zero always extracts them sequentially
 	public static boolean sa_sentence_initial_X    = true;
 	public static boolean sa_sentence_final_X      = true;
 	public static boolean sa_edgeXMayViolatePhraseSpan = true;
+	public static String  sa_suffix_sort           = "induced"; // induced (SA-IS), parallel, or quicksort
 	public static float   sa_lex_floor_prob        = Float.MIN_VALUE;
 	
 	// TODO: introduce the various corpus/tm file package formats
@@ -131,6 +137,10 @@ public class JoshuaConfiguration {
 	public static int     topN                = 500;
 	public static boolean escape_trees        = false;
 	
+	//minimum Bayes risk
+	public static boolean use_hypergraph_mbr = false; //print the hyp of the nbest with the highest expected linear corpus gain under the hypergraph's n-gram posteriors, instead of the nbest
+	public static double  mbr_scaling_factor = 1.0;   //scales the hyperedge logPs in the posteriors
+	
 	//remote lm server
 	public static boolean use_remote_lm_server  = false;
 	public static String  remote_symbol_tbl     = "null"; //this file will first be created by remote_lm_server, and read by remote_suffix_server and the decoder
@@ -140,6 +150,10 @@ public class JoshuaConfiguration {
 	//parallel decoding
 	public static String parallel_files_prefix = "/tmp/temp.parallel"; // C:\\Users\\zli\\Documents\\temp.parallel; used for parallel decoding
 	public static int    num_parallel_decoders = 1; //number of threads should run
+	public static boolean longest_first        = false; //dispatch the costliest sentences of each window first
+	public static int    sentence_window       = 1000; //sentences read ahead and reordered, when longest_first
+	public static int    max_sentences_in_flight = 0; //sentences dispatched but not yet written out; 0 chooses a bound from the above
+	public static int    server_port           = 0; //if positive, serve translations on this TCP port instead of decoding a test set
 	
 	//disk hg
 	public static boolean save_disk_hg             = false; //if true, save three files: fnbest, fnbest.hg.items, fnbest.hg.rules
@@ -331,6 +345,21 @@ public class JoshuaConfiguration {
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("suffix array cache size for rules: %s", sa_rule_cache_size));
 					
+				} else if ("sa_cache_memory".equals(fds[0])) {
+					sa_cache_memory = Integer.parseInt(fds[1].trim());
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("suffix array cache memory in megabytes: %s", sa_cache_memory));
+					
+				} else if ("sa_batch_size".equals(fds[0])) {
+					sa_batch_size = Integer.parseInt(fds[1].trim());
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("suffix array batch size in sentences: %s", sa_batch_size));
+					
+				} else if ("sa_parallel_samples".equals(fds[0])) {
+					sa_parallel_samples = Integer.parseInt(fds[1].trim());
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("suffix array sampled instances for parallel rule extraction: %s", sa_parallel_samples));
+					
 				} else if ("sa_sentence_initial_X".equals(fds[0])) {
 					sa_sentence_initial_X = Boolean.valueOf(fds[1].trim());
 					if (logger.isLoggable(Level.FINEST))
@@ -345,6 +374,11 @@ public class JoshuaConfiguration {
 					sa_edgeXMayViolatePhraseSpan = Boolean.valueOf(fds[1].trim());
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("should suffix array rule extraction allow rules where sa_edgeXMayViolatePhraseSpan: %s", sa_edgeXMayViolatePhraseSpan));
+				} else if ("sa_suffix_sort".equals(fds[0])) {
+					sa_suffix_sort = fds[1].trim();
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("suffix array construction method: %s", sa_suffix_sort));
+					
 				} else if ("sa_lex_floor_prob".equals(fds[0])) {
 					sa_lex_floor_prob = Float.valueOf(fds[1].trim());
 					if (logger.isLoggable(Level.FINEST))
@@ -372,6 +406,16 @@ public class JoshuaConfiguration {
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("use_trie_lm: %s", use_trie_lm));
 					
+				} else if ("use_binary_lm".equals(fds[0])) {
+					use_binary_lm = Boolean.valueOf(fds[1]);
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("use_binary_lm: %s", use_binary_lm));
+					
+				} else if ("lm_cache_size".equals(fds[0])) {
+					lm_cache_size = Integer.parseInt(fds[1]);
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("lm_cache_size: %s", lm_cache_size));
+					
 				} else if ("lm_ceiling_cost".equals(fds[0])) {
 					lm_ceiling_cost = Double.parseDouble(fds[1]);
 					if (logger.isLoggable(Level.FINEST))
@@ -526,6 +570,16 @@ public class JoshuaConfiguration {
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("topN: %s", topN));
 					
+				} else if ("use_hypergraph_mbr".equals(fds[0])) {
+					use_hypergraph_mbr = Boolean.valueOf(fds[1]);
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("use_hypergraph_mbr: %s", use_hypergraph_mbr));
+					
+				} else if ("mbr_scaling_factor".equals(fds[0])) {
+					mbr_scaling_factor = Double.parseDouble(fds[1]);
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("mbr_scaling_factor: %s", mbr_scaling_factor));
+					
 				} else if ("use_remote_lm_server".equals(fds[0])) {
 					use_remote_lm_server = Boolean.valueOf(fds[1]);
 					if (logger.isLoggable(Level.FINEST)) 
@@ -564,6 +618,29 @@ public class JoshuaConfiguration {
 					if (logger.isLoggable(Level.FINEST)) 
 						logger.finest(String.format("num_parallel_decoders: %s", num_parallel_decoders));
 					
+				} else if ("longest_first".equals(fds[0])) {
+					longest_first = Boolean.valueOf(fds[1]);
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("longest_first: %s", longest_first));
+					
+				} else if ("sentence_window".equals(fds[0])) {
+					sentence_window = Integer.parseInt(fds[1]);
+					if (sentence_window <= 0) {
+						throw new IllegalArgumentException("Must specify a positive number for sentence_window");
+					}
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("sentence_window: %s", sentence_window));
+					
+				} else if ("max_sentences_in_flight".equals(fds[0])) {
+					max_sentences_in_flight = Integer.parseInt(fds[1]);
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("max_sentences_in_flight: %s", max_sentences_in_flight));
+					
+				} else if ("server_port".equals(fds[0])) {
+					server_port = Integer.parseInt(fds[1]);
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("server_port: %s", server_port));
+					
 				} else if ("save_disk_hg".equals(fds[0])) {
 					save_disk_hg = Boolean.valueOf(fds[1]);
 					if (logger.isLoggable(Level.FINEST)) 
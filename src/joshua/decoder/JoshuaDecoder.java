@@ -20,6 +20,7 @@ package joshua.decoder;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -27,10 +28,14 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import joshua.corpus.AlignedParallelCorpus;
 import joshua.corpus.Corpus;
 import joshua.corpus.alignment.Alignments;
 import joshua.corpus.alignment.mm.MemoryMappedAlignmentGrids;
+import joshua.corpus.lexprob.LexicalProbabilities;
+import joshua.corpus.lexprob.MemoryMappedLexProbs;
 import joshua.corpus.mm.MemoryMappedCorpusArray;
+import joshua.corpus.suffix_array.CollocationIndex;
 import joshua.corpus.suffix_array.ParallelCorpusGrammarFactory;
 import joshua.corpus.suffix_array.Suffixes;
 import joshua.corpus.suffix_array.mm.MemoryMappedSuffixArray;
@@ -44,23 +49,28 @@ import joshua.decoder.ff.PhraseModelFF;
 import joshua.decoder.ff.SourcePathFF;
 import joshua.decoder.ff.WordPenaltyFF;
 import joshua.decoder.ff.OOVFF;
+import joshua.decoder.ff.lm.CachedLanguageModel;
 import joshua.decoder.ff.lm.LanguageModelFF;
 import joshua.decoder.ff.lm.kenlm.jni.KenLM;
 import joshua.decoder.ff.lm.NGramLanguageModel;
 import joshua.decoder.ff.lm.bloomfilter_lm.BloomFilterLanguageModel;
+import joshua.decoder.ff.lm.mmap_lm.BinaryLM;
 import joshua.decoder.ff.lm.buildin_lm.LMGrammarJAVA;
 import joshua.decoder.ff.lm.buildin_lm.TrieLM;
 import joshua.decoder.ff.state_maintenance.NgramStateComputer;
 import joshua.decoder.ff.state_maintenance.StateComputer;
+import joshua.decoder.ff.tm.BatchGrammar;
 import joshua.decoder.ff.tm.Grammar;
 import joshua.decoder.ff.tm.GrammarFactory;
 import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
+import joshua.decoder.ff.tm.packed.PackedGrammar;
 import joshua.discriminative.DiscriminativeSupport;
 import joshua.discriminative.feature_related.feature_function.BLEUOracleModel;
 import joshua.discriminative.feature_related.feature_function.FeatureTemplateBasedFF;
 import joshua.ui.hypergraph_visualizer.HyperGraphViewer;
 import joshua.util.FileUtility;
 import joshua.util.Regex;
+import joshua.util.SharedForkJoinPool;
 import joshua.util.io.BinaryIn;
 import joshua.util.io.LineReader;
 
@@ -218,6 +228,31 @@ public class JoshuaDecoder {
 		this.decoderFactory.decodeTestSet(testFile, nbestFile, null);
 	}
 	
+	/**
+	 * Decode a whole test set, writing the n-best lists to a
+	 * stream rather than to standard output. This lets a caller
+	 * that keeps the decoder loaded (such as Z-MERT) read the
+	 * output without going through a file.
+	 *
+	 * @param testFile
+	 * @param nbestOutput Receives the n-best lists in input order;
+	 *                    it is not closed
+	 */
+	public void decodeTestSet(String testFile, OutputStream nbestOutput) {
+		this.decoderFactory.decodeTestSet(testFile, nbestOutput);
+	}
+	
+	
+	/**
+	 * Serves translations over TCP with the loaded models, until
+	 * the process is killed.
+	 *
+	 * @param port Port to listen on
+	 */
+	public void serve(int port) throws IOException {
+		this.decoderFactory.serve(port);
+	}
+	
 	
 	/** Decode a sentence. This must be non-parallel. */
 	public void decodeSentence(String testSentence, String[] nbests) {
@@ -228,6 +263,19 @@ public class JoshuaDecoder {
 	public void cleanUp() {
 		//TODO
 		//this.languageModel.end_lm_grammar(); //end the threads
+		SharedForkJoinPool.shutdown();
+		if (this.languageModel instanceof CachedLanguageModel
+		&& logger.isLoggable(Level.INFO)) {
+			logger.info(this.languageModel.toString());
+		}
+		for (GrammarFactory grammarFactory : this.grammarFactories) {
+			if (grammarFactory instanceof ParallelCorpusGrammarFactory
+			&& logger.isLoggable(Level.INFO)) {
+				Suffixes suffixes = ((ParallelCorpusGrammarFactory) grammarFactory).getSuffixArray();
+				logger.info("matched phrase cache: " + suffixes.getCachedHierarchicalPhrases());
+				logger.info("rule cache: " + suffixes.getCachedRules());
+			}
+		}
 	}
 	
 	public void visualizeHyperGraphForSentence(String sentence)
@@ -303,6 +351,9 @@ public class JoshuaDecoder {
 	 * @return An initialized decoder
 	 */
 	public JoshuaDecoder initialize(String configFile) {
+		// the fork/join tasks of all decoder threads share one pool of this size
+		SharedForkJoinPool.setParallelism(JoshuaConfiguration.num_parallel_decoders);
+		
 		try {
 
 			if (JoshuaConfiguration.tm_file != null) {
@@ -431,6 +482,14 @@ public class JoshuaDecoder {
 					this.languageModel = new TrieLM(
 							this.symbolTable,
 							JoshuaConfiguration.lm_file);
+		} else if (JoshuaConfiguration.use_binary_lm) {
+			if (JoshuaConfiguration.use_left_equivalent_state
+			|| JoshuaConfiguration.use_right_equivalent_state) {
+				throw new IllegalArgumentException("using binary LM, we cannot use suffix/prefix stuff");
+			}
+			this.languageModel = BinaryLM.open(
+					JoshuaDecoder.symbolTable,
+					JoshuaConfiguration.lm_file);
 		} else {
 			
 //			logger.info("Reading language model from " + JoshuaConfiguration.lm_file + " into internal trie");
@@ -448,6 +507,13 @@ public class JoshuaDecoder {
 				JoshuaConfiguration.use_left_equivalent_state,
 				JoshuaConfiguration.use_right_equivalent_state);
 		}
+		
+		if (JoshuaConfiguration.lm_cache_size > 0) {
+			this.languageModel = new CachedLanguageModel(
+				this.languageModel,
+				JoshuaConfiguration.lm_cache_size,
+				4 * JoshuaConfiguration.num_parallel_decoders);
+		}
 	}
 	
 	
@@ -480,7 +546,17 @@ public class JoshuaDecoder {
 			if (logger.isLoggable(Level.INFO))
 				logger.info("Using grammar read from file " + JoshuaConfiguration.tm_file);
 
-            MemoryBasedBatchGrammar gr = new MemoryBasedBatchGrammar(
+            BatchGrammar gr;
+            if ("packed".equals(JoshuaConfiguration.tm_format)) {
+                gr = new PackedGrammar(
+                    JoshuaConfiguration.tm_file,
+                    JoshuaDecoder.symbolTable,
+                    JoshuaConfiguration.phrase_owner,
+                    JoshuaConfiguration.default_non_terminal,
+                    JoshuaConfiguration.span_limit,
+                    JoshuaConfiguration.oov_feature_cost);
+            } else {
+                gr = new MemoryBasedBatchGrammar(
 					JoshuaConfiguration.tm_format,
                     JoshuaConfiguration.tm_file,
                     this.symbolTable,
@@ -488,6 +564,7 @@ public class JoshuaDecoder {
                     JoshuaConfiguration.default_non_terminal,
                     JoshuaConfiguration.span_limit,
                     JoshuaConfiguration.oov_feature_cost);
+            }
 
             this.grammarFactories.add(gr);
 		
@@ -604,8 +681,35 @@ public class JoshuaDecoder {
 					sourceCorpusArray,
 					targetCorpusArray);
 				
+		String binaryLexiconFileName = 
+			JoshuaConfiguration.tm_file + 
+			File.separator + "lexicon.bin";
+		
 		// Finally, add the parallel corpus that will serve as a grammar
-		ParallelCorpusGrammarFactory parallelCorpus = new ParallelCorpusGrammarFactory(
+		ParallelCorpusGrammarFactory parallelCorpus;
+		if (new File(binaryLexiconFileName).exists()) {
+			if (logger.isLoggable(Level.INFO))
+				logger.info("Reading lexical translation table from " +
+					binaryLexiconFileName);
+			LexicalProbabilities lexProbs =
+				new MemoryMappedLexProbs(
+					binaryLexiconFileName,
+					new AlignedParallelCorpus(sourceCorpusArray, targetCorpusArray, alignments),
+					JoshuaConfiguration.sa_lex_floor_prob);
+			parallelCorpus = new ParallelCorpusGrammarFactory(
+				sourceSuffixArray,
+				targetSuffixArray,
+				alignments,
+				this.featureFunctions,
+				lexProbs,
+				JoshuaConfiguration.sa_rule_sample_size,
+				JoshuaConfiguration.sa_max_phrase_span,
+				JoshuaConfiguration.sa_max_phrase_length,
+				JoshuaConfiguration.sa_max_nonterminals,
+				JoshuaConfiguration.sa_min_nonterminal_span,
+				JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
+		} else {
+			parallelCorpus = new ParallelCorpusGrammarFactory(
 				sourceSuffixArray,
 				targetSuffixArray,
 				alignments,
@@ -617,6 +721,20 @@ public class JoshuaDecoder {
 				JoshuaConfiguration.sa_min_nonterminal_span,
 				JoshuaConfiguration.sa_lex_floor_prob, 
 				JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
+		}
+		
+		String binaryCollocationsFileName = 
+			JoshuaConfiguration.tm_file + 
+			File.separator + "collocations";
+		if (new File(binaryCollocationsFileName).exists()) {
+			if (logger.isLoggable(Level.INFO))
+				logger.info("Reading precomputed collocations from " +
+					binaryCollocationsFileName);
+			parallelCorpus.setCollocationIndex(
+				new CollocationIndex(
+					binaryCollocationsFileName, 
+					JoshuaDecoder.symbolTable));
+		}
 		
 		return parallelCorpus;
 	}
@@ -850,7 +968,11 @@ public class JoshuaDecoder {
 		
 		
 		/* Step-2: Decoding */
-		decoder.decodeTestSet(testFile, nbestFile, oracleFile);
+		if (JoshuaConfiguration.server_port > 0) {
+			decoder.serve(JoshuaConfiguration.server_port);
+		} else {
+			decoder.decodeTestSet(testFile, nbestFile, oracleFile);
+		}
 		
 		
 		/* Step-3: clean up */
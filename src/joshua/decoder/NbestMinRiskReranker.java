@@ -18,21 +18,35 @@
 
 package joshua.decoder;
 
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.lm.NgramExtractor;
+import joshua.decoder.hypergraph.DefaultInsideOutside;
+import joshua.decoder.hypergraph.HGNode;
+import joshua.decoder.hypergraph.HyperEdge;
+import joshua.decoder.hypergraph.HyperGraph;
+import joshua.decoder.hypergraph.HyperGraphTraversal;
+import joshua.decoder.hypergraph.KBestExtractor;
+import joshua.decoder.hypergraph.TrivialInsideOutside;
 import joshua.util.io.LineReader;
 import joshua.util.FileUtility;
-import joshua.util.Ngram;
+import joshua.util.NgramMatcher;
+import joshua.util.NgramTable;
+import joshua.util.SharedForkJoinPool;
 import joshua.util.Regex;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.Scanner;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 
 
@@ -62,7 +76,24 @@ public class NbestMinRiskReranker {
 	static int bleuOrder = 4;
 	static boolean doNgramClip = true;
 	
-	static boolean useGoogleLinearCorpusGain = false;
+	/**
+	 * If true, each hypothesis is scored by its expected linear
+	 * corpus gain (Tromble et al., 2008) instead of its expected
+	 * sentence BLEU. The linear gain only needs the n-gram posteriors
+	 * of the nbest, which are computed once per sentence, so that
+	 * reranking takes time linear in the size of the nbest instead
+	 * of quadratic.
+	 */
+	boolean useGoogleLinearCorpusGain = false;
+	
+	/** theta_0 (per word) and theta_1..theta_4 (per matched n-gram) of the linear gain */
+	double[] linearCorpusGainThetas = defaultLinearCorpusGainThetas();
+	
+	/** nbest lists at least this long are reranked by several threads */
+	static int minParallelNbestSize = 100;
+	
+	/** hypotheses per task when the gains of an nbest are computed in parallel */
+	static final int GAIN_TASK_SIZE = 16;
 	
 	final PriorityBlockingQueue<RankerResult> resultsQueue =
 		new PriorityBlockingQueue<RankerResult>();
@@ -72,8 +103,74 @@ public class NbestMinRiskReranker {
 		this.scalingFactor = scalingFactor;
 	}
 	
+	/**
+	 * Constructs a reranker that uses the expected linear corpus gain,
+	 * with the given thetas, or the default thetas if null.
+	 */
+	public NbestMinRiskReranker(boolean produceRerankedNbest, double scalingFactor, double[] linearCorpusGainThetas) {
+		this(produceRerankedNbest, scalingFactor);
+		this.useGoogleLinearCorpusGain = true;
+		if (linearCorpusGainThetas != null) {
+			if (linearCorpusGainThetas.length != bleuOrder + 1) {
+				throw new IllegalArgumentException("linear corpus gain needs " + (bleuOrder + 1) + " thetas");
+			}
+			this.linearCorpusGainThetas = linearCorpusGainThetas;
+		}
+	}
+	
+	/**
+	 * Same thetas as BLEU.computeLinearCorpusThetas with a unigram
+	 * precision of 0.85 and a decay ratio of 0.7, normalized so that
+	 * theta_0 is -1.
+	 */
+	static double[] defaultLinearCorpusGainThetas() {
+		double[] thetas = new double[bleuOrder + 1];
+		thetas[0] = -1;
+		for (int n = 1; n <= bleuOrder; n++) {
+			thetas[n] = 1.0 / (bleuOrder * 0.85 * Math.pow(0.7, n - 1));
+		}
+		return thetas;
+	}
+	
 	
 	public String processOneSent( List<String> nbest, int sentID) {
+		return processOneSent(nbest, sentID, null);
+	}
+	
+	/**
+	 * Reranks the nbest of a hypergraph by its expected linear corpus
+	 * gain under the n-gram posteriors of the whole hypergraph, which
+	 * are computed by inside-outside with the scaling factor of this
+	 * reranker.
+	 * 
+	 * @param models feature functions of the hypergraph, whose costs are part of the nbest
+	 * @param topN size of the nbest to rerank
+	 * @param symbolTable symbol table of the hypergraph, which is only read
+	 * @param ngramStateID ID of the n-gram states of the hypergraph's nodes
+	 * @param lmOrder order of those n-gram states' language model
+	 */
+	public String processOneSent(HyperGraph hg, int sentID, List<FeatureFunction> models, int topN,
+			SymbolTable symbolTable, int ngramStateID, int lmOrder) {
+		DefaultInsideOutside insideOutside = new TrivialInsideOutside();
+		insideOutside.runInsideOutside(hg, 0, 1, scalingFactor);
+		NgramExtractor ngramExtractor = new NgramExtractor(symbolTable, ngramStateID, true, lmOrder);
+		NgramPosteriors posteriors = computeNgramPosteriors(hg, insideOutside, ngramExtractor, symbolTable);
+		insideOutside.clearState();
+		
+		KBestExtractor kbestExtractor = new KBestExtractor(symbolTable, true, false, false, true, false, false);
+		List<String> nbest = new ArrayList<String>();
+		kbestExtractor.lazyKBestExtractOnHG(hg, models, topN, sentID, nbest);
+		return processOneSent(nbest, sentID, posteriors);
+	}
+	
+	/**
+	 * Reranks an nbest by its expected linear corpus gain under n-gram
+	 * posteriors computed on the hypergraph it was extracted from (see
+	 * computeNgramPosteriors), rather than on the nbest itself.
+	 * 
+	 * @param hgPosteriors n-gram posteriors, which also give the IDs of the hyps' words
+	 */
+	public String processOneSent( List<String> nbest, int sentID, NgramPosteriors hgPosteriors) {
 		System.err.println("Now process sentence " + sentID);
 		
 		//step-0: preprocess
@@ -82,9 +179,12 @@ public class NbestMinRiskReranker {
 		List<String> hypsItself = new ArrayList<String>();
 		//ArrayList<String> l_feat_scores = new ArrayList<String>();
 		List<Double> baselineScores = new ArrayList<Double>(); // linear combination of all baseline features
-		List<HashMap<String,Integer>> ngramTbls = new ArrayList<HashMap<String,Integer>>();
+		List<NgramTable> ngramTbls = new ArrayList<NgramTable>();
 		List<Integer> sentLens = new ArrayList<Integer>();
 		
+		// every hyp is used as a pseudo-reference, so all hyps' words get integer IDs
+		NgramMatcher ngramMatcher = new NgramMatcher(bleuOrder);
+		
 		for (String hyp : nbest) {
 			String[] fds = Regex.threeBarsWithSpace.split(hyp);
 			int tSentID = Integer.parseInt(fds[0]);
@@ -97,9 +197,8 @@ public class NbestMinRiskReranker {
 			String[] words = Regex.spaces.split(hypothesis);
 			sentLens.add(words.length);
 			
-			HashMap<String,Integer> ngramTbl = new HashMap<String,Integer>();
-			Ngram.getNgrams(ngramTbl, 1, bleuOrder, words);
-			ngramTbls.add(ngramTbl);
+			int[] wordIDs = (hgPosteriors != null) ? hgPosteriors.getWordIDs(words) : ngramMatcher.addWords(words);
+			ngramTbls.add(ngramMatcher.count(wordIDs));
 			
 			//l_feat_scores.add(fds[2]);
 			
@@ -120,38 +219,32 @@ public class NbestMinRiskReranker {
 		List<Double> normalizedProbs = baselineScores;
 		
 		//=== required by google linear corpus gain
-		HashMap<String, Double> posteriorCountsTbl = null;
-		if (useGoogleLinearCorpusGain) {
-			posteriorCountsTbl = new HashMap<String,Double>();
+		NgramPosteriors posteriorCountsTbl = hgPosteriors;
+		if (posteriorCountsTbl == null && useGoogleLinearCorpusGain) {
+			posteriorCountsTbl = new NgramPosteriors();
 			getGooglePosteriorCounts(ngramTbls, normalizedProbs, posteriorCountsTbl);
 		}
 	
 		
 		//step-2: rerank the nbest
-		/**TODO: zhifei: now the re-ranking takes O(n^2) where n is the size of the nbest.
-		 * But, we can significantly speed up this (leadding to O(n)) by 
-		 * first estimating a model on nbest, and then rerank the nbest
-		 * using the estimated model.
+		/**the expected sentence BLEU of a hyp takes O(n) where n is
+		 * the size of the nbest, so large nbests are split among
+		 * several threads; the linear corpus gain takes O(1)
 		 * */
+		double[] gains = new double[hypsItself.size()];
+		GainTask task = new GainTask(gains, 0, gains.length, ngramTbls, sentLens, normalizedProbs, posteriorCountsTbl);
+		if (gains.length >= minParallelNbestSize) {
+			SharedForkJoinPool.invoke(task);
+		} else {
+			task.compute();
+		}
+		
 		double bestGain = -1000000000;//set as worst gain
 		String bestHyp = null;
-		List<Double> gains = new ArrayList<Double>();
 		for (int i = 0; i < hypsItself.size(); i++) {
-			String curHyp =  hypsItself.get(i);
-			int curHypLen = sentLens.get(i);
-			HashMap<String, Integer> curHypNgramTbl = ngramTbls.get(i);
-			//double cur_gain = computeGain(cur_hyp, l_hyp_itself, l_normalized_probs);
-			double curGain = 0;
-			if (useGoogleLinearCorpusGain) {
-				curGain = computeExpectedLinearCorpusGain(curHypLen, curHypNgramTbl, posteriorCountsTbl);
-			} else {
-				curGain = computeExpectedGain(curHypLen, curHypNgramTbl, ngramTbls, sentLens,normalizedProbs);
-			}
-			
-			gains.add( curGain);
-			if (i == 0 || curGain > bestGain) { // maximize
-				bestGain = curGain;
-				bestHyp = curHyp;
+			if (i == 0 || gains[i] > bestGain) { // maximize
+				bestGain = gains[i];
+				bestHyp = hypsItself.get(i);
 			}
 		}
 		
@@ -172,6 +265,46 @@ public class NbestMinRiskReranker {
 		}
 		return bestHyp;
 	}
+	
+	
+	/**computes the gains of the hyps in [from, to), splitting the range among threads*/
+	private class GainTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		final double[] gains;
+		final int from, to;
+		final List<NgramTable> ngramTbls;
+		final List<Integer> sentLens;
+		final List<Double> normalizedProbs;
+		final NgramPosteriors posteriorCountsTbl;
+		
+		GainTask(double[] gains, int from, int to, List<NgramTable> ngramTbls, List<Integer> sentLens,
+				List<Double> normalizedProbs, NgramPosteriors posteriorCountsTbl) {
+			this.gains = gains;
+			this.from = from;
+			this.to = to;
+			this.ngramTbls = ngramTbls;
+			this.sentLens = sentLens;
+			this.normalizedProbs = normalizedProbs;
+			this.posteriorCountsTbl = posteriorCountsTbl;
+		}
+		
+		protected void compute() {
+			if (to - from > GAIN_TASK_SIZE && gains.length >= minParallelNbestSize) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new GainTask(gains, from, middle, ngramTbls, sentLens, normalizedProbs, posteriorCountsTbl),
+						new GainTask(gains, middle, to, ngramTbls, sentLens, normalizedProbs, posteriorCountsTbl));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				if (posteriorCountsTbl != null) {
+					gains[i] = computeExpectedLinearCorpusGain(sentLens.get(i), ngramTbls.get(i), posteriorCountsTbl);
+				} else {
+					gains[i] = computeExpectedGain(sentLens.get(i), ngramTbls.get(i), ngramTbls, sentLens, normalizedProbs);
+				}
+			}
+		}
+	}
 
 	
 	/**based on a list of log-probabilities in nbestLogProbs, obtain a 
@@ -217,17 +350,20 @@ public class NbestMinRiskReranker {
 	//Gain(e) = negative risk = \sum_{e'} G(e, e')P(e')
 	//curHyp: e
 	//trueHyp: e'
-	public double computeExpectedGain(int curHypLen, HashMap<String, Integer> curHypNgramTbl, List<HashMap<String,Integer>> ngramTbls, 
+	public double computeExpectedGain(int curHypLen, NgramTable curHypNgramTbl, List<NgramTable> ngramTbls, 
 			List<Integer> sentLens, List<Double> nbestProbs) {
 		
 		//### get noralization constant, remember features, remember the combined linear score
 		double gain = 0;
+		int[] numNgramMatch = new int[bleuOrder];
 		
 		for (int i = 0; i < nbestProbs.size(); i++) {
-			HashMap<String,Integer> trueHypNgramTbl = ngramTbls.get(i);
+			NgramTable trueHypNgramTbl = ngramTbls.get(i);
 			double trueProb = nbestProbs.get(i);
 			int trueLen = sentLens.get(i);
-			gain += trueProb * BLEU.computeSentenceBleu(trueLen, trueHypNgramTbl, curHypLen, curHypNgramTbl, doNgramClip, bleuOrder);
+			Arrays.fill(numNgramMatch, 0);
+			curHypNgramTbl.countMatches(trueHypNgramTbl, doNgramClip, numNgramMatch);
+			gain += trueProb * BLEU.computeBleu(curHypLen, trueLen, numNgramMatch, bleuOrder);
 		}
 		//System.out.println("Gain is " + gain);
 		return gain;
@@ -249,26 +385,155 @@ public class NbestMinRiskReranker {
 		return gain;
 	} 
 	
-	void getGooglePosteriorCounts( List<HashMap<String,Integer>>  ngramTbls,  List<Double> normalizedProbs, HashMap<String,Double> posteriorCountsTbl) {
-		//TODO
+	/**
+	 * Computes the posterior probability of each n-gram in the nbest:
+	 * the total probability of the hyps that contain it.
+	 */
+	void getGooglePosteriorCounts( List<NgramTable>  ngramTbls,  List<Double> normalizedProbs, NgramPosteriors posteriorCountsTbl) {
+		for (int i = 0; i < ngramTbls.size(); i++) {
+			NgramTable ngramTbl = ngramTbls.get(i);
+			double prob = normalizedProbs.get(i);
+			for (int slot = 0; slot < ngramTbl.capacity(); slot++) {
+				if (ngramTbl.countAt(slot) != 0) {
+					posteriorCountsTbl.add(ngramTbl.keyAt(slot), prob);
+				}
+			}
+		}
 	}
 	
-	double computeExpectedLinearCorpusGain(int curHypLen, HashMap<String,Integer> curHypNgramTbl, HashMap<String,Double> posteriorCountsTbl) {
-		//TODO
-		double[] thetas = { -1, 1, 1, 1, 1 };
+	//Gain(e) = theta_0 * |e| + \sum_{w in e} theta_|w| * count_w(e) * P(w|F)
+	double computeExpectedLinearCorpusGain(int curHypLen, NgramTable curHypNgramTbl, NgramPosteriors posteriorCountsTbl) {
+		double[] thetas = linearCorpusGainThetas;
 		
 		double res = 0;
 		res += thetas[0] * curHypLen;
-		for (Entry<String,Integer> entry : curHypNgramTbl.entrySet()) {
-			String   key = entry.getKey();
-			String[] tem = Regex.spaces.split(key);
+		for (int slot = 0; slot < curHypNgramTbl.capacity(); slot++) {
+			int count = curHypNgramTbl.countAt(slot);
+			if (count == 0) continue;
+			long key = curHypNgramTbl.keyAt(slot);
 			
 			double post_prob = posteriorCountsTbl.get(key);
-			res += entry.getValue() * post_prob * thetas[tem.length];
+			res += count * post_prob * thetas[NgramTable.order(key)];
 		}
 		return res;
 	}
 	
+	
+	/**
+	 * Computes the n-gram posteriors of a hypergraph, for reranking
+	 * an nbest extracted from it: the posterior of an n-gram is its
+	 * expected count, summed over the hyperedges that create it.
+	 * This equals the posterior probability that the n-gram occurs in
+	 * the translation when no derivation contains it twice. N-grams
+	 * longer than the LM order of the extractor are left out.
+	 * 
+	 * @param insideOutside on which runInsideOutside has already been called for hg
+	 * @param ngramExtractor must produce integer n-grams
+	 * @param symbolTable symbol table of the hypergraph, which is only read
+	 */
+	public static NgramPosteriors computeNgramPosteriors(HyperGraph hg, DefaultInsideOutside insideOutside, NgramExtractor ngramExtractor, SymbolTable symbolTable) {
+		NgramPosteriors posteriors = new NgramPosteriors();
+		int maxOrder = Math.min(bleuOrder, ngramExtractor.getBaselineLMOrder());
+		for (HGNode node : HyperGraphTraversal.bottomUpNodes(hg.goalNode)) {
+			for (HyperEdge edge : node.hyperedges) {
+				if (edge.getRule() == null) {//hyperedges under the goal node create no new ngram
+					continue;
+				}
+				double edgePosterior = insideOutside.getEdgePosteriorProb(edge, node);
+				for (Map.Entry<String,Integer> entry : ngramExtractor.getTransitionNgrams(edge, 1, maxOrder).entrySet()) {
+					String[] wordIDs = Regex.spaces.split(entry.getKey());
+					long hash = NgramTable.startHash();
+					for (String wordID : wordIDs) {
+						int id = Integer.parseInt(wordID);
+						hash = NgramTable.extendHash(hash, id);
+						posteriors.addWord(symbolTable.getWord(id), id);
+					}
+					posteriors.add(NgramTable.key(hash, wordIDs.length), entry.getValue() * edgePosterior);
+				}
+			}
+		}
+		return posteriors;
+	}
+	
+	
+	/**
+	 * Posteriors of n-grams, keyed by NgramTable keys, in an
+	 * open-addressing hash table, along with the IDs of the words
+	 * of those n-grams, so that hyps can be matched against them
+	 * without adding their words to a shared symbol table. Adding
+	 * is not thread-safe; once built, a table can be read by any
+	 * number of threads.
+	 */
+	public static class NgramPosteriors {
+		
+		private long[] keys = new long[1024];//an NgramTable key is never 0, so 0 marks an empty slot
+		private double[] posteriors = new double[1024];
+		private int size;
+		private final HashMap<String,Integer> wordIDs = new HashMap<String,Integer>();
+		
+		public void addWord(String word, int id) {
+			wordIDs.put(word, id);
+		}
+		
+		/**
+		 * Returns the IDs of the words, or -1 for words in no n-gram
+		 * of the table, as NgramMatcher.lookupWords does, so that the
+		 * n-grams with such words are not counted.
+		 */
+		public int[] getWordIDs(String[] words) {
+			int[] ids = new int[words.length];
+			for (int i = 0; i < words.length; i++) {
+				Integer id = wordIDs.get(words[i]);
+				ids[i] = (id != null) ? id : -1;
+			}
+			return ids;
+		}
+		
+		public void add(long key, double posterior) {
+			int slot = find(keys, key);
+			if (keys[slot] == 0) {
+				keys[slot] = key;
+				if (++size * 2 > keys.length) {
+					grow();
+					slot = find(keys, key);
+				}
+			}
+			posteriors[slot] += posterior;
+		}
+		
+		/** returns the posterior of an n-gram, or zero if it has none */
+		public double get(long key) {
+			return posteriors[find(keys, key)];
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		private static int find(long[] keys, long key) {
+			int mask = keys.length - 1;
+			int slot = ((int) key ^ (int) (key >>> 32)) & mask;
+			while (keys[slot] != 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+		
+		private void grow() {
+			long[] oldKeys = keys;
+			double[] oldPosteriors = posteriors;
+			keys = new long[2 * oldKeys.length];
+			posteriors = new double[2 * oldKeys.length];
+			for (int s = 0; s < oldKeys.length; s++) {
+				if (oldKeys[s] != 0) {
+					int slot = find(keys, oldKeys[s]);
+					keys[slot] = oldKeys[s];
+					posteriors[slot] = oldPosteriors[s];
+				}
+			}
+		}
+	}
+	
 //	OR: return Math.log(Math.exp(x) + Math.exp(y));
 	static private double addInLogSemiring(double x, double y, int addMode){//prevent over-flow 
 		if (addMode == 0) { // sum
@@ -300,17 +565,20 @@ public class NbestMinRiskReranker {
 		// If you don't know what to use for scaling factor, try using 1
 		
 		if (args.length<2) {
-			System.err.println("usage: java NbestMinRiskReranker <produce_reranked_nbest> <scaling_factor> [numThreads]");
+			System.err.println("usage: java NbestMinRiskReranker <produce_reranked_nbest> <scaling_factor> [numThreads] [use_linear_corpus_gain]");
 			return;
 		}
 		long startTime = System.currentTimeMillis();
 		boolean produceRerankedNbest = Boolean.valueOf(args[0].trim());
 		double scalingFactor = Double.parseDouble(args[1].trim());
 		int numThreads = (args.length > 2) ? Integer.parseInt(args[2].trim()) : 1;
+		boolean useLinearCorpusGain = (args.length > 3) && Boolean.valueOf(args[3].trim());
+		SharedForkJoinPool.setParallelism(numThreads);
 	
 		
-		NbestMinRiskReranker mbrReranker =
-			new NbestMinRiskReranker(produceRerankedNbest, scalingFactor);
+		NbestMinRiskReranker mbrReranker = useLinearCorpusGain
+			? new NbestMinRiskReranker(produceRerankedNbest, scalingFactor, null)
+			: new NbestMinRiskReranker(produceRerankedNbest, scalingFactor);
 		
 		System.err.println("##############running mbr reranking");
 		
@@ -381,6 +649,8 @@ public class NbestMinRiskReranker {
 			
 		}
 		
+		SharedForkJoinPool.shutdown();
+		
 		System.err.println("Total running time (seconds) is "
 			+ (System.currentTimeMillis() - startTime) / 1000.0);
 	}
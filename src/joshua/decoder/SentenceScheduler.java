@@ -0,0 +1,275 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.Phrase;
+import joshua.decoder.ff.tm.DocumentGrammarFactory;
+import joshua.decoder.segment_file.Sentence;
+
+/**
+ * Dispatches the sentences of an input to a fixed pool of worker
+ * threads, each of which decodes with whichever idle
+ * DecoderThread it picks up.
+ * <p>
+ * All workers take sentences from one shared queue, so a worker
+ * that finishes early moves straight on to the next sentence
+ * rather than waiting on its own share of the input. Optionally,
+ * the input is read in windows that are dispatched costliest
+ * first, so that long sentences do not end up alone at the tail
+ * of a run.
+ * <p>
+ * Translations are still written out in input order by the
+ * InputHandler. The number of sentences that have been
+ * dispatched but not yet written out is bounded, which caps the
+ * memory held by queued sentences, live hypergraphs, and
+ * rendered output waiting on an earlier sentence.
+ * <p>
+ * Optionally, the input is also read in batches whose grammars
+ * are prepared together before any of their sentences is
+ * dispatched, so that rules needed by several sentences of a
+ * batch are extracted only once.
+ *
+ * @version $LastChangedDate$
+ */
+public class SentenceScheduler {
+
+	private static final Logger logger =
+		Logger.getLogger(SentenceScheduler.class.getName());
+	
+	private final InputHandler inputHandler;
+	
+	/** Decoders not currently in use by a worker. */
+	private final BlockingQueue<DecoderThread> idleDecoders;
+	
+	private final int numWorkers;
+	private final boolean longestFirst;
+	private final int window;
+	
+	/** Permits for sentences dispatched but not yet written out. */
+	private final Semaphore inFlight;
+	
+	/** Grammars to prepare for each batch of sentences. */
+	private final List<DocumentGrammarFactory> documentGrammars;
+	
+	/** Number of sentences per batch, or zero to not batch. */
+	private final int batchSize;
+	
+	/**
+	 * Constructs a scheduler with one worker per decoder.
+	 * 
+	 * @param decoders Decoders to share among the workers
+	 * @param inputHandler Source of the sentences, which also
+	 *                     writes the translations in order
+	 * @param longestFirst Whether to dispatch the costliest
+	 *                     sentences of each window first
+	 * @param window Number of sentences to read ahead and
+	 *               reorder, when dispatching longest first
+	 * @param maxInFlight Maximum number of sentences dispatched
+	 *                    but not yet written out, or zero to
+	 *                    choose one from the window and the
+	 *                    number of decoders
+	 */
+	public SentenceScheduler(List<DecoderThread> decoders, InputHandler inputHandler, 
+			boolean longestFirst, int window, int maxInFlight) {
+		this(decoders, inputHandler, longestFirst, window, maxInFlight,
+				Collections.<DocumentGrammarFactory>emptyList(), 0);
+	}
+	
+	/**
+	 * Constructs a scheduler with one worker per decoder, which
+	 * prepares the grammars of each batch of sentences before
+	 * dispatching them.
+	 * 
+	 * @param decoders Decoders to share among the workers
+	 * @param inputHandler Source of the sentences, which also
+	 *                     writes the translations in order
+	 * @param longestFirst Whether to dispatch the costliest
+	 *                     sentences of each window first
+	 * @param window Number of sentences to read ahead and
+	 *               reorder, when dispatching longest first
+	 * @param maxInFlight Maximum number of sentences dispatched
+	 *                    but not yet written out, or zero to
+	 *                    choose one from the window and the
+	 *                    number of decoders
+	 * @param documentGrammars Grammars to prepare for each batch
+	 * @param batchSize Number of sentences per batch, or zero to
+	 *                  get each sentence's grammars on their own
+	 */
+	public SentenceScheduler(List<DecoderThread> decoders, InputHandler inputHandler, 
+			boolean longestFirst, int window, int maxInFlight,
+			List<DocumentGrammarFactory> documentGrammars, int batchSize) {
+		
+		this.inputHandler = inputHandler;
+		this.idleDecoders = new LinkedBlockingQueue<DecoderThread>(decoders);
+		this.numWorkers = decoders.size();
+		this.longestFirst = longestFirst;
+		
+		int bound = (maxInFlight > 0) 
+			? maxInFlight 
+			: Math.max(longestFirst ? window : 1, 8 * numWorkers);
+		
+		// A window must fit within the bound, or its earliest
+		// sentence could wait forever for a permit held by the
+		// later sentences of its own window
+		this.window = longestFirst ? Math.max(1, Math.min(window, bound)) : 1;
+		this.inFlight = new Semaphore(bound);
+		
+		this.documentGrammars = documentGrammars;
+		this.batchSize = documentGrammars.isEmpty() ? 0 : Math.max(0, batchSize);
+	}
+	
+	/**
+	 * Decodes all sentences of the input, returning once every
+	 * translation has been written out.
+	 */
+	public void run() throws InterruptedException {
+		
+		ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+		
+		try {
+			// A batch is dispatched a window at a time, so that no
+			// window outgrows the bound on sentences in flight
+			int readAhead = Math.max(window, batchSize);
+			
+			List<Sentence> sentences = new ArrayList<Sentence>(readAhead);
+			while (true) {
+				sentences.clear();
+				for (Sentence sentence = null; sentences.size() < readAhead && (sentence = inputHandler.next()) != null; ) {
+					sentences.add(sentence);
+				}
+				if (sentences.isEmpty()) break;
+				
+				if (batchSize > 0) {
+					prepareGrammars(sentences);
+				}
+				
+				for (int start = 0; start < sentences.size(); start += window) {
+					List<Sentence> windowSentences = new ArrayList<Sentence>(
+							sentences.subList(start, Math.min(start + window, sentences.size())));
+					
+					if (longestFirst && windowSentences.size() > 1) {
+						sortByCost(windowSentences);
+					}
+					
+					for (Sentence sentence : windowSentences) {
+						inFlight.acquire();
+						workers.execute(new Task(sentence));
+					}
+				}
+			}
+		} finally {
+			workers.shutdown();
+		}
+		
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+	}
+	
+	/** Prepares the grammars of a batch of sentences. */
+	private void prepareGrammars(List<Sentence> sentences) {
+		List<Phrase> patterns = new ArrayList<Phrase>(sentences.size());
+		for (Sentence sentence : sentences) {
+			// as DecoderThread asks for the grammar of each sentence
+			patterns.add(sentence.pattern());
+		}
+		
+		long start = System.currentTimeMillis();
+		for (DocumentGrammarFactory grammarFactory : documentGrammars) {
+			grammarFactory.prepareGrammars(patterns);
+		}
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Prepared grammars for " + sentences.size() + " sentences in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+	
+	/** 
+	 * Sorts sentences by decreasing estimated cost, keeping input
+	 * order among sentences of equal cost.
+	 */
+	private static void sortByCost(List<Sentence> sentences) {
+		int size = sentences.size();
+		final long[] costs = new long[size];
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			costs[i] = sentences.get(i).estimatedCost();
+			order[i] = i;
+		}
+		
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (costs[a] != costs[b]) {
+					return (costs[a] > costs[b]) ? -1 : 1;
+				}
+				return a.compareTo(b);
+			}
+		});
+		
+		List<Sentence> sorted = new ArrayList<Sentence>(size);
+		for (int i : order) {
+			sorted.add(sentences.get(i));
+		}
+		sentences.clear();
+		sentences.addAll(sorted);
+	}
+	
+	/** Decodes one sentence with an idle decoder. */
+	private class Task implements Runnable {
+		
+		private final Sentence sentence;
+		
+		Task(Sentence sentence) {
+			this.sentence = sentence;
+		}
+		
+		public void run() {
+			DecoderThread decoder = null;
+			try {
+				decoder = idleDecoders.take();
+				
+				long start = System.currentTimeMillis();
+				Translation translation = decoder.decode(sentence);
+				if (logger.isLoggable(Level.FINE)) {
+					logger.fine("Decoded sentence " + sentence.id() + " in " + (System.currentTimeMillis() - start) + " ms");
+				}
+				
+				inFlight.release(inputHandler.register(translation));
+				
+			} catch (Throwable e) {
+				// As in DecoderThread.run(): once one sentence has
+				// failed, decoding cannot finish successfully
+				e.printStackTrace();
+				System.exit(1);
+			} finally {
+				if (decoder != null) idleDecoders.add(decoder);
+			}
+		}
+	}
+}
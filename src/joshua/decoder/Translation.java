@@ -27,6 +27,8 @@ import joshua.util.Regex;
 
 import java.io.StringWriter;
 import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.io.IOException;
 
 import java.util.List;
@@ -41,6 +43,11 @@ import java.util.regex.Matcher;
  * DecoderThread instances to the InputHandler, where they are
  * assembled in order for output.
  *
+ * The decoding thread is expected to call render() before handing
+ * the object off, so that k-best extraction happens in parallel and
+ * the hypergraph can be garbage-collected; the InputHandler then only
+ * has to copy the rendered bytes to standard output.
+ *
  * @author Matt Post <post@jhu.edu>
  * @version $LastChangedDate: 2010-05-02 11:19:17 -0400 (Sun, 02 May 2010) $
  */
@@ -53,6 +60,7 @@ public class Translation {
     private double       score;
     private HyperGraph   hypergraph;
     private List<FeatureFunction> featureFunctions;
+    private String       output = null;
 
     public Translation(Sentence source, HyperGraph hypergraph, List<FeatureFunction> featureFunctions) {
         this.source = source;
@@ -101,39 +109,92 @@ public class Translation {
         }
     }
 
-    /* Prints the k-best list to standard output.
+    /* Extracts the k-best list into an in-memory buffer and releases
+     * the hypergraph.  This is thread-safe with respect to other
+     * Translation objects, and should be called by the decoding
+     * thread so that only the (cheap) copy done by print() has to be
+     * serialized.  Calling it more than once has no effect.  With
+     * use_hypergraph_mbr, the buffer holds the MBR hypothesis instead
+     * of the k-best list.
      */
-    public void print() {
-        if (hypergraph != null) {
-            KBestExtractor kBestExtractor = new KBestExtractor(JoshuaDecoder.symbolTable,
-                JoshuaConfiguration.use_unique_nbest,
-                JoshuaConfiguration.use_tree_nbest,
-                JoshuaConfiguration.include_align_index,
-                JoshuaConfiguration.add_combined_cost,
-                false, true);
+    public void render() {
+        if (output != null)
+            return;
+
+        StringWriter text = new StringWriter();
+        BufferedWriter out = new BufferedWriter(text);
+
+        try {
+            if (hypergraph != null && JoshuaConfiguration.use_hypergraph_mbr) {
+                NbestMinRiskReranker mbrReranker = new NbestMinRiskReranker(false,
+                    JoshuaConfiguration.mbr_scaling_factor, null);
+
+                out.write(mbrReranker.processOneSent(hypergraph, id(), this.featureFunctions,
+                    JoshuaConfiguration.topN, JoshuaDecoder.symbolTable,
+                    JoshuaConfiguration.ngramStateID, JoshuaConfiguration.lm_order));
+                out.newLine();
+
+            } else if (hypergraph != null) {
+                KBestExtractor kBestExtractor = new KBestExtractor(JoshuaDecoder.symbolTable,
+                    JoshuaConfiguration.use_unique_nbest,
+                    JoshuaConfiguration.use_tree_nbest,
+                    JoshuaConfiguration.include_align_index,
+                    JoshuaConfiguration.add_combined_cost,
+                    false, true);
 
-            try {
                 kBestExtractor.lazyKBestExtractOnHG(hypergraph, 
-                    this.featureFunctions, JoshuaConfiguration.topN, id(), 
-                    (BufferedWriter)null);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+                    this.featureFunctions, JoshuaConfiguration.topN, id(), out);
 
-        } else {
-            
-            System.out.print(id() + " ||| " + getSourceSentence().sentence() + " ||| ");
-			
-            for (FeatureFunction ff: featureFunctions)
-                System.out.print(" 0");
+            } else {
+
+                out.write(id() + " ||| " + getSourceSentence().sentence() + " ||| ");
 
-            System.out.println(" ||| 0.0");
+                for (FeatureFunction ff: featureFunctions)
+                    out.write(" 0");
 
+                out.write(" ||| 0.0");
+                out.newLine();
+            }
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 
+        output = text.toString();
+
+        // the k-best list is all we need from here on
+        hypergraph = null;
+    }
+
+    /* Prints the k-best list to standard output, rendering it first
+     * if that has not already been done.
+     */
+    public void print() {
+        render();
+
+        System.out.print(output);
         System.out.flush();
     }
 
+    /* Writes the k-best list to the given stream, in the default
+     * encoding to match what System.out produces, rendering it first
+     * if that has not already been done.  The stream is not flushed.
+     */
+    public void print(OutputStream out) throws IOException {
+        render();
+
+        out.write(output.getBytes());
+    }
+
+    /* Writes the k-best list to the given writer, rendering it first
+     * if that has not already been done.  The writer is not flushed.
+     */
+    public void print(Writer out) throws IOException {
+        render();
+
+        out.write(output);
+    }
+
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append(id());
@@ -59,7 +59,7 @@ class Cell {
 	private int constraintSymbolId;
 		
 	// to maintain uniqueness of nodes
-	private HashMap<String,HGNode> nodesSigTbl = new HashMap<String,HGNode>();
+	private NodeSignatureTable nodesSigTbl = new NodeSignatureTable();
 	
 	// signature by lhs
 	private Map<Integer,SuperNode> superNodesTbl = new HashMap<Integer,SuperNode>();
@@ -196,7 +196,7 @@ class Cell {
 			 * need to check whether the node is already exist, 
 			 * if yes, just add the hyperedges, this may change the best logP of the node 
 			 * */
-			HGNode oldNode = this.nodesSigTbl.get( res.getSignature() );
+			HGNode oldNode = this.nodesSigTbl.get(res);
 			if (null != oldNode) { // have an item with same states, combine items
 				this.chart.nMerged++;
 				
@@ -249,7 +249,7 @@ class Cell {
 	 * (2) a new hyperedge's signature matches an old node's signature, but the best-logp of old node is worse than the new hyperedge's logP
 	 * */
 	private void addNewNode(HGNode node, boolean noPrune) {
-		this.nodesSigTbl.put(node.getSignature(), node); // add/replace the item
+		this.nodesSigTbl.put(node); // add/replace the item
 		this.sortedNodes = null; // reset the list
 			
 	
@@ -258,7 +258,7 @@ class Cell {
 				List<HGNode> prunedNodes = beamPruner.addOneObjInHeapWithPrune(node);
 				this.chart.nPrunedItems += prunedNodes.size();
 				for(HGNode prunedNode : prunedNodes)
-					nodesSigTbl.remove(prunedNode.getSignature());
+					nodesSigTbl.remove(prunedNode);
 			}else{
 				beamPruner.addOneObjInHeapWithoutPrune(node);
 			}
@@ -289,10 +289,7 @@ class Cell {
 		if (null == this.sortedNodes) {
 			//== get sortedNodes
 			//HGNode[] tCollection =(HGNode[])((Collection<HGNode>)this.nodesSigTbl.values()).toArray();
-			HGNode[] nodesArray = new HGNode[this.nodesSigTbl.size()];
-			int i=0;
-			for(HGNode node : this.nodesSigTbl.values() )
-				nodesArray[i++]= node;
+			HGNode[] nodesArray = this.nodesSigTbl.toArray();
 			
 			/**sort the node in an decreasing-LogP order
 			 * */
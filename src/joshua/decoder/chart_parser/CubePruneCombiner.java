@@ -1,7 +1,6 @@
 package joshua.decoder.chart_parser;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.PriorityQueue;
 
@@ -54,7 +53,7 @@ public class CubePruneCombiner implements Combiner{
 		PriorityQueue<CubePruneState> combinationHeap =	new PriorityQueue<CubePruneState>();
 		
 		// rememeber which state has been explored
-		HashMap<String,Integer> cubeStateTbl = new HashMap<String,Integer>();
+		RankVectorSet cubeStateTbl = new RankVectorSet();
 		
 		if (null == rules || rules.size() <= 0) {
 			return;
@@ -76,7 +75,7 @@ public class CubePruneCombiner implements Combiner{
 		
 		CubePruneState bestState =	new CubePruneState(result, ranks, currentRule, currentAntNodes);
 		combinationHeap.add(bestState);
-		cubeStateTbl.put(bestState.getSignature(),1);
+		cubeStateTbl.add(bestState.ranks);
 		// cube_state_tbl.put(best_state,1);
 		
 		//====== extend the heap
@@ -110,9 +109,7 @@ public class CubePruneCombiner implements Combiner{
 				}
 				newRanks[k] = curState.ranks[k] + 1;
 				
-				String new_sig = CubePruneState.getSignature(newRanks);
-				
-				if (cubeStateTbl.containsKey(new_sig) // explored before
+				if (cubeStateTbl.contains(newRanks) // explored before
 				|| (k == 0 && newRanks[k] > rules.size())
 				|| (k != 0 && newRanks[k] > superNodes.get(k-1).nodes.size())
 				) {
@@ -134,7 +131,7 @@ public class CubePruneCombiner implements Combiner{
 					newRanks, currentRule, currentAntNodes);
 				
 				// add state into heap
-				cubeStateTbl.put(new_sig,1);				
+				cubeStateTbl.add(newRanks);				
 				if (result.getExpectedTotalLogP() > cell.beamPruner.getCutoffLogP() - JoshuaConfiguration.fuzz2) {
 					combinationHeap.add(tState);
 				} else {
@@ -177,22 +174,6 @@ public class CubePruneCombiner implements Combiner{
 			}
 			
 			
-			private static String getSignature(int[] ranks2) {
-				StringBuffer sb = new StringBuffer();
-				if (null != ranks2) {
-					for (int i = 0; i < ranks2.length; i++) {
-						sb.append(' ').append(ranks2[i]);
-					}
-				}
-				return sb.toString();
-			}
-			
-			
-			private String getSignature() {
-				return getSignature(ranks);
-			}
-			
-			
 			/**
 			 * Compares states by ExpectedTotalLogP, allowing states
 			 * to be sorted according to their inverse order (high-prob first).
@@ -0,0 +1,153 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.chart_parser;
+
+import joshua.decoder.hypergraph.HGNode;
+
+
+/**
+ * Table of the nodes in a cell, keyed by their signature. This
+ * replaces a <code>HashMap&lt;String,HGNode&gt;</code> keyed by
+ * HGNode.getSignature(): lookups use the node's 64-bit signature
+ * hash, and HGNode.signatureEquals() on a hash match, so no signature
+ * string is built for each hypothesis.
+ * <p>
+ * The table uses open addressing with linear probing.
+ *
+ * @version $LastChangedDate$
+ */
+class NodeSignatureTable {
+	
+	private long[]   hashes;
+	private HGNode[] nodes;
+	private int      size = 0;
+	
+	NodeSignatureTable() {
+		this(16);
+	}
+	
+	/** @param capacity must be a power of two */
+	NodeSignatureTable(int capacity) {
+		this.hashes = new long[capacity];
+		this.nodes  = new HGNode[capacity];
+	}
+	
+	
+	/** Returns the node with the same signature as the given one, or null. */
+	HGNode get(HGNode node) {
+		int slot = find(node);
+		return (slot < 0) ? null : nodes[slot];
+	}
+	
+	
+	/** Adds the node, replacing any node with the same signature. */
+	void put(HGNode node) {
+		long hash = node.getSignatureHash();
+		int mask = nodes.length - 1;
+		int slot = (int) hash & mask;
+		while (null != nodes[slot]) {
+			if (hashes[slot] == hash && nodes[slot].signatureEquals(node)) {
+				nodes[slot] = node;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		hashes[slot] = hash;
+		nodes[slot]  = node;
+		size++;
+		
+		if (3 * size > 2 * nodes.length) {
+			rehash(2 * nodes.length);
+		}
+	}
+	
+	
+	/** Removes the node with the same signature as the given one, if any. */
+	void remove(HGNode node) {
+		int slot = find(node);
+		if (slot < 0)
+			return;
+		
+		// shift later entries of the probe run back into the hole
+		int mask = nodes.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (null != nodes[next]) {
+			int home = (int) hashes[next] & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				hashes[hole] = hashes[next];
+				nodes[hole]  = nodes[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		nodes[hole] = null;
+		size--;
+	}
+	
+	
+	int size() {
+		return size;
+	}
+	
+	
+	/** Copies the nodes into a new array, in table order. */
+	HGNode[] toArray() {
+		HGNode[] res = new HGNode[size];
+		int i = 0;
+		for (HGNode node : nodes) {
+			if (null != node)
+				res[i++] = node;
+		}
+		return res;
+	}
+	
+	
+	private int find(HGNode node) {
+		long hash = node.getSignatureHash();
+		int mask = nodes.length - 1;
+		int slot = (int) hash & mask;
+		while (null != nodes[slot]) {
+			if (hashes[slot] == hash && nodes[slot].signatureEquals(node)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	
+	private void rehash(int capacity) {
+		long[]   oldHashes = hashes;
+		HGNode[] oldNodes  = nodes;
+		hashes = new long[capacity];
+		nodes  = new HGNode[capacity];
+		
+		int mask = capacity - 1;
+		for (int i = 0; i < oldNodes.length; i++) {
+			if (null != oldNodes[i]) {
+				int slot = (int) oldHashes[i] & mask;
+				while (null != nodes[slot]) {
+					slot = (slot + 1) & mask;
+				}
+				hashes[slot] = oldHashes[i];
+				nodes[slot]  = oldNodes[i];
+			}
+		}
+	}
+}
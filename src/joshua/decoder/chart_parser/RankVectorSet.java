@@ -0,0 +1,105 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.chart_parser;
+
+import java.util.Arrays;
+
+import joshua.util.Bits;
+
+
+/**
+ * Set of the rank vectors that cube pruning has already explored,
+ * replacing a <code>HashMap&lt;String,Integer&gt;</code> keyed by the
+ * printed vector. Vectors are hashed to 64 bits and compared in full
+ * on a hash match. The set keeps references to the arrays it is
+ * given, so they must not be modified afterwards.
+ *
+ * @version $LastChangedDate$
+ */
+class RankVectorSet {
+	
+	private long[]  hashes;
+	private int[][] vectors;
+	private int     size = 0;
+	
+	RankVectorSet() {
+		this.hashes  = new long[64];
+		this.vectors = new int[64][];
+	}
+	
+	
+	boolean contains(int[] ranks) {
+		long hash = Bits.hash(ranks);
+		int mask = vectors.length - 1;
+		int slot = (int) hash & mask;
+		while (null != vectors[slot]) {
+			if (hashes[slot] == hash && Arrays.equals(vectors[slot], ranks)) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+	
+	
+	/** Adds the vector; returns false if it was already present. */
+	boolean add(int[] ranks) {
+		long hash = Bits.hash(ranks);
+		int mask = vectors.length - 1;
+		int slot = (int) hash & mask;
+		while (null != vectors[slot]) {
+			if (hashes[slot] == hash && Arrays.equals(vectors[slot], ranks)) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		hashes[slot]  = hash;
+		vectors[slot] = ranks;
+		size++;
+		
+		if (2 * size > vectors.length) {
+			rehash(2 * vectors.length);
+		}
+		return true;
+	}
+	
+	
+	int size() {
+		return size;
+	}
+	
+	
+	private void rehash(int capacity) {
+		long[]  oldHashes  = hashes;
+		int[][] oldVectors = vectors;
+		hashes  = new long[capacity];
+		vectors = new int[capacity][];
+		
+		int mask = capacity - 1;
+		for (int i = 0; i < oldVectors.length; i++) {
+			if (null != oldVectors[i]) {
+				int slot = (int) oldHashes[i] & mask;
+				while (null != vectors[slot]) {
+					slot = (slot + 1) & mask;
+				}
+				hashes[slot]  = oldHashes[i];
+				vectors[slot] = oldVectors[i];
+			}
+		}
+	}
+}
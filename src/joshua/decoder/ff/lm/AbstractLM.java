@@ -76,6 +76,25 @@ public abstract class AbstractLM extends DefaultNGramLanguageModel {
 	protected abstract double ngramLogProbability_helper(int[] ngram, int order);
 	
 	
+	public final double ngramLogProbability(int[] words, int offset, int length) {
+		if (length <= 0) {
+			throw new RuntimeException("Error: history size is " + (length - 1));
+		}
+		
+		double probability = ngramLogProbability_helper(words, offset, length);
+		if (probability < -JoshuaConfiguration.lm_ceiling_cost) {
+			probability = -JoshuaConfiguration.lm_ceiling_cost;
+		}
+		return probability;
+	}
+	
+	/**
+	 * Scores <code>words[offset .. offset+length-1]</code> with
+	 * order <code>length</code>, reading the n-gram in place.
+	 */
+	protected abstract double ngramLogProbability_helper(int[] words, int offset, int length);
+	
+	
 	/**
 	 * @deprecated this function is much slower than the int[]
 	 *             version
@@ -108,6 +127,23 @@ public abstract class AbstractLM extends DefaultNGramLanguageModel {
 		int[] ngram, int order, int qtyAdditionalBackoffWeight);
 	
 	
+	public final double logProbabilityOfBackoffState(int[] words, int offset, int length, int qtyAdditionalBackoffWeight) {
+		if (words[offset + length - 1] != LanguageModelFF.BACKOFF_LEFT_LM_STATE_SYM_ID) {
+			throw new RuntimeException("last wrd is not <bow>");
+		}
+		if (qtyAdditionalBackoffWeight > 0) {
+			return logProbabilityOfBackoffState_helper(
+				words, offset, length, qtyAdditionalBackoffWeight);
+		} else {
+			return 0.0;
+		}
+	}
+	
+	
+	protected abstract double logProbabilityOfBackoffState_helper(
+		int[] words, int offset, int length, int qtyAdditionalBackoffWeight);
+	
+	
 	// BUG: We should have different classes based on the configuration in use
 	public int[] leftEquivalentState(int[] originalState, int order,
 		double[] cost
@@ -0,0 +1,317 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm;
+
+import java.util.List;
+
+import joshua.util.Bits;
+
+/**
+ * Decorates any language model with a bounded cache of n-gram
+ * log probabilities that is shared by all decoder threads.
+ * <p>
+ * The cache is split into segments, each guarded by its own lock
+ * and selected by the high bits of the n-gram hash, so that
+ * threads rarely contend. Each segment is an open-addressing
+ * table in which an n-gram may live in one of a few consecutive
+ * slots after its home slot. When those slots are all full, one
+ * of them is evicted CLOCK-style: slots that were hit since the
+ * hand last passed get a second chance.
+ * <p>
+ * N-grams are stored as their word ids, so a cached value is
+ * never returned for a different n-gram. Only the probability
+ * queries are cached; all other methods are passed through. The
+ * probability of an n-gram no longer than the order passed in is
+ * assumed not to depend on that order.
+ *
+ * @version $LastChangedDate$
+ */
+public class CachedLanguageModel implements NGramLanguageModel {
+	
+	/** Number of slots an n-gram may be stored in. */
+	private static final int PROBES = 8;
+	
+	private final NGramLanguageModel languageModel;
+	
+	/** Longest n-gram stored in the cache. */
+	private final int maxLength;
+	
+	private final Segment[] segments;
+	private final int segmentMask;
+	
+	/**
+	 * Constructs a cache of roughly the given number of n-grams
+	 * around a language model.
+	 * 
+	 * @param languageModel Language model to decorate
+	 * @param size Number of n-grams to cache
+	 */
+	public CachedLanguageModel(NGramLanguageModel languageModel, int size) {
+		this(languageModel, size, 4 * Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Constructs a cache of roughly the given number of n-grams
+	 * around a language model.
+	 * 
+	 * @param languageModel Language model to decorate
+	 * @param size Number of n-grams to cache
+	 * @param concurrency Expected number of threads querying
+	 *                    the cache at once
+	 */
+	public CachedLanguageModel(NGramLanguageModel languageModel, int size, int concurrency) {
+		this.languageModel = languageModel;
+		this.maxLength = languageModel.getOrder();
+		
+		int numSegments = powerOfTwo(Math.max(1, concurrency));
+		int segmentSize = powerOfTwo(Math.max(PROBES, size / numSegments));
+		this.segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			segments[i] = new Segment(segmentSize, maxLength);
+		}
+		this.segmentMask = numSegments - 1;
+	}
+	
+	/** Gets the smallest power of two no less than a value. */
+	private static int powerOfTwo(int value) {
+		int power = Integer.highestOneBit(value);
+		return (power < value) ? power << 1 : power;
+	}
+	
+	/** Gets the decorated language model. */
+	public NGramLanguageModel getLanguageModel() {
+		return languageModel;
+	}
+	
+	/** Gets the number of queries answered from the cache. */
+	public long getHits() {
+		long hits = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				hits += segment.hits;
+			}
+		}
+		return hits;
+	}
+	
+	/** Gets the number of queries passed to the language model. */
+	public long getMisses() {
+		long misses = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				misses += segment.misses;
+			}
+		}
+		return misses;
+	}
+	
+	/** Gets the number of n-grams evicted from the cache. */
+	public long getEvictions() {
+		long evictions = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				evictions += segment.evictions;
+			}
+		}
+		return evictions;
+	}
+	
+	public String toString() {
+		long hits = getHits(), misses = getMisses();
+		return String.format("n-gram cache: %d hits, %d misses (%.1f%% hit rate), %d evictions",
+				hits, misses, (hits + misses == 0) ? 0.0 : 100.0 * hits / (hits + misses), getEvictions());
+	}
+	
+	
+//===============================================================
+// NGramLanguageModel Methods
+//===============================================================
+	
+	public int getOrder() {
+		return languageModel.getOrder();
+	}
+	
+	public double sentenceLogProbability(List<Integer> sentence, int order, int startIndex) {
+		return languageModel.sentenceLogProbability(sentence, order, startIndex);
+	}
+	
+	public double ngramLogProbability(List<Integer> ngram, int order) {
+		return languageModel.ngramLogProbability(ngram, order);
+	}
+	
+	public double ngramLogProbability(int[] ngram, int order) {
+		if (ngram.length > order || ngram.length > maxLength) {
+			return languageModel.ngramLogProbability(ngram, order);
+		}
+		
+		long hash = hash(ngram, 0, ngram.length);
+		Segment segment = segments[(int) (hash >>> 32) & segmentMask];
+		double value = segment.get(hash, ngram, 0, ngram.length);
+		if (Double.isNaN(value)) {
+			value = languageModel.ngramLogProbability(ngram, order);
+			segment.put(hash, ngram, 0, ngram.length, value);
+		}
+		return value;
+	}
+	
+	public double ngramLogProbability(int[] ngram) {
+		return ngramLogProbability(ngram, getOrder());
+	}
+	
+	public double ngramLogProbability(int[] words, int offset, int length) {
+		if (length > maxLength) {
+			return languageModel.ngramLogProbability(words, offset, length);
+		}
+		
+		long hash = hash(words, offset, length);
+		Segment segment = segments[(int) (hash >>> 32) & segmentMask];
+		double value = segment.get(hash, words, offset, length);
+		if (Double.isNaN(value)) {
+			value = languageModel.ngramLogProbability(words, offset, length);
+			segment.put(hash, words, offset, length, value);
+		}
+		return value;
+	}
+	
+	public double logProbOfBackoffState(List<Integer> ngram, int order, int qtyAdditionalBackoffWeight) {
+		return languageModel.logProbOfBackoffState(ngram, order, qtyAdditionalBackoffWeight);
+	}
+	
+	public double logProbabilityOfBackoffState(int[] ngram, int order, int qtyAdditionalBackoffWeight) {
+		return languageModel.logProbabilityOfBackoffState(ngram, order, qtyAdditionalBackoffWeight);
+	}
+	
+	public double logProbabilityOfBackoffState(int[] words, int offset, int length, int qtyAdditionalBackoffWeight) {
+		return languageModel.logProbabilityOfBackoffState(words, offset, length, qtyAdditionalBackoffWeight);
+	}
+	
+	public int[] leftEquivalentState(int[] originalState, int order, double[] cost) {
+		return languageModel.leftEquivalentState(originalState, order, cost);
+	}
+	
+	public int[] rightEquivalentState(int[] originalState, int order) {
+		return languageModel.rightEquivalentState(originalState, order);
+	}
+	
+	
+//===============================================================
+// Cache segments
+//===============================================================
+	
+	/** Hashes an n-gram; zero marks an empty slot. */
+	private static long hash(int[] words, int offset, int length) {
+		long hash = Bits.hash(words, offset, length);
+		return (hash == 0) ? 1 : hash;
+	}
+	
+	/**
+	 * One lock-guarded part of the cache. Slots are never
+	 * emptied, only replaced, so a lookup can stop at the first
+	 * empty slot.
+	 */
+	private static class Segment {
+		
+		private final int mask;
+		private final int maxLength;
+		
+		private final long[] hashes;
+		private final int[] words;
+		private final byte[] lengths;
+		private final double[] values;
+		private final boolean[] referenced;
+		
+		/** Position of the CLOCK hand within a probe window. */
+		private int hand = 0;
+		
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0;
+		
+		Segment(int size, int maxLength) {
+			this.mask = size - 1;
+			this.maxLength = maxLength;
+			this.hashes = new long[size];
+			this.words = new int[size * maxLength];
+			this.lengths = new byte[size];
+			this.values = new double[size];
+			this.referenced = new boolean[size];
+		}
+		
+		private boolean matches(int slot, long hash, int[] ngram, int offset, int length) {
+			if (hashes[slot] != hash || lengths[slot] != length) return false;
+			for (int i = 0, start = slot * maxLength; i < length; i++) {
+				if (words[start + i] != ngram[offset + i]) return false;
+			}
+			return true;
+		}
+		
+		/** Gets the cached value of an n-gram, or NaN. */
+		synchronized double get(long hash, int[] ngram, int offset, int length) {
+			for (int i = 0, home = (int) hash; i < PROBES; i++) {
+				int slot = (home + i) & mask;
+				if (hashes[slot] == 0) break;
+				if (matches(slot, hash, ngram, offset, length)) {
+					referenced[slot] = true;
+					hits++;
+					return values[slot];
+				}
+			}
+			misses++;
+			return Double.NaN;
+		}
+		
+		/** Caches the value of an n-gram. */
+		synchronized void put(long hash, int[] ngram, int offset, int length, double value) {
+			int home = (int) hash;
+			int free = -1;
+			for (int i = 0; i < PROBES; i++) {
+				int slot = (home + i) & mask;
+				if (hashes[slot] == 0) {
+					free = slot;
+					break;
+				}
+				if (matches(slot, hash, ngram, offset, length)) {
+					// Added by another thread since the miss
+					return;
+				}
+			}
+			
+			if (free < 0) {
+				// Sweep the probe window, clearing reference bits,
+				// until an unreferenced slot is found
+				while (true) {
+					int slot = (home + hand) & mask;
+					hand = (hand + 1) % PROBES;
+					if (referenced[slot]) {
+						referenced[slot] = false;
+					} else {
+						free = slot;
+						break;
+					}
+				}
+				evictions++;
+			}
+			
+			hashes[free] = hash;
+			lengths[free] = (byte) length;
+			System.arraycopy(ngram, offset, words, free * maxLength, length);
+			values[free] = value;
+			referenced[free] = false;
+		}
+	}
+}
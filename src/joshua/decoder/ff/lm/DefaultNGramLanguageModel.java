@@ -118,6 +118,9 @@ public abstract class DefaultNGramLanguageModel implements NGramLanguageModel {
 	public abstract double ngramLogProbability(int[] ngram, int order);
 	
 	
+	public abstract double ngramLogProbability(int[] words, int offset, int length);
+	
+	
 	/**
 	 * Will never be called, because BACKOFF_LEFT_LM_STATE_SYM_ID
 	 * token will never exist. However, were it to be called,
@@ -137,6 +140,11 @@ public abstract class DefaultNGramLanguageModel implements NGramLanguageModel {
 	}
 	
 	
+	public double logProbabilityOfBackoffState(int[] words, int offset, int length, int qtyAdditionalBackoffWeight) {
+		return 0; // log(1) == 0;
+	}
+	
+	
 	public int[] leftEquivalentState(int[] originalState, int order, double[] cost) {
 		return originalState;
 	}
@@ -26,6 +26,7 @@ import joshua.decoder.chart_parser.SourcePath;
 import joshua.decoder.ff.DefaultStatefulFF;
 import joshua.decoder.ff.state_maintenance.DPState;
 import joshua.decoder.ff.state_maintenance.NgramDPState;
+import joshua.decoder.ff.state_maintenance.NgramWindow;
 import joshua.decoder.ff.tm.Rule;
 import joshua.decoder.hypergraph.HGNode;
 
@@ -92,6 +93,13 @@ public class LanguageModelFF extends DefaultStatefulFF {
 	/** Symbol table that maps between Strings and integers. */
 	private final SymbolTable symbolTable;
 	
+	/** Per-thread n-gram window, reused for every transition. */
+	private final ThreadLocal<NgramWindow> ngramWindow = new ThreadLocal<NgramWindow>() {
+		protected NgramWindow initialValue() {
+			return new NgramWindow(ngramOrder);
+		}
+	};
+	
 	
 	/** stateID is any integer exept -1
 	 **/
@@ -143,10 +151,15 @@ public class LanguageModelFF extends DefaultStatefulFF {
 
 	
 	/**when calculate transition prob: when saw a <bo>, then need to add backoff weights, start from non-state words
+	 * 
+	 * The n-gram window is kept in an NgramWindow so that each n-gram
+	 * is passed to the LM as (buffer, offset, length), without boxing
+	 * or copying.
 	 * */
 	private double computeTransition(int[] enWords,	List<HGNode> antNodes) {
 				
-		List<Integer> currentNgram   = new ArrayList<Integer>();
+		NgramWindow currentNgram = ngramWindow.get();
+		currentNgram.clear();
 		double             transitionLogP = 0.0;
 		
 		for (int c = 0; c < enWords.length; c++) {
@@ -155,15 +168,15 @@ public class LanguageModelFF extends DefaultStatefulFF {
 				int index = symbolTable.getTargetNonterminalIndex(curID);
 			
 				NgramDPState state = (NgramDPState) antNodes.get(index).getDPState(this.getStateID());
-				List<Integer> leftContext = state.getLeftLMStateWords();
-				List<Integer> rightContext = state.getRightLMStateWords();
-				if (leftContext.size() != rightContext.size() ) {
+				int[] leftContext = state.getLeftLMState();
+				int[] rightContext = state.getRightLMState();
+				if (leftContext.length != rightContext.length ) {
 					throw new RuntimeException("computeTransition: left and right contexts have unequal lengths");
 				}
 				
 				//================ left context
-				for (int i = 0; i < leftContext.size(); i++) {
-					int t = leftContext.get(i);
+				for (int i = 0; i < leftContext.length; i++) {
+					int t = leftContext[i];
 					currentNgram.add(t);
 					
 					//always calculate logP for <bo>: additional backoff weight
@@ -171,16 +184,18 @@ public class LanguageModelFF extends DefaultStatefulFF {
 						int numAdditionalBackoffWeight = currentNgram.size() - (i+1);//number of non-state words
 						
 						//compute additional backoff weight
-						transitionLogP	+= this.lmGrammar.logProbOfBackoffState(currentNgram, currentNgram.size(), numAdditionalBackoffWeight);
+						transitionLogP	+= this.lmGrammar.logProbabilityOfBackoffState(
+							currentNgram.buffer(), currentNgram.offset(), currentNgram.size(), numAdditionalBackoffWeight);
 						
 						if (currentNgram.size() == this.ngramOrder) {
-							currentNgram.remove(0);
+							currentNgram.removeFirst();
 						}
 					} else if (currentNgram.size() == this.ngramOrder) {
 						// compute the current word probablity, and remove it
-						transitionLogP += this.lmGrammar.ngramLogProbability(currentNgram, this.ngramOrder);
+						transitionLogP += this.lmGrammar.ngramLogProbability(
+							currentNgram.buffer(), currentNgram.offset(), this.ngramOrder);
 						
-						currentNgram.remove(0);
+						currentNgram.removeFirst();
 					}
 					
 				}
@@ -189,18 +204,19 @@ public class LanguageModelFF extends DefaultStatefulFF {
 				//note: left_state_org_wrds will never take words from right context because it is either duplicate or out of range
 				//also, we will never score the right context probablity because they are either duplicate or partional ngram
 				int tSize = currentNgram.size();
-				for (int i = 0; i < rightContext.size(); i++) {
+				for (int i = 0; i < rightContext.length; i++) {
 					// replace context
-					currentNgram.set(tSize - rightContext.size() + i, rightContext.get(i) );
+					currentNgram.set(tSize - rightContext.length + i, rightContext[i]);
 				}
 			
 			} else {//terminal words
 				currentNgram.add(curID);
 				if (currentNgram.size() == this.ngramOrder) {
 					// compute the current word probablity, and remove it
-					transitionLogP += this.lmGrammar.ngramLogProbability(currentNgram, this.ngramOrder);
+					transitionLogP += this.lmGrammar.ngramLogProbability(
+						currentNgram.buffer(), currentNgram.offset(), this.ngramOrder);
 					
-					currentNgram.remove(0);
+					currentNgram.removeFirst();
 				}
 			}
 		}
@@ -217,11 +233,12 @@ public class LanguageModelFF extends DefaultStatefulFF {
 	private double computeFinalTransitionLogP(NgramDPState state) {
 		
 		double res = 0.0;
-		List<Integer> currentNgram = new ArrayList<Integer>();
-		List<Integer>   leftContext = state.getLeftLMStateWords();		
-		List<Integer>   rightContext = state.getRightLMStateWords();
+		NgramWindow currentNgram = ngramWindow.get();
+		currentNgram.clear();
+		int[]   leftContext = state.getLeftLMState();		
+		int[]   rightContext = state.getRightLMState();
 		
-		if (leftContext.size() != rightContext.size()) {
+		if (leftContext.length != rightContext.length) {
 			throw new RuntimeException(
 				"LMModel.compute_equiv_state_final_transition: left and right contexts have unequal lengths");
 		}
@@ -230,26 +247,26 @@ public class LanguageModelFF extends DefaultStatefulFF {
 		if (addStartAndEndSymbol) 
 			currentNgram.add(START_SYM_ID);
 		
-		for (int i = 0; i < leftContext.size(); i++) {
-			int t = leftContext.get(i);
+		for (int i = 0; i < leftContext.length; i++) {
+			int t = leftContext[i];
 			currentNgram.add(t);
 			
 			if (t == BACKOFF_LEFT_LM_STATE_SYM_ID) {//calculate logP for <bo>: additional backoff weight
 				int additionalBackoffWeight = currentNgram.size() - (i+1);
 				//compute additional backoff weight
 				//TOTO: may not work with the case that add_start_and_end_symbol=false
-				res += this.lmGrammar.logProbOfBackoffState(
-					currentNgram, currentNgram.size(), additionalBackoffWeight);
+				res += this.lmGrammar.logProbabilityOfBackoffState(
+					currentNgram.buffer(), currentNgram.offset(), currentNgram.size(), additionalBackoffWeight);
 				
 			} else { // partial ngram
 				//compute the current word probablity
 				if (currentNgram.size() >= 2) { // start from bigram
 					res += this.lmGrammar.ngramLogProbability(
-						currentNgram, currentNgram.size());
+						currentNgram.buffer(), currentNgram.offset(), currentNgram.size());
 				}
 			}
 			if (currentNgram.size() == this.ngramOrder) {
-				currentNgram.remove(0);
+				currentNgram.removeFirst();
 			}
 		}
 		
@@ -257,12 +274,13 @@ public class LanguageModelFF extends DefaultStatefulFF {
 		//switch context, we will never score the right context probablity because they are either duplicate or partional ngram
 		if(addStartAndEndSymbol){
 			int tSize = currentNgram.size();
-			for (int i = 0; i < rightContext.size(); i++) {//replace context
-				currentNgram.set(tSize - rightContext.size() + i, rightContext.get(i));
+			for (int i = 0; i < rightContext.length; i++) {//replace context
+				currentNgram.set(tSize - rightContext.length + i, rightContext[i]);
 			}
 			
 			currentNgram.add(STOP_SYM_ID);
-			res += this.lmGrammar.ngramLogProbability(currentNgram, currentNgram.size());
+			res += this.lmGrammar.ngramLogProbability(
+				currentNgram.buffer(), currentNgram.offset(), currentNgram.size());
 		}
 		return res;
 	}
@@ -307,13 +325,14 @@ public class LanguageModelFF extends DefaultStatefulFF {
 	private double estimateStateLogProb(NgramDPState state, boolean addStart, boolean addEnd) {
 		
 		double res = 0.0;		
-		List<Integer>   leftContext = state.getLeftLMStateWords();
+		int[]   leftContext = state.getLeftLMState();
 		
 		if (null != leftContext) {
-			List<Integer> words = new ArrayList<Integer>();;
+			List<Integer> words = new ArrayList<Integer>(leftContext.length + 1);
 			if (addStart == true)
 				words.add(START_SYM_ID);
-			words.addAll(leftContext);
+			for (int t : leftContext)
+				words.add(t);
 			
 			boolean considerIncompleteNgrams = true;
 			boolean skipStart = true;
@@ -326,8 +345,10 @@ public class LanguageModelFF extends DefaultStatefulFF {
 			System.out.println("left context: " +Symbol.get_string(l_context) + ";prob "+res);
 		}*/
 		if (addEnd == true) {//only when add_end is true, we get a complete ngram, otherwise, all ngrams in r_state are incomplete and we should do nothing
-			List<Integer>    rightContext = state.getRightLMStateWords();
-			List<Integer> list = new ArrayList<Integer>(rightContext);
+			int[]    rightContext = state.getRightLMState();
+			List<Integer> list = new ArrayList<Integer>(rightContext.length + 1);
+			for (int t : rightContext)
+				list.add(t);
 			list.add(STOP_SYM_ID);
 			double tem = scoreChunkLogP(list, false, false);
 			res += tem;
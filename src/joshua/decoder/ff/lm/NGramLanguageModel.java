@@ -65,6 +65,16 @@ public interface NGramLanguageModel {
 	double ngramLogProbability(int[] ngram, int order);
 	double ngramLogProbability(int[] ngram);
 	
+	/**
+	 * Scores the n-gram stored in
+	 * <code>words[offset .. offset+length-1]</code>, using
+	 * <code>length</code> as the order. This is the entry point
+	 * used by LanguageModelFF, which keeps its n-gram windows in
+	 * reusable buffers; implementations should avoid copying the
+	 * n-gram where they can.
+	 */
+	double ngramLogProbability(int[] words, int offset, int length);
+	
 	
 //===============================================================
 // Equivalent LM State (use DefaultNGramLanguageModel if you don't care)
@@ -84,6 +94,13 @@ public interface NGramLanguageModel {
 	double logProbabilityOfBackoffState(
 		int[] ngram, int order, int qtyAdditionalBackoffWeight);
 	
+	/**
+	 * As ngramLogProbability(int[],int,int), for the backoff
+	 * state <code>words[offset .. offset+length-1]</code>.
+	 */
+	double logProbabilityOfBackoffState(
+		int[] words, int offset, int length, int qtyAdditionalBackoffWeight);
+	
 	int[] leftEquivalentState(int[] originalState, int order, double[] cost);
 	int[] rightEquivalentState(int[] originalState, int order);
 	
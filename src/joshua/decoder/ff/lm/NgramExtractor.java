@@ -46,6 +46,10 @@ public class NgramExtractor {
 		this.STOP_SYM_ID = this.symbolTable.addTerminal(STOP_SYM);		
 	}
 	
+	 public int getBaselineLMOrder(){
+		 return baselineLMOrder;
+	 }
+	
 	 /**for generative model, should set startNgramOrder=endNgramOrder*/ 
 	 public HashMap<String,Integer> getTransitionNgrams(HyperEdge dt, int startNgramOrder, int endNgramOrder){
 		 return getTransitionNgrams(dt.getRule(), dt.getAntNodes(), startNgramOrder, endNgramOrder);
@@ -108,9 +112,9 @@ public class NgramExtractor {
 	    			HGNode antNode =  antNodes.get(index);
 	    			NgramDPState state     = (NgramDPState) antNode.getDPState(this.ngramStateID);
 	    			//System.out.println("lm_feat_is: " + this.lm_feat_id + " ; state is: " + state);
-	    			List<Integer>   leftContext = state.getLeftLMStateWords();
-	    			List<Integer>   rightContext = state.getRightLMStateWords();
-					if (leftContext.size() != rightContext.size()) {
+	    			int[]   leftContext = state.getLeftLMState();
+	    			int[]   rightContext = state.getRightLMState();
+					if (leftContext.length != rightContext.length) {
 						System.out.println("getAllNgrams: left and right contexts have unequal lengths");
 						System.exit(1);
 					}
@@ -120,7 +124,7 @@ public class NgramExtractor {
 	    				words.add(t);    				    
 	    			this.getNgrams(oldNgramCounts, startNgramOrder, endNgramOrder, leftContext);
 	    			
-	    			if(rightContext.size()>=baselineLMOrder-1){//the right and left are NOT overlapping
+	    			if(rightContext.length>=baselineLMOrder-1){//the right and left are NOT overlapping
 	    				this.getNgrams(oldNgramCounts, startNgramOrder, endNgramOrder, rightContext);
 	    				this.getNgrams(newNgramCounts, startNgramOrder, endNgramOrder, words);
 	    				
@@ -153,12 +157,12 @@ public class NgramExtractor {
 			    			NgramDPState state     = (NgramDPState) antNode.getDPState(this.ngramStateID);
 			    			//System.out.println("lm_feat_is: " + this.lm_feat_id + " ; state is: " + state);
 			    			
-			    			List<Integer>   leftContext = state.getLeftLMStateWords();
+			    			int[]   leftContext = state.getLeftLMState();
 			    			for(int wrd : leftContext)
 			    				System.out.print(symbolTable.getWord(wrd) + " ");
 			    			System.out.println();
 			    			
-			    			List<Integer>   rightContext = state.getRightLMStateWords();
+			    			int[]   rightContext = state.getRightLMState();
 			    			for(int wrd : rightContext)
 			    				System.out.print(symbolTable.getWord(wrd) + " ");
 			    			System.out.println();
@@ -186,17 +190,17 @@ public class NgramExtractor {
 			NgramDPState state     = (NgramDPState) antNode.getDPState(this.ngramStateID);
 			
 			List<Integer> currentNgram = new ArrayList<Integer>();
-			List<Integer>   leftContext = state.getLeftLMStateWords();		
-			List<Integer>   rightContext = state.getRightLMStateWords();
-			if (leftContext.size() != rightContext.size()) {
+			int[]   leftContext = state.getLeftLMState();		
+			int[]   rightContext = state.getRightLMState();
+			if (leftContext.length != rightContext.length) {
 				System.out.println("computeFinalTransition: left and right contexts have unequal lengths");
 				System.exit(1);
 			}
 			
 			//============ left context
 			currentNgram.add(START_SYM_ID);
-			for (int i = 0; i < leftContext.size(); i++) {
-				int t = leftContext.get(i);
+			for (int i = 0; i < leftContext.length; i++) {
+				int t = leftContext[i];
 				currentNgram.add(t);
 				
 				if(currentNgram.size()>=startNgramOrder && currentNgram.size()<=endNgramOrder)
@@ -210,8 +214,8 @@ public class NgramExtractor {
 			//============ right context
 			//switch context: get the last possible new ngram: this ngram can be <s> a </s>
 			int tSize = currentNgram.size();
-			for (int i = 0; i < rightContext.size(); i++) {//replace context
-				currentNgram.set(tSize - rightContext.size() + i, rightContext.get(i));
+			for (int i = 0; i < rightContext.length; i++) {//replace context
+				currentNgram.set(tSize - rightContext.length + i, rightContext[i]);
 			}			
 			currentNgram.add(STOP_SYM_ID);
 
@@ -267,9 +271,9 @@ public class NgramExtractor {
 		HashMap<String, Integer> res = new HashMap<String, Integer>();
 		
 		List<Integer> currentNgram = new ArrayList<Integer>();
-		List<Integer>   leftContext = state.getLeftLMStateWords();		
-		List<Integer>   rightContext = state.getRightLMStateWords();
-		if (leftContext.size() != rightContext.size()) {
+		int[]   leftContext = state.getLeftLMState();		
+		int[]   rightContext = state.getRightLMState();
+		if (leftContext.length != rightContext.length) {
 			System.out.println("computeFinalTransition: left and right contexts have unequal lengths");
 			System.exit(1);
 		}
@@ -282,8 +286,8 @@ public class NgramExtractor {
 			currentNgram.add(START_SYM_ID);
 		}
 		//approximate the full-ngram with smaller-order ngrams
-		for (int i = 0; i < leftContext.size(); i++) {
-			int t = leftContext.get(i);
+		for (int i = 0; i < leftContext.length; i++) {
+			int t = leftContext[i];
 			currentNgram.add(t);
 			
 			if(currentNgram.size()>=startNgramOrder && currentNgram.size()<=endNgramOrder-1)
@@ -307,14 +311,12 @@ public class NgramExtractor {
 	
 	
 	
-	/* 
 	private void getNgrams(HashMap<String,Integer> tbl,  int startNgramOrder, int endNgramOrder,  int[] wrds){
 		if(useIntegerNgram)
 			Ngram.getNgrams(tbl, startNgramOrder, endNgramOrder, wrds);
 		else
 			Ngram.getNgrams(symbolTable, tbl, startNgramOrder, endNgramOrder, wrds);
 	}
-	*/
 	
  	private void getNgrams(HashMap<String,Integer> tbl,  int startNgramOrder, int endNgramOrder,  List<Integer> wrds){
 		if(useIntegerNgram)
@@ -621,6 +621,11 @@ public class BloomFilterLanguageModel extends AbstractLM implements Externalizab
 		throw new UnsupportedOperationException("probabilityOfBackoffState_helper undefined for bloom filter LM");
 	}
 	
+	@Override
+	protected double logProbabilityOfBackoffState_helper(int[] words, int offset, int length, int qtyAdditionalBackoffWeight) {
+		throw new UnsupportedOperationException("probabilityOfBackoffState_helper undefined for bloom filter LM");
+	}
+	
 	/**
 	 * Returns the language model score for an n-gram. This is called from
 	 * the rest of the Joshua decoder.
@@ -638,4 +643,18 @@ public class BloomFilterLanguageModel extends AbstractLM implements Externalizab
 		}
 		return wittenBell(lm_ngram, order);
 	}
+	
+	/**
+	 * As above, for <code>words[offset .. offset+length-1]</code>.
+	 * The words are translated into the bloom filter's vocabulary
+	 * straight from the buffer.
+	 */
+	@Override
+	protected double ngramLogProbability_helper(int[] words, int offset, int length) {
+		int [] lm_ngram = new int[length];
+		for (int i = 0; i < length; i++) {
+			lm_ngram[i] = vocabulary.getID(symbolTable.getWord(words[offset + i]));
+		}
+		return wittenBell(lm_ngram, length);
+	}
 }
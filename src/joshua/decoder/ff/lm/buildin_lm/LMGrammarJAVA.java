@@ -26,7 +26,6 @@ import joshua.util.io.LineReader;
 import joshua.util.Regex;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -75,12 +74,6 @@ public class LMGrammarJAVA extends AbstractLM {
 	boolean g_is_add_prefix_infor   = false;
 	boolean g_is_add_suffix_infor   = false;
 	
-	HashMap<String, int[]> request_cache_prob        = new HashMap<String, int[]>();//cmd with result
-	HashMap<String, int[]> request_cache_backoff     = new HashMap<String, int[]>();//cmd with result
-	HashMap<String, int[]> request_cache_left_equiv  = new HashMap<String, int[]>();//cmd with result
-	HashMap<String, int[]> request_cache_right_equiv = new HashMap<String, int[]>();//cmd with result
-	int cache_size_limit= 250000;
-	
 	
 	private static final Logger logger = 
 		Logger.getLogger(LMGrammarJAVA.class.getName());
@@ -133,42 +126,33 @@ public class LMGrammarJAVA extends AbstractLM {
 	}
 	
 	
-	//	signature of this item: i, j, lhs, states (in fact, we do not need i, j)
-	private String get_signature(int[] words) {
-		StringBuffer s = new StringBuffer(words.length);
-		for (int i = 0; i < words.length; i++) {
-			s.append(' ').append(words[i]);
-		}
-		return s.toString();
-	}
-	
-	
 	
 	/*note: the mismatch between srilm and our java implemtation is in: when unk words used as context, in java it will be replaced with "<unk>", but srilm will not, therefore the 
 	*lm cost by srilm may be smaller than by java, this happens only when the LM file have "<unk>" in backoff state*/
 	protected double ngramLogProbability_helper(int[] ngram, int order) {
+		return ngramLogProbability_helper(ngram, 0, ngram.length);
+	}
+	
+	
+	protected double ngramLogProbability_helper(int[] words, int offset, int length) {
 		Double res;
-		//cache
-		//String sig = get_signature(ngram);
-		//res = (Double)request_cache_prob.get(sig);
-		//if(res!=null)return res;
 		
-		int[] ngram_wrds = replace_with_unk(ngram); // TODO
-		if (ngram_wrds[ngram_wrds.length-1] == UNK_SYM_ID) { // TODO: wrong implementation in hiero
+		// words are mapped to <unk> as they are read, rather than copying the n-gram
+		int last_word_id = replace_with_unk(words[offset + length - 1]);
+		if (last_word_id == UNK_SYM_ID) { // TODO: wrong implementation in hiero
 			res = -JoshuaConfiguration.lm_ceiling_cost;
 		} else {
 			//TODO: untranslated words
 			if (null == root) {
 				throw new RuntimeException("root is null");
 			}
-			int last_word_id = ngram_wrds[ngram_wrds.length-1];
 			LMHash pos = root;
 			Double prob = get_valid_prob(pos,last_word_id);
 			double bow_sum = 0;
 			// reverse search, start from the second-last word
-			for (int i = ngram_wrds.length - 2; i >= 0; i--) {
+			for (int i = offset + length - 2; i >= offset; i--) {
 				LMHash next_layer = 
-					(LMHash) pos.get(ngram_wrds[i] + this.symbolTable.getHighestID());
+					(LMHash) pos.get(replace_with_unk(words[i]) + this.symbolTable.getHighestID());
 					
 				if (null != next_layer) { // have context/bow node
 					pos = next_layer;
@@ -188,11 +172,6 @@ public class LMGrammarJAVA extends AbstractLM {
 			}
 			res = prob + bow_sum;
 		}
-		//cache
-		//if(request_cache_prob.size()>cache_size_limit)
-		//	request_cache_prob.clear();
-		//request_cache_prob.put(sig, res);
-		
 		return res;
 	}
 	
@@ -232,19 +211,13 @@ public class LMGrammarJAVA extends AbstractLM {
 		|| original_state_in.length != ngramOrder - 1) {
 			return original_state_in;
 		}
-		int[] res;
-		//cache
-		String sig = get_signature(original_state_in);
-		res = (int[])request_cache_right_equiv.get(sig);
-		if (null != res) {
-			//System.out.println("right cache hit");
-			return res;
-		}
+		// not cached: the state is recomputed from the trie, so that
+		// decoder threads sharing this model do not contend on a lock
 		
 		// we do not put this statement at the beging to match the SRILM condition (who does not have replace_with_unk)
 		int[] original_state = replace_with_unk(original_state_in);
 		
-		res = new int[original_state.length];
+		int[] res = new int[original_state.length];
 		for (int i = 1; i <= original_state.length; i++) { // forward search				
 			int[] cur_wrds = Support.sub_int_array(original_state, i-1, original_state.length);
 			if (! have_prefix(cur_wrds)) {
@@ -256,12 +229,6 @@ public class LMGrammarJAVA extends AbstractLM {
 				break;
 			}
 		}
-		//cache
-		if (request_cache_right_equiv.size() > cache_size_limit) {
-			request_cache_right_equiv.clear();
-		}
-		request_cache_right_equiv.put(sig, res);
-		
 		//System.out.println("right org state: " + Symbol.get_string(original_state) +"; equiv state: " + Symbol.get_string(res));
 		return res;
 	}
@@ -387,18 +354,27 @@ public class LMGrammarJAVA extends AbstractLM {
 	
 	
 	protected double logProbabilityOfBackoffState_helper(int[] ngram_wrds, int order, int n_additional_bow) {
-		int[] backoff_wrds =
-			Support.sub_int_array(ngram_wrds, 0, ngram_wrds.length - 1);
+		return logProbabilityOfBackoffState_helper(ngram_wrds, 0, ngram_wrds.length, n_additional_bow);
+	}
+	
+	
+	protected double logProbabilityOfBackoffState_helper(int[] words, int offset, int length, int n_additional_bow) {
 		double[] sum_bow = new double[1];
-		check_backoff_weight(backoff_wrds, sum_bow, n_additional_bow);
+		// the backoff words are all but the final <bo>
+		check_backoff_weight(words, offset, length - 1, sum_bow, n_additional_bow);
 		return sum_bow[0];
 	}
 	
 	
+	private boolean check_backoff_weight(int[] backoff_words, double[] sum_bow, int num_backoff) {
+		return check_backoff_weight(backoff_words, 0, backoff_words.length, sum_bow, num_backoff);
+	}
+	
+	
 	//if exist backoff weight for backoff_words, then return the accumated backoff weight
 	//	if there is no backoff weight for backoff_words, then, we can return the finalized backoff weight
-	private boolean check_backoff_weight(int[] backoff_words, double[] sum_bow, int num_backoff) {
-		if (backoff_words.length <= 0) return false;
+	private boolean check_backoff_weight(int[] words, int offset, int length, double[] sum_bow, int num_backoff) {
+		if (length <= 0) return false;
 		
 		double sum = 0;
 		LMHash pos = root;
@@ -407,10 +383,10 @@ public class LMGrammarJAVA extends AbstractLM {
 		int start_use_i = num_backoff - 1;
 		
 		Double bow = null;
-		int i = backoff_words.length - 1;
+		int i = length - 1;
 		for(; i >= 0; i--) {
 			LMHash next_layer = (LMHash) pos.get(
-				backoff_words[i] + this.symbolTable.getHighestID());
+				words[offset + i] + this.symbolTable.getHighestID());
 			
 			if (null != next_layer) {
 				bow = (Double)next_layer.get(BACKOFF_WGHT_SYM_ID);
@@ -192,8 +192,20 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
 		throw new UnsupportedOperationException("probabilityOfBackoffState_helper undefined for TrieLM");
 	}
 
+	@Override
+	protected double logProbabilityOfBackoffState_helper(
+			int[] words, int offset, int length, int qtyAdditionalBackoffWeight
+	) {
+		throw new UnsupportedOperationException("probabilityOfBackoffState_helper undefined for TrieLM");
+	}
+
 	@Override
 	protected double ngramLogProbability_helper(int[] ngram, int order) {
+		return ngramLogProbability_helper(ngram, 0, ngram.length);
+	}
+
+	@Override
+	protected double ngramLogProbability_helper(int[] words, int offset, int length) {
 	
 //	@Override
 //	public double ngramLogProbability(int[] ngram, int order) {
@@ -201,8 +213,8 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
 		float logProb = (float) -JoshuaConfiguration.lm_ceiling_cost;//Float.NEGATIVE_INFINITY; // log(0.0f)
 		float backoff = 0.0f; // log(1.0f)
 		
-		int i = ngram.length - 1;
-		int word = ngram[i];
+		int i = offset + length - 1;
+		int word = words[i];
 		i -= 1;
 		
 		int nodeID = ROOT_NODE_ID;
@@ -217,12 +229,12 @@ public class TrieLM extends AbstractLM { //DefaultNGramLanguageModel {
 				}
 			}
 			
-			if (i < 0) {
+			if (i < offset) {
 				break;
 			}
 			
 			{
-				long key = Bits.encodeAsLong(nodeID, ngram[i]);
+				long key = Bits.encodeAsLong(nodeID, words[i]);
 				
 				if (children.containsKey(key)) {
 					nodeID = children.get(key);
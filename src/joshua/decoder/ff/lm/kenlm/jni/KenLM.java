@@ -24,6 +24,7 @@ public class KenLM implements NGramLanguageModel {
   private final static native String vocabWord(long ptr, int index);
 
   private final static native float prob(long ptr, int words[]);
+  private final static native float probRange(long ptr, int words[], int offset, int length);
   private final static native float probString(long ptr, int words[], int start);
 
   public KenLM(String file_name) {
@@ -42,6 +43,9 @@ public class KenLM implements NGramLanguageModel {
 
   public float prob(int words[]) { return prob(pointer, words); }
 
+  // Scores words[offset, offset + length) without copying the n-gram on the Java side.  
+  public float prob(int words[], int offset, int length) { return probRange(pointer, words, offset, length); }
+
   // Apparently Zhifei starts some array indices at 1.  Change to 0-indexing.  
   public float probString(int words[], int start) { return probString(pointer, words, start - 1); }
 
@@ -62,6 +66,10 @@ public class KenLM implements NGramLanguageModel {
     return prob(ngram);
   }
 
+  public double ngramLogProbability(int[] words, int offset, int length) {
+    return prob(words, offset, length);
+  }
+
   /** @deprecated pass int arrays to prob instead.
    */
   @Deprecated
@@ -76,6 +84,9 @@ public class KenLM implements NGramLanguageModel {
   public double logProbabilityOfBackoffState(int[] ngram, int order, int qtyAdditionalBackoffWeight) {
     return 0;
   }
+  public double logProbabilityOfBackoffState(int[] words, int offset, int length, int qtyAdditionalBackoffWeight) {
+    return 0;
+  }
   public int[] leftEquivalentState(int[] originalState, int order, double[] cost) {
     return originalState;
   }
@@ -294,6 +294,15 @@ JNIEXPORT jfloat JNICALL Java_joshua_decoder_ff_lm_kenlm_jni_KenLM_prob(JNIEnv *
   return reinterpret_cast<const VirtualBase*>(pointer)->Prob(values, values + length);
 }
 
+JNIEXPORT jfloat JNICALL Java_joshua_decoder_ff_lm_kenlm_jni_KenLM_probRange(JNIEnv *env, jclass, jlong pointer, jintArray arr, jint offset, jint length) {
+  if (length <= 0) return 0.0;
+  // Only the requested window is copied out of the Java array.  
+  jint values[length];
+  env->GetIntArrayRegion(arr, offset, length, values);
+
+  return reinterpret_cast<const VirtualBase*>(pointer)->Prob(values, values + length);
+}
+
 JNIEXPORT jfloat JNICALL Java_joshua_decoder_ff_lm_kenlm_jni_KenLM_probString(JNIEnv *env, jclass, jlong pointer, jintArray arr, jint start) {
   jint length = env->GetArrayLength(arr);
   if (length <= start) return 0.0;
@@ -0,0 +1,875 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.mmap_lm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.lm.ArpaNgram;
+import joshua.decoder.ff.lm.mmap_lm.NgramSorter.MergeReader;
+import joshua.decoder.ff.lm.mmap_lm.NgramSorter.NgramReader;
+import joshua.decoder.ff.lm.mmap_lm.NgramSorter.RunReader;
+import joshua.decoder.ff.lm.mmap_lm.NgramSorter.SuffixReader;
+import joshua.util.CommandLineParser;
+import joshua.util.CommandLineParser.Option;
+import joshua.util.io.LineReader;
+
+/**
+ * Multi-threaded conversion of an ARPA language model file,
+ * optionally gzipped, into the binary formats read by
+ * {@link ProbingHashLM} and {@link PackedTrieLM}.
+ * <p>
+ * Unlike {@link BinaryLMBuilder}, which holds the whole model
+ * in memory, the converter reads the ARPA file once and hands
+ * batches of lines of each order to a pool of parser threads.
+ * Parsed n-grams are sorted in bounded buffers that spill to
+ * temporary files, and every later step streams over sorted
+ * files: merging the runs of each order, adding the blank
+ * n-grams that connect longer n-grams to shorter ones, and
+ * writing the sections of the output, one thread per order.
+ * <p>
+ * A random sample of the n-grams read is kept, and can be
+ * checked against the written language model with
+ * {@link #verify(String)}.
+ *
+ * @version $LastChangedDate$
+ */
+public class ArpaConverter {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(ArpaConverter.class.getName());
+	
+	/** Number of lines handed to a parser thread at a time. */
+	private static final int BATCH_SIZE = 8192;
+	
+	/** Number of lines read between progress reports. */
+	private static final long REPORT_INTERVAL = 1 << 22;
+	
+	/** Marks the end of the input for parser threads. */
+	private static final Batch END = new Batch(0, new String[0], 0);
+	
+	private final int threads;
+	private final long memory;
+	private final File tempDirectory;
+	private final int numSamples;
+	
+	private int order;
+	
+	/** Words of the language model, by index. */
+	private final List<String> words = new ArrayList<String>();
+	
+	/** Language model word indices, by word. */
+	private final ConcurrentHashMap<String,Integer> wordIndices = new ConcurrentHashMap<String,Integer>();
+	
+	/** Number of n-grams of each order, including blanks. */
+	private long[] counts;
+	
+	/** Sorted n-grams of each order. */
+	private File[] sorted;
+	
+	/** Sampled ARPA lines, and their orders. */
+	private String[] samples;
+	private int[] sampleOrders;
+	
+	private BlockingQueue<Batch> queue;
+	
+	/**
+	 * Constructs a converter.
+	 * 
+	 * @param threads Number of worker threads
+	 * @param memory Bytes of memory to use for sort buffers
+	 * @param tempDirectory Directory for temporary files
+	 * @param numSamples Number of n-grams to sample for
+	 *                   verification
+	 */
+	public ArpaConverter(int threads, long memory, File tempDirectory, int numSamples) {
+		this.threads = Math.max(1, threads);
+		this.memory = memory;
+		this.tempDirectory = tempDirectory;
+		this.numSamples = numSamples;
+	}
+	
+	/**
+	 * Converts an ARPA file.
+	 * 
+	 * @param arpaFile ARPA language model file, gzipped if its 
+	 *                 name ends in <code>.gz</code>
+	 * @param outputFile Binary language model file to write
+	 * @param format Either {@link BinaryLM#PROBING} or
+	 *               {@link BinaryLM#TRIE}
+	 * @throws IOException
+	 */
+	public void convert(String arpaFile, String outputFile, int format) throws IOException {
+		
+		File directory = File.createTempFile("arpa", ".tmp", tempDirectory);
+		directory.delete();
+		if (! directory.mkdirs()) {
+			throw new IOException("Unable to create temporary directory " + directory);
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			long start = System.currentTimeMillis();
+			
+			NgramSorter[] sorters = read(arpaFile, directory, pool);
+			long total = 0;
+			for (int n = 1; n <= order; n++) {
+				total += counts[n];
+			}
+			report("Read", total, start);
+			
+			merge(sorters, directory, pool);
+			addBlanks(directory);
+			report("Sorted", total, start);
+			
+			if (format == BinaryLM.TRIE) {
+				writeTrie(outputFile, pool);
+			} else {
+				writeProbing(outputFile, directory, pool);
+			}
+			report("Converted", total, start);
+			
+		} finally {
+			pool.shutdownNow();
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+	
+	private static void report(String what, long ngrams, long start) {
+		if (logger.isLoggable(Level.INFO)) {
+			double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+			logger.info(String.format("%s %d n-grams in %.1f s (%.0f n-grams/sec)", what, ngrams, seconds, ngrams / seconds));
+		}
+	}
+	
+	/**
+	 * Reads the ARPA file, parsing the unigrams on this thread,
+	 * so that words are indexed in file order, and all other
+	 * n-grams on the parser threads.
+	 */
+	private NgramSorter[] read(String arpaFile, File directory, ExecutorService pool) throws IOException {
+		
+		LineReader reader = new LineReader(arpaFile);
+		NgramSorter[] sorters = null;
+		List<Future<Void>> parsers = new ArrayList<Future<Void>>();
+		
+		try {
+			List<Long> declared = new ArrayList<Long>();
+			declared.add(0L);
+			
+			Random random = new Random();
+			samples = new String[numSamples];
+			sampleOrders = new int[numSamples];
+			
+			long start = System.currentTimeMillis();
+			long lines = 0;
+			int n = 0;
+			
+			NgramSorter.Buffer unigrams = null;
+			int[] indices = new int[1];
+			float[] scores = new float[2];
+			String[] fields = new String[3];
+			
+			String[] batch = new String[BATCH_SIZE];
+			int batchSize = 0;
+			
+			for (String line : reader) {
+				line = line.trim();
+				if (line.length() == 0) continue;
+				
+				if (line.charAt(0) == '\\') {
+					if (batchSize > 0) {
+						submit(new Batch(n, batch, batchSize), parsers);
+						batch = new String[BATCH_SIZE];
+						batchSize = 0;
+					}
+					if (line.equals("\\data\\")) continue;
+					if (line.equals("\\end\\")) break;
+					
+					n = Integer.parseInt(line.substring(1, line.indexOf('-')));
+					if (sorters == null) {
+						order = declared.size() - 1;
+						if (order < 1) {
+							throw new IOException("No n-gram counts in the header of " + arpaFile);
+						}
+						sorters = new NgramSorter[order + 1];
+						long buffers = (long) threads * order + 1;
+						for (int i = 1; i <= order; i++) {
+							sorters[i] = new NgramSorter(i, directory, memory / buffers);
+						}
+						unigrams = sorters[1].newBuffer();
+						queue = new ArrayBlockingQueue<Batch>(2 * threads);
+						for (int i = 0; i < threads; i++) {
+							parsers.add(pool.submit(new Parser(sorters)));
+						}
+					}
+					if (n < 1 || n > order) {
+						throw new IOException("Unexpected section " + line + " in " + arpaFile);
+					}
+					
+				} else if (n == 0) {
+					if (line.startsWith("ngram ")) {
+						int equals = line.indexOf('=');
+						int i = Integer.parseInt(line.substring(6, equals).trim());
+						while (declared.size() <= i) declared.add(0L);
+						declared.set(i, Long.parseLong(line.substring(equals + 1).trim()));
+					}
+					
+				} else {
+					if (lines < numSamples) {
+						samples[(int) lines] = line;
+						sampleOrders[(int) lines] = n;
+					} else {
+						long slot = (long) (random.nextDouble() * (lines + 1));
+						if (slot < numSamples) {
+							samples[(int) slot] = line;
+							sampleOrders[(int) slot] = n;
+						}
+					}
+					
+					if (n == 1) {
+						parse(line, 1, fields, indices, scores);
+						unigrams.add(indices, 0, scores[0], scores[1]);
+					} else {
+						batch[batchSize++] = line;
+						if (batchSize == BATCH_SIZE) {
+							submit(new Batch(n, batch, batchSize), parsers);
+							batch = new String[BATCH_SIZE];
+							batchSize = 0;
+						}
+					}
+					
+					if (++lines % REPORT_INTERVAL == 0) {
+						report("Read", lines, start);
+					}
+				}
+			}
+			
+			if (sorters == null) {
+				throw new IOException("No n-grams in " + arpaFile);
+			}
+			if (batchSize > 0) {
+				submit(new Batch(n, batch, batchSize), parsers);
+			}
+			unigrams.flush();
+			for (int i = 0; i < threads; i++) {
+				submit(END, parsers);
+			}
+			join(parsers);
+			
+			if (lines < numSamples) {
+				String[] all = new String[(int) lines];
+				System.arraycopy(samples, 0, all, 0, all.length);
+				samples = all;
+			}
+			
+			counts = new long[order + 1];
+			for (int i = 1; i <= order; i++) {
+				counts[i] = declared.get(i);
+			}
+			
+		} finally {
+			for (Future<Void> parser : parsers) {
+				parser.cancel(true);
+			}
+			reader.close();
+		}
+		
+		return sorters;
+	}
+	
+	/**
+	 * Hands a batch to the parser threads, checking that they
+	 * are still running while the queue is full.
+	 */
+	private void submit(Batch batch, List<Future<Void>> parsers) throws IOException {
+		try {
+			while (! queue.offer(batch, 1, TimeUnit.SECONDS)) {
+				for (Future<Void> parser : parsers) {
+					if (parser.isDone()) {
+						join(parsers);
+						throw new IOException("Parser thread stopped unexpectedly");
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while reading ARPA file");
+		}
+	}
+	
+	/** Waits for tasks to finish, rethrowing their failures. */
+	private static <T> List<T> join(List<Future<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for (Future<T> task : tasks) {
+				results.add(task.get());
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while converting language model");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Parses an ARPA n-gram line.
+	 * 
+	 * @param line Line to parse
+	 * @param n Order of the n-gram
+	 * @param fields Scratch array of at least n+2 elements
+	 * @param indices Receives the word indices of the n-gram
+	 * @param scores Receives the log probability and backoff
+	 * @throws IOException if the line is malformed
+	 */
+	private void parse(String line, int n, String[] fields, int[] indices, float[] scores) throws IOException {
+		int count = 0;
+		int length = line.length();
+		for (int i = 0; i < length; ) {
+			while (i < length && Character.isWhitespace(line.charAt(i))) i++;
+			if (i == length) break;
+			int end = i;
+			while (end < length && ! Character.isWhitespace(line.charAt(end))) end++;
+			if (count == n + 2) {
+				throw new IOException("Too many fields for a " + n + "-gram: " + line);
+			}
+			fields[count++] = line.substring(i, end);
+			i = end;
+		}
+		if (count < n + 1) {
+			throw new IOException("Too few fields for a " + n + "-gram: " + line);
+		}
+		
+		try {
+			scores[0] = Float.parseFloat(fields[0]);
+			scores[1] = (count > n + 1) ? Float.parseFloat(fields[n + 1]) : ArpaNgram.DEFAULT_BACKOFF;
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed score in line: " + line);
+		}
+		for (int i = 0; i < n; i++) {
+			indices[i] = wordIndex(fields[i + 1]);
+		}
+	}
+	
+	/** Gets the index of a word, adding it if it is new. */
+	private int wordIndex(String word) {
+		Integer index = wordIndices.get(word);
+		if (index == null) {
+			synchronized (words) {
+				index = wordIndices.get(word);
+				if (index == null) {
+					index = words.size();
+					words.add(word);
+					wordIndices.put(word, index);
+				}
+			}
+		}
+		return index;
+	}
+	
+	/** Lines of one order, handed to a parser thread. */
+	private static class Batch {
+		final int n;
+		final String[] lines;
+		final int size;
+		
+		Batch(int n, String[] lines, int size) {
+			this.n = n;
+			this.lines = lines;
+			this.size = size;
+		}
+	}
+	
+	/** Parses batches into its own sort buffers. */
+	private class Parser implements Callable<Void> {
+		
+		private final NgramSorter[] sorters;
+		
+		Parser(NgramSorter[] sorters) {
+			this.sorters = sorters;
+		}
+		
+		public Void call() throws IOException, InterruptedException {
+			NgramSorter.Buffer[] buffers = new NgramSorter.Buffer[order + 1];
+			int[] indices = new int[order];
+			float[] scores = new float[2];
+			String[] fields = new String[order + 2];
+			
+			for (Batch batch = queue.take(); batch != END; batch = queue.take()) {
+				int n = batch.n;
+				if (buffers[n] == null) {
+					buffers[n] = sorters[n].newBuffer();
+				}
+				for (int i = 0; i < batch.size; i++) {
+					parse(batch.lines[i], n, fields, indices, scores);
+					buffers[n].add(indices, 0, scores[0], scores[1]);
+				}
+			}
+			
+			for (NgramSorter.Buffer buffer : buffers) {
+				if (buffer != null) buffer.flush();
+			}
+			return null;
+		}
+	}
+	
+	/** Merges the runs of each order into one sorted file. */
+	private void merge(final NgramSorter[] sorters, final File directory, ExecutorService pool) throws IOException {
+		sorted = new File[order + 1];
+		List<Future<Long>> tasks = new ArrayList<Future<Long>>();
+		for (int i = 1; i <= order; i++) {
+			final int n = i;
+			sorted[n] = new File(directory, n + ".sorted");
+			tasks.add(pool.submit(new Callable<Long>() {
+				public Long call() throws IOException {
+					long count = NgramSorter.write(sorters[n].read(), sorted[n]);
+					sorters[n].delete();
+					return count;
+				}
+			}));
+		}
+		
+		List<Long> read = join(tasks);
+		for (int n = 1; n <= order; n++) {
+			if (read.get(n - 1) != counts[n] && logger.isLoggable(Level.WARNING)) {
+				logger.warning("Header declares " + counts[n] + " " + n + "-grams, but " + read.get(n - 1) + " distinct ones were read");
+			}
+			counts[n] = read.get(n - 1);
+		}
+	}
+	
+	/**
+	 * Adds the missing suffixes and contexts of every n-gram as
+	 * blanks, from the highest order down, and a unigram for
+	 * every word.
+	 * <p>
+	 * The suffixes of n-grams sorted by reversed words are
+	 * themselves sorted, so they are merged in directly; the
+	 * contexts are sorted first.
+	 */
+	private void addBlanks(File directory) throws IOException {
+		long blanks = 0;
+		
+		for (int n = order; n >= 1; n--) {
+			List<NgramReader> readers = new ArrayList<NgramReader>();
+			readers.add(new RunReader(sorted[n], n));
+			
+			NgramSorter contexts = null;
+			if (n < order) {
+				readers.add(new SuffixReader(new RunReader(sorted[n + 1], n + 1)));
+				
+				contexts = new NgramSorter(n, directory, memory);
+				NgramSorter.Buffer buffer = contexts.newBuffer();
+				NgramReader higher = new RunReader(sorted[n + 1], n + 1);
+				while (higher.next()) {
+					buffer.add(higher.words, 0, Float.NaN, 0.0f);
+				}
+				higher.close();
+				buffer.flush();
+				readers.add(contexts.read());
+			}
+			if (n == 1) {
+				readers.add(new VocabularyReader(words.size()));
+			}
+			
+			File file = new File(directory, n + ".complete");
+			long count = NgramSorter.write(new MergeReader(n, readers), file);
+			if (contexts != null) contexts.delete();
+			
+			sorted[n].delete();
+			sorted[n] = file;
+			blanks += count - counts[n];
+			counts[n] = count;
+		}
+		
+		if (logger.isLoggable(Level.FINE)) logger.fine("Added " + blanks + " blank n-grams");
+	}
+	
+	/** Reads a blank unigram for every word index. */
+	private static class VocabularyReader extends NgramReader {
+		private final int size;
+		
+		VocabularyReader(int size) {
+			super(1);
+			this.size = size;
+			this.words[0] = -1;
+		}
+		
+		boolean next() {
+			if (words[0] + 1 >= size) return false;
+			words[0]++;
+			prob = Float.NaN;
+			backoff = 0.0f;
+			return true;
+		}
+		
+		void close() {}
+	}
+	
+	/**
+	 * Writes the header of the output file and sets its length.
+	 * 
+	 * @return Byte position of the section of each order
+	 */
+	private long[] writeHeader(String fileName, int format, long[] sizes, byte[] formatHeader) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		try {
+			file.setLength(0);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file.getChannel())));
+			long[] sections = BinaryLMBuilder.writeHeader(out, format, words, counts, sizes, formatHeader);
+			out.flush();
+			file.setLength(sections[order] + sizes[order]);
+			return sections;
+		} finally {
+			file.close();
+		}
+	}
+	
+	/** Opens an output stream at a position of a file. */
+	private static DataOutputStream openAt(String fileName, long position) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		FileChannel channel = file.getChannel();
+		channel.position(position);
+		return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+	}
+	
+	/**
+	 * Writes the language model in probing hash format.
+	 * <p>
+	 * The n-grams of each order are sorted by their first
+	 * bucket, and each n-gram is placed in the first bucket at
+	 * or after it that is still free. The few n-grams that run
+	 * past the end of the table wrap around to its start.
+	 */
+	private void writeProbing(final String fileName, final File directory, ExecutorService pool) throws IOException {
+		
+		final long[] buckets = new long[order + 1];
+		long[] sizes = new long[order + 1];
+		sizes[1] = (long) words.size() * ProbingHashLM.UNIGRAM_BYTES;
+		for (int n = 2; n <= order; n++) {
+			buckets[n] = BinaryLMBuilder.probingBuckets(counts[n]);
+			sizes[n] = buckets[n] * ProbingHashLM.BUCKET_BYTES;
+		}
+		
+		final long[] sections = writeHeader(fileName, BinaryLM.PROBING, sizes, BinaryLMBuilder.probingHeader(order, buckets));
+		final long sortMemory = memory / Math.max(1, order - 1);
+		
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+		for (int i = 1; i <= order; i++) {
+			final int n = i;
+			tasks.add(pool.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					if (n == 1) {
+						writeUnigrams(fileName, sections[1]);
+					} else {
+						writeTable(fileName, sections[n], n, buckets[n], directory, sortMemory);
+					}
+					return null;
+				}
+			}));
+		}
+		join(tasks);
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Wrote probing hash language model to " + fileName);
+	}
+	
+	private void writeUnigrams(String fileName, long section) throws IOException {
+		DataOutputStream out = openAt(fileName, section);
+		NgramReader reader = new RunReader(sorted[1], 1);
+		try {
+			while (reader.next()) {
+				out.writeFloat(reader.prob);
+				out.writeFloat(reader.backoff);
+			}
+		} finally {
+			reader.close();
+			out.close();
+		}
+	}
+	
+	private void writeTable(String fileName, long section, int n, long buckets, File directory, long sortMemory) throws IOException {
+		
+		NgramSorter byBucket = new NgramSorter(n, buckets, directory, sortMemory);
+		NgramSorter.Buffer buffer = byBucket.newBuffer();
+		NgramReader reader = new RunReader(sorted[n], n);
+		while (reader.next()) {
+			buffer.add(reader.words, 0, reader.prob, reader.backoff);
+		}
+		reader.close();
+		buffer.flush();
+		
+		List<long[]> wrapped = new ArrayList<long[]>();
+		DataOutputStream out = openAt(fileName, section);
+		reader = byBucket.read();
+		try {
+			long next = 0;
+			while (reader.next()) {
+				long key = BinaryLMBuilder.key(reader.words, 0, n);
+				long bucket = Math.max(next, reader.sortKey);
+				if (bucket >= buckets) {
+					wrapped.add(new long[] { key, Float.floatToRawIntBits(reader.prob), Float.floatToRawIntBits(reader.backoff) });
+					continue;
+				}
+				for (; next < bucket; next++) {
+					out.writeLong(0);
+					out.writeLong(0);
+				}
+				out.writeLong(key);
+				out.writeFloat(reader.prob);
+				out.writeFloat(reader.backoff);
+				next++;
+			}
+			for (; next < buckets; next++) {
+				out.writeLong(0);
+				out.writeLong(0);
+			}
+		} finally {
+			reader.close();
+			out.close();
+			byBucket.delete();
+		}
+		
+		if (! wrapped.isEmpty()) {
+			RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+			try {
+				long bucket = 0;
+				for (long[] entry : wrapped) {
+					while (true) {
+						file.seek(section + bucket * ProbingHashLM.BUCKET_BYTES);
+						if (file.readLong() == 0) break;
+						bucket++;
+					}
+					file.seek(section + bucket * ProbingHashLM.BUCKET_BYTES);
+					file.writeLong(entry[0]);
+					file.writeInt((int) entry[1]);
+					file.writeInt((int) entry[2]);
+				}
+			} finally {
+				file.close();
+			}
+		}
+		
+		if (logger.isLoggable(Level.FINE)) logger.fine("Wrote " + counts[n] + " " + n + "-grams in " + buckets + " buckets");
+	}
+	
+	/**
+	 * Writes the language model in bit-packed trie format.
+	 * <p>
+	 * Sorting by reversed words puts the n-grams of each order
+	 * in trie order: by the position of their suffix among the
+	 * n-grams of the next lower order, then by first word. The
+	 * child pointers of one order are found by walking the next
+	 * higher order alongside it.
+	 */
+	private void writeTrie(final String fileName, ExecutorService pool) throws IOException {
+		
+		final int wordBits = Math.max(1, BinaryLMBuilder.bits(words.size() - 1));
+		final int[] pointerBits = new int[order + 1];
+		final long[] sizes = new long[order + 1];
+		for (int n = 1; n <= order; n++) {
+			if (n < order) pointerBits[n] = BinaryLMBuilder.bits(counts[n + 1]);
+			sizes[n] = BinaryLMBuilder.trieSectionSize(n, order, wordBits, pointerBits[n], counts[n]);
+		}
+		
+		final long[] sections = writeHeader(fileName, BinaryLM.TRIE, sizes, BinaryLMBuilder.trieHeader(order, wordBits, pointerBits));
+		
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+		for (int i = 1; i <= order; i++) {
+			final int n = i;
+			tasks.add(pool.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					writeTrieSection(fileName, sections[n], sizes[n], n, wordBits, pointerBits[n]);
+					return null;
+				}
+			}));
+		}
+		join(tasks);
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Wrote trie language model to " + fileName);
+	}
+	
+	private void writeTrieSection(String fileName, long section, long size, int n, int wordBits, int pointerBits) throws IOException {
+		
+		DataOutputStream out = openAt(fileName, section);
+		NgramReader reader = new RunReader(sorted[n], n);
+		NgramReader children = (n < order) ? new RunReader(sorted[n + 1], n + 1) : null;
+		
+		try {
+			BinaryLMBuilder.BitWriter bits = new BinaryLMBuilder.BitWriter(out);
+			boolean hasChild = (children != null) && children.next();
+			long pointer = 0;
+			long position = 0;
+			
+			while (reader.next()) {
+				if (n == 1 && reader.words[0] != position) {
+					throw new IOException("Missing unigram for word " + position);
+				}
+				position++;
+				
+				if (n > 1) bits.write(reader.words[0], wordBits);
+				bits.write(Float.floatToRawIntBits(reader.prob) & 0xFFFFFFFFL, 32);
+				if (n < order) {
+					bits.write(Float.floatToRawIntBits(reader.backoff) & 0xFFFFFFFFL, 32);
+					bits.write(pointer, pointerBits);
+					while (hasChild && NgramSorter.compare(0, children.words, 1, 0, reader.words, 0, n) == 0) {
+						pointer++;
+						hasChild = children.next();
+					}
+				}
+			}
+			
+			if (n < order) {
+				if (hasChild) {
+					throw new IOException("The " + (n + 1) + "-grams are not sorted under their suffixes");
+				}
+				if (n > 1) bits.write(0, wordBits);
+				bits.write(0, 64);
+				bits.write(pointer, pointerBits);
+			}
+			
+			long written = bits.close();
+			for (long i = written; i < size; i++) {
+				out.writeByte(0);
+			}
+		} finally {
+			reader.close();
+			if (children != null) children.close();
+			out.close();
+		}
+		
+		if (logger.isLoggable(Level.FINE)) logger.fine("Wrote " + counts[n] + " " + n + "-grams");
+	}
+	
+	/**
+	 * Checks the sampled n-grams against a converted language
+	 * model. Each sampled n-gram must receive its own log
+	 * probability from the ARPA file, limited by the ceiling 
+	 * cost.
+	 * 
+	 * @param fileName Binary language model file
+	 * @return Number of sampled n-grams whose probability
+	 *         differs
+	 * @throws IOException
+	 */
+	public int verify(String fileName) throws IOException {
+		
+		SymbolTable vocab = new Vocabulary();
+		BinaryLM lm = BinaryLM.open(vocab, fileName);
+		
+		int[] indices = new int[order];
+		float[] scores = new float[2];
+		String[] fields = new String[order + 2];
+		
+		int checked = 0;
+		int errors = 0;
+		for (int i = 0; i < samples.length; i++) {
+			int n = sampleOrders[i];
+			parse(samples[i], n, fields, indices, scores);
+			if (SymbolTable.UNKNOWN_WORD_STRING.equals(fields[n])) continue;
+			
+			int[] ids = new int[n];
+			for (int j = 0; j < n; j++) {
+				ids[j] = vocab.addTerminal(fields[j + 1]);
+			}
+			double expected = Math.max(scores[0], -JoshuaConfiguration.lm_ceiling_cost);
+			double actual = lm.ngramLogProbability(ids, 0, n);
+			checked++;
+			
+			if (Math.abs(expected - actual) > 1e-4) {
+				if (errors++ < 10 && logger.isLoggable(Level.WARNING)) {
+					logger.warning("Expected " + expected + " but found " + actual + " for: " + samples[i]);
+				}
+			}
+		}
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Verified " + checked + " sampled n-grams; " + errors + " differ");
+		return errors;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		
+		CommandLineParser commandLine = new CommandLineParser();
+		
+		Option<String> arpa = commandLine.addStringOption('i', "input", "ARPA_FILE", "ARPA language model file, optionally gzipped");
+		Option<String> output = commandLine.addStringOption('o', "output", "OUTPUT_FILE", "binary language model file to write");
+		Option<String> format = commandLine.addStringOption('f', "format", "FORMAT", "probing", "binary format: probing or trie");
+		Option<Integer> threads = commandLine.addIntegerOption('t', "threads", "THREADS", Runtime.getRuntime().availableProcessors(), "number of worker threads");
+		Option<Integer> memory = commandLine.addIntegerOption('m', "memory", "MEGABYTES", 1024, "memory to use for sort buffers, in megabytes");
+		Option<String> temp = commandLine.addStringOption("temp", "TEMP_DIRECTORY", System.getProperty("java.io.tmpdir"), "directory for temporary files");
+		Option<Integer> samples = commandLine.addIntegerOption("samples", "SAMPLES", 10000, "number of n-grams to verify");
+		
+		commandLine.parse(args);
+		
+		if (! commandLine.hasValue(arpa) || ! commandLine.hasValue(output)) {
+			commandLine.printUsage();
+			System.exit(1);
+		}
+		
+		ArpaConverter converter = new ArpaConverter(
+				commandLine.getValue(threads),
+				commandLine.getValue(memory) * (1L << 20),
+				new File(commandLine.getValue(temp)),
+				commandLine.getValue(samples));
+		
+		String outputFile = commandLine.getValue(output);
+		converter.convert(commandLine.getValue(arpa), outputFile, 
+				"trie".equals(commandLine.getValue(format)) ? BinaryLM.TRIE : BinaryLM.PROBING);
+		
+		if (converter.verify(outputFile) > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.mmap_lm;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.lm.AbstractLM;
+import joshua.util.Bits;
+import joshua.util.io.MappedBuffer;
+
+/**
+ * Language model read from a memory-mapped binary file written
+ * by {@link BinaryLMBuilder}.
+ * <p>
+ * Both binary formats store every n-gram under its words in
+ * reverse order, so that all suffixes of an n-gram, and all
+ * suffixes of its context, are reached in a single walk each.
+ * Subclasses define how one step of that walk is taken.
+ * <p>
+ * Scores follow the backoff computation of
+ * <code>LMGrammarJAVA</code>: the probability of the longest
+ * matching n-gram, plus the backoff weights of the longer
+ * contexts. A predicted word that is not in the language model
+ * receives the ceiling cost; unknown context words are replaced
+ * by <code>&lt;unk&gt;</code>.
+ *
+ * @version $LastChangedDate$
+ */
+public abstract class BinaryLM extends AbstractLM {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(BinaryLM.class.getName());
+	
+	/** First four bytes of a binary language model file. */
+	static final int MAGIC = 0x4A4C4D31;
+	
+	/** Format identifier of a probing hash language model. */
+	static final int PROBING = 1;
+	
+	/** Format identifier of a bit-packed trie language model. */
+	static final int TRIE = 2;
+	
+	/** Mapped language model file. */
+	protected final MappedBuffer buffer;
+	
+	/** Number of n-grams of each order, including blanks. */
+	protected final long[] counts;
+	
+	/** Byte position of the data of each order. */
+	protected final long[] sections;
+	
+	/** Number of words in the language model vocabulary. */
+	protected final int vocabularySize;
+	
+	/** Language model index of <code>&lt;unk&gt;</code>, or -1. */
+	private final int unknownIndex;
+	
+	/** Language model word indices, by runtime symbol id. */
+	private final int[] wordIndices;
+	
+	/** Header fields that are specific to the format. */
+	protected final DataInputStream formatHeader;
+	
+	/**
+	 * Opens a binary language model file, choosing the
+	 * implementation that matches its format.
+	 * 
+	 * @param symbolTable Runtime symbol table
+	 * @param fileName Binary language model file
+	 * @return Language model backed by the mapped file
+	 * @throws IOException
+	 */
+	public static BinaryLM open(SymbolTable symbolTable, String fileName) throws IOException {
+		MappedBuffer buffer = new MappedBuffer(fileName);
+		if (buffer.getInt(8) != MAGIC) {
+			throw new IOException("Not a binary language model file: " + fileName);
+		}
+		
+		int format = buffer.getInt(12);
+		if (logger.isLoggable(Level.INFO)) 
+			logger.info("Mapping " + ((format == PROBING) ? "probing hash" : "trie") + " language model from " + fileName);
+		
+		switch (format) {
+		case PROBING:
+			return new ProbingHashLM(symbolTable, buffer);
+		case TRIE:
+			return new PackedTrieLM(symbolTable, buffer);
+		default:
+			throw new IOException("Unknown binary language model format " + format + " in " + fileName);
+		}
+	}
+	
+	/**
+	 * Reads the header of a mapped binary language model, and
+	 * maps its vocabulary onto the runtime symbol table.
+	 * <p>
+	 * The file starts with the length of the header, followed
+	 * by the header itself: the magic number, format, order,
+	 * vocabulary size, index of <code>&lt;unk&gt;</code>, the
+	 * count and section position of each order, the vocabulary,
+	 * and then any format-specific fields.
+	 */
+	protected BinaryLM(SymbolTable symbolTable, MappedBuffer buffer) throws IOException {
+		super(symbolTable, buffer.getInt(16));
+		this.buffer = buffer;
+		
+		byte[] header = new byte[(int) buffer.getLong(0)];
+		for (int i = 0; i < header.length; i++) {
+			header[i] = buffer.get(8 + i);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+		in.readInt(); // magic
+		in.readInt(); // format
+		in.readInt(); // order
+		this.vocabularySize = in.readInt();
+		this.unknownIndex = in.readInt();
+		
+		this.counts = new long[ngramOrder + 1];
+		this.sections = new long[ngramOrder + 1];
+		for (int order = 1; order <= ngramOrder; order++) {
+			counts[order] = in.readLong();
+			sections[order] = in.readLong();
+		}
+		
+		int[] runtimeIDs = new int[vocabularySize];
+		int maxID = 0;
+		for (int i = 0; i < vocabularySize; i++) {
+			runtimeIDs[i] = symbolTable.addTerminal(in.readUTF());
+			maxID = Math.max(maxID, runtimeIDs[i]);
+		}
+		this.wordIndices = new int[maxID + 1];
+		Arrays.fill(wordIndices, -1);
+		for (int i = 0; i < vocabularySize; i++) {
+			wordIndices[runtimeIDs[i]] = i;
+		}
+		
+		this.formatHeader = in;
+		
+		if (logger.isLoggable(Level.INFO)) {
+			logger.info("Language model of order " + ngramOrder + " with " + vocabularySize + " words; n-gram counts " + Arrays.toString(Arrays.copyOfRange(counts, 1, counts.length)));
+		}
+	}
+	
+	/**
+	 * Extends the hash of a reversed n-gram by one more word
+	 * to the left. The hash of a unigram is
+	 * <code>extend(0, word)</code>. Zero is never returned, so
+	 * that it can mark an empty bucket.
+	 */
+	static long extend(long key, int word) {
+		long hash = Bits.hash(key, word);
+		return (hash == 0) ? 1 : hash;
+	}
+	
+	/**
+	 * Finds the n-gram formed by adding a word to the left of
+	 * an n-gram of the next lower order.
+	 * 
+	 * @param order Order of the n-gram to find
+	 * @param parent Entry of the n-gram of order
+	 *               <code>order-1</code>; ignored for unigrams
+	 * @param word Language model index of the new word
+	 * @return Entry of the n-gram, or -1 if it is not stored
+	 */
+	protected abstract long find(int order, long parent, int word);
+	
+	/** 
+	 * Gets the log probability of an n-gram entry, or NaN if the
+	 * entry only exists to connect longer n-grams.
+	 */
+	protected abstract float probability(int order, long entry);
+	
+	/** Gets the backoff weight of an n-gram entry. */
+	protected abstract float backoff(int order, long entry);
+	
+	private int wordIndex(int wordID) {
+		int index = (wordID >= 0 && wordID < wordIndices.length) ? wordIndices[wordID] : -1;
+		return (index < 0) ? unknownIndex : index;
+	}
+	
+	@Override
+	protected double ngramLogProbability_helper(int[] ngram, int order) {
+		return ngramLogProbability_helper(ngram, 0, ngram.length);
+	}
+	
+	@Override
+	protected double ngramLogProbability_helper(int[] words, int offset, int length) {
+		int end = offset + length;
+		int start = Math.max(offset, end - ngramOrder);
+		
+		int last = wordIndex(words[end - 1]);
+		if (last < 0 || last == unknownIndex) {
+			return -JoshuaConfiguration.lm_ceiling_cost;
+		}
+		
+		// Longest matching n-gram ending with the predicted word
+		double logProb = -JoshuaConfiguration.lm_ceiling_cost;
+		int matched = 0;
+		long entry = find(1, -1, last);
+		for (int order = 1; entry >= 0; ) {
+			float p = probability(order, entry);
+			if (! Float.isNaN(p)) {
+				logProb = p;
+				matched = order;
+			}
+			if (++order > end - start) break;
+			int word = wordIndex(words[end - order]);
+			entry = (word < 0) ? -1 : find(order, entry, word);
+		}
+		
+		// Backoff weights of the contexts longer than the match
+		double backoff = 0.0;
+		entry = -1;
+		for (int order = 1; order < end - start; order++) {
+			int word = wordIndex(words[end - 1 - order]);
+			entry = (word < 0) ? -1 : find(order, entry, word);
+			if (entry < 0) break;
+			if (order >= matched) {
+				backoff += backoff(order, entry);
+			}
+		}
+		
+		return logProb + backoff;
+	}
+	
+	@Override
+	protected double logProbabilityOfBackoffState_helper(
+			int[] ngram, int order, int qtyAdditionalBackoffWeight) {
+		return logProbabilityOfBackoffState_helper(ngram, 0, ngram.length, qtyAdditionalBackoffWeight);
+	}
+	
+	/**
+	 * Sums the stored backoff weights of the suffixes of the
+	 * backoff words (all but the final <code>&lt;bo&gt;</code>),
+	 * as <code>LMGrammarJAVA</code> does: only the weights of the
+	 * <code>qtyAdditionalBackoffWeight</code> longest suffixes
+	 * are added, and the walk stops at the first suffix that is
+	 * not stored.
+	 */
+	@Override
+	protected double logProbabilityOfBackoffState_helper(
+			int[] words, int offset, int length, int qtyAdditionalBackoffWeight) {
+		int end = offset + length - 1;
+		int numWords = end - offset;
+		
+		double backoff = 0.0;
+		long entry = -1;
+		for (int order = 1; order <= Math.min(numWords, ngramOrder); order++) {
+			int word = wordIndex(words[end - order]);
+			entry = (word < 0) ? -1 : find(order, entry, word);
+			if (entry < 0) break;
+			if (order > numWords - qtyAdditionalBackoffWeight) {
+				backoff += backoff(order, entry);
+			}
+		}
+		
+		return backoff;
+	}
+}
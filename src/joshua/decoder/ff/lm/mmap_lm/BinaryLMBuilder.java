@@ -0,0 +1,587 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.mmap_lm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.ff.lm.ArpaFile;
+import joshua.decoder.ff.lm.ArpaNgram;
+
+/**
+ * Converts an ARPA language model file into the binary formats
+ * read by {@link ProbingHashLM} and {@link PackedTrieLM}.
+ * <p>
+ * Every n-gram whose suffix or context is missing from the ARPA
+ * file gets those shorter n-grams added as blanks, with a NaN
+ * log probability and a zero backoff weight, so that lookups can
+ * always walk from shorter n-grams to longer ones.
+ *
+ * @version $LastChangedDate$
+ */
+public class BinaryLMBuilder {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(BinaryLMBuilder.class.getName());
+	
+	/** Ratio of buckets to n-grams in the probing hash tables. */
+	static final double PROBING_MULTIPLIER = 1.5;
+	
+	private int order;
+	
+	/** Words of the language model, by index. */
+	private final List<String> words = new ArrayList<String>();
+	
+	/** Language model word indices, by builder symbol id. */
+	private final Map<Integer,Integer> wordIndices = new HashMap<Integer,Integer>();
+	
+	/** N-grams of each order; unigrams are indexed by word. */
+	private final List<NgramList> ngrams = new ArrayList<NgramList>();
+	
+	/**
+	 * Reads all n-grams from an ARPA file.
+	 * 
+	 * @param arpaFile ARPA language model file
+	 */
+	public BinaryLMBuilder(ArpaFile arpaFile) {
+		
+		SymbolTable vocab = arpaFile.getVocab();
+		
+		ngrams.add(null);
+		this.order = 0;
+		
+		long count = 0;
+		for (ArpaNgram ngram : arpaFile) {
+			int n = ngram.order();
+			while (order < n) {
+				order++;
+				ngrams.add(new NgramList(order));
+			}
+			
+			int[] context = ngram.getContext();
+			int[] indices = new int[n];
+			for (int i = 0; i < context.length; i++) {
+				indices[i] = wordIndex(vocab, context[i]);
+			}
+			indices[n - 1] = wordIndex(vocab, ngram.getWord());
+			
+			ngrams.get(n).put(indices, 0, ngram.getValue(), ngram.getBackoff());
+			
+			if (++count % 1000000 == 0 && logger.isLoggable(Level.INFO)) {
+				logger.info("Read " + count + " n-grams");
+			}
+		}
+		if (logger.isLoggable(Level.INFO)) logger.info("Read " + count + " n-grams of order up to " + order);
+		
+		addBlanks();
+	}
+	
+	private int wordIndex(SymbolTable vocab, int id) {
+		Integer index = wordIndices.get(id);
+		if (index == null) {
+			index = words.size();
+			wordIndices.put(id, index);
+			words.add(vocab.getWord(id));
+		}
+		return index;
+	}
+	
+	/**
+	 * Adds the missing suffixes and contexts of every n-gram,
+	 * from the highest order down.
+	 */
+	private void addBlanks() {
+		int blanks = 0;
+		for (int n = order; n > 1; n--) {
+			NgramList higher = ngrams.get(n);
+			NgramList lower = ngrams.get(n - 1);
+			for (int i = 0; i < higher.size(); i++) {
+				int start = i * n;
+				if (lower.find(higher.words, start + 1) < 0) {
+					lower.put(higher.words, start + 1, Float.NaN, 0.0f);
+					blanks++;
+				}
+				if (lower.find(higher.words, start) < 0) {
+					lower.put(higher.words, start, Float.NaN, 0.0f);
+					blanks++;
+				}
+			}
+		}
+		
+		// Unigrams are indexed by word, so every word needs one
+		NgramList unigrams = ngrams.get(1);
+		int[] word = new int[1];
+		for (int i = 0; i < words.size(); i++) {
+			word[0] = i;
+			if (unigrams.find(word, 0) < 0) {
+				unigrams.put(word, 0, Float.NaN, 0.0f);
+				blanks++;
+			}
+		}
+		
+		if (logger.isLoggable(Level.FINE)) logger.fine("Added " + blanks + " blank n-grams");
+	}
+	
+	/**
+	 * Gets the unigram entries in word order.
+	 */
+	private int[] unigramOrder() {
+		NgramList unigrams = ngrams.get(1);
+		int[] entries = new int[words.size()];
+		for (int i = 0; i < unigrams.size(); i++) {
+			entries[unigrams.words[i]] = i;
+		}
+		return entries;
+	}
+	
+	/**
+	 * Writes the language model in probing hash format.
+	 * 
+	 * @param fileName Output file
+	 * @throws IOException
+	 */
+	public void writeProbing(String fileName) throws IOException {
+		
+		long[] buckets = new long[order + 1];
+		long[] sizes = new long[order + 1];
+		sizes[1] = (long) words.size() * ProbingHashLM.UNIGRAM_BYTES;
+		for (int n = 2; n <= order; n++) {
+			buckets[n] = probingBuckets(ngrams.get(n).size());
+			sizes[n] = buckets[n] * ProbingHashLM.BUCKET_BYTES;
+		}
+		
+		DataOutputStream out = open(fileName, BinaryLM.PROBING, sizes, probingHeader(order, buckets));
+		
+		NgramList unigrams = ngrams.get(1);
+		for (int entry : unigramOrder()) {
+			out.writeFloat(unigrams.probs[entry]);
+			out.writeFloat(unigrams.backoffs[entry]);
+		}
+		
+		for (int n = 2; n <= order; n++) {
+			NgramList list = ngrams.get(n);
+			int numBuckets = (int) buckets[n];
+			long[] keys = new long[numBuckets];
+			int[] entries = new int[numBuckets];
+			for (int i = 0; i < list.size(); i++) {
+				long key = list.keys[i];
+				int b = (int) ProbingHashLM.bucket(key, numBuckets);
+				while (keys[b] != 0) {
+					if (++b == numBuckets) b = 0;
+				}
+				keys[b] = key;
+				entries[b] = i;
+			}
+			for (int b = 0; b < numBuckets; b++) {
+				out.writeLong(keys[b]);
+				out.writeFloat((keys[b] == 0) ? 0.0f : list.probs[entries[b]]);
+				out.writeFloat((keys[b] == 0) ? 0.0f : list.backoffs[entries[b]]);
+			}
+			
+			if (logger.isLoggable(Level.FINE)) logger.fine("Wrote " + list.size() + " " + n + "-grams in " + numBuckets + " buckets");
+		}
+		
+		out.close();
+		if (logger.isLoggable(Level.INFO)) logger.info("Wrote probing hash language model to " + fileName);
+	}
+	
+	/**
+	 * Writes the language model in bit-packed trie format.
+	 * 
+	 * @param fileName Output file
+	 * @throws IOException
+	 */
+	public void writeTrie(String fileName) throws IOException {
+		
+		// Sort each order by (parent entry, first word)
+		int[][] sorted = new int[order + 1][];
+		int[][] positions = new int[order + 1][];
+		long[][] pointers = new long[order + 1][];
+		
+		sorted[1] = unigramOrder();
+		positions[1] = new int[sorted[1].length];
+		for (int i = 0; i < sorted[1].length; i++) {
+			positions[1][sorted[1][i]] = i;
+		}
+		
+		for (int n = 2; n <= order; n++) {
+			NgramList list = ngrams.get(n);
+			NgramList lower = ngrams.get(n - 1);
+			int size = list.size();
+			
+			long[] sortKeys = new long[size];
+			int[] entries = new int[size];
+			for (int i = 0; i < size; i++) {
+				long parent = positions[n - 1][lower.find(list.words, i * n + 1)];
+				sortKeys[i] = parent * words.size() + list.words[i * n];
+				entries[i] = i;
+			}
+			sort(sortKeys, entries, 0, size);
+			
+			sorted[n] = entries;
+			positions[n] = new int[size];
+			long[] lowerPointers = new long[lower.size() + 1];
+			for (int i = 0; i < size; i++) {
+				positions[n][entries[i]] = i;
+				lowerPointers[(int) (sortKeys[i] / words.size()) + 1]++;
+			}
+			for (int i = 1; i < lowerPointers.length; i++) {
+				lowerPointers[i] += lowerPointers[i - 1];
+			}
+			pointers[n - 1] = lowerPointers;
+		}
+		
+		int wordBits = Math.max(1, bits(words.size() - 1));
+		int[] pointerBits = new int[order + 1];
+		long[] sizes = new long[order + 1];
+		for (int n = 1; n <= order; n++) {
+			if (n < order) pointerBits[n] = bits(ngrams.get(n + 1).size());
+			sizes[n] = trieSectionSize(n, order, wordBits, pointerBits[n], ngrams.get(n).size());
+		}
+		
+		DataOutputStream out = open(fileName, BinaryLM.TRIE, sizes, trieHeader(order, wordBits, pointerBits));
+		
+		for (int n = 1; n <= order; n++) {
+			NgramList list = ngrams.get(n);
+			BitWriter bits = new BitWriter(out);
+			for (int i = 0; i < sorted[n].length; i++) {
+				int entry = sorted[n][i];
+				if (n > 1) bits.write(list.words[entry * n], wordBits);
+				bits.write(Float.floatToRawIntBits(list.probs[entry]) & 0xFFFFFFFFL, 32);
+				if (n < order) {
+					bits.write(Float.floatToRawIntBits(list.backoffs[entry]) & 0xFFFFFFFFL, 32);
+					bits.write(pointers[n][i], pointerBits[n]);
+				}
+			}
+			if (n < order) {
+				if (n > 1) bits.write(0, wordBits);
+				bits.write(0, 64);
+				bits.write(pointers[n][sorted[n].length], pointerBits[n]);
+			}
+			long written = bits.close();
+			for (long i = written; i < sizes[n]; i++) {
+				out.writeByte(0);
+			}
+			
+			if (logger.isLoggable(Level.FINE)) logger.fine("Wrote " + list.size() + " " + n + "-grams");
+		}
+		
+		out.close();
+		if (logger.isLoggable(Level.INFO)) logger.info("Wrote trie language model to " + fileName);
+	}
+	
+	/**
+	 * Opens the output file and writes the common header,
+	 * followed by padding up to the first section.
+	 */
+	private DataOutputStream open(String fileName, int format, long[] sizes, byte[] formatHeader) throws IOException {
+		long[] counts = new long[order + 1];
+		for (int n = 1; n <= order; n++) {
+			counts[n] = ngrams.get(n).size();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		writeHeader(out, format, words, counts, sizes, formatHeader);
+		return out;
+	}
+	
+	/**
+	 * Writes the common header of a binary language model,
+	 * followed by padding up to the first section.
+	 * 
+	 * @param out Stream positioned at the start of the file
+	 * @param format Format identifier
+	 * @param words Vocabulary, by language model word index
+	 * @param counts Number of n-grams of each order, 
+	 *               including blanks
+	 * @param sizes Size in bytes of the section of each order
+	 * @param formatHeader Format-specific header fields
+	 * @return Byte position of the section of each order
+	 */
+	static long[] writeHeader(DataOutputStream out, int format, List<String> words, long[] counts, long[] sizes, byte[] formatHeader) throws IOException {
+		int order = counts.length - 1;
+		
+		byte[] header = header(format, words, counts, new long[order + 1], formatHeader);
+		long position = align(8 + header.length);
+		long[] sections = new long[order + 1];
+		for (int n = 1; n <= order; n++) {
+			sections[n] = position;
+			position += sizes[n];
+		}
+		header = header(format, words, counts, sections, formatHeader);
+		
+		out.writeLong(header.length);
+		out.write(header);
+		for (long i = 8 + header.length; i < sections[1]; i++) {
+			out.writeByte(0);
+		}
+		return sections;
+	}
+	
+	private static byte[] header(int format, List<String> words, long[] counts, long[] sections, byte[] formatHeader) throws IOException {
+		int order = counts.length - 1;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(BinaryLM.MAGIC);
+		out.writeInt(format);
+		out.writeInt(order);
+		out.writeInt(words.size());
+		out.writeInt(words.indexOf(SymbolTable.UNKNOWN_WORD_STRING));
+		for (int n = 1; n <= order; n++) {
+			out.writeLong(counts[n]);
+			out.writeLong(sections[n]);
+		}
+		for (String word : words) {
+			out.writeUTF(word);
+		}
+		out.write(formatHeader);
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	/** Gets the number of buckets of a probing hash table. */
+	static long probingBuckets(long count) {
+		return Math.max(count + 1, (long) (count * PROBING_MULTIPLIER));
+	}
+	
+	/** Gets the header fields of the probing hash format. */
+	static byte[] probingHeader(int order, long[] buckets) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int n = 2; n <= order; n++) {
+			out.writeLong(buckets[n]);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	/** 
+	 * Gets the size in bytes of the trie section of one order,
+	 * including the sentinel record of non-top orders.
+	 */
+	static long trieSectionSize(int n, int order, int wordBits, int pointerBits, long count) {
+		long records = (n < order) ? count + 1 : count;
+		long recordBits = PackedTrieLM.recordBits(n, order, wordBits, pointerBits);
+		return align((records * recordBits + 7) / 8 + 8);
+	}
+	
+	/** Gets the header fields of the trie format. */
+	static byte[] trieHeader(int order, int wordBits, int[] pointerBits) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(wordBits);
+		for (int n = 1; n <= order; n++) {
+			out.writeInt(pointerBits[n]);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+	
+	/** Gets the number of bits needed to store a value. */
+	static int bits(long value) {
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+	
+	/** Gets the hash of the reversed n-gram of the given words. */
+	static long key(int[] buffer, int start, int n) {
+		long key = 0;
+		for (int i = start + n - 1; i >= start; i--) {
+			key = BinaryLM.extend(key, buffer[i]);
+		}
+		return key;
+	}
+	
+	/** Sorts keys in place, applying the same swaps to values. */
+	private static void sort(long[] keys, int[] values, int from, int to) {
+		while (to - from > 16) {
+			long pivot = median(keys[from], keys[(from + to) >>> 1], keys[to - 1]);
+			int i = from, j = to - 1;
+			while (i <= j) {
+				while (keys[i] < pivot) i++;
+				while (keys[j] > pivot) j--;
+				if (i <= j) {
+					swap(keys, values, i++, j--);
+				}
+			}
+			if (j - from < to - i) {
+				sort(keys, values, from, j + 1);
+				from = i;
+			} else {
+				sort(keys, values, i, to);
+				to = j + 1;
+			}
+		}
+		for (int i = from + 1; i < to; i++) {
+			for (int j = i; j > from && keys[j - 1] > keys[j]; j--) {
+				swap(keys, values, j, j - 1);
+			}
+		}
+	}
+	
+	private static long median(long a, long b, long c) {
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+	
+	private static void swap(long[] keys, int[] values, int i, int j) {
+		long key = keys[i]; keys[i] = keys[j]; keys[j] = key;
+		int value = values[i]; values[i] = values[j]; values[j] = value;
+	}
+	
+	/**
+	 * N-grams of one order, stored in parallel arrays, with an
+	 * open-addressing index from reversed n-gram hash to entry.
+	 */
+	private static class NgramList {
+		
+		final int n;
+		int size = 0;
+		
+		int[] words;
+		long[] keys;
+		float[] probs;
+		float[] backoffs;
+		
+		private int[] table;
+		
+		NgramList(int n) {
+			this.n = n;
+			this.words = new int[1024 * n];
+			this.keys = new long[1024];
+			this.probs = new float[1024];
+			this.backoffs = new float[1024];
+			this.table = new int[2048];
+			Arrays.fill(table, -1);
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		/** Gets the entry of an n-gram, or -1. */
+		int find(int[] buffer, int start) {
+			long key = key(buffer, start, n);
+			int mask = table.length - 1;
+			for (int b = (int) key & mask; table[b] >= 0; b = (b + 1) & mask) {
+				if (keys[table[b]] == key) return table[b];
+			}
+			return -1;
+		}
+		
+		/** Adds an n-gram, or replaces its scores if present. */
+		void put(int[] buffer, int start, float prob, float backoff) {
+			int entry = find(buffer, start);
+			if (entry < 0) {
+				if (size == keys.length) {
+					int capacity = size + (size >> 1);
+					words = Arrays.copyOf(words, capacity * n);
+					keys = Arrays.copyOf(keys, capacity);
+					probs = Arrays.copyOf(probs, capacity);
+					backoffs = Arrays.copyOf(backoffs, capacity);
+				}
+				entry = size++;
+				System.arraycopy(buffer, start, words, entry * n, n);
+				keys[entry] = key(buffer, start, n);
+				insert(entry);
+				if (2 * size > table.length) rehash();
+			}
+			probs[entry] = prob;
+			backoffs[entry] = backoff;
+		}
+		
+		private void insert(int entry) {
+			int mask = table.length - 1;
+			int b = (int) keys[entry] & mask;
+			while (table[b] >= 0) b = (b + 1) & mask;
+			table[b] = entry;
+		}
+		
+		private void rehash() {
+			table = new int[table.length * 2];
+			Arrays.fill(table, -1);
+			for (int i = 0; i < size; i++) {
+				insert(i);
+			}
+		}
+	}
+	
+	/** Writes values most significant bit first. */
+	static class BitWriter {
+		private final DataOutputStream out;
+		private long pending = 0;
+		private int pendingBits = 0;
+		private long bytes = 0;
+		
+		BitWriter(DataOutputStream out) {
+			this.out = out;
+		}
+		
+		void write(long value, int bits) throws IOException {
+			for (int i = bits - 1; i >= 0; i--) {
+				pending = (pending << 1) | ((value >>> i) & 1);
+				if (++pendingBits == 8) {
+					out.writeByte((int) pending);
+					bytes++;
+					pending = 0;
+					pendingBits = 0;
+				}
+			}
+		}
+		
+		/** Flushes the last partial byte; returns bytes written. */
+		long close() throws IOException {
+			if (pendingBits > 0) {
+				out.writeByte((int) (pending << (8 - pendingBits)));
+				bytes++;
+				pending = 0;
+				pendingBits = 0;
+			}
+			return bytes;
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		
+		if (args.length < 2) {
+			System.err.println("Usage: java " + BinaryLMBuilder.class.getName() + " lm.arpa[.gz] output.binlm [probing|trie]");
+			System.exit(0);
+		}
+		
+		BinaryLMBuilder builder = new BinaryLMBuilder(new ArpaFile(args[0], new Vocabulary()));
+		if (args.length > 2 && "trie".equals(args[2])) {
+			builder.writeTrie(args[1]);
+		} else {
+			builder.writeProbing(args[1]);
+		}
+	}
+}
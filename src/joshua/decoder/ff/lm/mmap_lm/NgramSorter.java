@@ -0,0 +1,417 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.mmap_lm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External sort of the n-grams of one order, using a bounded
+ * amount of memory.
+ * <p>
+ * N-grams are collected in buffers, one per producing thread.
+ * A full buffer is sorted and spilled to a temporary run file,
+ * and the runs are merged when the n-grams are read back, with
+ * one entry kept per distinct n-gram.
+ * <p>
+ * N-grams are ordered by their words in reverse, which is the
+ * order of the trie format. For the probing hash format they
+ * can instead be ordered first by the bucket their hash falls
+ * in, so that a table can be written in a single sweep.
+ *
+ * @version $LastChangedDate$
+ */
+class NgramSorter {
+	
+	/** Order of the sorted n-grams. */
+	final int n;
+	
+	/** Number of hash buckets to sort by, or zero. */
+	private final long buckets;
+	
+	/** Directory for the run files. */
+	private final File directory;
+	
+	/** Number of n-grams held by each buffer. */
+	private final int capacity;
+	
+	/** Run files spilled so far. */
+	private final List<File> runs = new ArrayList<File>();
+	
+	/**
+	 * Constructs a sorter of n-grams by reversed words.
+	 * 
+	 * @param n Order of the n-grams
+	 * @param directory Directory for the run files
+	 * @param memory Bytes of memory for each buffer
+	 */
+	NgramSorter(int n, File directory, long memory) {
+		this(n, 0, directory, memory);
+	}
+	
+	/**
+	 * Constructs a sorter of n-grams.
+	 * 
+	 * @param n Order of the n-grams
+	 * @param buckets Number of probing hash buckets to sort by
+	 *                before the reversed words, or zero
+	 * @param directory Directory for the run files
+	 * @param memory Bytes of memory for each buffer
+	 */
+	NgramSorter(int n, long buckets, File directory, long memory) {
+		this.n = n;
+		this.buckets = buckets;
+		this.directory = directory;
+		long records = memory / (recordBytes(n) + 12);
+		this.capacity = (int) Math.max(1024, Math.min(records, (Integer.MAX_VALUE - 8) / n));
+	}
+	
+	/** Gets the size in bytes of one n-gram in a run file. */
+	static int recordBytes(int n) {
+		return 4 * n + 8;
+	}
+	
+	/**
+	 * Creates a new buffer. Each buffer may only be used by one
+	 * thread at a time.
+	 */
+	Buffer newBuffer() {
+		return new Buffer();
+	}
+	
+	/** 
+	 * Opens a sorted view of all the n-grams added so far. All
+	 * buffers must have been flushed.
+	 */
+	NgramReader read() throws IOException {
+		List<NgramReader> readers = new ArrayList<NgramReader>();
+		synchronized (runs) {
+			for (File run : runs) {
+				readers.add(new RunReader(run, n, buckets));
+			}
+		}
+		return new MergeReader(n, readers);
+	}
+	
+	/** Deletes the run files. */
+	void delete() {
+		synchronized (runs) {
+			for (File run : runs) {
+				run.delete();
+			}
+			runs.clear();
+		}
+	}
+	
+	/**
+	 * Compares two n-grams by sort key, then by their words
+	 * from last to first.
+	 */
+	static int compare(long sortKey1, int[] words1, int offset1, long sortKey2, int[] words2, int offset2, int n) {
+		if (sortKey1 != sortKey2) {
+			return (sortKey1 < sortKey2) ? -1 : 1;
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			int a = words1[offset1 + i], b = words2[offset2 + i];
+			if (a != b) {
+				return (a < b) ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Writes the n-grams of a reader to a single run file.
+	 * 
+	 * @return Number of n-grams written
+	 */
+	static long write(NgramReader reader, File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		long count = 0;
+		try {
+			while (reader.next()) {
+				for (int i = 0; i < reader.n; i++) {
+					out.writeInt(reader.words[i]);
+				}
+				out.writeFloat(reader.prob);
+				out.writeFloat(reader.backoff);
+				count++;
+			}
+		} finally {
+			out.close();
+			reader.close();
+		}
+		return count;
+	}
+	
+	/**
+	 * Collects n-grams in memory until it is full, then sorts
+	 * and spills them to a new run file.
+	 */
+	class Buffer {
+		
+		private final int[] words = new int[capacity * n];
+		private final float[] probs = new float[capacity];
+		private final float[] backoffs = new float[capacity];
+		private final long[] sortKeys = new long[capacity];
+		private int size = 0;
+		
+		private Buffer() {}
+		
+		/**
+		 * Adds an n-gram.
+		 * 
+		 * @param buffer Array holding the words of the n-gram
+		 * @param start Position of the first word
+		 * @param prob Log probability of the n-gram
+		 * @param backoff Backoff weight of the n-gram
+		 */
+		void add(int[] buffer, int start, float prob, float backoff) throws IOException {
+			if (size == capacity) flush();
+			System.arraycopy(buffer, start, words, size * n, n);
+			probs[size] = prob;
+			backoffs[size] = backoff;
+			sortKeys[size] = (buckets > 0) ? ProbingHashLM.bucket(BinaryLMBuilder.key(buffer, start, n), buckets) : 0;
+			size++;
+		}
+		
+		/** Sorts and spills the buffered n-grams, if any. */
+		void flush() throws IOException {
+			if (size == 0) return;
+			
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			sort(order, new int[size], 0, size);
+			
+			File run = File.createTempFile("ngrams." + n + ".", ".run", directory);
+			run.deleteOnExit();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+			try {
+				for (int entry : order) {
+					for (int i = 0; i < n; i++) {
+						out.writeInt(words[entry * n + i]);
+					}
+					out.writeFloat(probs[entry]);
+					out.writeFloat(backoffs[entry]);
+				}
+			} finally {
+				out.close();
+			}
+			size = 0;
+			
+			synchronized (runs) {
+				runs.add(run);
+			}
+		}
+		
+		private int compare(int a, int b) {
+			return NgramSorter.compare(sortKeys[a], words, a * n, sortKeys[b], words, b * n, n);
+		}
+		
+		/** Stable merge sort of entries. */
+		private void sort(int[] entries, int[] scratch, int from, int to) {
+			if (to - from < 16) {
+				for (int i = from + 1; i < to; i++) {
+					int entry = entries[i];
+					int j = i;
+					for (; j > from && compare(entries[j - 1], entry) > 0; j--) {
+						entries[j] = entries[j - 1];
+					}
+					entries[j] = entry;
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			sort(entries, scratch, from, middle);
+			sort(entries, scratch, middle, to);
+			if (compare(entries[middle - 1], entries[middle]) <= 0) return;
+			
+			System.arraycopy(entries, from, scratch, from, to - from);
+			int i = from, j = middle, k = from;
+			while (i < middle && j < to) {
+				entries[k++] = (compare(scratch[j], scratch[i]) < 0) ? scratch[j++] : scratch[i++];
+			}
+			while (i < middle) entries[k++] = scratch[i++];
+			while (j < to) entries[k++] = scratch[j++];
+		}
+	}
+	
+	/**
+	 * Sequential reader of n-grams. The fields hold the current
+	 * n-gram after each successful call to {@link #next()}.
+	 */
+	static abstract class NgramReader {
+		
+		final int n;
+		final int[] words;
+		float prob;
+		float backoff;
+		
+		/** Probing hash bucket of the n-gram, or zero. */
+		long sortKey;
+		
+		NgramReader(int n) {
+			this.n = n;
+			this.words = new int[n];
+		}
+		
+		/** Moves to the next n-gram; returns false at the end. */
+		abstract boolean next() throws IOException;
+		
+		abstract void close() throws IOException;
+		
+		int compareTo(NgramReader other) {
+			return compare(sortKey, words, 0, other.sortKey, other.words, 0, n);
+		}
+	}
+	
+	/** Reads the n-grams of a run file. */
+	static class RunReader extends NgramReader {
+		
+		private final DataInputStream in;
+		private final long buckets;
+		private long remaining;
+		
+		RunReader(File run, int n) throws IOException {
+			this(run, n, 0);
+		}
+		
+		RunReader(File run, int n, long buckets) throws IOException {
+			super(n);
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+			this.buckets = buckets;
+			this.remaining = run.length() / recordBytes(n);
+		}
+		
+		boolean next() throws IOException {
+			if (remaining == 0) return false;
+			remaining--;
+			for (int i = 0; i < n; i++) {
+				words[i] = in.readInt();
+			}
+			prob = in.readFloat();
+			backoff = in.readFloat();
+			if (buckets > 0) {
+				sortKey = ProbingHashLM.bucket(BinaryLMBuilder.key(words, 0, n), buckets);
+			}
+			return true;
+		}
+		
+		void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Merges sorted readers, keeping one entry per n-gram. Where
+	 * an n-gram appears more than once, a scored entry is kept
+	 * over a blank one, and otherwise the first one read.
+	 */
+	static class MergeReader extends NgramReader {
+		
+		private final List<NgramReader> readers;
+		private final PriorityQueue<NgramReader> queue;
+		private boolean started = false;
+		
+		MergeReader(int n, List<NgramReader> readers) {
+			super(n);
+			this.readers = readers;
+			this.queue = new PriorityQueue<NgramReader>(Math.max(1, readers.size()), new Comparator<NgramReader>() {
+				public int compare(NgramReader a, NgramReader b) {
+					return a.compareTo(b);
+				}
+			});
+		}
+		
+		boolean next() throws IOException {
+			if (! started) {
+				started = true;
+				for (NgramReader reader : readers) {
+					if (reader.next()) queue.add(reader);
+				}
+			}
+			
+			NgramReader reader = queue.poll();
+			if (reader == null) return false;
+			System.arraycopy(reader.words, 0, words, 0, n);
+			prob = reader.prob;
+			backoff = reader.backoff;
+			sortKey = reader.sortKey;
+			advance(reader);
+			
+			while (! queue.isEmpty() && queue.peek().compareTo(this) == 0) {
+				reader = queue.poll();
+				if (Float.isNaN(prob) && ! Float.isNaN(reader.prob)) {
+					prob = reader.prob;
+					backoff = reader.backoff;
+				}
+				advance(reader);
+			}
+			return true;
+		}
+		
+		private void advance(NgramReader reader) throws IOException {
+			if (reader.next()) queue.add(reader);
+		}
+		
+		void close() throws IOException {
+			for (NgramReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+	
+	/**
+	 * Reads the suffixes of the n-grams of a reader sorted by
+	 * reversed words, which come out sorted in the same order,
+	 * as blank entries.
+	 */
+	static class SuffixReader extends NgramReader {
+		
+		private final NgramReader source;
+		
+		SuffixReader(NgramReader source) {
+			super(source.n - 1);
+			this.source = source;
+		}
+		
+		boolean next() throws IOException {
+			if (! source.next()) return false;
+			System.arraycopy(source.words, 1, words, 0, n);
+			prob = Float.NaN;
+			backoff = 0.0f;
+			return true;
+		}
+		
+		void close() throws IOException {
+			source.close();
+		}
+	}
+}
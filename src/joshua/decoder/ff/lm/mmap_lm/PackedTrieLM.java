@@ -0,0 +1,115 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.mmap_lm;
+
+import java.io.IOException;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.util.io.MappedBuffer;
+
+/**
+ * Binary language model that stores n-grams in a bit-packed
+ * sorted trie.
+ * <p>
+ * The entries of each order are fixed-width bit records sorted
+ * by (entry of the n-gram without its first word, first word).
+ * Each record holds the word (omitted for unigrams, whose entry
+ * is the word), the log probability, and, below the highest
+ * order, the backoff weight and the position of the entry's
+ * first child in the next order. A final record holds only the
+ * end of the children of the last entry. Children are found by
+ * binary search over their words.
+ *
+ * @version $LastChangedDate$
+ */
+public class PackedTrieLM extends BinaryLM {
+
+	/** Bits used to store a word index. */
+	private final int wordBits;
+	
+	/** Bits used to store a child position, for each order. */
+	private final int[] pointerBits;
+	
+	/** Bits per record, for each order. */
+	private final int[] recordBits;
+	
+	PackedTrieLM(SymbolTable symbolTable, MappedBuffer buffer) throws IOException {
+		super(symbolTable, buffer);
+		this.wordBits = formatHeader.readInt();
+		this.pointerBits = new int[ngramOrder + 1];
+		this.recordBits = new int[ngramOrder + 1];
+		for (int order = 1; order <= ngramOrder; order++) {
+			pointerBits[order] = formatHeader.readInt();
+			recordBits[order] = recordBits(order, ngramOrder, wordBits, pointerBits[order]);
+		}
+	}
+	
+	/** Gets the number of bits per record for an order. */
+	static int recordBits(int order, int maxOrder, int wordBits, int pointerBits) {
+		int bits = (order == 1) ? 0 : wordBits;
+		bits += 32;
+		if (order < maxOrder) {
+			bits += 32 + pointerBits;
+		}
+		return bits;
+	}
+	
+	/** Gets the bit position of a record. */
+	private long record(int order, long entry) {
+		return (sections[order] << 3) + entry * recordBits[order];
+	}
+	
+	/** Gets the position of the first child of an entry. */
+	private long pointer(int order, long entry) {
+		return buffer.getBits(record(order, entry) + recordBits[order] - pointerBits[order], pointerBits[order]);
+	}
+	
+	@Override
+	protected long find(int order, long parent, int word) {
+		if (order == 1) {
+			return (word < vocabularySize) ? word : -1;
+		}
+		
+		long low = pointer(order - 1, parent);
+		long high = pointer(order - 1, parent + 1) - 1;
+		while (low <= high) {
+			long middle = (low + high) >>> 1;
+			long child = buffer.getBits(record(order, middle), wordBits);
+			if (child < word) {
+				low = middle + 1;
+			} else if (child > word) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+	
+	@Override
+	protected float probability(int order, long entry) {
+		long position = record(order, entry) + ((order == 1) ? 0 : wordBits);
+		return Float.intBitsToFloat((int) buffer.getBits(position, 32));
+	}
+	
+	@Override
+	protected float backoff(int order, long entry) {
+		long position = record(order, entry) + ((order == 1) ? 32 : wordBits + 32);
+		return Float.intBitsToFloat((int) buffer.getBits(position, 32));
+	}
+}
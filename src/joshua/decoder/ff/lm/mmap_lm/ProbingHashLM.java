@@ -0,0 +1,98 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.mmap_lm;
+
+import java.io.IOException;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.util.io.MappedBuffer;
+
+/**
+ * Binary language model that stores each order of n-grams in a
+ * linear probing hash table of 64-bit n-gram hashes.
+ * <p>
+ * Unigrams are stored in an array indexed by word, each as a
+ * log probability and a backoff weight. Each higher order is a
+ * table of buckets holding the hash of the reversed n-gram, its
+ * log probability, and its backoff weight. Distinct n-grams with
+ * equal 64-bit hashes are not distinguished.
+ *
+ * @version $LastChangedDate$
+ */
+public class ProbingHashLM extends BinaryLM {
+
+	/** Bytes per unigram record. */
+	static final int UNIGRAM_BYTES = 8;
+	
+	/** Bytes per bucket of the higher-order tables. */
+	static final int BUCKET_BYTES = 16;
+	
+	/** Number of buckets in the table of each order. */
+	private final long[] buckets;
+	
+	ProbingHashLM(SymbolTable symbolTable, MappedBuffer buffer) throws IOException {
+		super(symbolTable, buffer);
+		this.buckets = new long[ngramOrder + 1];
+		for (int order = 2; order <= ngramOrder; order++) {
+			buckets[order] = formatHeader.readLong();
+		}
+	}
+	
+	/** Gets the first bucket to probe for a hash. */
+	static long bucket(long key, long buckets) {
+		return (key & Long.MAX_VALUE) % buckets;
+	}
+	
+	@Override
+	protected long find(int order, long parent, int word) {
+		if (order == 1) {
+			return (word < vocabularySize) ? word : -1;
+		}
+		
+		long parentKey = (order == 2) 
+			? extend(0, (int) parent) 
+			: buffer.getLong(sections[order - 1] + parent * BUCKET_BYTES);
+		long key = extend(parentKey, word);
+		
+		long section = sections[order];
+		long n = buckets[order];
+		for (long i = bucket(key, n); ; ) {
+			long stored = buffer.getLong(section + i * BUCKET_BYTES);
+			if (stored == key) {
+				return i;
+			} else if (stored == 0) {
+				return -1;
+			}
+			if (++i == n) i = 0;
+		}
+	}
+	
+	@Override
+	protected float probability(int order, long entry) {
+		return (order == 1) 
+			? buffer.getFloat(sections[1] + entry * UNIGRAM_BYTES) 
+			: buffer.getFloat(sections[order] + entry * BUCKET_BYTES + 8);
+	}
+	
+	@Override
+	protected float backoff(int order, long entry) {
+		return (order == 1) 
+			? buffer.getFloat(sections[1] + entry * UNIGRAM_BYTES + 4) 
+			: buffer.getFloat(sections[order] + entry * BUCKET_BYTES + 12);
+	}
+}
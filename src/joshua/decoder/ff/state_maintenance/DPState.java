@@ -29,4 +29,17 @@ import joshua.corpus.vocab.SymbolTable;
 public interface DPState {
 	String getSignature(boolean forceRecompute);
 	String getSignature(SymbolTable symbolTable, boolean forceRecompute);
+	
+	/**
+	 * A 64-bit hash of the state, used by the chart to recombine
+	 * nodes without building signature strings. Equal states (see
+	 * signatureEquals) must have equal hashes.
+	 */
+	long getSignatureHash();
+	
+	/**
+	 * Whether two states are interchangeable for recombination,
+	 * i.e. whether they would produce the same signature.
+	 */
+	boolean signatureEquals(DPState other);
 }
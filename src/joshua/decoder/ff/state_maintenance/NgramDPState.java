@@ -19,9 +19,11 @@
 package joshua.decoder.ff.state_maintenance;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import joshua.corpus.vocab.SymbolTable;
+import joshua.util.Bits;
 
 
 /**
@@ -31,15 +33,25 @@ import joshua.corpus.vocab.SymbolTable;
  */
 public class NgramDPState implements DPState {
 	
-	private List<Integer> leftLMStateWords;
-	private List<Integer> rightLMStateWords;
+	/* The contexts are kept as primitive arrays, since they are read
+	 * for every hyperedge the LM feature scores. The arrays are shared
+	 * with callers of getLeftLMState() and getRightLMState() and must
+	 * not be modified. */
+	private int[] leftLMState;
+	private int[] rightLMState;
 	private String sig = null;
+	private long sigHash = 0;
+	private boolean sigHashComputed = false;
 	
 	private static String SIG_SEP = " -S- "; //seperator for state in signature
 
+	public  NgramDPState(int[] leftLMState, int[] rightLMState) {
+		this.leftLMState = leftLMState;
+		this.rightLMState = rightLMState;
+	}
+	
 	public  NgramDPState(List<Integer> leftLMStateWords, List<Integer> rightLMStateWords) {
-		this.leftLMStateWords = leftLMStateWords;
-		this.rightLMStateWords = rightLMStateWords;
+		this(listToIntArray(leftLMStateWords), listToIntArray(rightLMStateWords));
 	}
 	
 	 
@@ -48,26 +60,40 @@ public class NgramDPState implements DPState {
 	public  NgramDPState(SymbolTable symbolTable, String sig) {
 		this.sig = sig;
 		String[] states = sig.split(SIG_SEP); // TODO: use joshua.util.Regex				
-		this.leftLMStateWords = intArrayToList( symbolTable.getIDs(states[0]) );
-		this.rightLMStateWords = intArrayToList( symbolTable.getIDs(states[1]) );
+		this.leftLMState = symbolTable.getIDs(states[0]);
+		this.rightLMState = symbolTable.getIDs(states[1]);
 	}
 		
 
 	
+	public int[] getLeftLMState(){
+		return this.leftLMState;
+	}
+	
+	public int[] getRightLMState(){
+		return this.rightLMState;
+	}
+	
 	public void setLeftLMStateWords( List<Integer>  words_){
-		this.leftLMStateWords = words_;
+		this.leftLMState = listToIntArray(words_);
+		this.sigHashComputed = false;
 	}
 	
+	/** @deprecated this copies the state into a new list; use getLeftLMState() */
+	@Deprecated
 	public  List<Integer>  getLeftLMStateWords(){
-		return this.leftLMStateWords;
+		return intArrayToList(this.leftLMState);
 	}
 	
 	public void setRightLMStateWords( List<Integer>  words_){
-		this.rightLMStateWords = words_;
+		this.rightLMState = listToIntArray(words_);
+		this.sigHashComputed = false;
 	}
 	
+	/** @deprecated this copies the state into a new list; use getRightLMState() */
+	@Deprecated
 	public  List<Integer>  getRightLMStateWords(){
-		return this.rightLMStateWords;
+		return intArrayToList(this.rightLMState);
 	}
 
 	public String getSignature(boolean forceRecompute) {
@@ -85,11 +111,11 @@ public class NgramDPState implements DPState {
 			/**we can not simply use sb.append(leftLMStateWords), 
 			 * as it will just add the address of leftLMStateWords.
 			 */
-			computeStateSig(symbolTable, leftLMStateWords, sb); 
+			computeStateSig(symbolTable, leftLMState, sb); 
 			
 			sb.append(SIG_SEP);//TODO: do we really need this
 			
-			computeStateSig(symbolTable, rightLMStateWords, sb);
+			computeStateSig(symbolTable, rightLMState, sb);
 			
 			this.sig = sb.toString();
 		}
@@ -99,10 +125,40 @@ public class NgramDPState implements DPState {
 	
 	
 	
-	private void computeStateSig(SymbolTable symbolTable,  List<Integer>  state, StringBuffer sb) {
+	public long getSignatureHash() {
+		if (! sigHashComputed) {
+			// a null context is hashed as length -1, so it never collides with an empty one
+			long leftHash = (null == leftLMState) ? -1 : Bits.hash(leftLMState);
+			if (null == rightLMState) {
+				sigHash = Bits.hash(leftHash, -1);
+			} else {
+				sigHash = Bits.hash(leftHash, rightLMState.length);
+				for (int wrd : rightLMState)
+					sigHash = Bits.hash(sigHash, wrd);
+			}
+			sigHashComputed = true;
+		}
+		return sigHash;
+	}
+	
+	
+	public boolean signatureEquals(DPState other) {
+		if (this == other) {
+			return true;
+		} else if (other instanceof NgramDPState) {
+			NgramDPState that = (NgramDPState) other;
+			return Arrays.equals(this.leftLMState, that.leftLMState)
+				&& Arrays.equals(this.rightLMState, that.rightLMState);
+		} else {
+			return false;
+		}
+	}
+	
+	
+	private void computeStateSig(SymbolTable symbolTable,  int[]  state, StringBuffer sb) {
 		
 		if (null != state) {
-			for (int i = 0; i < state.size(); i++) {
+			for (int i = 0; i < state.length; i++) {
 				if (true
 					//TODO: equivalnce: number of <null> or <bo>?
 					/* states[i]!=Symbol.NULL_RIGHT_LM_STATE_SYM_ID
@@ -110,11 +166,11 @@ public class NgramDPState implements DPState {
 					 * && states[i]!=Symbol.LM_STATE_OVERLAP_SYM_ID*/
 				) {
 					if (null != symbolTable) {
-						sb.append(symbolTable.getWord(state.get(i)));
+						sb.append(symbolTable.getWord(state[i]));
 					} else {
-						sb.append(state.get(i));
+						sb.append(state[i]);
 					}
-					if (i < state.size() - 1) {
+					if (i < state.length - 1) {
 						sb.append(' ');
 					}
 				}
@@ -124,11 +180,22 @@ public class NgramDPState implements DPState {
 		}
 	}
 	
-	private List<Integer> intArrayToList(int[] words){
-		List<Integer> res = new ArrayList<Integer>();
+	private static List<Integer> intArrayToList(int[] words){
+		if (null == words)
+			return null;
+		List<Integer> res = new ArrayList<Integer>(words.length);
 		for(int wrd : words)
 			res.add(wrd);
 		return res;
 	}
+	
+	private static int[] listToIntArray(List<Integer> words){
+		if (null == words)
+			return null;
+		int[] res = new int[words.size()];
+		for (int i = 0; i < res.length; i++)
+			res[i] = words.get(i);
+		return res;
+	}
 
 }
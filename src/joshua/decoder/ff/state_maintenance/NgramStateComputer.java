@@ -1,6 +1,5 @@
 package joshua.decoder.ff.state_maintenance;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -16,6 +15,13 @@ public class NgramStateComputer implements StateComputer<NgramDPState> {
 	private int ngramOrder;
 	private int stateID;
 	
+	/** Per-thread n-gram window, reused for every state computed. */
+	private final ThreadLocal<NgramWindow> ngramWindow = new ThreadLocal<NgramWindow>() {
+		protected NgramWindow initialValue() {
+			return new NgramWindow(ngramOrder);
+		}
+	};
+	
 	private static final Logger logger =
 		Logger.getLogger(NgramStateComputer.class.getName());
 	
@@ -46,8 +52,10 @@ public class NgramStateComputer implements StateComputer<NgramDPState> {
 
 	public NgramDPState computeState(Rule rule, List<HGNode> antNodes, int spanStart, int spanEnd, SourcePath srcPath){		
 	
-		List<Integer> leftStateSequence = new ArrayList<Integer>();
-		List<Integer> currentNgram   = new ArrayList<Integer>();
+		int[] leftStateSequence = new int[this.ngramOrder - 1];
+		int   leftStateSize = 0;
+		NgramWindow currentNgram = ngramWindow.get();
+		currentNgram.clear();
 		
 		int hypLen = 0;
 		int[] enWords = rule.getEnglish();
@@ -59,38 +67,25 @@ public class NgramStateComputer implements StateComputer<NgramDPState> {
 				//== get left- and right-context
 				int index = symbolTable.getTargetNonterminalIndex(curID);								
 				NgramDPState antState = (NgramDPState)antNodes.get(index).getDPState(this.getStateID());//TODO    			    		     	  			
-    			List<Integer> leftContext = antState.getLeftLMStateWords();
-    			List<Integer> rightContext = antState.getRightLMStateWords();
+    			int[] leftContext = antState.getLeftLMState();
+    			int[] rightContext = antState.getRightLMState();
 				
-				if (leftContext.size() != rightContext.size()) {
+				if (leftContext.length != rightContext.length) {
 					throw new RuntimeException("NgramStateComputer.computeState: left and right contexts have unequal lengths");
 				}
 				
 				//================ left context
-				for (int i = 0; i < leftContext.size(); i++) {
-					int t = leftContext.get(i);
+				for (int i = 0; i < leftContext.length; i++) {
+					int t = leftContext[i];
 					currentNgram.add(t);
 					
-					//always calculate cost for <bo>: additional backoff weight
-					/*
-					if (t == BACKOFF_LEFT_LM_STATE_SYM_ID) {
-						int numAdditionalBackoffWeight = currentNgram.size() - (i+1);//number of non-state words
-						
-						//compute additional backoff weight
-						transitionCost	-= this.lmGrammar.logProbOfBackoffState(currentNgram, currentNgram.size(), numAdditionalBackoffWeight);
-						
-						if (currentNgram.size() == this.ngramOrder) {
-							currentNgram.remove(0);
-						}
-					} else */if (currentNgram.size() == this.ngramOrder) {
-						// compute the current word probablity, and remove it
-						//transitionCost -= this.lmGrammar.ngramLogProbability(currentNgram, this.ngramOrder);
-												
-						currentNgram.remove(0);
+					//the LM feature scores <bo> and complete ngrams; here we only slide the window
+					if (currentNgram.size() == this.ngramOrder) {
+						currentNgram.removeFirst();
 					}
 					
-					if (leftStateSequence.size() < this.ngramOrder - 1) {
-						leftStateSequence.add(t);
+					if (leftStateSize < this.ngramOrder - 1) {
+						leftStateSequence[leftStateSize++] = t;
 					}
 				}
 				
@@ -98,23 +93,19 @@ public class NgramStateComputer implements StateComputer<NgramDPState> {
 				//note: left_state_org_wrds will never take words from right context because it is either duplicate or out of range
 				//also, we will never score the right context probablity because they are either duplicate or partional ngram
 				int tSize = currentNgram.size();
-				for (int i = 0; i < rightContext.size(); i++) {
+				for (int i = 0; i < rightContext.length; i++) {
 					// replace context
-					currentNgram.set(tSize - rightContext.size() + i, rightContext.get(i));
+					currentNgram.set(tSize - rightContext.length + i, rightContext[i]);
 				}
 			
 			} else {//terminal words
 				hypLen++;
 				currentNgram.add(curID);
 				if (currentNgram.size() == this.ngramOrder) {
-					// compute the current word probablity, and remove it
-					//transitionCost -= this.lmGrammar.ngramLogProbability(currentNgram, this.ngramOrder);
-					
-					
-					currentNgram.remove(0);
+					currentNgram.removeFirst();
 				}
-				if (leftStateSequence.size() < this.ngramOrder - 1) {
-					leftStateSequence.add(curID);
+				if (leftStateSize < this.ngramOrder - 1) {
+					leftStateSequence[leftStateSize++] = curID;
 				}
 			}
 		}
@@ -125,19 +116,16 @@ public class NgramStateComputer implements StateComputer<NgramDPState> {
 		//int[] equivLeftState = this.lmGrammar.leftEquivalentState(Support.subIntArray(leftLMStateWrds, 0, leftLMStateWrds.size()),	this.ngramOrder, lmLeftCost);
 		
 		
-		//===== trabsition and estimate cost
-		//transitionCost += lmLeftCost[0];//add finalized cost for the left state words
 //		left and right should always have the same size    		
-		List<Integer> rightStateSequence = currentNgram;
-    	if(leftStateSequence.size() > rightStateSequence.size()){
+    	if(leftStateSize > currentNgram.size()){
     		throw new RuntimeException("left has a bigger size right; " +
-					"; left=" + leftStateSequence.size() + "; right="+rightStateSequence.size() );
-    	}
-    	while(rightStateSequence.size()>leftStateSequence.size()){
-    		rightStateSequence.remove(0);//TODO: speed up
+					"; left=" + leftStateSize + "; right="+currentNgram.size() );
     	}
+    	
+    	int[] leftState = new int[leftStateSize];
+    	System.arraycopy(leftStateSequence, 0, leftState, 0, leftStateSize);
     		
-    	return new NgramDPState(leftStateSequence, rightStateSequence);
+    	return new NgramDPState(leftState, currentNgram.lastWords(leftStateSize));
 	}
 
 }
@@ -0,0 +1,97 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package joshua.decoder.ff.state_maintenance;
+
+
+/**
+ * A fixed-capacity window of word IDs used while walking the target
+ * side of a rule. Words are appended at the end and dropped from the
+ * front, as with the <code>List&lt;Integer&gt;</code> this replaces,
+ * but the window is always stored contiguously so that it can be
+ * handed to a language model as <code>(buffer(), offset(), size())</code>
+ * without copying.
+ * <p>
+ * The backing array holds twice the n-gram order, so the window only
+ * has to be shifted back to the start once every <code>order</code>
+ * appends.
+ * 
+ * @version $LastChangedDate$
+ */
+public final class NgramWindow {
+	
+	private final int[] buf;
+	private int start = 0;
+	private int size = 0;
+	
+	/**
+	 * @param order the largest number of words the window will ever
+	 *              hold at once
+	 */
+	public NgramWindow(int order) {
+		this.buf = new int[2 * order];
+	}
+	
+	/** Empties the window so that it can be reused. */
+	public void clear() {
+		start = 0;
+		size = 0;
+	}
+	
+	public void add(int word) {
+		if (start + size == buf.length) {
+			System.arraycopy(buf, start, buf, 0, size);
+			start = 0;
+		}
+		buf[start + size] = word;
+		size++;
+	}
+	
+	public void removeFirst() {
+		start++;
+		size--;
+	}
+	
+	public void set(int index, int word) {
+		buf[start + index] = word;
+	}
+	
+	public int get(int index) {
+		return buf[start + index];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/** The backing array; the window starts at offset(). */
+	public int[] buffer() {
+		return buf;
+	}
+	
+	public int offset() {
+		return start;
+	}
+	
+	/** Copies the last <code>n</code> words of the window into a new array. */
+	public int[] lastWords(int n) {
+		int[] res = new int[n];
+		System.arraycopy(buf, start + size - n, res, 0, n);
+		return res;
+	}
+}
@@ -0,0 +1,46 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.tm;
+
+import java.util.List;
+
+import joshua.corpus.Phrase;
+
+/**
+ * Factory that can prepare the grammars for a batch of sentences
+ * together, sharing the work common to several of them.
+ *
+ * @version $LastChangedDate$
+ */
+public interface DocumentGrammarFactory extends GrammarFactory {
+
+	/**
+	 * Prepares grammars for a batch of sentences about to be
+	 * translated. Calls to <code>getGrammarForSentence</code>
+	 * with a sentence of the batch then return its prepared
+	 * grammar.
+	 * <p>
+	 * Grammars prepared for earlier batches may be forgotten,
+	 * in which case they are again built one sentence at a
+	 * time.
+	 * 
+	 * @param sentences Sentences about to be translated
+	 */
+	void prepareGrammars(List<? extends Phrase> sentences);
+
+}
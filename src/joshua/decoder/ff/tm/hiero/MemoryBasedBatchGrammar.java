@@ -82,6 +82,19 @@ public class MemoryBasedBatchGrammar extends BatchGrammar {
 	 */
 	
 	static int ruleIDCount = 1;
+	
+	/**
+	 * Reserves a contiguous block of regular rule IDs for a
+	 * grammar that does not add its rules through this class.
+	 *
+	 * @param count Number of rule IDs to reserve
+	 * @return The first ID of the reserved block
+	 */
+	public static synchronized int reserveRuleIDs(int count) {
+		int first = ruleIDCount + 1;
+		ruleIDCount += count;
+		return first;
+	}
 		
 	/** Logger for this class. */
 	private static final Logger logger = 
@@ -0,0 +1,597 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.tm.packed;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.ff.tm.GrammarReader;
+import joshua.decoder.ff.tm.hiero.HieroFormatReader;
+import joshua.decoder.ff.tm.hiero.SamtFormatReader;
+
+/**
+ * Compiles a text translation grammar into the packed binary
+ * format read by {@link PackedGrammar}.
+ * <p>
+ * The packed grammar is a directory containing:
+ * <ul>
+ * <li><code>vocabulary</code> - the words used by the grammar</li>
+ * <li><code>trie</code> - the source-side trie; each node is
+ *     stored as its number of children, the offset of its rule
+ *     bin (or -1), and its (symbol, child offset) pairs sorted
+ *     by symbol</li>
+ * <li><code>bins</code> - for each rule bin, its arity, first
+ *     rule, number of rules, and source side</li>
+ * <li><code>rules</code> - for each rule, its left-hand side
+ *     and the offset and length of its target side</li>
+ * <li><code>targets</code> - the target sides of all rules</li>
+ * <li><code>features</code> - the number of rules and, for each
+ *     feature, the width and value table of its column</li>
+ * <li><code>features.0</code>, <code>features.1</code>, ... - the
+ *     feature scores, one file per feature column, so that each
+ *     column is mapped on its own</li>
+ * </ul>
+ * Each feature column with few distinct values is stored as
+ * one- or two-byte indices into a table of those values, so by
+ * default the packed scores are exactly the scores in the text
+ * grammar. When quantization is enabled, columns with more than
+ * 256 distinct values are reduced to 256 equal-frequency buckets.
+ * <p>
+ * Compilation holds the rules in primitive arrays; decoding
+ * with the packed grammar only maps the files into memory.
+ *
+ * @version $LastChangedDate$
+ */
+public class GrammarPacker {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(GrammarPacker.class.getName());
+	
+	private String grammarFileName;
+	private String outputDirName;
+	private String formatKeyword = "hiero";
+	private boolean quantize = false;
+	
+	/** Symbol table used while reading the text grammar. */
+	private Vocabulary vocab;
+	
+	/**
+	 * Rules as read from the text grammar. Each rule is stored
+	 * as its left-hand side, arity, source length, source side,
+	 * trie key, target length, and target side, using packed
+	 * symbol identifiers.
+	 */
+	private IntList words;
+	
+	/** Position of each rule in <code>words</code>. */
+	private IntList ruleStart;
+	
+	/** Feature scores, <code>numFeatures</code> per rule. */
+	private FloatList scores;
+	
+	private int numFeatures = -1;
+	
+	/** Maps symbol table identifiers to packed identifiers. */
+	private Map<Integer,Integer> packedIDs;
+	
+	/** Words indexed by packed identifier. */
+	private String[] packedWords;
+	
+	private boolean[] packedNonterminals;
+	
+	private IntList trie;
+	private IntList bins;
+	
+	public void setGrammar(String grammarFileName) {
+		this.grammarFileName = grammarFileName;
+	}
+	
+	public void setOutputDir(String outputDirName) {
+		this.outputDirName = outputDirName;
+	}
+	
+	public void setFormat(String formatKeyword) {
+		this.formatKeyword = formatKeyword;
+	}
+	
+	public void setQuantize(boolean quantize) {
+		this.quantize = quantize;
+	}
+	
+	public void execute() throws IOException {
+		
+		File outputDir = new File(outputDirName);
+		if (! outputDir.exists()) {
+			if (! outputDir.mkdirs()) {
+				throw new IOException("Output directory does not exist, and could not be created: " + outputDirName);
+			}
+		} else if (! outputDir.isDirectory()) {
+			throw new IOException("Output directory exists, but is not a directory: " + outputDirName);
+		}
+		
+		readGrammar();
+		int numRules = ruleStart.size();
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Sorting " + numRules + " rules by source side");
+		int[] order = new int[numRules];
+		for (int i = 0; i < numRules; i++) {
+			order[i] = i;
+		}
+		sort(order, new int[numRules], 0, numRules);
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Building source-side trie");
+		trie = new IntList();
+		bins = new IntList();
+		buildNode(order, 0, numRules, 0);
+		
+		PrintStream readme = new PrintStream(new File(outputDir, "README.txt"));
+		readme.println("This directory contains a packed translation grammar compiled from " + grammarFileName);
+		readme.println();
+		
+		writeVocabulary(new File(outputDir, PackedGrammar.VOCABULARY));
+		readme.println("Vocabulary: " + PackedGrammar.VOCABULARY);
+		
+		writeInts(new File(outputDir, PackedGrammar.TRIE), trie);
+		readme.println("Source-side trie: " + PackedGrammar.TRIE);
+		
+		writeInts(new File(outputDir, PackedGrammar.BINS), bins);
+		readme.println("Rule bins: " + PackedGrammar.BINS);
+		
+		writeRules(new File(outputDir, PackedGrammar.RULES), new File(outputDir, PackedGrammar.TARGETS), order);
+		readme.println("Rules: " + PackedGrammar.RULES);
+		readme.println("Target sides: " + PackedGrammar.TARGETS);
+		
+		writeFeatures(outputDir, order);
+		readme.println("Feature tables: " + PackedGrammar.FEATURES);
+		readme.println("Feature scores: " + PackedGrammar.FEATURES + ".<n>, one file per feature");
+		
+		readme.flush();
+		readme.close();
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Completed writing packed grammar to " + outputDirName);
+	}
+	
+	/**
+	 * Reads the text grammar into primitive arrays, and assigns
+	 * packed identifiers to the words it uses.
+	 */
+	private void readGrammar() throws IOException {
+		
+		vocab = new Vocabulary();
+		GrammarReader<BilingualRule> reader;
+		if ("hiero".equals(formatKeyword) || "thrax".equals(formatKeyword)) {
+			reader = new HieroFormatReader(grammarFileName, vocab);
+		} else if ("samt".equals(formatKeyword)) {
+			reader = new SamtFormatReader(grammarFileName, vocab);
+		} else {
+			throw new IllegalArgumentException("Unknown grammar format " + formatKeyword);
+		}
+		
+		words = new IntList();
+		ruleStart = new IntList();
+		scores = new FloatList();
+		packedIDs = new HashMap<Integer,Integer>();
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Reading grammar from " + grammarFileName);
+		reader.initialize();
+		for (BilingualRule rule : reader) {
+			if (rule == null) continue;
+			
+			int[] french = rule.getFrench();
+			int[] english = rule.getEnglish();
+			
+			ruleStart.add(words.size());
+			words.add(pack(rule.getLHS()));
+			words.add(rule.getArity());
+			words.add(french.length);
+			for (int word : french) {
+				words.add(pack(word));
+			}
+			
+			// Nonterminals in the trie are stripped of their
+			// markup, so that [X,1] and [X,2] both match X
+			for (int word : french) {
+				if (vocab.isNonterminal(word)) {
+					words.add(pack(reader.cleanNonTerminal(word)));
+				} else {
+					words.add(pack(word));
+				}
+			}
+			words.add(english.length);
+			for (int word : english) {
+				words.add(pack(word));
+			}
+			
+			float[] featureScores = rule.getFeatureScores();
+			if (numFeatures < 0) {
+				numFeatures = featureScores.length;
+			} else if (featureScores.length > numFeatures) {
+				throw new IllegalArgumentException("Rule has " + featureScores.length + " feature scores, but earlier rules have " + numFeatures + ": " + reader.toWords(rule));
+			}
+			for (int i = 0; i < numFeatures; i++) {
+				scores.add(i < featureScores.length ? featureScores[i] : 0.0f);
+			}
+			
+			if (logger.isLoggable(Level.FINE) && ruleStart.size() % 1000000 == 0) {
+				logger.fine("Read " + ruleStart.size() + " rules");
+			}
+		}
+		if (numFeatures < 0) numFeatures = 0;
+		
+		packedWords = new String[packedIDs.size()];
+		packedNonterminals = new boolean[packedIDs.size()];
+		for (Map.Entry<Integer,Integer> entry : packedIDs.entrySet()) {
+			packedWords[entry.getValue()] = vocab.getWord(entry.getKey());
+			packedNonterminals[entry.getValue()] = vocab.isNonterminal(entry.getKey());
+		}
+		packedIDs = null;
+	}
+	
+	private int pack(int id) {
+		Integer packed = packedIDs.get(id);
+		if (packed == null) {
+			packed = packedIDs.size();
+			packedIDs.put(id, packed);
+		}
+		return packed;
+	}
+	
+	private int keyStart(int rule) {
+		int start = ruleStart.get(rule);
+		return start + 3 + words.get(start + 2);
+	}
+	
+	private int keyLength(int rule) {
+		return words.get(ruleStart.get(rule) + 2);
+	}
+	
+	private int compareKeys(int a, int b) {
+		int aStart = keyStart(a), aLength = keyLength(a);
+		int bStart = keyStart(b), bLength = keyLength(b);
+		for (int i = 0, n = Math.min(aLength, bLength); i < n; i++) {
+			int x = words.get(aStart + i), y = words.get(bStart + i);
+			if (x != y) return (x < y) ? -1 : 1;
+		}
+		return aLength - bLength;
+	}
+	
+	/**
+	 * Stable merge sort of rule indices by trie key. Stability
+	 * keeps the rules of each bin in grammar file order.
+	 */
+	private void sort(int[] order, int[] scratch, int from, int to) {
+		if (to - from < 2) return;
+		int middle = (from + to) >>> 1;
+		sort(order, scratch, from, middle);
+		sort(order, scratch, middle, to);
+		if (compareKeys(order[middle - 1], order[middle]) <= 0) return;
+		
+		System.arraycopy(order, from, scratch, from, to - from);
+		int i = from, j = middle, k = from;
+		while (i < middle && j < to) {
+			order[k++] = (compareKeys(scratch[j], scratch[i]) < 0) ? scratch[j++] : scratch[i++];
+		}
+		while (i < middle) order[k++] = scratch[i++];
+		while (j < to)     order[k++] = scratch[j++];
+	}
+	
+	/**
+	 * Writes the trie node for the sorted rules in
+	 * <code>order[from..to)</code>, all of which share the
+	 * first <code>depth</code> symbols of their trie keys.
+	 *
+	 * @return Offset of the node in the trie
+	 */
+	private int buildNode(int[] order, int from, int to, int depth) {
+		
+		// Rules whose keys end here sort before their extensions
+		int binEnd = from;
+		while (binEnd < to && keyLength(order[binEnd]) == depth) {
+			binEnd++;
+		}
+		int bin = (binEnd > from) ? buildBin(order, from, binEnd) : -1;
+		
+		int numChildren = 0;
+		for (int i = binEnd; i < to; ) {
+			int symbol = words.get(keyStart(order[i]) + depth);
+			while (i < to && words.get(keyStart(order[i]) + depth) == symbol) i++;
+			numChildren++;
+		}
+		
+		int offset = trie.size();
+		trie.add(numChildren);
+		trie.add(bin);
+		int slot = trie.size();
+		for (int c = 0; c < numChildren; c++) {
+			trie.add(0);
+			trie.add(0);
+		}
+		
+		for (int i = binEnd; i < to; slot += 2) {
+			int symbol = words.get(keyStart(order[i]) + depth);
+			int j = i;
+			while (j < to && words.get(keyStart(order[j]) + depth) == symbol) j++;
+			trie.set(slot, symbol);
+			trie.set(slot + 1, buildNode(order, i, j, depth + 1));
+			i = j;
+		}
+		
+		return offset;
+	}
+	
+	/**
+	 * Writes the rule bin for the sorted rules in
+	 * <code>order[from..to)</code>. As in the memory-based
+	 * grammar, the bin takes its source side from its first
+	 * rule.
+	 */
+	private int buildBin(int[] order, int from, int to) {
+		int offset = bins.size();
+		int start = ruleStart.get(order[from]);
+		int sourceLength = words.get(start + 2);
+		bins.add(words.get(start + 1));
+		bins.add(from);
+		bins.add(to - from);
+		bins.add(sourceLength);
+		for (int i = 0; i < sourceLength; i++) {
+			bins.add(words.get(start + 3 + i));
+		}
+		return offset;
+	}
+	
+	private void writeVocabulary(File file) throws IOException {
+		DataOutputStream out = open(file);
+		out.writeInt(packedWords.length);
+		for (int i = 0; i < packedWords.length; i++) {
+			out.writeBoolean(packedNonterminals[i]);
+			out.writeUTF(packedWords[i]);
+		}
+		out.close();
+	}
+	
+	private void writeInts(File file, IntList ints) throws IOException {
+		checkSize(file, 4L * ints.size());
+		DataOutputStream out = open(file);
+		for (int i = 0, n = ints.size(); i < n; i++) {
+			out.writeInt(ints.get(i));
+		}
+		out.close();
+	}
+	
+	private void writeRules(File rulesFile, File targetsFile, int[] order) throws IOException {
+		checkSize(rulesFile, 12L * order.length);
+		DataOutputStream rulesOut = open(rulesFile);
+		DataOutputStream targetsOut = open(targetsFile);
+		long targetOffset = 0;
+		for (int rule : order) {
+			int start = ruleStart.get(rule);
+			int sourceLength = words.get(start + 2);
+			int target = start + 3 + 2 * sourceLength;
+			int targetLength = words.get(target);
+			
+			checkSize(targetsFile, 4L * (targetOffset + targetLength));
+			rulesOut.writeInt(words.get(start));
+			rulesOut.writeInt((int) targetOffset);
+			rulesOut.writeInt(targetLength);
+			for (int i = 1; i <= targetLength; i++) {
+				targetsOut.writeInt(words.get(target + i));
+			}
+			targetOffset += targetLength;
+		}
+		rulesOut.close();
+		targetsOut.close();
+	}
+	
+	private void writeFeatures(File outputDir, int[] order) throws IOException {
+		int numRules = order.length;
+		DataOutputStream out = open(new File(outputDir, PackedGrammar.FEATURES));
+		out.writeInt(numRules);
+		out.writeInt(numFeatures);
+		
+		float[] column = new float[numRules];
+		for (int feature = 0; feature < numFeatures; feature++) {
+			for (int i = 0; i < numRules; i++) {
+				column[i] = scores.get(order[i] * numFeatures + feature);
+			}
+			
+			float[] values = distinctValues(column, 65536);
+			int width;
+			float[] codebook;
+			float[] upperBounds = null;
+			if (values != null && values.length <= 256) {
+				width = 1;
+				codebook = values;
+			} else if (quantize) {
+				width = 1;
+				codebook = new float[256];
+				upperBounds = new float[256];
+				quantize(column, codebook, upperBounds);
+			} else if (values != null) {
+				width = 2;
+				codebook = values;
+			} else {
+				width = 4;
+				codebook = new float[0];
+			}
+			
+			out.writeInt(width);
+			out.writeInt(codebook.length);
+			for (float value : codebook) {
+				out.writeFloat(value);
+			}
+			
+			File columnFile = PackedGrammar.featureColumnFile(outputDir, feature);
+			checkSize(columnFile, (long) width * numRules);
+			DataOutputStream columnOut = open(columnFile);
+			for (float value : column) {
+				if (width == 4) {
+					columnOut.writeFloat(value);
+				} else {
+					int code = (upperBounds != null) 
+						? bucket(upperBounds, value)
+						: Arrays.binarySearch(codebook, value);
+					if (width == 1) {
+						columnOut.writeByte(code);
+					} else {
+						columnOut.writeShort(code);
+					}
+				}
+			}
+			columnOut.close();
+			
+			if (logger.isLoggable(Level.FINE)) 
+				logger.fine("Feature " + feature + " stored with " + width + " bytes per rule" + ((upperBounds != null) ? " (quantized)" : ""));
+		}
+		out.close();
+	}
+	
+	/**
+	 * Gets the sorted distinct values of a column, or
+	 * <code>null</code> if there are more than the given
+	 * maximum.
+	 */
+	private static float[] distinctValues(float[] column, int max) {
+		Map<Integer,Float> distinct = new HashMap<Integer,Float>();
+		for (float value : column) {
+			distinct.put(Float.floatToIntBits(value), value);
+			if (distinct.size() > max) return null;
+		}
+		float[] values = new float[distinct.size()];
+		int i = 0;
+		for (float value : distinct.values()) {
+			values[i++] = value;
+		}
+		Arrays.sort(values);
+		return values;
+	}
+	
+	/**
+	 * Splits a column into equal-frequency buckets, storing the
+	 * mean and the largest value of each bucket.
+	 */
+	private static void quantize(float[] column, float[] centers, float[] upperBounds) {
+		float[] sorted = column.clone();
+		Arrays.sort(sorted);
+		int buckets = centers.length;
+		for (int k = 0; k < buckets; k++) {
+			int from = (int) ((long) k * sorted.length / buckets);
+			int to = (int) ((long) (k + 1) * sorted.length / buckets);
+			double sum = 0;
+			for (int i = from; i < to; i++) {
+				sum += sorted[i];
+			}
+			centers[k] = (float) (sum / (to - from));
+			upperBounds[k] = sorted[to - 1];
+		}
+	}
+	
+	private static int bucket(float[] upperBounds, float value) {
+		int low = 0, high = upperBounds.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (upperBounds[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	private static DataOutputStream open(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	}
+	
+	/** Each packed file must fit in a single memory mapping. */
+	private static void checkSize(File file, long bytes) throws IOException {
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IOException("Packed grammar file would exceed 2GB: " + file);
+		}
+	}
+	
+	/** Growable array of ints. */
+	private static class IntList {
+		private int[] data = new int[1024];
+		private int size = 0;
+		
+		void add(int value) {
+			if (size == data.length) data = Arrays.copyOf(data, grow(size));
+			data[size++] = value;
+		}
+		
+		int get(int index) {
+			return data[index];
+		}
+		
+		void set(int index, int value) {
+			data[index] = value;
+		}
+		
+		int size() {
+			return size;
+		}
+	}
+	
+	/** Growable array of floats. */
+	private static class FloatList {
+		private float[] data = new float[1024];
+		private int size = 0;
+		
+		void add(float value) {
+			if (size == data.length) data = Arrays.copyOf(data, grow(size));
+			data[size++] = value;
+		}
+		
+		float get(int index) {
+			return data[index];
+		}
+	}
+	
+	private static int grow(int size) {
+		if (size == Integer.MAX_VALUE - 8) throw new OutOfMemoryError("Grammar too large to pack");
+		return (int) Math.min(Integer.MAX_VALUE - 8, size + (long) (size >> 1));
+	}
+	
+	public static void main(String[] args) throws IOException {
+		
+		if (args.length < 2) {
+			System.err.println("Usage: java " + GrammarPacker.class.getName() + " grammarFile outputDir [hiero|samt] [quantize]");
+			System.exit(0);
+		}
+		
+		GrammarPacker packer = new GrammarPacker();
+		packer.setGrammar(args[0]);
+		packer.setOutputDir(args[1]);
+		if (args.length > 2) packer.setFormat(args[2]);
+		if (args.length > 3) packer.setQuantize("quantize".equals(args[3]));
+		
+		packer.execute();
+	}
+}
@@ -0,0 +1,350 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.tm.packed;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.tm.BatchGrammar;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.Trie;
+import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
+
+/**
+ * Batch grammar served from a packed grammar directory written
+ * by {@link GrammarPacker}.
+ * <p>
+ * The packed files are memory-mapped, so loading the grammar
+ * costs only the vocabulary, and the operating system pages in
+ * the parts of the trie that the test set actually reaches.
+ * Rule objects are built the first time their rule bin is
+ * requested, and are then cached.
+ * <p>
+ * Sorting this grammar does not visit its rules; each rule bin
+ * is sorted on first use with the most recently provided
+ * feature functions.
+ *
+ * @version $LastChangedDate$
+ */
+public class PackedGrammar extends BatchGrammar {
+
+	static final String VOCABULARY = "vocabulary";
+	static final String TRIE       = "trie";
+	static final String BINS       = "bins";
+	static final String RULES      = "rules";
+	static final String TARGETS    = "targets";
+	static final String FEATURES   = "features";
+	
+	/** Logger for this class. */
+	private static final Logger logger = 
+		Logger.getLogger(PackedGrammar.class.getName());
+	
+	private final int defaultOwner;
+	
+	/**
+	 * the OOV rule should have this lhs, this should be grammar
+	 * specific as only the grammar knows what LHS symbol can
+	 * be combined with other rules
+	 */ 
+	private final int defaultLHS;
+	
+	private final int spanLimit;
+	
+	private final float oovFeatureCost;
+	
+	/** Runtime symbol identifiers, indexed by packed identifier. */
+	private final int[] symbols;
+	
+	/** Packed identifiers indexed by runtime terminal identifier. */
+	private final int[] terminalIndex;
+	
+	/** Packed identifiers indexed by negated runtime nonterminal identifier. */
+	private final int[] nonterminalIndex;
+	
+	final IntBuffer trie;
+	private final IntBuffer bins;
+	private final IntBuffer rules;
+	private final IntBuffer targets;
+	
+	/** One mapped file per feature column. */
+	private final ByteBuffer[] featureColumns;
+	
+	private final int numRules;
+	private final int numFeatures;
+	
+	/** Bytes per rule for each feature column: 1, 2, or 4. */
+	private final int[] featureWidths;
+	private final float[][] codebooks;
+	
+	private final int firstRuleID;
+	
+	private final PackedTrie root;
+	
+	/** Rule bins built so far, keyed by offset. */
+	private final ConcurrentMap<Integer,PackedRuleBin> ruleBins;
+	
+	private volatile List<FeatureFunction> models;
+	
+	/** Incremented each time the grammar is sorted. */
+	private volatile int sortVersion;
+	
+	public PackedGrammar(
+			String grammarDir, 
+			SymbolTable symbolTable, 
+			String defaultOwner,
+			String defaultLHSSymbol,
+			int spanLimit,
+			float oovFeatureCost) throws IOException 
+	{
+		this.defaultOwner   = symbolTable.addTerminal(defaultOwner);
+		this.defaultLHS     = symbolTable.addNonterminal(defaultLHSSymbol);
+		this.spanLimit      = spanLimit;
+		this.oovFeatureCost = oovFeatureCost;
+		
+		if (logger.isLoggable(Level.INFO)) logger.info("Reading packed grammar from " + grammarDir);
+		
+		//==== map packed vocabulary onto the runtime symbol table
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(new File(grammarDir, VOCABULARY))));
+		this.symbols = new int[in.readInt()];
+		int maxTerminal = 0, maxNonterminal = 0;
+		for (int i = 0; i < symbols.length; i++) {
+			boolean nonterminal = in.readBoolean();
+			String word = in.readUTF();
+			symbols[i] = nonterminal 
+				? symbolTable.addNonterminal(word)
+				: symbolTable.addTerminal(word);
+			if (symbols[i] < 0) {
+				maxNonterminal = Math.max(maxNonterminal, -symbols[i]);
+			} else {
+				maxTerminal = Math.max(maxTerminal, symbols[i]);
+			}
+		}
+		in.close();
+		
+		this.terminalIndex = new int[maxTerminal + 1];
+		this.nonterminalIndex = new int[maxNonterminal + 1];
+		Arrays.fill(terminalIndex, -1);
+		Arrays.fill(nonterminalIndex, -1);
+		for (int i = 0; i < symbols.length; i++) {
+			if (symbols[i] < 0) {
+				nonterminalIndex[-symbols[i]] = i;
+			} else {
+				terminalIndex[symbols[i]] = i;
+			}
+		}
+		
+		//==== map the trie and rules
+		this.trie     = map(new File(grammarDir, TRIE)).asIntBuffer();
+		this.bins     = map(new File(grammarDir, BINS)).asIntBuffer();
+		this.rules    = map(new File(grammarDir, RULES)).asIntBuffer();
+		this.targets  = map(new File(grammarDir, TARGETS)).asIntBuffer();
+		
+		//==== read the feature tables and map each feature column
+		in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(new File(grammarDir, FEATURES))));
+		this.numRules    = in.readInt();
+		this.numFeatures = in.readInt();
+		this.featureWidths  = new int[numFeatures];
+		this.codebooks      = new float[numFeatures][];
+		this.featureColumns = new ByteBuffer[numFeatures];
+		for (int f = 0; f < numFeatures; f++) {
+			featureWidths[f] = in.readInt();
+			codebooks[f] = new float[in.readInt()];
+			for (int i = 0; i < codebooks[f].length; i++) {
+				codebooks[f][i] = in.readFloat();
+			}
+			featureColumns[f] = map(featureColumnFile(new File(grammarDir), f));
+		}
+		in.close();
+		
+		this.firstRuleID = MemoryBasedBatchGrammar.reserveRuleIDs(numRules);
+		this.root = new PackedTrie(this, 0);
+		this.ruleBins = new ConcurrentHashMap<Integer,PackedRuleBin>();
+		
+		if (logger.isLoggable(Level.INFO)) {
+			logger.info(String.format("Packed grammar has %d rules with %d features; %d symbols",
+				numRules, numFeatures, symbols.length));
+		}
+	}
+	
+	/** Gets the file holding the scores of one feature column. */
+	static File featureColumnFile(File grammarDir, int feature) {
+		return new File(grammarDir, FEATURES + "." + feature);
+	}
+	
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile binaryFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel binaryChannel = binaryFile.getChannel();
+			return binaryChannel.map(FileChannel.MapMode.READ_ONLY, 0, binaryChannel.size());
+		} finally {
+			binaryFile.close();
+		}
+	}
+	
+	/**
+	 * Gets the packed identifier of a runtime symbol, or -1 if
+	 * the symbol does not occur in this grammar.
+	 */
+	int getPackedID(int wordID) {
+		if (wordID < 0) {
+			return (-wordID < nonterminalIndex.length) ? nonterminalIndex[-wordID] : -1;
+		} else {
+			return (wordID < terminalIndex.length) ? terminalIndex[wordID] : -1;
+		}
+	}
+	
+	/**
+	 * Gets the rule bin stored at the given offset, building
+	 * its rules if this is the first request for them.
+	 */
+	PackedRuleBin getRuleBin(int offset) {
+		PackedRuleBin bin = ruleBins.get(offset);
+		if (bin == null) {
+			bin = readRuleBin(offset);
+			PackedRuleBin existing = ruleBins.putIfAbsent(offset, bin);
+			if (existing != null) bin = existing;
+		}
+		return bin;
+	}
+	
+	private PackedRuleBin readRuleBin(int offset) {
+		int arity = bins.get(offset);
+		int first = bins.get(offset + 1);
+		int count = bins.get(offset + 2);
+		int[] sourceTokens = new int[bins.get(offset + 3)];
+		for (int i = 0; i < sourceTokens.length; i++) {
+			sourceTokens[i] = symbols[bins.get(offset + 4 + i)];
+		}
+		
+		PackedRuleBin bin = new PackedRuleBin(this, arity, sourceTokens);
+		for (int rule = first; rule < first + count; rule++) {
+			int lhs = symbols[rules.get(3 * rule)];
+			int targetOffset = rules.get(3 * rule + 1);
+			int[] english = new int[rules.get(3 * rule + 2)];
+			for (int i = 0; i < english.length; i++) {
+				english[i] = symbols[targets.get(targetOffset + i)];
+			}
+			bin.addRule(new BilingualRule(lhs, sourceTokens, english, getFeatureScores(rule), 
+					arity, defaultOwner, 0, firstRuleID + rule));
+		}
+		return bin;
+	}
+	
+	private float[] getFeatureScores(int rule) {
+		float[] scores = new float[numFeatures];
+		for (int f = 0; f < numFeatures; f++) {
+			switch (featureWidths[f]) {
+			case 1:
+				scores[f] = codebooks[f][featureColumns[f].get(rule) & 0xFF];
+				break;
+			case 2:
+				scores[f] = codebooks[f][featureColumns[f].getShort(2 * rule) & 0xFFFF];
+				break;
+			default:
+				scores[f] = featureColumns[f].getFloat(4 * rule);
+			}
+		}
+		return scores;
+	}
+	
+	List<FeatureFunction> getModels() {
+		return models;
+	}
+	
+	int getSortVersion() {
+		return sortVersion;
+	}
+	
+	/**
+	 * Records the feature functions to sort by. Rule bins are
+	 * sorted lazily, so this method does not visit the trie.
+	 */
+	@Override
+	public void sortGrammar(List<FeatureFunction> models) {
+		logger.info("sort grammar");
+		this.models = models;
+		this.sortVersion++;
+		setSorted(true);
+	}
+	
+	public Trie getTrieRoot() {
+		return root;
+	}
+	
+	public int getNumRules() {
+		return numRules;
+	}
+	
+	/** 
+	 * if the span covered by the chart bin is greater than the
+	 * limit, then return false
+	 */
+	public boolean hasRuleForSpan(int startIndex, int endIndex, int pathLength) {
+		if (this.spanLimit == -1) { // mono-glue grammar
+			return (startIndex == 0);
+		} else {
+			return (endIndex - startIndex <= this.spanLimit);
+		}
+	}
+	
+	public Rule constructOOVRule(int num_features, int source_word, int target_word, boolean use_max_lm_cost) {
+		return constructLabeledOOVRule(num_features, source_word, target_word, this.defaultLHS, use_max_lm_cost);
+	}
+	
+	public Rule constructLabeledOOVRule(int num_features, int source_word, int target_word, int lhs, boolean use_max_lm_cost) {
+		int[]   french      = { source_word };
+		int[]   english     = { target_word };
+		float[] feat_scores = new float[JoshuaConfiguration.num_phrasal_features];
+		
+		/* When a ngram LM is used, the OOV word will have a cost 100.
+		 * if no LM is used for decoding, so we should set the cost of some
+		 * TM feature to be maximum
+		 */
+		if (JoshuaConfiguration.oov_feature_index != -1) {
+			feat_scores[JoshuaConfiguration.oov_feature_index] = oovFeatureCost;
+		}
+		else if ((!use_max_lm_cost) && num_features > 0) {
+			feat_scores[0] = oovFeatureCost;
+		}
+		
+		return new BilingualRule(lhs, french, english, feat_scores, 0, this.defaultOwner, 0, getOOVRuleID());
+	}
+	
+	public Rule constructManualRule(int lhs, int[] sourceWords, int[] targetWords, float[] scores, int arity) {
+		return new BilingualRule(lhs, sourceWords, targetWords, scores, arity, this.defaultOwner, 0, getOOVRuleID());
+	}
+}
@@ -0,0 +1,64 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.tm.packed;
+
+import java.util.List;
+
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.tm.BasicRuleCollection;
+import joshua.decoder.ff.tm.Rule;
+
+/**
+ * Rules of a packed grammar that share a source side.
+ * <p>
+ * The rules are sorted the first time they are requested after
+ * the grammar has been sorted.
+ *
+ * @version $LastChangedDate$
+ */
+public class PackedRuleBin extends BasicRuleCollection {
+
+	private final PackedGrammar grammar;
+	
+	/** Grammar sort version these rules were last sorted for. */
+	private int sortVersion = -1;
+	
+	PackedRuleBin(PackedGrammar grammar, int arity, int[] sourceTokens) {
+		super(arity, sourceTokens);
+		this.grammar = grammar;
+	}
+	
+	void addRule(Rule rule) {
+		rules.add(rule);
+	}
+	
+	@Override
+	public synchronized void sortRules(List<FeatureFunction> l_models) {
+		super.sortRules(l_models);
+	}
+	
+	@Override
+	public synchronized List<Rule> getSortedRules() {
+		int version = grammar.getSortVersion();
+		if (sortVersion != version && grammar.getModels() != null) {
+			sortRules(grammar.getModels());
+			sortVersion = version;
+		}
+		return super.getSortedRules();
+	}
+}
@@ -0,0 +1,91 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.tm.packed;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import joshua.decoder.ff.tm.RuleCollection;
+import joshua.decoder.ff.tm.Trie;
+
+/**
+ * Node of the source-side trie of a packed grammar.
+ * <p>
+ * A node is a view of a position in the memory-mapped trie; its
+ * children are stored sorted by packed symbol, and are found by
+ * binary search.
+ *
+ * @version $LastChangedDate$
+ */
+public class PackedTrie implements Trie {
+
+	private final PackedGrammar grammar;
+	
+	/** Position of this node in the trie. */
+	private final int offset;
+	
+	PackedTrie(PackedGrammar grammar, int offset) {
+		this.grammar = grammar;
+		this.offset = offset;
+	}
+	
+	public PackedTrie matchOne(int wordID) {
+		int symbol = grammar.getPackedID(wordID);
+		if (symbol < 0) return null;
+		
+		IntBuffer trie = grammar.trie;
+		int low = 0, high = trie.get(offset) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int child = trie.get(offset + 2 + 2 * middle);
+			if (child < symbol) {
+				low = middle + 1;
+			} else if (child > symbol) {
+				high = middle - 1;
+			} else {
+				return new PackedTrie(grammar, trie.get(offset + 3 + 2 * middle));
+			}
+		}
+		return null;
+	}
+	
+	public boolean hasExtensions() {
+		return grammar.trie.get(offset) > 0;
+	}
+	
+	public Collection<PackedTrie> getExtensions() {
+		IntBuffer trie = grammar.trie;
+		int numChildren = trie.get(offset);
+		List<PackedTrie> children = new ArrayList<PackedTrie>(numChildren);
+		for (int i = 0; i < numChildren; i++) {
+			children.add(new PackedTrie(grammar, trie.get(offset + 3 + 2 * i)));
+		}
+		return children;
+	}
+	
+	public boolean hasRules() {
+		return grammar.trie.get(offset + 1) >= 0;
+	}
+	
+	public RuleCollection getRules() {
+		int bin = grammar.trie.get(offset + 1);
+		return (bin < 0) ? null : grammar.getRuleBin(bin);
+	}
+}
@@ -0,0 +1,370 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import joshua.util.SharedForkJoinPool;
+
+/**
+ * A hypergraph with dense integer indexes for its nodes and
+ * hyperedges, for algorithms that keep one value per node or per
+ * hyperedge in an array instead of a hash table.
+ * <p>
+ * Only the nodes reachable from the goal node are indexed. Nodes are
+ * grouped by level: a node whose hyperedges have no antecedents is
+ * at level 0, and any other node is one level above its highest
+ * antecedent. Nodes are numbered level by level, so that every node
+ * comes after all of its antecedents, and the goal node comes last.
+ * The hyperedges of each node are numbered consecutively, in the
+ * order of the node's list of hyperedges.
+ * <p>
+ * Nodes of the same level do not depend on each other, so the
+ * inside and outside passes can process each level in parallel.
+ * <p>
+ * The indexes describe the hypergraph as it was when compiled; a
+ * hypergraph that is changed afterwards should be compiled again.
+ *
+ * @version $LastChangedDate$
+ */
+public class CompiledHyperGraph {
+
+	/** Levels with fewer nodes than this are processed by one thread. */
+	static int minParallelLevelSize = 1024;
+
+	/** Nodes per task, when a level is processed in parallel. */
+	private static final int NODES_PER_TASK = 256;
+
+	private final HGNode[] nodes;
+	private final HyperEdge[] edges;
+	private final IdentityHashMap<HGNode,Integer> nodeIndexes;
+	private final IdentityHashMap<HyperEdge,Integer> edgeIndexes;
+
+	/** levelStart[l] is the index of the first node of level l; levelStart[numLevels] is the number of nodes */
+	private final int[] levelStart;
+
+	/** the hyperedges of node v are firstEdge[v] through firstEdge[v+1]-1 */
+	private final int[] firstEdge;
+	private final int[] edgeParent;
+
+	/** the antecedents of hyperedge e are antNodes[firstAnt[e]] through antNodes[firstAnt[e+1]-1] */
+	private final int[] firstAnt;
+	private final int[] antNodes;
+
+	/**
+	 * the uses of node v as an antecedent are the positions
+	 * useAnts[firstUse[v]] through useAnts[firstUse[v+1]-1] of
+	 * antNodes, whose hyperedges are useEdges[...]
+	 */
+	private final int[] firstUse;
+	private final int[] useAnts;
+	private final int[] useEdges;
+
+
+	public CompiledHyperGraph(HyperGraph hg) {
+		//=== collect the nodes, antecedents first, and their levels
+		List<HGNode> postOrder = HyperGraphTraversal.bottomUpNodes(hg.goalNode);
+		IdentityHashMap<HGNode,Integer> levels = new IdentityHashMap<HGNode,Integer>();
+		int numLevels = 0;
+		for (HGNode node : postOrder) {
+			int level = 0;
+			for (HyperEdge edge : node.hyperedges) {
+				if (null != edge.getAntNodes()) {
+					for (HGNode antNode : edge.getAntNodes()) {
+						level = Math.max(level, 1 + levels.get(antNode));
+					}
+				}
+			}
+			levels.put(node, level);
+			numLevels = Math.max(numLevels, level + 1);
+		}
+
+		//=== number the nodes level by level
+		levelStart = new int[numLevels + 1];
+		for (HGNode node : postOrder) {
+			levelStart[levels.get(node) + 1]++;
+		}
+		for (int l = 0; l < numLevels; l++) {
+			levelStart[l + 1] += levelStart[l];
+		}
+		int[] nextIndex = new int[numLevels];
+		System.arraycopy(levelStart, 0, nextIndex, 0, numLevels);
+
+		nodes = new HGNode[postOrder.size()];
+		nodeIndexes = new IdentityHashMap<HGNode,Integer>();
+		for (HGNode node : postOrder) {
+			int v = nextIndex[levels.get(node)]++;
+			nodes[v] = node;
+			nodeIndexes.put(node, v);
+		}
+
+		//=== number the hyperedges, and their antecedents
+		int numEdges = 0;
+		int numAnts = 0;
+		for (HGNode node : nodes) {
+			numEdges += node.hyperedges.size();
+			for (HyperEdge edge : node.hyperedges) {
+				if (null != edge.getAntNodes()) {
+					numAnts += edge.getAntNodes().size();
+				}
+			}
+		}
+		edges = new HyperEdge[numEdges];
+		edgeIndexes = new IdentityHashMap<HyperEdge,Integer>();
+		firstEdge = new int[nodes.length + 1];
+		edgeParent = new int[numEdges];
+		firstAnt = new int[numEdges + 1];
+		antNodes = new int[numAnts];
+		firstUse = new int[nodes.length + 1];
+
+		int e = 0;
+		int a = 0;
+		for (int v = 0; v < nodes.length; v++) {
+			firstEdge[v] = e;
+			for (HyperEdge edge : nodes[v].hyperedges) {
+				edges[e] = edge;
+				edgeIndexes.put(edge, e);
+				edgeParent[e] = v;
+				firstAnt[e] = a;
+				if (null != edge.getAntNodes()) {
+					for (HGNode antNode : edge.getAntNodes()) {
+						int u = nodeIndexes.get(antNode);
+						antNodes[a++] = u;
+						firstUse[u + 1]++;
+					}
+				}
+				e++;
+			}
+		}
+		firstEdge[nodes.length] = e;
+		firstAnt[numEdges] = a;
+
+		//=== invert the antecedent lists
+		for (int v = 0; v < nodes.length; v++) {
+			firstUse[v + 1] += firstUse[v];
+		}
+		useAnts = new int[numAnts];
+		useEdges = new int[numAnts];
+		int[] nextUse = new int[nodes.length];
+		System.arraycopy(firstUse, 0, nextUse, 0, nodes.length);
+		for (e = 0; e < numEdges; e++) {
+			for (a = firstAnt[e]; a < firstAnt[e + 1]; a++) {
+				int use = nextUse[antNodes[a]]++;
+				useAnts[use] = a;
+				useEdges[use] = e;
+			}
+		}
+	}
+
+	public int getNumNodes() {
+		return nodes.length;
+	}
+
+	public int getNumEdges() {
+		return edges.length;
+	}
+
+	public int getNumLevels() {
+		return levelStart.length - 1;
+	}
+
+	/** Returns the index of the goal node, which is the last node. */
+	public int getGoalIndex() {
+		return nodes.length - 1;
+	}
+
+	public HGNode getNode(int v) {
+		return nodes[v];
+	}
+
+	public HyperEdge getEdge(int e) {
+		return edges[e];
+	}
+
+	/** Returns the index of a node, or -1 if it is not in the hypergraph. */
+	public int getNodeIndex(HGNode node) {
+		Integer v = nodeIndexes.get(node);
+		return (null == v) ? -1 : v;
+	}
+
+	/** Returns the index of a hyperedge, or -1 if it is not in the hypergraph. */
+	public int getEdgeIndex(HyperEdge edge) {
+		Integer e = edgeIndexes.get(edge);
+		return (null == e) ? -1 : e;
+	}
+
+	/** Returns the index of the first node of a level; the nodes of level l end where those of level l+1 start. */
+	public int getLevelStart(int level) {
+		return levelStart[level];
+	}
+
+	/** Returns the index of the first hyperedge of a node; the hyperedges of node v end where those of node v+1 start. */
+	public int getFirstEdge(int v) {
+		return firstEdge[v];
+	}
+
+	/** Returns the index of the node whose hyperedge e is. */
+	public int getEdgeParent(int e) {
+		return edgeParent[e];
+	}
+
+	public int getNumAntNodes(int e) {
+		return firstAnt[e + 1] - firstAnt[e];
+	}
+
+	/** Returns the index of the kth antecedent node of a hyperedge. */
+	public int getAntNode(int e, int k) {
+		return antNodes[firstAnt[e] + k];
+	}
+
+
+//############ inside-outside in the log semiring ##########################
+
+	/**
+	 * Computes the inside log-probability of each node, given the
+	 * log-probability of each hyperedge.
+	 *
+	 * @param addMode 0: sum; 1: viterbi-min; 2: viterbi-max
+	 * @param parallel whether to process large levels in parallel
+	 */
+	public double[] computeInside(double[] edgeLogProbs, int addMode, boolean parallel) {
+		double[] inside = new double[nodes.length];
+		for (int l = 0; l < getNumLevels(); l++) {
+			runLevel(new PassTask(true, levelStart[l], levelStart[l + 1], edgeLogProbs, inside, null, addMode), parallel);
+		}
+		return inside;
+	}
+
+	/**
+	 * Computes the outside log-probability of each node, given the
+	 * log-probability of each hyperedge and the inside
+	 * log-probabilities computed by computeInside.
+	 */
+	public double[] computeOutside(double[] edgeLogProbs, double[] inside, int addMode, boolean parallel) {
+		double[] outside = new double[nodes.length];
+		for (int l = getNumLevels() - 1; l >= 0; l--) {
+			runLevel(new PassTask(false, levelStart[l], levelStart[l + 1], edgeLogProbs, inside, outside, addMode), parallel);
+		}
+		return outside;
+	}
+
+	private static void runLevel(PassTask task, boolean parallel) {
+		if (parallel && task.to - task.from >= minParallelLevelSize) {
+			SharedForkJoinPool.invoke(task);
+		} else {
+			task.computeNodes();
+		}
+	}
+
+	/** computes the inside or outside log-probabilities of the nodes from through to-1, all of the same level */
+	private class PassTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final boolean isInside;
+		final int from, to;
+		final double[] edgeLogProbs, inside, outside;
+		final int addMode;
+
+		PassTask(boolean isInside, int from, int to, double[] edgeLogProbs, double[] inside, double[] outside, int addMode) {
+			this.isInside = isInside;
+			this.from = from;
+			this.to = to;
+			this.edgeLogProbs = edgeLogProbs;
+			this.inside = inside;
+			this.outside = outside;
+			this.addMode = addMode;
+		}
+
+		protected void compute() {
+			if (to - from > NODES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new PassTask(isInside, from, middle, edgeLogProbs, inside, outside, addMode),
+						new PassTask(isInside, middle, to, edgeLogProbs, inside, outside, addMode));
+			} else {
+				computeNodes();
+			}
+		}
+
+		void computeNodes() {
+			double zero = zeroInLogSemiring(addMode);
+			for (int v = from; v < to; v++) {
+				double res = zero;
+				if (isInside) {
+					for (int e = firstEdge[v]; e < firstEdge[v + 1]; e++) {
+						double edgeInside = edgeLogProbs[e];
+						for (int a = firstAnt[e]; a < firstAnt[e + 1]; a++) {
+							edgeInside += inside[antNodes[a]];
+						}
+						res = addInLogSemiring(res, edgeInside, addMode);
+					}
+					inside[v] = res;
+				} else if (v == nodes.length - 1) { // goal node
+					outside[v] = 0;
+				} else {
+					for (int use = firstUse[v]; use < firstUse[v + 1]; use++) {
+						int e = useEdges[use];
+						double additional = outside[edgeParent[e]] + edgeLogProbs[e];
+						for (int a = firstAnt[e]; a < firstAnt[e + 1]; a++) {
+							if (a != useAnts[use]) { // siblings
+								additional += inside[antNodes[a]];
+							}
+						}
+						res = addInLogSemiring(res, additional, addMode);
+					}
+					outside[v] = res;
+				}
+			}
+		}
+	}
+
+	static double zeroInLogSemiring(int addMode) {
+		if (addMode == 0 || addMode == 2) { // sum or viter-max
+			return Double.NEGATIVE_INFINITY;
+		} else if (addMode == 1) { // viter-min
+			return Double.POSITIVE_INFINITY;
+		} else {
+			throw new RuntimeException("invalid add mode");
+		}
+	}
+
+	//OR: return Math.log(Math.exp(x) + Math.exp(y));
+	static double addInLogSemiring(double x, double y, int addMode) { // prevent under-flow
+		if (addMode == 0) { // sum
+			if (x == Double.NEGATIVE_INFINITY) { // if y is also n-infinity, then return n-infinity
+				return y;
+			}
+			if (y == Double.NEGATIVE_INFINITY) {
+				return x;
+			}
+
+			if (y <= x) {
+				return x + Math.log(1+Math.exp(y-x));
+			} else {
+				return y + Math.log(1+Math.exp(x-y));
+			}
+		} else if (addMode == 1) { // viter-min
+			return (x <= y ? x : y);
+		} else if (addMode == 2) { // viter-max
+			return (x >= y ? x : y);
+		} else {
+			throw new RuntimeException("invalid add mode");
+		}
+	}
+}
@@ -17,9 +17,10 @@
  */
 package joshua.decoder.hypergraph;
 
-import joshua.decoder.hypergraph.HyperGraph;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import java.util.HashMap;
+import joshua.decoder.hypergraph.HyperGraph;
 
 
 /**
@@ -36,6 +37,11 @@ import java.util.HashMap;
 //Note: this class requires the correctness of transitionLogP of each hyperedge, which itself may require the correctness of bestDerivationLogP at each item
 
 public abstract class DefaultInsideOutside {
+	
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(DefaultInsideOutside.class.getName());
+	
 	/**
 	 * Two operations: add and multi
 	 * add: different hyperedges lead to a specific item
@@ -48,22 +54,18 @@ public abstract class DefaultInsideOutside {
 	double ONE_IN_SEMIRING = 0;//log-domain
 	double scaling_factor ; //try to scale the original distribution: smooth or winner-take-all
 	
-	private HashMap<HGNode,Double> tbl_inside_prob =  new HashMap<HGNode,Double>();//remember inside prob of each item: 
-	private HashMap<HGNode,Double> tbl_outside_prob =  new HashMap<HGNode,Double>();//remember outside prob of each item
-	double normalizationConstant = ONE_IN_SEMIRING;
-	
 	/**
-	 * for each item, remember how many deductions pointering
-	 * to me, this is needed for outside estimation during
-	 * outside estimation, an item will recursive call its
-	 * deductions to do outside-estimation only after it itself
-	 * is done with outside estimation, this is necessary
-	 * because the outside estimation of the items under its
-	 * deductions require the item's outside value
+	 * the hypergraph, with dense indexes for its items and
+	 * hyperedges; the arrays below are indexed by them
 	 */
-	private HashMap<HGNode,Integer> tbl_num_parent_deductions = new HashMap<HGNode,Integer>();
+	private CompiledHyperGraph compiledHG = null;
+	private double[] edgeLogProbs = null;//remember the (scaled) log prob of each hyperedge
+	private double[] insideLogProbs = null;//remember inside prob of each item
+	private double[] outsideLogProbs = null;//remember outside prob of each item
+	double normalizationConstant = ONE_IN_SEMIRING;
 	
-	private HashMap<HGNode,Integer> tbl_for_sanity_check = null;
+	/** whether to process the items of a level of the hypergraph in parallel */
+	private boolean parallel = false;
 	
 	//get feature-set specific **log probability** for each hyperedge
 	protected abstract double getHyperedgeLogProb(HyperEdge dt, HGNode parent_it);
@@ -72,27 +74,51 @@ public abstract class DefaultInsideOutside {
 		return getHyperedgeLogProb(dt, parent_it)*scaling_factor;
 	}
 	
-	//the results are stored in tbl_inside_prob and tbl_outside_prob
+	/**
+	 * Whether runInsideOutside should process large levels of the
+	 * hypergraph with several threads. The hyperedge log probs are
+	 * always computed by the calling thread, so getHyperedgeLogProb
+	 * need not be thread-safe.
+	 */
+	public void setParallel(boolean parallel){
+		this.parallel = parallel;
+	}
+	
+	//the results are stored in insideLogProbs and outsideLogProbs
 	public void runInsideOutside(HyperGraph hg, int add_mode, int semiring, double scaling_factor_){//add_mode||| 0: sum; 1: viterbi-min, 2: viterbi-max
 		
 		setup_semiring(semiring, add_mode);
 		scaling_factor = scaling_factor_;
 		
-		//System.out.println("outside estimation");
-		inside_estimation_hg(hg);
+		compiledHG = new CompiledHyperGraph(hg);
+		edgeLogProbs = new double[compiledHG.getNumEdges()];
+		for (int e = 0; e < edgeLogProbs.length; e++) {
+			HyperEdge dt = compiledHG.getEdge(e);
+			HGNode parent = compiledHG.getNode(compiledHG.getEdgeParent(e));
+			edgeLogProbs[e] = getHyperedgeLogProb(dt, parent, this.scaling_factor);//feature-set specific
+		}
+		
 		//System.out.println("inside estimation");
-		outside_estimation_hg(hg);
-		normalizationConstant = tbl_inside_prob.get(hg.goalNode);
-		System.out.println("normalization constant is " + normalizationConstant);
-		tbl_num_parent_deductions.clear();
+		insideLogProbs = compiledHG.computeInside(edgeLogProbs, ADD_MODE, parallel);
+		//System.out.println("outside estimation");
+		outsideLogProbs = compiledHG.computeOutside(edgeLogProbs, insideLogProbs, ADD_MODE, parallel);
+		normalizationConstant = insideLogProbs[compiledHG.getGoalIndex()];
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("normalization constant is " + normalizationConstant);
 		sanityCheckHG(hg);
 	}
 	
 	//to save memory, external class should call this method
 	public  void clearState(){
-		tbl_num_parent_deductions.clear();
-		tbl_inside_prob.clear();
-		tbl_outside_prob.clear();
+		compiledHG = null;
+		edgeLogProbs = null;
+		insideLogProbs = null;
+		outsideLogProbs = null;
+	}
+	
+	/** the hypergraph of the last call to runInsideOutside, whose indexes the index-based methods take */
+	protected CompiledHyperGraph getCompiledHyperGraph(){
+		return compiledHG;
 	}
 
 	//######### use of inside-outside probs ##########################
@@ -103,27 +129,35 @@ public abstract class DefaultInsideOutside {
 	
 	//this is the log of expected/posterior prob (i.e., LogP, where P is the posterior probability), without normalization
 	public double getEdgeUnormalizedPosteriorLogProb(HyperEdge dt, HGNode parent){
+		return getEdgeUnormalizedPosteriorLogProb(getEdgeIndex(dt));
+	}
+	
+	//same as above, for the hyperedge with index e in getCompiledHyperGraph()
+	protected double getEdgeUnormalizedPosteriorLogProb(int e){
 		//### outside of parent
-		double outside = (Double)tbl_outside_prob.get(parent);
+		double outside = outsideLogProbs[compiledHG.getEdgeParent(e)];
 		
 		//### get inside prob of all my ant-items
 		double inside = ONE_IN_SEMIRING;
-		if(dt.getAntNodes()!=null){
-			for(HGNode ant_it : dt.getAntNodes())
-				inside = multi_in_semiring(inside,(Double)tbl_inside_prob.get(ant_it));
+		for (int k = 0; k < compiledHG.getNumAntNodes(e); k++) {
+			inside = multi_in_semiring(inside, insideLogProbs[compiledHG.getAntNode(e, k)]);
 		}
 		
 		//### add deduction/rule specific prob
 		double merit = multi_in_semiring(inside, outside);
-		merit = multi_in_semiring(merit, getHyperedgeLogProb(dt, parent, this.scaling_factor));
+		merit = multi_in_semiring(merit, edgeLogProbs[e]);
 		
 		return merit;
 	}	
 	
 	//normalized probabily in [0,1]
 	public double getEdgePosteriorProb(HyperEdge dt, HGNode parent ){
+		return getEdgePosteriorProb(getEdgeIndex(dt));
+	}
+	
+	protected double getEdgePosteriorProb(int e){
 		if(SEMIRING==LOG_SEMIRING){
-			double res = Math.exp((getEdgeUnormalizedPosteriorLogProb(dt, parent)-getLogNormalizationConstant()));
+			double res = Math.exp((getEdgeUnormalizedPosteriorLogProb(e)-getLogNormalizationConstant()));
 			if (res < 0.0-1e-2 || res > 1.0+1e-2) {
 				throw new RuntimeException("res is not within [0,1], must be wrong value: " + res);
 			}
@@ -135,17 +169,21 @@ public abstract class DefaultInsideOutside {
 	
 //	this is the log of expected/posterior prob (i.e., LogP, where P is the posterior probability), without normalization
 	public double getNodeUnnormalizedPosteriorLogProb(HGNode node){
-		//### outside of parent
-		double inside =  (Double)tbl_inside_prob.get(node);
-		double outside = (Double)tbl_outside_prob.get(node);
-		return multi_in_semiring(inside, outside);
+		return getNodeUnnormalizedPosteriorLogProb(getNodeIndex(node));
 	}	
 	
+	protected double getNodeUnnormalizedPosteriorLogProb(int v){
+		return multi_in_semiring(insideLogProbs[v], outsideLogProbs[v]);
+	}
 	
 //	normalized probabily in [0,1]
 	public double getNodePosteriorProb(HGNode node ){
+		return getNodePosteriorProb(getNodeIndex(node));
+	}
+	
+	protected double getNodePosteriorProb(int v){
 		if(SEMIRING==LOG_SEMIRING){
-			double res = Math.exp((getNodeUnnormalizedPosteriorLogProb(node)-getLogNormalizationConstant()));
+			double res = Math.exp((getNodeUnnormalizedPosteriorLogProb(v)-getLogNormalizationConstant()));
 			if (res < 0.0-1e-2 || res > 1.0+1e-2) {
 				throw new RuntimeException("res is not within [0,1], must be wrong value: " + res);
 			}
@@ -155,164 +193,47 @@ public abstract class DefaultInsideOutside {
 		}
 	}
 	
+	private int getEdgeIndex(HyperEdge dt){
+		int e = compiledHG.getEdgeIndex(dt);
+		if (e < 0) {
+			throw new RuntimeException("hyperedge is not in the hypergraph, must be wrong");
+		}
+		return e;
+	}
+	
+	private int getNodeIndex(HGNode node){
+		int v = compiledHG.getNodeIndex(node);
+		if (v < 0) {
+			throw new RuntimeException("item is not in the hypergraph, must be wrong");
+		}
+		return v;
+	}
+	
 	/*Originally, to see if the sum of the posterior probabilities of all the hyperedges sum to one
 	 * However, this won't work! The sum should be greater than 1.
 	 * */
 	public void sanityCheckHG(HyperGraph hg){	
-		tbl_for_sanity_check = new HashMap<HGNode,Integer>();
 		//System.out.println("num_dts: " + hg.goal_item.l_deductions.size());
-		sanity_check_item(hg.goalNode);
-		System.out.println("survied sanity check!!!!");
+		for (int v = 0; v < compiledHG.getNumNodes(); v++) {
+			sanity_check_item(v);
+		}
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("survied sanity check!!!!");
 	}
 	
-	private void sanity_check_item(HGNode it){		
-		if(tbl_for_sanity_check.containsKey(it))return;
-		tbl_for_sanity_check.put(it,1);
+	private void sanity_check_item(int v){		
 		double prob_sum=0;
-		//### recursive call on each deduction
-		for(HyperEdge dt : it.hyperedges){
-			prob_sum += getEdgePosteriorProb(dt,it);
-			sanity_check_deduction(dt);//deduction-specifc operation
+		for (int e = compiledHG.getFirstEdge(v); e < compiledHG.getFirstEdge(v + 1); e++) {
+			prob_sum += getEdgePosteriorProb(e);
 		}
-		double supposed_sum = getNodePosteriorProb(it);
+		double supposed_sum = getNodePosteriorProb(v);
 		if (Math.abs(prob_sum-supposed_sum) > 1e-3) {
 			throw new RuntimeException("prob_sum=" + prob_sum + "; supposed_sum=" + supposed_sum + "; sanity check fail!!!!");
 		}
-		//### item-specific operation
-	}
-	
-	private void sanity_check_deduction(HyperEdge dt){
-		//### recursive call on each ant item
-		if (null != dt.getAntNodes()) {
-			for (HGNode ant_it : dt.getAntNodes()) {
-				sanity_check_item(ant_it);
-			}
-		}
-		
-		//### deduction-specific operation
-		
 	}
 	//################## end use of inside-outside probs
 	
 	
-	
-//############ bottomn-up insdide estimation ##########################
-	private void inside_estimation_hg(HyperGraph hg) {
-		tbl_inside_prob.clear(); 
-		tbl_num_parent_deductions.clear();
-		inside_estimation_item(hg.goalNode);
-	}
-	
-	private double inside_estimation_item(HGNode it) {
-		//### get number of deductions that point to me
-		Integer num_called = (Integer)tbl_num_parent_deductions.get(it);
-		if (null == num_called) {
-			tbl_num_parent_deductions.put(it, 1);
-		} else {
-			tbl_num_parent_deductions.put(it, num_called+1);
-		}
-		
-		if (tbl_inside_prob.containsKey(it)) {
-			return (Double) tbl_inside_prob.get(it);
-		}
-		double inside_prob = ZERO_IN_SEMIRING;
-		
-		//### recursive call on each deduction
-		for (HyperEdge dt : it.hyperedges) {
-			double v_dt = inside_estimation_deduction(dt, it);//deduction-specifc operation
-			inside_prob = add_in_semiring(inside_prob, v_dt);
-		}
-		//### item-specific operation, but all the prob should be factored into each deduction
-		
-		tbl_inside_prob.put(it,inside_prob);
-		return inside_prob;
-	}
-	
-	private double inside_estimation_deduction(HyperEdge dt, HGNode parent_item){
-		double inside_prob = ONE_IN_SEMIRING; 
-		//### recursive call on each ant item
-		if(dt.getAntNodes()!=null)
-			for(HGNode ant_it : dt.getAntNodes()){
-				double v_item = inside_estimation_item(ant_it);
-				inside_prob =  multi_in_semiring(inside_prob, v_item);				
-			}
-				
-		//### deduction operation
-		double deduct_prob = getHyperedgeLogProb(dt, parent_item, this.scaling_factor);//feature-set specific	
-		inside_prob =  multi_in_semiring(inside_prob, deduct_prob);	
-		return inside_prob;
-	}
-//########### end inside estimation	
-
-//############ top-downn outside estimation ##########################
-	
-	private void outside_estimation_hg(HyperGraph hg){	
-		tbl_outside_prob.clear(); 
-		tbl_outside_prob.put(hg.goalNode, ONE_IN_SEMIRING);//initialize
-		for(HyperEdge dt : hg.goalNode.hyperedges)
-			outside_estimation_deduction(dt, hg.goalNode);	
-	}
-	
-	private void outside_estimation_item(HGNode cur_it, HGNode upper_item, HyperEdge parent_dt, double parent_deduct_prob){
-		Integer num_called = (Integer)tbl_num_parent_deductions.get(cur_it);
-		if (null == num_called || 0 == num_called) {
-			throw new RuntimeException("un-expected call, must be wrong");
-		}
-		tbl_num_parent_deductions.put(cur_it, num_called-1);
-		
-		double old_outside_prob = ZERO_IN_SEMIRING;
-		if (tbl_outside_prob.containsKey(cur_it)) {
-			old_outside_prob = (Double) tbl_outside_prob.get(cur_it);
-		}
-		
-		double additional_outside_prob = ONE_IN_SEMIRING;
-		
-		//### add parent deduction prob
-		additional_outside_prob =  multi_in_semiring(additional_outside_prob, parent_deduct_prob);
-		
-		//### sibing specifc
-		if(parent_dt.getAntNodes()!=null && parent_dt.getAntNodes().size()>1)
-			for(HGNode ant_it : parent_dt.getAntNodes()){
-				if(ant_it != cur_it){
-					double inside_prob_item =(Double)tbl_inside_prob.get(ant_it);//inside prob
-					additional_outside_prob =  multi_in_semiring(additional_outside_prob, inside_prob_item);
-				}				
-			}
-				
-		//### upper item
-		double outside_prob_item = (Double)tbl_outside_prob.get(upper_item);//outside prob
-		additional_outside_prob =  multi_in_semiring(additional_outside_prob, outside_prob_item);
-		
-		//#### add to old prob 
-		additional_outside_prob = add_in_semiring(additional_outside_prob, old_outside_prob);		
-		
-		tbl_outside_prob.put(cur_it, additional_outside_prob);
-		
-		//### recursive call on each deduction
-		if( num_called-1<=0){//i am done
-			for(HyperEdge dt : cur_it.hyperedges){
-				//TODO: potentially, we can collect the feature expection in each hyperedge here, to avoid another pass of the hypergraph to get the counts
-				outside_estimation_deduction(dt, cur_it);
-			}
-		}
-	}
-	
-	
-	private void outside_estimation_deduction(HyperEdge dt, HGNode parent_item){
-		//we do not need to outside prob if no ant items
-		if(dt.getAntNodes()!=null){
-			//### deduction specific prob
-			double deduction_prob = getHyperedgeLogProb(dt, parent_item, this.scaling_factor);//feature-set specific
-			
-			//### recursive call on each ant item
-			for(HGNode ant_it : dt.getAntNodes()){
-				outside_estimation_item(ant_it, parent_item, dt, deduction_prob);
-			}
-		}
-	}
-//########### end outside estimation		
-	
-	
 
 //############ common ##########################
 	// BUG: replace integer pseudo-enum with a real Java enum
@@ -346,44 +267,10 @@ public abstract class DefaultInsideOutside {
 		}
 	}
 	
-	private double add_in_semiring(double x, double y) {
-		if (SEMIRING == LOG_SEMIRING) {
-			return add_in_log_semiring(x,y);
-		} else {
-			throw new RuntimeException("un-supported semiring");
-		}
-	}
-	
 	//AND
 	private double multi_in_log_semiring(double x, double y) { // value is Log prob
 		return x + y;
 	}
-	
-	
-	//OR: return Math.log(Math.exp(x) + Math.exp(y));
-	// BUG: Replace ADD_MODE pseudo-enum with a real Java enum
-	private double add_in_log_semiring(double x, double y) { // prevent under-flow 
-		if (ADD_MODE == 0) { // sum
-			if (x == Double.NEGATIVE_INFINITY) { // if y is also n-infinity, then return n-infinity
-				return y;
-			}
-			if (y == Double.NEGATIVE_INFINITY) {
-				return x;
-			}
-			
-			if (y <= x) {
-				return x + Math.log(1+Math.exp(y-x));
-			} else {
-				return y + Math.log(1+Math.exp(x-y));
-			}
-		} else if (ADD_MODE == 1) { // viter-min
-			return (x <= y ? x : y);
-		} else if (ADD_MODE == 2) { // viter-max
-			return (x >= y ? x : y);
-		} else {
-			throw new RuntimeException("invalid add mode");
-		}
-	}
 //############ end common #####################
 	
 }
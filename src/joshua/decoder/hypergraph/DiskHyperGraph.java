@@ -274,35 +274,16 @@ public class DiskHyperGraph {
 	/**
 	 * Assign IDs to all HGNodes in the hypergraph. We do a
 	 * depth-first traversal starting at the goal item, and
-	 * assign IDs from the bottom up. BUG: this code could stack
-	 * overflow for deep trees.
+	 * assign IDs from the bottom up.
 	 */
 	private void constructItemTables(HyperGraph hg) {
 		resetStates();
-		constructItemTables(hg.goalNode);
-	}
-	
-	/**
-	 * This method is <i>really</i> private, and should only
-	 * be called by constructItemTables(HyperGraph).
-	 */
-	private void constructItemTables(HGNode item) {
-		if (this.itemToID.containsKey(item)) return;
-		
-		// first: assign IDs to all my antecedents
-		for (HyperEdge hyperEdge : item.hyperedges) {
-			this.qtyDeductions++;
-			if (null != hyperEdge.getAntNodes()) {
-				for (HGNode antecedentItem : hyperEdge.getAntNodes()) {
-					constructItemTables(antecedentItem);
-				}
-			}
+		for (HGNode item : HyperGraphTraversal.bottomUpNodes(hg.goalNode)) {
+			this.qtyDeductions += item.hyperedges.size();
+			this.idToItem.put(this.currentItemID, item);
+			this.itemToID.put(item, this.currentItemID);
+			this.currentItemID++;
 		}
-		
-		// second: assign ID to "myself"
-		this.idToItem.put(this.currentItemID, item);
-		this.itemToID.put(item, this.currentItemID);
-		this.currentItemID++;
 	}
 	
 	private void writeItem(HGNode item) throws IOException {
@@ -426,6 +407,10 @@ public class DiskHyperGraph {
 //===============================================================
 	
 	
+	/**
+	 * Reads the next hypergraph, returning null if it is not
+	 * among the selected sentences or if there are no more.
+	 */
 	public HyperGraph readHyperGraph() {
 		resetStates();
 		//read first line: SENTENCE_TAG, sent_id, sent_len, numNodes, num_deduct
@@ -437,6 +422,9 @@ public class DiskHyperGraph {
 			line = FileUtility.read_line_lzf(this.itemsReader);
 		}
 		
+		if (null == line) { // no more hypergraphs
+			return null;
+		}
 		if (! line.startsWith(SENTENCE_TAG)) {
 			throw new RuntimeException("wrong sent tag line: " + line);
 		}
@@ -19,6 +19,7 @@ package joshua.decoder.hypergraph;
 
 import joshua.decoder.chart_parser.Prunable;
 import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.util.Bits;
 
 
 import java.util.ArrayList;
@@ -61,6 +62,9 @@ public class HGNode implements Prunable<HGNode> {
 	private String signature = null;
 	// seperator for the signature for each state
 	private static final String STATE_SIG_SEP = " -f- ";
+	// hashed form of the signature, used by the chart for recombination
+	private long signatureHash;
+	private boolean signatureHashComputed = false;
 	
 	//============== for pruning purpose
 	public boolean isDead        = false;
@@ -163,6 +167,54 @@ public class HGNode implements Prunable<HGNode> {
 		return this.signature;
 	}
 	
+	/**
+	 * A 64-bit hash of the signature (lhs and states). Unlike
+	 * getSignature(), this does not build a String, so it is what
+	 * the chart uses to find nodes to recombine; collisions are
+	 * resolved with signatureEquals().
+	 */
+	public long getSignatureHash() {
+		if (! this.signatureHashComputed) {
+			// sum over the states so that the HashMap order does not matter
+			long statesHash = 0;
+			if (null != this.dpStates) {
+				for (Map.Entry<Integer,DPState> entry : this.dpStates.entrySet()) {
+					statesHash += Bits.hash(entry.getValue().getSignatureHash(), entry.getKey());
+				}
+			}
+			this.signatureHash = Bits.hash(statesHash, lhs);
+			this.signatureHashComputed = true;
+		}
+		return this.signatureHash;
+	}
+	
+	
+	/**
+	 * Whether this node and another have the same signature, i.e.
+	 * the same lhs and equivalent states.
+	 */
+	public boolean signatureEquals(HGNode other) {
+		if (this.lhs != other.lhs) {
+			return false;
+		}
+		
+		int size = (null == this.dpStates) ? 0 : this.dpStates.size();
+		int otherSize = (null == other.dpStates) ? 0 : other.dpStates.size();
+		if (size != otherSize) {
+			return false;
+		} else if (size == 0) {
+			return true;
+		}
+		
+		for (Map.Entry<Integer,DPState> entry : this.dpStates.entrySet()) {
+			DPState otherState = other.dpStates.get(entry.getKey());
+			if (null == otherState || ! entry.getValue().signatureEquals(otherState)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	public void releaseDPStatesMemory(){
 		dpStates = null;
 	}
@@ -0,0 +1,355 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.chart_parser.ComputeNodeResult;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.decoder.ff.state_maintenance.NgramDPState;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
+
+/**
+ * Writes hypergraphs to the binary format read by
+ * {@link PackedHyperGraphs}.
+ * <p>
+ * Hypergraphs are appended one at a time, in the same bottom-up
+ * node order that DiskHyperGraph uses for its text format. The
+ * rules they use and the strings of their symbols are collected
+ * along the way and written once, together with the offset of
+ * each hypergraph, when the writer is closed.
+ * <p>
+ * As with DiskHyperGraph, the only state kept for a node is that
+ * of the language model feature.
+ *
+ * @version $LastChangedDate$
+ */
+public class HyperGraphPacker {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(HyperGraphPacker.class.getName());
+
+	private final String fileName;
+	private final SymbolTable symbolTable;
+	private final int LMFeatureID;
+	private final boolean storeModelLogP;
+
+	/**
+	 * Feature functions used to compute the model logPs of each
+	 * edge, or null to take them from WithModelLogPsHyperEdge.
+	 */
+	private final List<FeatureFunction> featureFunctions;
+
+	private final CountingOutputStream counter;
+	private final DataOutputStream out;
+
+	/** Offset of each hypergraph written so far. */
+	private final List<Long> offsets = new ArrayList<Long>();
+
+	/** Packed symbol indices, keyed by symbol string. */
+	private final Map<String,Integer> symbols = new LinkedHashMap<String,Integer>();
+
+	/** Packed rule indices, keyed by rule ID. */
+	private final Map<Integer,Integer> ruleIndex = new HashMap<Integer,Integer>();
+	private final List<Rule> rules = new ArrayList<Rule>();
+
+	/** Number of model logPs per edge, or -1 until the first edge. */
+	private int numModelLogPs = -1;
+
+	/**
+	 * For saving with model logPs, one needs to specify the
+	 * featureFunctions, unless the edges already carry them.
+	 */
+	public HyperGraphPacker(String fileName, SymbolTable symbolTable, int LMFeatureID,
+			boolean storeModelLogP, List<FeatureFunction> featureFunctions) throws IOException {
+		this.fileName         = fileName;
+		this.symbolTable      = symbolTable;
+		this.LMFeatureID      = LMFeatureID;
+		this.storeModelLogP   = storeModelLogP;
+		this.featureFunctions = featureFunctions;
+
+		this.counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		this.out = new DataOutputStream(counter);
+
+		// the header is filled in by close()
+		for (int i = 0; i < PackedHyperGraphs.HEADER_SIZE; i++) {
+			out.write(0);
+		}
+	}
+
+	/**
+	 * Appends a hypergraph.
+	 */
+	public void write(HyperGraph hg) throws IOException {
+
+		List<HGNode> nodes = HyperGraphTraversal.bottomUpNodes(hg.goalNode);
+		Map<HGNode,Integer> nodeIDs = new IdentityHashMap<HGNode,Integer>();
+		int numEdges = 0;
+		for (HGNode node : nodes) {
+			nodeIDs.put(node, nodeIDs.size() + 1);
+			if (null != node.hyperedges) numEdges += node.hyperedges.size();
+		}
+
+		offsets.add(counter.count);
+
+		writeVarint(hg.sentID);
+		writeVarint(hg.sentLen);
+		writeVarint(nodes.size());
+		writeVarint(numEdges);
+
+		for (HGNode node : nodes) {
+			int id = nodeIDs.get(node);
+
+			writeVarint(node.i);
+			writeVarint(node.j);
+			writeVarint(symbol(node.lhs));
+
+			// Assume LM is the only stateful feature
+			Map<Integer,DPState> states = node.getDPStates();
+			if (null == states) {
+				writeVarint(0);
+			} else {
+				NgramDPState state = (NgramDPState) states.get(this.LMFeatureID);
+				writeVarint(1);
+				writeSymbols(state.getLeftLMState());
+				writeSymbols(state.getRightLMState());
+			}
+
+			if (null == node.hyperedges) {
+				writeVarint(0);
+			} else {
+				writeVarint(node.hyperedges.size());
+				for (HyperEdge edge : node.hyperedges) {
+					writeHyperedge(hg, node, id, edge, nodeIDs);
+				}
+			}
+		}
+	}
+
+	private void writeHyperedge(HyperGraph hg, HGNode node, int nodeID, HyperEdge edge,
+			Map<HGNode,Integer> nodeIDs) throws IOException {
+
+		out.writeFloat((float) edge.bestDerivationLogP);
+
+		// antecedents precede their node, so are stored as
+		// positive distances back from it
+		List<HGNode> antecedents = edge.getAntNodes();
+		if (null == antecedents) {
+			writeVarint(0);
+		} else {
+			writeVarint(antecedents.size());
+			for (HGNode antecedent : antecedents) {
+				writeVarint(nodeID - nodeIDs.get(antecedent));
+			}
+		}
+
+		Rule rule = edge.getRule();
+		if (null == rule) {
+			writeVarint(PackedHyperGraphs.NULL_RULE);
+		} else if (rule.getRuleID() == MemoryBasedBatchGrammar.OOV_RULE_ID) {
+			writeVarint(PackedHyperGraphs.OOV_RULE);
+			writeVarint(symbol(rule.getLHS()));
+			writeSymbols(rule.getEnglish());
+		} else {
+			Integer index = ruleIndex.get(rule.getRuleID());
+			if (null == index) {
+				index = rules.size();
+				ruleIndex.put(rule.getRuleID(), index);
+				rules.add(rule);
+			}
+			writeVarint(PackedHyperGraphs.FIRST_RULE + index);
+		}
+
+		if (storeModelLogP) {
+			double[] logPs = (null != featureFunctions)
+				? ComputeNodeResult.computeModelTransitionLogPs(featureFunctions, edge, node.i, node.j, hg.sentID)
+				: ((WithModelLogPsHyperEdge) edge).modeLogPs;
+
+			if (numModelLogPs < 0) {
+				numModelLogPs = logPs.length;
+			} else if (numModelLogPs != logPs.length) {
+				throw new IllegalArgumentException("Edge has " + logPs.length + " model logPs, but earlier edges had " + numModelLogPs);
+			}
+			for (double logP : logPs) {
+				out.writeFloat((float) logP);
+			}
+		}
+	}
+
+	/**
+	 * Writes the rule table, symbol table, and index, and fills
+	 * in the header.
+	 */
+	public void close() throws IOException {
+
+		long rulesOffset = counter.count;
+		writeVarint(rules.size());
+		for (Rule rule : rules) {
+			out.writeInt(rule.getRuleID());
+			writeVarint(symbol(rule.getOwner()));
+			writeVarint(symbol(rule.getLHS()));
+			writeRuleSide(rule.getFrench());
+			writeRuleSide(rule.getEnglish());
+			writeVarint(rule.getArity());
+			float[] scores = rule.getFeatureScores();
+			writeVarint(scores.length);
+			for (float score : scores) {
+				out.writeFloat(score);
+			}
+		}
+
+		// rules add symbols, so these go after them
+		long symbolsOffset = counter.count;
+		writeVarint(symbols.size());
+		for (String symbol : symbols.keySet()) {
+			out.writeUTF(symbol);
+		}
+
+		long indexOffset = counter.count;
+		for (long offset : offsets) {
+			out.writeLong(offset);
+		}
+		out.close();
+
+		RandomAccessFile header = new RandomAccessFile(fileName, "rw");
+		try {
+			header.writeInt(PackedHyperGraphs.MAGIC);
+			header.writeInt(PackedHyperGraphs.VERSION);
+			header.writeBoolean(storeModelLogP);
+			header.writeInt(Math.max(0, numModelLogPs));
+			header.writeInt(offsets.size());
+			header.writeLong(indexOffset);
+			header.writeLong(symbolsOffset);
+			header.writeLong(rulesOffset);
+		} finally {
+			header.close();
+		}
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("Wrote " + offsets.size() + " hypergraphs, " + rules.size() + " rules and " + symbols.size() + " symbols to " + fileName);
+	}
+
+
+	private int symbol(int id) {
+		String word = symbolTable.getWord(id);
+		Integer index = symbols.get(word);
+		if (null == index) {
+			index = symbols.size();
+			symbols.put(word, index);
+		}
+		return index;
+	}
+
+	private void writeSymbols(int[] ids) throws IOException {
+		writeVarint(ids.length);
+		for (int id : ids) {
+			writeVarint(symbol(id));
+		}
+	}
+
+	/** Writes one side of a rule, marking nonterminals in the low bit. */
+	private void writeRuleSide(int[] ids) throws IOException {
+		writeVarint(ids.length);
+		for (int id : ids) {
+			writeVarint((symbol(id) << 1) | (symbolTable.isNonterminal(id) ? 1 : 0));
+		}
+	}
+
+	private void writeVarint(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+
+	/** Tracks the offset at which the next byte will be written. */
+	private static class CountingOutputStream extends OutputStream {
+		private final OutputStream out;
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Converts a hypergraph file pair in the DiskHyperGraph text
+	 * format to the binary format.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.err.println("Usage: java " + HyperGraphPacker.class.getName() + " textPrefix binaryFile [lmFeatureID [storeModelLogP]]");
+			System.err.println("  reads textPrefix.hg.items and textPrefix.hg.rules");
+			System.exit(0);
+		}
+
+		int LMFeatureID = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+		boolean storeModelLogP = (args.length > 3) ? Boolean.valueOf(args[3]) : true;
+
+		SymbolTable symbolTable = new BuildinSymbol(null);
+		DiskHyperGraph text = new DiskHyperGraph(symbolTable, LMFeatureID, storeModelLogP, null);
+		text.initRead(args[0] + ".hg.items", args[0] + ".hg.rules", null);
+
+		HyperGraphPacker packer = new HyperGraphPacker(args[1], symbolTable, LMFeatureID, storeModelLogP, null);
+		for (HyperGraph hg; (hg = text.readHyperGraph()) != null; ) {
+			packer.write(hg);
+		}
+		packer.close();
+		text.closeReaders();
+	}
+}
@@ -21,7 +21,8 @@ import joshua.corpus.vocab.SymbolTable;
 import joshua.decoder.JoshuaConfiguration;
 import joshua.decoder.hypergraph.HyperGraph;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -33,7 +34,6 @@ import java.util.HashMap;
  */
 public class HyperGraphPruning extends TrivialInsideOutside {
 	
-	HashMap<HGNode,Boolean> processedNodesTbl = new HashMap<HGNode,Boolean>();
 	double bestLogProb;//viterbi unnormalized log prob in the hypergraph
 	
 	boolean ViterbiPruning = false;//Viterbi or Posterior pruning
@@ -59,12 +59,6 @@ public class HyperGraphPruning extends TrivialInsideOutside {
 	
 	
 	
-	public void clearState(){
-		processedNodesTbl.clear();
-		super.clearState();
-	}
-	
-
 //	######################### pruning here ##############
 	public void pruningHG(HyperGraph hg) {
 		
@@ -84,41 +78,42 @@ public class HyperGraphPruning extends TrivialInsideOutside {
 		
 		numSurvivedEdges = 0;
 		numSurvivedNodes = 0;
-		processedNodesTbl.clear(); 
-		pruningNode(hg.goalNode);
 		
-		//clear up
-		processedNodesTbl.clear();
+		//an item is reached if a surviving deduction points to it;
+		//all the deductions pointing to an item come from items with larger indexes
+		CompiledHyperGraph compiledHG = getCompiledHyperGraph();
+		boolean[] reached = new boolean[compiledHG.getNumNodes()];
+		reached[compiledHG.getGoalIndex()] = true;
+		for (int v = compiledHG.getGoalIndex(); v >= 0; v--) {
+			if (reached[v]) {
+				pruningNode(compiledHG, v, reached);
+			}
+		}
 		
 		System.out.println("Item suvived ratio: "+ numSurvivedNodes*1.0/hg.numNodes + " =  " + numSurvivedNodes + "/" + hg.numNodes);
 		System.out.println("Deduct suvived ratio: "+ numSurvivedEdges*1.0/hg.numEdges + " =  " + numSurvivedEdges + "/" + hg.numEdges);
 	}
 		
 	
-	private void pruningNode(HGNode it) {
+	private void pruningNode(CompiledHyperGraph compiledHG, int v, boolean[] reached) {
 		
-		if (processedNodesTbl.containsKey(it)) 
-			return;
+		HGNode it = compiledHG.getNode(v);
+		List<HyperEdge> survivedEdges = new ArrayList<HyperEdge>(it.hyperedges.size());
 		
-		processedNodesTbl.put(it,true);
-		boolean shouldSurvive = false;
-		
-		//### recursive call on each deduction
-		for (int i = 0; i < it.hyperedges.size(); i++) {
-			HyperEdge dt = it.hyperedges.get(i);
-			boolean survived = pruningEdge(dt, it);//deduction-specifc operation
-			if (survived) {
-				shouldSurvive = true; // at least one deduction survive
-			} else {
-				it.hyperedges.remove(i);
-				i--;
+		for (int e = compiledHG.getFirstEdge(v); e < compiledHG.getFirstEdge(v + 1); e++) {
+			if (pruningEdge(compiledHG, e, it, reached)) {//deduction-specifc operation
+				survivedEdges.add(compiledHG.getEdge(e));
 			}
 		}
 		//TODO: now we simply remove the pruned deductions, but in general, we may want to update the variables mainted in the item (e.g., best_deduction); this depends on the pruning method used
+		if (survivedEdges.size() < it.hyperedges.size()) {
+			it.hyperedges.clear();
+			it.hyperedges.addAll(survivedEdges);
+		}
 		
 		/*by defintion: "should_surive==false" should be impossible, since if I got called, then my upper-deduction must survive, then i will survive
 		* because there must be one way to reach me from lower part in order for my upper-deduction survive*/
-		if (! shouldSurvive) {
+		if (survivedEdges.isEmpty()) {
 			throw new RuntimeException("item explored but does not survive");
 			//TODO: since we always keep the best_deduction, this should never be true
 		} else {
@@ -129,22 +124,21 @@ public class HyperGraphPruning extends TrivialInsideOutside {
 		
 	//if survive, return true
 	//best-deduction is always kept
-	private boolean pruningEdge(HyperEdge dt, HGNode parent) {
+	private boolean pruningEdge(CompiledHyperGraph compiledHG, int e, HGNode parent, boolean[] reached) {
 		
+		HyperEdge dt = compiledHG.getEdge(e);
 		/**TODO: theoretically, if an item is get called, then its best deduction should always be kept even just by the threshold-checling. 
 		 * In reality, due to precision of Double, the threshold-checking may not be perfect*/
 		if (dt != parent.bestHyperedge) { // best deduction should always survive if the Item is get called
 			//### prune?
-			if (shouldPruneHyperedge(dt, parent)) {
+			if (shouldPruneHyperedge(dt, getEdgeUnormalizedPosteriorLogProb(e))) {
 				return false; // early stop
 			}
 		}
 		
-		//### still survive, recursive call all my ant-items
-		if (null != dt.getAntNodes()) {
-			for (HGNode ant_it : dt.getAntNodes()) {
-				pruningNode(ant_it); // recursive call on each ant item, note: the ant_it will not be pruned as I need it
-			}
+		//### still survive, mark all my ant-items, note: the ant_it will not be pruned as I need it
+		for (int k = 0; k < compiledHG.getNumAntNodes(e); k++) {
+			reached[compiledHG.getAntNode(e, k)] = true;
 		}
 		
 		//### if get to here, then survive; remember: if I survive, then my upper-item must survive
@@ -152,11 +146,7 @@ public class HyperGraphPruning extends TrivialInsideOutside {
 		return true; // survive
 	}
 	
-	private boolean shouldPruneHyperedge(HyperEdge dt, HGNode parent) {
-		
-		//### get merit
-		double postLogProb = getEdgeUnormalizedPosteriorLogProb(dt, parent);
-		
+	private boolean shouldPruneHyperedge(HyperEdge dt, double postLogProb) {
 		
 		if (dt.getRule() != null
 		&& dt.getRule().getOwner() == glueGrammarOwner
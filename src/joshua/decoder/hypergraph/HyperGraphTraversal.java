@@ -0,0 +1,106 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Traversals of a hypergraph that keep their own stack, so that
+ * the Java stack they use does not grow with the depth of the
+ * hypergraph, as it does for a recursive visit. Long sentences and
+ * lattices make hypergraphs as deep as they are long.
+ *
+ * @version $LastChangedDate$
+ */
+public class HyperGraphTraversal {
+
+	/**
+	 * Decides which hyperedges a traversal follows down to their
+	 * antecedents.
+	 */
+	public interface EdgeFilter {
+		boolean follow(HGNode parent, HyperEdge edge);
+	}
+
+	private HyperGraphTraversal() {
+	}
+
+	/**
+	 * Lists the nodes below and including the goal node, each
+	 * after all of its antecedents. The order is that of a
+	 * recursive depth-first visit, which visits the antecedents
+	 * of each hyperedge of a node, hyperedge by hyperedge, and
+	 * then the node itself.
+	 */
+	public static List<HGNode> bottomUpNodes(HGNode goal) {
+		return bottomUpNodes(goal, null);
+	}
+
+	/**
+	 * Same as bottomUpNodes(HGNode), but follows only the
+	 * hyperedges accepted by the filter; a null filter accepts
+	 * every hyperedge. The filter is asked at most once about
+	 * each hyperedge, and only about those with antecedents.
+	 */
+	public static List<HGNode> bottomUpNodes(HGNode goal, EdgeFilter filter) {
+		List<HGNode> nodes = new ArrayList<HGNode>();
+		Map<HGNode,Boolean> visited = new IdentityHashMap<HGNode,Boolean>();
+
+		// each stack entry has the index of the next edge and
+		// antecedent of its node to visit
+		List<HGNode> stack = new ArrayList<HGNode>();
+		List<int[]> positions = new ArrayList<int[]>();
+		stack.add(goal);
+		positions.add(new int[2]);
+		visited.put(goal, Boolean.TRUE);
+
+		while (! stack.isEmpty()) {
+			int top = stack.size() - 1;
+			HGNode node = stack.get(top);
+			int[] position = positions.get(top);
+
+			HGNode next = null;
+			while (null == next && null != node.hyperedges && position[0] < node.hyperedges.size()) {
+				HyperEdge edge = node.hyperedges.get(position[0]);
+				List<HGNode> antecedents = edge.getAntNodes();
+				if (null == antecedents || position[1] >= antecedents.size()
+						|| (0 == position[1] && null != filter && ! filter.follow(node, edge))) {
+					position[0]++;
+					position[1] = 0;
+				} else {
+					HGNode antecedent = antecedents.get(position[1]++);
+					if (! visited.containsKey(antecedent)) next = antecedent;
+				}
+			}
+
+			if (null == next) {
+				nodes.add(node);
+				stack.remove(top);
+				positions.remove(top);
+			} else {
+				visited.put(next, Boolean.TRUE);
+				stack.add(next);
+				positions.add(new int[2]);
+			}
+		}
+		return nodes;
+	}
+}
@@ -22,7 +22,9 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Set;
@@ -34,7 +36,6 @@ import joshua.decoder.chart_parser.ComputeNodeResult;
 import joshua.decoder.ff.FeatureFunction;
 import joshua.decoder.ff.tm.Rule;
 import joshua.util.CoIterator;
-import joshua.util.Regex;
 import joshua.util.io.UncheckedIOException;
 
 /**
@@ -55,6 +56,15 @@ import joshua.util.io.UncheckedIOException;
  * hyperedge. (For example, in the case of disk-hypergraph, we need 
  * to store all these model cost at each hyperedge.)
  *
+ * Each extracted derivation remembers its yield (as word IDs) and its
+ * model costs, once computed, so that the derivations built on top of
+ * it only add their own hyperedge instead of walking the whole tree.
+ *
+ * None of the extraction recurses: nodes that wait for the derivations
+ * of their children, and derivations whose sub-derivations are being
+ * walked, are kept on explicit stacks, so that the Java stack does not
+ * grow with the depth of the hypergraph.
+ *
  * @author Zhifei Li, <zhifei.work@gmail.com>
  * @version $LastChangedDate$
  */
@@ -66,6 +76,12 @@ public class KBestExtractor {
 	
 	private final HashMap<HGNode,VirtualNode> virtualNodesTbl = new HashMap<HGNode,VirtualNode>();
 
+	/** model logPs of each hyperedge's transition, for edgeLogPsModels */
+	private final HashMap<HyperEdge,double[]> edgeLogPsTbl = new HashMap<HyperEdge,double[]>();
+	private List<FeatureFunction> edgeLogPsModels = null;
+	
+	/** reused to format each hypothesis */
+	private final StringBuilder hypBuffer = new StringBuilder();
 	
 	private final SymbolTable symbolTable;
 	
@@ -115,13 +131,15 @@ public class KBestExtractor {
 			return null;
 		else{		
 			//==== read the kbest from each hgnode and convert to output format
+			if(numNodesAndEdges!=null){
+				int numEdges = cur.getNumEdges();
+				numNodesAndEdges[0] += numEdges;
+				numNodesAndEdges[1] += numEdges;
+			}
 			double[] modelCost = null;
 			if(models!=null) 
-				modelCost = new double[models.size()];		
-			String strHypNumeric = cur.getHypothesis(symbolTable, this, extractNbestTree, modelCost, models, numNodesAndEdges);	
-			//for(int k=0; k<model_cost.length; k++) System.out.println(model_cost[k]);
-			String strHypStr = convertHyp2String(sentID, cur, models, strHypNumeric, modelCost);
-			return strHypStr;
+				modelCost = cur.getModelCost(this, models);
+			return convertHyp2String(sentID, cur, models, modelCost);
 		}
 	}
 	
@@ -251,13 +269,17 @@ public class KBestExtractor {
 						try {
 							writer.write(hypStr);
 							writer.write("\n");
-							writer.flush();
 						} catch (IOException e) {
 							throw new UncheckedIOException(e);
 						}
 					}
 					
 					public void finish() {
+						try {
+							writer.flush();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
 					}
 				};
 				
@@ -301,6 +323,7 @@ public class KBestExtractor {
 	
 	public void resetState() {
 		virtualNodesTbl.clear();
+		edgeLogPsTbl.clear();
 	}
 	
 	
@@ -310,9 +333,9 @@ public class KBestExtractor {
 	 * l_models==null: do not add model cost
 	 * add_combined_score==f: do not add combined model cost
 	 * */
-	private String convertHyp2String(int sentID, DerivationState cur, List<FeatureFunction> models, String strHypNumeric, double[] modelCost){
-		String[] tem = Regex.spaces.split(strHypNumeric);
-		StringBuffer strHyp = new StringBuffer();
+	private String convertHyp2String(int sentID, DerivationState cur, List<FeatureFunction> models, double[] modelCost){
+		StringBuilder strHyp = hypBuffer;
+		strHyp.setLength(0);
 		
 		//####sent id
 		if (sentID >= 0) { // valid sent id must be >=0
@@ -322,37 +345,15 @@ public class KBestExtractor {
 		
 		//TODO: consider_start_sym
 		//####hyp words
-		for (int t = 0; t < tem.length; t++) {
-			tem[t] = tem[t].trim();
-			if (extractNbestTree && ( tem[t].startsWith("(") || tem[t].endsWith(")"))) { // tree tag
-				if (tem[t].startsWith("(")) {
-					if (includeAlign) {
-						// we must account for the {i-j} substring
-						int ijStrIndex = tem[t].indexOf('{');
-						String tag = this.symbolTable.getWord(Integer.parseInt(tem[t].substring(1,ijStrIndex)));
-						strHyp.append('(');
-						strHyp.append(tag);
-						strHyp.append(tem[t].substring(ijStrIndex)); // append {i-j}
-					} else {
-						String tag = this.symbolTable.getWord(Integer.parseInt(tem[t].substring(1)));
-						strHyp.append('(');
-						strHyp.append(tag);
-					}
-				} else {
-					//note: it may have more than two ")", e.g., "3499))"
-					int firstBracketPos = tem[t].indexOf(')');//TODO: assume the tag/terminal does not have ')'
-					String tag = this.symbolTable.getWord(Integer.parseInt(tem[t].substring(0,firstBracketPos)));
-					strHyp.append(tag);
-					String terminal = tem[t].substring(firstBracketPos);
-					strHyp.append(escapeTerminalForTree(terminal));
+		if (extractNbestTree) {
+			cur.appendTree(symbolTable, this, strHyp);
+		} else {
+			int[] words = cur.getYield(symbolTable, this);
+			for (int t = 0; t < words.length; t++) {
+				if (t > 0) {
+					strHyp.append(' ');
 				}
-			} else { // terminal symbol
-				String terminal = this.symbolTable.getWord(Integer.parseInt(tem[t]));
-				terminal = escapeTerminalForTree(terminal);
-				strHyp.append(terminal);
-			}
-			if (t < tem.length-1) {
-				strHyp.append(' ');
+				strHyp.append(escapeTerminalForTree(this.symbolTable.getWord(words[t])));
 			}
 		}
 		
@@ -367,9 +368,6 @@ public class KBestExtractor {
 //				System.err.println("tem_sum: " + tem_sum + " += " + model_cost[k] + " * " + l_models.get(k).getWeight());
 			}
 			
-			int x = 0;
-			x++;
-			
 			//sanity check
 //			if (false) {
 			if (performSanityCheck) {
@@ -407,6 +405,24 @@ public class KBestExtractor {
 	}
 		
 	
+	/**
+	 * Returns the model logPs of a hyperedge's transition, computing
+	 * them only the first time they are asked for.
+	 */
+	private double[] getEdgeLogPs(HGNode parentNode, HyperEdge edge, List<FeatureFunction> models) {
+		if (models != edgeLogPsModels) {
+			edgeLogPsTbl.clear();
+			edgeLogPsModels = models;
+		}
+		double[] logPs = edgeLogPsTbl.get(edge);
+		if (null == logPs) {
+			logPs = ComputeNodeResult.computeModelTransitionLogPs(models, edge, parentNode.i, parentNode.j, sentID);
+			edgeLogPsTbl.put(edge, logPs);
+		}
+		return logPs;
+	}
+	
+	
 	private VirtualNode addVirtualNode(HGNode it) {
 		VirtualNode res = virtualNodesTbl.get(it);
 		if (null == res) {
@@ -416,7 +432,36 @@ public class KBestExtractor {
 		return res;
 	}
 
-	
+
+	/**
+	 * Extracts hyps at a node until it has k of them or runs out.
+	 * A node that needs a hyp of a child first is left on the
+	 * stack, under the child, until the child has tried it.
+	 */
+	private void extract(VirtualNode node, int k) {
+		List<VirtualNode> nodes = new ArrayList<VirtualNode>();
+		List<Integer> ranks = new ArrayList<Integer>();
+		nodes.add(node);
+		ranks.add(k);
+		while (! nodes.isEmpty()) {
+			int top = nodes.size() - 1;
+			VirtualNode virtualNode = nodes.get(top);
+			if (virtualNode.hasTried(ranks.get(top))) {
+				nodes.remove(top);
+				ranks.remove(top);
+				continue;
+			}
+			VirtualNode child = virtualNode.getNeededChild(this);
+			if (null != child) {
+				nodes.add(child);
+				ranks.add(virtualNode.neededRank);
+			} else {
+				virtualNode.extractStep(symbolTable, this);
+			}
+		}
+	}
+
+
 //=========================== class VirtualNode ===========================
 	/*to seed the kbest extraction, it only needs that each hyperedge should have the best_cost properly set, and it does not require any list being sorted
 	  *instead, the priority queue heap_cands will do internal sorting*/
@@ -425,8 +470,13 @@ public class KBestExtractor {
 		
 		public List<DerivationState> nbests = new ArrayList<DerivationState>();//sorted ArrayList of DerivationState, in the paper is: D(^) [v]
 		private PriorityQueue<DerivationState> candHeap = null; // remember frontier states, best-first;  in the paper, it is called cand[v]
-		private HashMap<String, Integer>  derivationTbl = null; // rememeber which DerivationState has been explored; why duplicate, e.g., 1 2 + 1 0 == 2 1 + 0 1 
-		private HashMap<String, Integer> nbestStrTbl = null; //reember unique *string* at each item, used for unique-nbest-string extraction 
+		private HashSet<Long> derivationTbl = null; // rememeber which DerivationState has been explored, by derivationKey(); why duplicate, e.g., 1 2 + 1 0 == 2 1 + 0 1 
+		private HashSet<String> bigDerivationTbl = null; // the explored DerivationStates whose ranks do not fit in a derivationKey()
+		private HashSet<Yield> nbestYieldTbl = null; //reember unique *string* at each item, used for unique-nbest-string extraction 
+		private DerivationState lastExtracted = null; // the last state taken from candHeap, if its successors are not in candHeap yet
+		private int neededEdge = 0; // the next hyperedge and antecedent whose child derivation the next step may need
+		private int neededAnt = 0;
+		private int neededRank = 0; // the rank of the child derivation the next step needs, set by getNeededChild()
 		HGNode pNode = null;
 		
 		public VirtualNode(HGNode it) {
@@ -435,54 +485,81 @@ public class KBestExtractor {
 		
 		//return: the k-th hyp or null; k is started from one
 		private DerivationState lazyKBestExtractOnNode(SymbolTable symbolTbl, KBestExtractor kbestExtator, int k) {
-			if (nbests.size() >= k) { // no need to continue
-				return nbests.get(k-1);
+			if (! hasTried(k)) {
+				//### we need to fill in the l_nest in order to get k-th hyp
+				kbestExtator.extract(this, k);
 			}
-			
-			//### we need to fill in the l_nest in order to get k-th hyp
-			DerivationState res = null;
-			if (null == candHeap) {
-				getCandidates(symbolTbl, kbestExtator);
+			if (nbests.size() < k) {
+				return null;//in case we do not get to the depth of k
 			}
-			int tAdded = 0; //sanity check
-			while (nbests.size() < k) {
-				if (candHeap.size() > 0) {
-					res = candHeap.poll();
-					//derivation_tbl.remove(res.get_signature());//TODO: should remove? note that two state may be tied because the cost is the same
-					if (extractUniqueNbest) {
-						boolean useTreeFormat=false;
-						String res_str = res.getHypothesis(symbolTbl, kbestExtator, useTreeFormat, null, null,  null);
-						// We pass false for extract_nbest_tree because we want; 
-						// to check that the hypothesis *strings* are unique,
-						// not the trees.
-						//@todo zhifei: this causes trouble to monolingual grammar as there is only one *string*, need to fix it
-						if (! nbestStrTbl.containsKey(res_str)) {
-							nbests.add(res);
-							nbestStrTbl.put(res_str,1);
+			return nbests.get(k-1);
+		}
+		
+		/** Whether the k-th hyp is extracted, or will never be. */
+		private boolean hasTried(int k) {
+			return nbests.size() >= k
+				|| (null != candHeap && candHeap.isEmpty() && null == lastExtracted);
+		}
+		
+		/**
+		 * Returns a child node whose derivation of rank neededRank the
+		 * next extractStep() needs and that has not tried it yet, or
+		 * null if extractStep() can run right away.
+		 */
+		private VirtualNode getNeededChild(KBestExtractor kbestExtator) {
+			if (null == candHeap) { // getCandidates needs the 1best of all my children
+				for (; neededEdge < pNode.hyperedges.size(); neededEdge++, neededAnt = 0) {
+					List<HGNode> antNodes = pNode.hyperedges.get(neededEdge).getAntNodes();
+					for (; null != antNodes && neededAnt < antNodes.size(); neededAnt++) {
+						VirtualNode child = kbestExtator.addVirtualNode(antNodes.get(neededAnt));
+						if (! child.hasTried(1)) {
+							neededRank = 1;
+							return child;
 						}
-					} else {
-						nbests.add(res);
 					}
-					lazyNext(symbolTbl, kbestExtator, res);//always extend the last, add all new hyp into heap_cands
-					
-					//debug: sanity check
-					tAdded++;
-					if (!extractUniqueNbest && tAdded > 1) { // this is possible only when extracting unique nbest
-						throw new RuntimeException("In lazyKBestExtractOnNode, add more than one time, k is " + k);
+				}
+			} else if (null != lastExtracted && null != lastExtracted.edge.getAntNodes()) {
+				// lazyNext needs the next derivation of each child of the last one
+				List<HGNode> antNodes = lastExtracted.edge.getAntNodes();
+				for (; neededAnt < antNodes.size(); neededAnt++) {
+					VirtualNode child = kbestExtator.addVirtualNode(antNodes.get(neededAnt));
+					if (! child.hasTried(lastExtracted.ranks[neededAnt] + 1)) {
+						neededRank = lastExtracted.ranks[neededAnt] + 1;
+						return child;
 					}
-				} else {
-					break;
 				}
 			}
-			if (nbests.size() < k) {
-				res = null;//in case we do not get to the depth of k
+			return null;
+		}
+		
+		/**
+		 * Seeds candHeap, or extends the last extracted hyp, or
+		 * extracts the next hyp, whichever comes next. The child
+		 * derivations this needs must have been tried already (see
+		 * getNeededChild), so this does not recurse.
+		 */
+		private void extractStep(SymbolTable symbolTbl, KBestExtractor kbestExtator) {
+			if (null == candHeap) {
+				getCandidates(symbolTbl, kbestExtator);
+			} else if (null != lastExtracted) {
+				lazyNext(symbolTbl, kbestExtator, lastExtracted);//always extend the last, add all new hyp into heap_cands
+				lastExtracted = null;
+			} else {
+				DerivationState res = candHeap.poll();
+				//derivation_tbl.remove(res.get_signature());//TODO: should remove? note that two state may be tied because the cost is the same
+				if (extractUniqueNbest) {
+					// We check that the hypothesis *strings* are unique,
+					// not the trees.
+					//@todo zhifei: this causes trouble to monolingual grammar as there is only one *string*, need to fix it
+					if (nbestYieldTbl.add(new Yield(res.getYield(symbolTbl, kbestExtator)))) {
+						nbests.add(res);
+					}
+				} else {
+					nbests.add(res);
+				}
+				lastExtracted = res;
+				neededAnt = 0;
 			}
-			//debug: sanity check
-			//if (l_nbest.size() >= k && l_nbest.get(k-1) != res) {
-			//throw new RuntimeException("In lazy_k_best_extract, ranking is not correct ");
-			//}
-			
-			return res;
 		}
 		
 		//last: the last item that has been selected, we need to extend it
@@ -500,10 +577,10 @@ public class KBestExtractor {
 				}
 				
 				newRanks[i] = last.ranks[i] + 1;
-				String newSig = getDerivationStateSignature(last.edge, newRanks, last.edgePos);
 				
 				//why duplicate, e.g., 1 2 + 1 0 == 2 1 + 0 1 
-				if (derivationTbl.containsKey(newSig)) {
+				//note: if the child has no new_ranks[i] derivation now, it never will, so the state is explored either way
+				if (! addDerivation(last.edgePos, newRanks)) {
 					continue;
 				}
 				virtualIT.lazyKBestExtractOnNode(symbolTbl, kbestExtator, newRanks[i]);
@@ -512,7 +589,6 @@ public class KBestExtractor {
 					double cost = last.cost - virtualIT.nbests.get(last.ranks[i]-1).cost + virtualIT.nbests.get(newRanks[i]-1).cost;
 					DerivationState t = new DerivationState(last.parentNode, last.edge, newRanks, cost, last.edgePos);
 					candHeap.add(t);
-					derivationTbl.put(newSig,1);
 				}
 			}
 		}
@@ -521,9 +597,9 @@ public class KBestExtractor {
 		//get a 1best from each hyperedge, and add them into the heap_cands
 		private void getCandidates(SymbolTable symbolTbl, KBestExtractor kbestExtator) {
 			candHeap = new PriorityQueue<DerivationState>();
-			derivationTbl = new HashMap<String,Integer>();
+			derivationTbl = new HashSet<Long>();
 			if (extractUniqueNbest) {
-				nbestStrTbl = new HashMap<String,Integer>();
+				nbestYieldTbl = new HashSet<Yield>();
 			}
 			//sanity check
 			if (null == pNode.hyperedges) {
@@ -533,13 +609,12 @@ public class KBestExtractor {
 			for (HyperEdge edge : pNode.hyperedges) {
 				DerivationState t = getBestDerivation(symbolTbl, kbestExtator, pNode, edge, pos);
 //				why duplicate, e.g., 1 2 + 1 0 == 2 1 + 0 1 , but here we should not get duplicate
-				if (!derivationTbl.containsKey(t.getSignature())) {
+				if (addDerivation(t.edgePos, t.ranks)) {
 					candHeap.add(t);
-					derivationTbl.put(t.getSignature(),1);
 				} else { // sanity check
 					throw new RuntimeException(
 						"get duplicate derivation in get_candidates, this should not happen"
-						+ "\nsignature is " + t.getSignature()
+						+ "\nsignature is " + getDerivationStateSignature(t.edgePos, t.ranks)
 						+ "\nl_hyperedge size is " + pNode.hyperedges.size()
 						);
 				}
@@ -556,6 +631,24 @@ public class KBestExtractor {
 			*/	
 		}
 		
+		/**
+		 * Records that the derivation with the given hyperedge
+		 * position and antecedent ranks has been explored.
+		 * 
+		 * @return false if it had already been explored
+		 */
+		private boolean addDerivation(int edgePos, int[] ranks) {
+			long key = derivationKey(edgePos, ranks);
+			if (key >= 0) {
+				return derivationTbl.add(key);
+			} else {
+				if (null == bigDerivationTbl) {
+					bigDerivationTbl = new HashSet<String>();
+				}
+				return bigDerivationTbl.add(getDerivationStateSignature(edgePos, ranks));
+			}
+		}
+		
 		//get my best derivation, and recursively add 1best for all my children, used by get_candidates only
 		private DerivationState getBestDerivation(SymbolTable symbolTbl, KBestExtractor kbestExtator, HGNode parentNode, HyperEdge hyperEdge, int edgePos){
 			int[] ranks;
@@ -579,6 +672,45 @@ public class KBestExtractor {
 	};
 	
 
+	/**
+	 * Fills in a remembered value of a derivation and of those of
+	 * its sub-derivations that lack it, each after its child
+	 * derivations, without recursion.
+	 */
+	private abstract class BottomUp {
+		
+		abstract boolean isDone(DerivationState derivation);
+		
+		/** Computes the value of a derivation whose child derivations are done. */
+		abstract void compute(DerivationState derivation);
+		
+		void run(DerivationState root) {
+			// each stack entry has the index of the next child to visit
+			List<DerivationState> stack = new ArrayList<DerivationState>();
+			List<int[]> positions = new ArrayList<int[]>();
+			stack.add(root);
+			positions.add(new int[1]);
+			while (! stack.isEmpty()) {
+				int top = stack.size() - 1;
+				DerivationState derivation = stack.get(top);
+				int[] position = positions.get(top);
+				List<HGNode> antNodes = derivation.edge.getAntNodes();
+				if (null != antNodes && position[0] < antNodes.size()) {
+					DerivationState child = derivation.getChildDerivationState(KBestExtractor.this, derivation.edge, position[0]++);
+					if (! isDone(child)) {
+						stack.add(child);
+						positions.add(new int[1]);
+					}
+				} else {
+					compute(derivation);
+					stack.remove(top);
+					positions.remove(top);
+				}
+			}
+		}
+	}
+	
+	
 //===============================================
 //	class DerivationState
 //===============================================
@@ -596,6 +728,12 @@ public class KBestExtractor {
 		int[] ranks;//in the paper, it is "j", which is a ArrayList of size |e|
 		double cost;//the cost of this hypthesis
 		
+		//remembered once computed
+		private int[] yield = null;
+		private int numEdges = 0;
+		private double[] modelCost = null;
+		private List<FeatureFunction> modelCostModels = null;
+		
 		public DerivationState(HGNode pa, HyperEdge e, int[] r, double c ,int pos){
 			parentNode = pa;
 			edge =e ;
@@ -604,121 +742,229 @@ public class KBestExtractor {
 			edgePos=pos;
 		}
 		
-		private String getSignature() {
-			StringBuffer res = new StringBuffer();
-			//res.apend(p_edge2.toString());//Wrong: this may not be unique to identify a hyperedge (as it represent the class name and hashcode which my be equal for different objects)
-			res.append(edgePos);
-			if (null != ranks) {
-				for (int i = 0; i < ranks.length;i++) {
-					res.append(' ');
-					res.append(ranks[i]);
-				}
+		/**
+		 * Returns the word IDs of the hypothesis, which are those of
+		 * the rule with the yields of the child derivations in place
+		 * of its nonterminals.
+		 */
+		private int[] getYield(final SymbolTable symbolTbl, KBestExtractor kbestExtator) {
+			if (null == yield) {
+				new BottomUp() {
+					boolean isDone(DerivationState derivation) {
+						return null != derivation.yield;
+					}
+					void compute(DerivationState derivation) {
+						derivation.computeYield(symbolTbl);
+					}
+				}.run(this);
 			}
-			return res.toString();
+			return yield;
 		}
 		
-		
-		
-		//get the numeric sequence of the particular hypothesis
-		//if want to get model cost, then have to set model_cost and l_models
-		private String getHypothesis(SymbolTable symbolTbl, KBestExtractor kbestExtator, boolean useTreeFormat, double[] modelCost,
-				List<FeatureFunction> models,  int[] numNodesAndEdges) {
-			//### accumulate cost of p_edge into model_cost if necessary
-			if (null != modelCost) {
-				computeCost(parentNode, edge, modelCost, models);
-			}
-			
-			//### get hyp string recursively
-			StringBuffer res = new StringBuffer();
+		/** Sets the yield, from those of the child derivations. */
+		private void computeYield(SymbolTable symbolTbl) {
 			Rule rl = edge.getRule();
 			
+			int length = 0;
 			if (null == rl) { // hyperedges under "goal item" does not have rule
-				if (useTreeFormat) {
-					//res.append("(ROOT ");
-					res.append('(');
-					res.append(rootID);
-					if (includeAlign) {
-						// append "{i-j}"
-						res.append('{');
-						res.append(parentNode.i);
-						res.append('-');
-						res.append(parentNode.j);
-						res.append('}');
-					}
-					res.append(' ');
+				for (int id = 0; id < edge.getAntNodes().size(); id++) {
+					length += getChildDerivationState(KBestExtractor.this, edge, id).yield.length;
 				}
+				yield = new int[length];
+				int pos = 0;
 				for (int id = 0; id < edge.getAntNodes().size(); id++) {
-					res.append( getChildDerivationState(kbestExtator, edge, id).getHypothesis(symbolTbl,kbestExtator, useTreeFormat, modelCost, models, numNodesAndEdges) );
-					if (id < edge.getAntNodes().size()-1) res.append(' ');
+					int[] childYield = getChildDerivationState(KBestExtractor.this, edge, id).yield;
+					System.arraycopy(childYield, 0, yield, pos, childYield.length);
+					pos += childYield.length;
 				}
-				if (useTreeFormat) 
-					res.append(')');
 			} else {
-				if (useTreeFormat) {
-					res.append('(');
-					res.append(rl.getLHS());
-					if (includeAlign) {
-						// append "{i-j}"
-						res.append('{');
-						res.append(parentNode.i);
-						res.append('-');
-						res.append(parentNode.j);
-						res.append('}');
+				// bilingual: english side, whose nonterminals are indexed;
+				// monolingual: french side, whose nonterminals are in order
+				int[] words = (isMonolingual) ? rl.getFrench() : rl.getEnglish();
+				int nonTerminalID = 0;
+				for (int c = 0; c < words.length; c++) {
+					if (symbolTbl.isNonterminal(words[c])) {
+						int id = (isMonolingual) ? nonTerminalID++ : symbolTbl.getTargetNonterminalIndex(words[c]);
+						length += getChildDerivationState(KBestExtractor.this, edge, id).yield.length;
+					} else {
+						length++;
 					}
-					res.append(' ');
 				}
-				if (!isMonolingual) { // bilingual
-					int[] english = rl.getEnglish();
-					for (int c = 0; c < english.length; c++) {
-						if (symbolTbl.isNonterminal(english[c])) {
-							int id = symbolTbl.getTargetNonterminalIndex(english[c]);
-							res.append( getChildDerivationState(kbestExtator, edge, id).getHypothesis(symbolTbl, kbestExtator, useTreeFormat, modelCost, models, numNodesAndEdges));
-						} else {
-							res.append(english[c]);
-						}
-						if (c < english.length-1) res.append(' ');
+				yield = new int[length];
+				int pos = 0;
+				nonTerminalID = 0;
+				for (int c = 0; c < words.length; c++) {
+					if (symbolTbl.isNonterminal(words[c])) {
+						int id = (isMonolingual) ? nonTerminalID++ : symbolTbl.getTargetNonterminalIndex(words[c]);
+						int[] childYield = getChildDerivationState(KBestExtractor.this, edge, id).yield;
+						System.arraycopy(childYield, 0, yield, pos, childYield.length);
+						pos += childYield.length;
+					} else {
+						yield[pos++] = words[c];
 					}
-				} else { // monolingual
-					int[] french = rl.getFrench();
-					int nonTerminalID = 0;//the position of the non-terminal in the rule
-					for (int c = 0; c < french.length; c++) {
-						if (symbolTbl.isNonterminal(french[c])) {
-							res.append( getChildDerivationState(kbestExtator, edge, nonTerminalID).getHypothesis(symbolTbl,kbestExtator, useTreeFormat, modelCost, models, numNodesAndEdges));
-							nonTerminalID++;
+				}
+			}
+		}
+		
+		
+		/** Appends the hypothesis, as a tree, to sb. */
+		private void appendTree(SymbolTable symbolTbl, KBestExtractor kbestExtator, StringBuilder sb) {
+			// each stack entry has a derivation, the position of the next
+			// symbol of its rule to write, and the number of nonterminals
+			// written so far
+			List<DerivationState> stack = new ArrayList<DerivationState>();
+			List<int[]> positions = new ArrayList<int[]>();
+			stack.add(this);
+			positions.add(new int[2]);
+			this.appendTreeHead(symbolTbl, sb);
+			
+			while (! stack.isEmpty()) {
+				int top = stack.size() - 1;
+				DerivationState derivation = stack.get(top);
+				int[] position = positions.get(top);
+				HyperEdge edge = derivation.edge;
+				Rule rl = edge.getRule();
+				
+				DerivationState child = null;
+				boolean done;
+				if (null == rl) { // hyperedges under "goal item" does not have rule
+					done = position[0] >= edge.getAntNodes().size();
+					if (! done) {
+						int id = position[0]++;
+						if (id > 0) sb.append(' ');
+						child = derivation.getChildDerivationState(kbestExtator, edge, id);
+					}
+				} else {
+					int[] words = (isMonolingual) ? rl.getFrench() : rl.getEnglish();
+					done = position[0] >= words.length;
+					if (! done) {
+						int c = position[0]++;
+						if (c > 0) sb.append(' ');
+						if (symbolTbl.isNonterminal(words[c])) {
+							int id = (isMonolingual) ? position[1]++ : symbolTbl.getTargetNonterminalIndex(words[c]);
+							child = derivation.getChildDerivationState(kbestExtator, edge, id);
 						} else {
-							res.append(french[c]);
+							sb.append(escapeTerminalForTree(symbolTbl.getWord(words[c])));
 						}
-						if (c < french.length-1) res.append(' ');
 					}
 				}
-				if (useTreeFormat) 
-					res.append(')');
+				
+				if (done) {
+					sb.append(')');
+					stack.remove(top);
+					positions.remove(top);
+				} else if (null != child) {
+					child.appendTreeHead(symbolTbl, sb);
+					stack.add(child);
+					positions.add(new int[2]);
+				}
 			}
-			if(numNodesAndEdges!=null){
-				numNodesAndEdges[0]++;
-				numNodesAndEdges[1]++;
+		}
+		
+		/** Appends the opening of the hypothesis' tree, up to its first child. */
+		private void appendTreeHead(SymbolTable symbolTbl, StringBuilder sb) {
+			Rule rl = edge.getRule();
+			//res.append("(ROOT ");
+			sb.append('(');
+			sb.append(symbolTbl.getWord((null == rl) ? rootID : rl.getLHS()));
+			if (includeAlign) {
+				// append "{i-j}"
+				sb.append('{');
+				sb.append(parentNode.i);
+				sb.append('-');
+				sb.append(parentNode.j);
+				sb.append('}');
 			}
-			return res.toString();
+			sb.append(' ');
+		}
+		
+		
+		/** Returns the number of hyperedges (and of nodes) in the derivation. */
+		private int getNumEdges() {
+			if (0 == numEdges) {
+				new BottomUp() {
+					boolean isDone(DerivationState derivation) {
+						return 0 != derivation.numEdges;
+					}
+					void compute(DerivationState derivation) {
+						derivation.numEdges = 1;
+						if (null != derivation.edge.getAntNodes()) {
+							for (int id = 0; id < derivation.edge.getAntNodes().size(); id++) {
+								derivation.numEdges += derivation.getChildDerivationState(KBestExtractor.this, derivation.edge, id).numEdges;
+							}
+						}
+					}
+				}.run(this);
+			}
+			return numEdges;
+		}
+		
+		
+		/**
+		 * Returns the cost of the derivation under each model: the
+		 * cost of its hyperedge plus the costs of its child derivations.
+		 */
+		private double[] getModelCost(KBestExtractor kbestExtator, final List<FeatureFunction> models) {
+			if (modelCostModels != models) {
+				new BottomUp() {
+					boolean isDone(DerivationState derivation) {
+						return derivation.modelCostModels == models;
+					}
+					void compute(DerivationState derivation) {
+						HyperEdge edge = derivation.edge;
+						double[] cost = new double[models.size()];
+						derivation.computeCost(derivation.parentNode, edge, cost, models);
+						if (null != edge.getAntNodes()) {
+							for (int id = 0; id < edge.getAntNodes().size(); id++) {
+								double[] childCost = derivation.getChildDerivationState(KBestExtractor.this, edge, id).modelCost;
+								for (int k = 0; k < cost.length; k++) {
+									cost[k] += childCost[k];
+								}
+							}
+						}
+						derivation.modelCost = cost;
+						derivation.modelCostModels = models;
+					}
+				}.run(this);
+			}
+			return modelCost;
 		}
 		
 		private HGNode getHypothesis( KBestExtractor kbestExtator,  int[] numNodesAndEdges) {
+			// each stack entry has a derivation, and the new nodes of
+			// the child derivations built so far
+			List<DerivationState> stack = new ArrayList<DerivationState>();
+			List<List<HGNode>> newAntNodesStack = new ArrayList<List<HGNode>>();
+			stack.add(this);
+			newAntNodesStack.add(new ArrayList<HGNode>());
 			
-			List<HGNode> newAntNodes = null;
-			if(edge.getAntNodes()!=null){
-				newAntNodes = new ArrayList<HGNode>();
-				for (int id = 0; id < edge.getAntNodes().size(); id++) {
-					HGNode newNode = getChildDerivationState(kbestExtator, edge, id).getHypothesis(kbestExtator, numNodesAndEdges) ;	
-					newAntNodes.add(newNode);
+			while (true) {
+				int top = stack.size() - 1;
+				DerivationState derivation = stack.get(top);
+				List<HGNode> newAntNodes = newAntNodesStack.get(top);
+				HyperEdge edge = derivation.edge;
+				
+				if (null != edge.getAntNodes() && newAntNodes.size() < edge.getAntNodes().size()) {
+					stack.add(derivation.getChildDerivationState(kbestExtator, edge, newAntNodes.size()));
+					newAntNodesStack.add(new ArrayList<HGNode>());
+					continue;
 				}
+				
+				HyperEdge newEdge = new HyperEdge(edge.getRule(), derivation.cost, edge.getTransitionLogP(false),
+						(null == edge.getAntNodes()) ? null : newAntNodes, edge.getSourcePath());
+				numNodesAndEdges[1]++;
+				
+				HGNode parentNode = derivation.parentNode;
+				HGNode newNode = new HGNode(parentNode.i, parentNode.j, parentNode.lhs, parentNode.dpStates, newEdge, parentNode.getEstTotalLogP());
+				numNodesAndEdges[0]++;
+				
+				stack.remove(top);
+				newAntNodesStack.remove(top);
+				if (stack.isEmpty()) {
+					return newNode;
+				}
+				newAntNodesStack.get(top - 1).add(newNode);
 			}
-			
-			HyperEdge newEdge = new HyperEdge(edge.getRule(), this.cost, edge.getTransitionLogP(false), newAntNodes, edge.getSourcePath());
-			numNodesAndEdges[1]++;
-			
-			HGNode newNode = new HGNode(parentNode.i, parentNode.j, parentNode.lhs, parentNode.dpStates, newEdge, parentNode.getEstTotalLogP());
-			numNodesAndEdges[0]++;
-			
-			return newNode;	
 		}
 		
 		/*
@@ -779,7 +1025,7 @@ public class KBestExtractor {
 				return;
 			//System.out.println("Rule is: " + dt.rule.toString());
 			//double[] transitionCosts = ComputeNodeResult.computeModelTransitionCost(models, dt.getRule(), dt.getAntNodes(), parentNode.i, parentNode.j, dt.getSourcePath(), sentID);
-			double[] transitionCosts = ComputeNodeResult.computeModelTransitionLogPs(models, dt, parentNode.i, parentNode.j, sentID);
+			double[] transitionCosts = getEdgeLogPs(parentNode, dt, models);
 		
 			for(int i=0; i<transitionCosts.length; i++){
 				modelCost[i] -= transitionCosts[i];
@@ -800,7 +1046,38 @@ public class KBestExtractor {
 		
 	}//end of Class DerivationState
 	
-	private String getDerivationStateSignature(HyperEdge edge2, int[] ranks2, int pos) {
+	/** Bits of a derivation key that hold the position of the hyperedge in its node. */
+	private static final int EDGE_POS_BITS = 20;
+	
+	/**
+	 * Packs the position of a hyperedge in its node and the ranks of
+	 * its antecedents into a non-negative long, or returns -1 if they
+	 * do not fit. The position takes the low bits, and the ranks share
+	 * the other 43 bits equally. Since the position determines the
+	 * hyperedge, and so the number of ranks, distinct derivations of a
+	 * node always get distinct keys.
+	 */
+	private static long derivationKey(int edgePos, int[] ranks) {
+		if (edgePos >= (1 << EDGE_POS_BITS)) {
+			return -1;
+		}
+		long key = 0;
+		if (null != ranks && ranks.length > 0) {
+			int rankBits = (63 - EDGE_POS_BITS) / ranks.length;
+			if (0 == rankBits) {
+				return -1;
+			}
+			for (int i = 0; i < ranks.length; i++) {
+				if (ranks[i] >= (1L << rankBits)) {
+					return -1;
+				}
+				key = (key << rankBits) | ranks[i];
+			}
+		}
+		return (key << EDGE_POS_BITS) | edgePos;
+	}
+	
+	private static String getDerivationStateSignature(int pos, int[] ranks2) {
 		StringBuffer sb = new StringBuffer();
 		//sb.apend(p_edge2.toString());//Wrong: this may not be unique to identify a hyperedge (as it represent the class name and hashcode which my be equal for different objects)
 		sb.append(pos);
@@ -812,4 +1089,24 @@ public class KBestExtractor {
 		}
 		return sb.toString();
 	}
+	
+	
+	/** The yield of a derivation, as a hash key. */
+	private static class Yield {
+		final int[] words;
+		final int hash;
+		
+		Yield(int[] words) {
+			this.words = words;
+			this.hash = Arrays.hashCode(words);
+		}
+		
+		public int hashCode() {
+			return hash;
+		}
+		
+		public boolean equals(Object o) {
+			return (o instanceof Yield) && Arrays.equals(words, ((Yield) o).words);
+		}
+	}
 }
@@ -0,0 +1,405 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.decoder.ff.state_maintenance.NgramDPState;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.ff.tm.Grammar;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
+
+/**
+ * Hypergraphs read from a binary file written by
+ * {@link HyperGraphPacker}, with random access by position in
+ * the file.
+ * <p>
+ * The file holds a header, the hypergraphs, a table of the rules
+ * they use, a table of symbol strings, and the offset of each
+ * hypergraph. Opening it reads the tables and the offsets, and
+ * maps the hypergraphs into memory once, in segments of at most
+ * 2GB that each hold whole hypergraphs; each hypergraph is decoded
+ * when requested.
+ * Node and edge fields are variable-length integers, and the
+ * logPs of each edge are stored as floats.
+ * <p>
+ * The hypergraphs are built exactly as DiskHyperGraph builds
+ * them from its text format, which can still be produced with
+ * {@link #exportText}.
+ *
+ * @version $LastChangedDate$
+ */
+public class PackedHyperGraphs {
+
+	/** "JHGB", the first four bytes of every file. */
+	static final int MAGIC = 0x4A484742;
+	static final int VERSION = 1;
+
+	/** Bytes in the header: magic, version, flag, two ints, three longs. */
+	static final int HEADER_SIZE = 4 + 4 + 1 + 4 + 4 + 8 + 8 + 8;
+
+	/* Rule references stored with each edge. */
+	static final int NULL_RULE  = 0;
+	static final int OOV_RULE   = 1;
+	static final int FIRST_RULE = 2;
+
+	/**
+	 * Bytes of hypergraphs mapped together, unless a single
+	 * hypergraph is larger.
+	 */
+	static long maxSegmentSize = Integer.MAX_VALUE;
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(PackedHyperGraphs.class.getName());
+
+	//FIXME: as in DiskHyperGraph, this is only used to create OOV rules
+	private static final Grammar pGrammar = new MemoryBasedBatchGrammar();
+
+	private final SymbolTable symbolTable;
+	private final int LMFeatureID;
+	private final boolean storeModelLogP;
+	private final int numModelLogPs;
+
+	private final FileChannel channel;
+
+	/** Offset of each hypergraph, followed by the end of the last one. */
+	private final long[] offsets;
+
+	/** Mapped hypergraphs, and the offset of each segment in the file. */
+	private final ByteBuffer[] segments;
+	private final long[] segmentOffsets;
+
+	/** Segment holding each hypergraph. */
+	private final int[] segmentOf;
+
+	/** Symbol strings, indexed by packed symbol. */
+	private final String[] words;
+
+	private final Rule[] rules;
+
+	/** Position of the next hypergraph returned by next(). */
+	private int cursor = 0;
+
+	public PackedHyperGraphs(String fileName, SymbolTable symbolTable, int LMFeatureID) throws IOException {
+		this.symbolTable = symbolTable;
+		this.LMFeatureID = LMFeatureID;
+
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		this.channel = file.getChannel();
+
+		if (file.readInt() != MAGIC) {
+			throw new IOException(fileName + " is not a binary hypergraph file");
+		}
+		int version = file.readInt();
+		if (version != VERSION) {
+			throw new IOException(fileName + " has format version " + version + ", but only version " + VERSION + " can be read");
+		}
+		this.storeModelLogP = file.readBoolean();
+		this.numModelLogPs  = file.readInt();
+		int size            = file.readInt();
+		long indexOffset    = file.readLong();
+		long symbolsOffset  = file.readLong();
+		long rulesOffset    = file.readLong();
+
+		//==== symbols
+		DataInputStream in = stream(symbolsOffset);
+		this.words = new String[readVarint(in)];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = in.readUTF();
+		}
+
+		//==== rules
+		in = stream(rulesOffset);
+		this.rules = new Rule[readVarint(in)];
+		for (int r = 0; r < rules.length; r++) {
+			int ruleID = in.readInt();
+			int owner  = symbolTable.addTerminal(words[readVarint(in)]);
+			int lhs    = symbolTable.addNonterminal(words[readVarint(in)]);
+			int[] french  = readRuleSide(in);
+			int[] english = readRuleSide(in);
+			int arity  = readVarint(in);
+			float[] scores = new float[readVarint(in)];
+			for (int k = 0; k < scores.length; k++) {
+				scores[k] = in.readFloat();
+			}
+			rules[r] = new BilingualRule(lhs, french, english, scores, arity, owner, 0, ruleID);
+		}
+
+		//==== index
+		in = stream(indexOffset);
+		this.offsets = new long[size + 1];
+		for (int i = 0; i < size; i++) {
+			offsets[i] = in.readLong();
+		}
+		offsets[size] = rulesOffset;
+
+		//==== hypergraphs
+		List<ByteBuffer> mapped = new ArrayList<ByteBuffer>();
+		List<Long> mappedOffsets = new ArrayList<Long>();
+		this.segmentOf = new int[size];
+		for (int i = 0; i < size; ) {
+			long start = offsets[i];
+			int end = i + 1;
+			while (end < size && offsets[end + 1] - start <= maxSegmentSize) {
+				end++;
+			}
+			if (offsets[end] - start > Integer.MAX_VALUE) {
+				throw new IOException("Hypergraph " + i + " of " + fileName + " is too large to map");
+			}
+			for ( ; i < end; i++) {
+				segmentOf[i] = mapped.size();
+			}
+			mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, offsets[end] - start));
+			mappedOffsets.add(start);
+		}
+		this.segments = mapped.toArray(new ByteBuffer[mapped.size()]);
+		this.segmentOffsets = new long[segments.length];
+		for (int s = 0; s < segments.length; s++) {
+			segmentOffsets[s] = mappedOffsets.get(s);
+		}
+
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Opened " + size + " hypergraphs in " + segments.length + " segments with " + rules.length + " rules from " + fileName);
+	}
+
+	/** Returns the number of hypergraphs in the file. */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Returns the hypergraph at the given position in the file,
+	 * which is its sentence number if every sentence was saved.
+	 */
+	public HyperGraph get(int index) throws IOException {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("No hypergraph " + index + " among " + size());
+		}
+
+		// a view of its own into the shared segment
+		int s = segmentOf[index];
+		ByteBuffer buffer = segments[s].duplicate();
+		buffer.limit((int) (offsets[index + 1] - segmentOffsets[s]));
+		buffer.position((int) (offsets[index] - segmentOffsets[s]));
+
+		int sentenceID     = readVarint(buffer);
+		int sentenceLength = readVarint(buffer);
+		int numNodes       = readVarint(buffer);
+		int numEdges       = readVarint(buffer);
+
+		HGNode[] nodes = new HGNode[numNodes + 1];
+		for (int id = 1; id <= numNodes; id++) {
+			nodes[id] = readNode(buffer, id, nodes);
+		}
+
+		return new HyperGraph(nodes[numNodes], numNodes, numEdges, sentenceID, sentenceLength);
+	}
+
+	/**
+	 * Returns the hypergraph after the one last returned by this
+	 * method, or null after the last one, so that the file can
+	 * stand in for DiskHyperGraph.readHyperGraph().
+	 */
+	public HyperGraph next() throws IOException {
+		return (cursor < size()) ? get(cursor++) : null;
+	}
+
+	/** Returns the rules used by the hypergraphs, keyed by rule ID. */
+	public HashMap<Integer,Rule> getAssociatedGrammar() {
+		HashMap<Integer,Rule> grammar = new HashMap<Integer,Rule>();
+		for (Rule rule : rules) {
+			grammar.put(rule.getRuleID(), rule);
+		}
+		return grammar;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Writes all hypergraphs in the DiskHyperGraph text format,
+	 * as textPrefix.hg.items and textPrefix.hg.rules.
+	 */
+	public void exportText(String textPrefix) throws IOException {
+		DiskHyperGraph text = new DiskHyperGraph(symbolTable, LMFeatureID, storeModelLogP, null);
+		text.initWrite(textPrefix + ".hg.items", false, -1);
+		for (int i = 0; i < size(); i++) {
+			text.saveHyperGraph(get(i));
+		}
+		text.closeItemsWriter();
+		text.writeRulesNonParallel(textPrefix + ".hg.rules");
+	}
+
+
+	private HGNode readNode(ByteBuffer buffer, int id, HGNode[] nodes) {
+		int i   = readVarint(buffer);
+		int j   = readVarint(buffer);
+		int lhs = symbolTable.addNonterminal(words[readVarint(buffer)]);
+
+		HashMap<Integer,DPState> dpStates = null;
+		if (readVarint(buffer) != 0) {
+			// Assume the only stateful feature is lm feature
+			int[] left  = readState(buffer);
+			int[] right = readState(buffer);
+			dpStates = new HashMap<Integer,DPState>();
+			dpStates.put(this.LMFeatureID, new NgramDPState(left, right));
+		}
+
+		List<HyperEdge> edges = null;
+		HyperEdge bestEdge = null;
+		double bestLogP = Double.NEGATIVE_INFINITY;
+		int numEdges = readVarint(buffer);
+		if (numEdges > 0) {
+			edges = new ArrayList<HyperEdge>(numEdges);
+			for (int t = 0; t < numEdges; t++) {
+				HyperEdge edge = readHyperedge(buffer, id, nodes);
+				edges.add(edge);
+				if (edge.bestDerivationLogP > bestLogP) {//semiring plus
+					bestLogP = edge.bestDerivationLogP;
+					bestEdge = edge;
+				}
+			}
+		}
+
+		return new HGNode(i, j, lhs, edges, bestEdge, dpStates);
+	}
+
+	private HyperEdge readHyperedge(ByteBuffer buffer, int nodeID, HGNode[] nodes) {
+		double bestLogP = buffer.getFloat();
+
+		ArrayList<HGNode> antecedents = null;
+		int numAntecedents = readVarint(buffer);
+		if (numAntecedents > 0) {
+			antecedents = new ArrayList<HGNode>(numAntecedents);
+			for (int t = 0; t < numAntecedents; t++) {
+				antecedents.add(nodes[nodeID - readVarint(buffer)]);
+			}
+		}
+
+		Rule rule = null;
+		int ruleRef = readVarint(buffer);
+		if (ruleRef == OOV_RULE) {
+			int lhs = symbolTable.addNonterminal(words[readVarint(buffer)]);
+			int word = -1;
+			for (int k = readVarint(buffer); k > 0; k--) {
+				int symbol = readVarint(buffer);
+				if (word < 0) word = symbolTable.addTerminal(words[symbol]);
+			}
+			rule = pGrammar.constructOOVRule(1, word, word, false);
+			/**This is a hack. as the pGrammar does not set defaultLHS properly*/
+			rule.setLHS(lhs);
+		} else if (ruleRef >= FIRST_RULE) {
+			rule = rules[ruleRef - FIRST_RULE];
+		}
+
+		HyperEdge edge;
+		if (storeModelLogP) {
+			double[] logPs = new double[numModelLogPs];
+			for (int k = 0; k < logPs.length; k++) {
+				logPs[k] = buffer.getFloat();
+			}
+			edge = new WithModelLogPsHyperEdge(rule, bestLogP, null, antecedents, logPs, null);
+		} else {
+			edge = new HyperEdge(rule, bestLogP, null, antecedents, null);
+		}
+		edge.getTransitionLogP(true); // to set the transition logP
+		return edge;
+	}
+
+	/** Reads a sequence of symbols as the text format's readers do. */
+	private int[] readState(ByteBuffer buffer) {
+		int[] ids = new int[readVarint(buffer)];
+		for (int k = 0; k < ids.length; k++) {
+			ids[k] = symbolTable.getID(words[readVarint(buffer)]);
+		}
+		return ids;
+	}
+
+	private int[] readRuleSide(DataInputStream in) throws IOException {
+		int[] ids = new int[readVarint(in)];
+		for (int k = 0; k < ids.length; k++) {
+			int code = readVarint(in);
+			String word = words[code >>> 1];
+			ids[k] = ((code & 1) != 0)
+				? symbolTable.addNonterminal(word)
+				: symbolTable.addTerminal(word);
+		}
+		return ids;
+	}
+
+	private DataInputStream stream(long offset) throws IOException {
+		InputStream in = Channels.newInputStream(channel.position(offset));
+		return new DataInputStream(new BufferedInputStream(in));
+	}
+
+	private static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+
+
+	/**
+	 * Exports a binary hypergraph file to the DiskHyperGraph text
+	 * format.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.err.println("Usage: java " + PackedHyperGraphs.class.getName() + " binaryFile textPrefix [lmFeatureID]");
+			System.err.println("  writes textPrefix.hg.items and textPrefix.hg.rules");
+			System.exit(0);
+		}
+
+		int LMFeatureID = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+
+		PackedHyperGraphs hypergraphs = new PackedHyperGraphs(args[0], new BuildinSymbol(null), LMFeatureID);
+		hypergraphs.exportText(args[1]);
+		hypergraphs.close();
+	}
+}
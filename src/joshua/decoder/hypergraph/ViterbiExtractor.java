@@ -35,29 +35,46 @@ public class ViterbiExtractor  {
 	public static String extractViterbiString(SymbolTable symbolTable, HGNode node) {
 		StringBuffer res = new StringBuffer();
 		
-		HyperEdge edge = node.bestHyperedge;
-		Rule rl = edge.getRule();
+		// each stack entry has a hyperedge, and the position of the
+		// next symbol on the english side of its rule to write
+		List<HyperEdge> stack = new ArrayList<HyperEdge>();
+		List<int[]> positions = new ArrayList<int[]>();
+		pushBestHyperedge(node, stack, positions);
 		
-		if (null == rl) { // deductions under "goal item" does not have rule
-			if (edge.getAntNodes().size() != 1) {
-				throw new RuntimeException("deduction under goal item have not equal one item");
+		while (! stack.isEmpty()) {
+			int top = stack.size() - 1;
+			HyperEdge edge = stack.get(top);
+			int[] english = edge.getRule().getEnglish();
+			int c = positions.get(top)[0]++;
+			if (c >= english.length) {
+				stack.remove(top);
+				positions.remove(top);
+				continue;
 			}
-			return extractViterbiString(symbolTable, edge.getAntNodes().get(0));
-		}
-		int[] english = rl.getEnglish();
-		for (int c = 0; c < english.length; c++) {
+			if (c > 0) res.append(' ');
 			if (symbolTable.isNonterminal(english[c])) {
 				int id = symbolTable.getTargetNonterminalIndex(english[c]);
 				HGNode child = (HGNode)edge.getAntNodes().get(id);
-				res.append(extractViterbiString(symbolTable, child));
+				pushBestHyperedge(child, stack, positions);
 			} else {
 				res.append(symbolTable.getWord(english[c]));
 			}
-			if (c < english.length-1) res.append(' ');
 		}
 		return res.toString();
 	}
 	
+	private static void pushBestHyperedge(HGNode node, List<HyperEdge> stack, List<int[]> positions) {
+		HyperEdge edge = node.bestHyperedge;
+		while (null == edge.getRule()) { // deductions under "goal item" does not have rule
+			if (edge.getAntNodes().size() != 1) {
+				throw new RuntimeException("deduction under goal item have not equal one item");
+			}
+			edge = edge.getAntNodes().get(0).bestHyperedge;
+		}
+		stack.add(edge);
+		positions.add(new int[1]);
+	}
+	
 //	######## find 1best hypergraph#############	
 	public static HyperGraph getViterbiTreeHG(HyperGraph hg_in) {
 		HyperGraph res = new HyperGraph(cloneNodeWithBestHyperedge(hg_in.goalNode), -1, -1, hg_in.sentID, hg_in.sentLen); // TODO: number of items/deductions
@@ -65,14 +82,19 @@ public class ViterbiExtractor  {
 		return res;
 	}
 	
-	private static void get1bestTreeNode(HGNode it) {
-		HyperEdge dt = it.bestHyperedge;
-		if (null != dt.getAntNodes()) {
-			for (int i = 0; i < dt.getAntNodes().size(); i++) {
-				HGNode antNode = dt.getAntNodes().get(i);
-				HGNode newNode = cloneNodeWithBestHyperedge(antNode);
-				dt.getAntNodes().set(i, newNode);
-				get1bestTreeNode(newNode);
+	private static void get1bestTreeNode(HGNode root) {
+		List<HGNode> stack = new ArrayList<HGNode>();
+		stack.add(root);
+		while (! stack.isEmpty()) {
+			HGNode it = stack.remove(stack.size() - 1);
+			HyperEdge dt = it.bestHyperedge;
+			if (null != dt.getAntNodes()) {
+				for (int i = 0; i < dt.getAntNodes().size(); i++) {
+					HGNode antNode = dt.getAntNodes().get(i);
+					HGNode newNode = cloneNodeWithBestHyperedge(antNode);
+					dt.getAntNodes().set(i, newNode);
+					stack.add(newNode);
+				}
 			}
 		}
 	}
@@ -48,4 +48,34 @@ public class LatticeInput extends Sentence {
     public Lattice lattice() {
         return Lattice.createFromString(sentence(), JoshuaDecoder.symbolTable);
     }
+
+    /**
+     * Estimates the cost from the number of lattice nodes, counted
+     * in the PLF text rather than by building the lattice: each
+     * node but the final one is a parenthesized list of arcs just
+     * inside the outermost parentheses.
+     */
+    public long estimatedCost() {
+        String plf = sentence();
+        long nodes = 1; // the final node, which has no arcs
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < plf.length(); i++) {
+            char c = plf.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '\'') {
+                    quoted = false;
+                }
+            } else if (c == '\'') {
+                quoted = true;
+            } else if (c == '(') {
+                if (++depth == 2) nodes++;
+            } else if (c == ')') {
+                depth--;
+            }
+        }
+        return nodes * nodes * nodes;
+    }
 }
@@ -117,4 +117,15 @@ public class Sentence {
     public SyntaxTree syntax_tree() {
         return null;
     }
+
+    /**
+     * Estimates the relative cost of decoding this input, for
+     * scheduling.  Chart parsing grows with the cube of the number
+     * of lattice nodes, which for a plain sentence is its length
+     * plus one.
+     */
+    public long estimatedCost() {
+        long nodes = Regex.spaces.split(sentence()).length + 1;
+        return nodes * nodes * nodes;
+    }
 }
@@ -76,22 +76,22 @@ public class EdgeBigramFT extends AbstractFeatureTemplate {
     			HGNode antNode = antNodes.get(index);    
     			
     			NgramDPState state     = (NgramDPState) antNode.getDPState(this.ngramStateID);
-    			List<Integer>   l_context = state.getLeftLMStateWords();
-    			List<Integer>   r_context = state.getRightLMStateWords();
+    			int[]   l_context = state.getLeftLMState();
+    			int[]   r_context = state.getRightLMState();
     
     			if(contextWord!=null){
     				String bigram = null;
     				if(this.useIntegerString)
-    					bigram = contextWord +  " " + l_context.get(0);
+    					bigram = contextWord +  " " + l_context[0];
     				else
-    					bigram = symbolTbl.getWord(contextWord) +  " " + symbolTbl.getWord(l_context.get(0));
+    					bigram = symbolTbl.getWord(contextWord) +  " " + symbolTbl.getWord(l_context[0]);
     				
     				DiscriminativeSupport.increaseCount(edgeBigrams, bigram,1);
     			}
-    			if(r_context.size()>0)
-    				contextWord = r_context.get(r_context.size()-1);
+    			if(r_context.length>0)
+    				contextWord = r_context[r_context.length-1];
     			else
-    				contextWord = l_context.get(l_context.size()-1);
+    				contextWord = l_context[l_context.length-1];
     			afterNonterminal = true;
     		}else{
     			if(afterNonterminal==true){
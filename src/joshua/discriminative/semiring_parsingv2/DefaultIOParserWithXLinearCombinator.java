@@ -67,22 +67,25 @@ extends DefaultInsideOutsideSemiringParser<K> {
 	/**this will run outside, 
 	 * and collect posterior counts*/
 	@Override
-	final protected void outsideEstimationOverHyperedge(HyperEdge dt, HGNode parentNode, K parentNodeOutsideWeight){
+	final protected void outsideEstimationOverHyperedge(int e, K parentNodeOutsideWeight){
 	
+		HyperEdge dt = compiledHG.getEdge(e);
+		HGNode parentNode = compiledHG.getNode(compiledHG.getEdgeParent(e));
+		
 		//==== compute the exclusive weight in the P-semiring
 		K exclusiveKWeight =  createNewKWeight();//\overline{k_e}
 		exclusiveKWeight.setToOne();
 		exclusiveKWeight.multi(parentNodeOutsideWeight);
 		
 		//we do not need to compute outside prob if no ant nodes
-		if(dt.getAntNodes()!=null){
+		if(compiledHG.getNumAntNodes(e)>0){
 			//=== deduction specific prob
 			K edgeWeight = getEdgeKWeight(dt, parentNode);
 			
-			//=== recursive call on each ant node
-			for(HGNode antNode : dt.getAntNodes()){
-				exclusiveKWeight.multi( insideSemiringWeightsTable.get(antNode) );
-				outsideEstimationOverNode(antNode, parentNodeOutsideWeight, dt, edgeWeight);
+			//=== pass down to each ant node
+			for(int k=0; k<compiledHG.getNumAntNodes(e); k++){
+				exclusiveKWeight.multi( insideSemiringWeights[compiledHG.getAntNode(e, k)] );
+				outsideEstimationOverNode(e, k, parentNodeOutsideWeight, edgeWeight);
 			}
 		}
 		
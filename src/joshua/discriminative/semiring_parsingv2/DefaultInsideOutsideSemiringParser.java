@@ -1,8 +1,5 @@
 package joshua.discriminative.semiring_parsingv2;
 
-import java.util.HashMap;
-
-import joshua.decoder.hypergraph.HGNode;
 import joshua.decoder.hypergraph.HyperEdge;
 import joshua.discriminative.semiring_parsingv2.semiring.Semiring;
 
@@ -18,27 +15,11 @@ import joshua.discriminative.semiring_parsingv2.semiring.Semiring;
 public abstract class DefaultInsideOutsideSemiringParser<K extends Semiring<K>> 
 extends DefaultInsideSemiringParser<K> {
 	
-	private HashMap<HGNode, K> outsideSemiringWeightsTable ;	
-	
-	/**
-	 * for each node, remember how many hyperedges pointering
-	 * to me, this is needed for outside estimation. 
-	 * An node will recursive call its incoming
-	 * hyperedges to do outside-estimation only after it itself
-	 * is done with outside estimation, this is necessary
-	 * because the outside estimation of the node's incoding edges 
-	 * require the node's outside value.
-	 * 
-	 * TODO: A better approach is to first get topological order of the hypergraph
-	 * and then run inside in topological order, and outside in inverse-topological
-	 * order.
-	 */
-	private HashMap<HGNode,Integer> numParentHyperedgesTable;
+	/**the outside weight of each node, indexed as in compiledHG*/
+	private K[] outsideSemiringWeights;	
 	
 	public DefaultInsideOutsideSemiringParser() {
 		super();
-		outsideSemiringWeightsTable =  new HashMap<HGNode, K>();
-		numParentHyperedgesTable = new HashMap<HGNode,Integer>();
 	}
 	
 	/**for correctness and saving memory, 
@@ -46,101 +27,74 @@ extends DefaultInsideSemiringParser<K> {
 	@Override
 	public  void clearState(){
 		super.clearState();
-		outsideSemiringWeightsTable.clear();
-		numParentHyperedgesTable.clear();
-	}
-
-	@Override
-	protected K insideEstimationOverNode(HGNode it){	
-		rememberNumParentHyperedges(it);
-		return super.insideEstimationOverNode(it);
+		outsideSemiringWeights = null;
 	}
 	
 //	=============================== top-downn outside estimation ====================== 
+	/**visits the nodes in inverse-topological order: a node's outside
+	 * weight is complete once all the nodes above it have passed their
+	 * outside weights down their hyperedges*/
+	@SuppressWarnings("unchecked")
 	public void outsideEstimationOverHG(){	
-		outsideSemiringWeightsTable.clear(); 
+		outsideSemiringWeights = (K[]) new Semiring<?>[compiledHG.getNumNodes()];
 		
 		K initWeight = createNewKWeight();
 		initWeight.setToOne();
-		outsideSemiringWeightsTable.put(hg.goalNode, initWeight);//initialize
+		outsideSemiringWeights[compiledHG.getGoalIndex()] = initWeight;//initialize
 		
-		for(HyperEdge dt : hg.goalNode.hyperedges)
-			outsideEstimationOverHyperedge(dt, hg.goalNode, initWeight);	
+		for(int v=compiledHG.getGoalIndex(); v>=0; v--){
+			K nodeOutsideWeight = outsideSemiringWeights[v];
+			for(int e=compiledHG.getFirstEdge(v); e<compiledHG.getFirstEdge(v+1); e++)
+				outsideEstimationOverHyperedge(e, nodeOutsideWeight);
+		}
 	}
 	
-	final protected void outsideEstimationOverNode(HGNode node, K parentNodeOutsideWeight, HyperEdge parentEdge, K parentEdgeWeight){
-		
-		Integer numCalled = numParentHyperedgesTable.get(node);
-		if (null == numCalled || 0 == numCalled) {
-			System.out.println("num_called="+numCalled);
-			throw new RuntimeException("un-expected call (the number of calls is greater than the number of parent hyperedges), must be wrong");
-		}
-		numParentHyperedgesTable.put(node, numCalled-1);
+	/**@param antPos the position of the node among the antecedents of the parent hyperedge*/
+	final protected void outsideEstimationOverNode(int parentEdge, int antPos, K parentNodeOutsideWeight, K parentEdgeWeight){
 		
 		//====== compute: outside(v) * k_e * product of inside prob of sibling nodes
 		K additionalOutsideProb = createNewKWeight();
 		additionalOutsideProb.setToOne();	
 		
 		//=== upper item's outside weight
-		//K outsideProbNode = outsideSemiringWeightsTable.get(parentNode);//outside prob
 		additionalOutsideProb.multi(parentNodeOutsideWeight);//outside(v)
 		
 		//=== parent hyperedge weight
 		additionalOutsideProb.multi(parentEdgeWeight);//k_e
 		
 		//=== sibing specifc inside weights
-		if(parentEdge.getAntNodes()!=null && parentEdge.getAntNodes().size()>1)
-			for(HGNode antNode : parentEdge.getAntNodes()){
-				if(antNode != node){
-					K nodeInsideProb = insideSemiringWeightsTable.get(antNode);//inside prob
-					additionalOutsideProb.multi(nodeInsideProb);
-				}				
-			}
+		for(int k=0; k<compiledHG.getNumAntNodes(parentEdge); k++){
+			if(k != antPos){
+				K nodeInsideProb = insideSemiringWeights[compiledHG.getAntNode(parentEdge, k)];//inside prob
+				additionalOutsideProb.multi(nodeInsideProb);
+			}				
+		}
 				
 		//=== add to old prob 
-		K oldOutsideProb  = outsideSemiringWeightsTable.get(node);
+		int node = compiledHG.getAntNode(parentEdge, antPos);
+		K oldOutsideProb  = outsideSemiringWeights[node];
 		if (oldOutsideProb == null) {
 			oldOutsideProb =  createNewKWeight();
 			oldOutsideProb.setToZero();
+			outsideSemiringWeights[node] = oldOutsideProb;
 		}		
 		
 		oldOutsideProb.add(additionalOutsideProb);		
-		
-		outsideSemiringWeightsTable.put(node, oldOutsideProb);
-		
-		//=== recursive call on each deduction
-		if( numCalled-1<=0){//i am done
-			for(HyperEdge dt : node.hyperedges){
-				outsideEstimationOverHyperedge(dt, node, oldOutsideProb);
-			}
-		}
 	}
 	
-	protected void outsideEstimationOverHyperedge(HyperEdge dt, HGNode parentNode, K parentNodeOutsideWeight){
+	protected void outsideEstimationOverHyperedge(int e, K parentNodeOutsideWeight){
 	
 		//we do not need to compute outside prob if no ant items
-		if(dt.getAntNodes()!=null){
+		if(compiledHG.getNumAntNodes(e)>0){
 			//=== deduction specific prob
-			K edgeWeight = getEdgeKWeight(dt, parentNode);
+			HyperEdge dt = compiledHG.getEdge(e);
+			K edgeWeight = getEdgeKWeight(dt, compiledHG.getNode(compiledHG.getEdgeParent(e)));
 			
-			//=== recursive call on each ant item
-			for(HGNode antNode : dt.getAntNodes()){
-				outsideEstimationOverNode(antNode, parentNodeOutsideWeight, dt, edgeWeight);
+			//=== pass down to each ant item
+			for(int k=0; k<compiledHG.getNumAntNodes(e); k++){
+				outsideEstimationOverNode(e, k, parentNodeOutsideWeight, edgeWeight);
 			}
 		}
 	}
 	//=============================== end outside estimation	
-	
-	//================ get number of hyperedges that point to me
-	/**This function will be used to get the number of parent hyperedges, 
-	 * which in turn will be used for outside estimation*/
-	final private void rememberNumParentHyperedges(HGNode node){
-		//System.out.println("called");
-		Integer numCalled = (Integer)numParentHyperedgesTable.get(node);
-		if (null == numCalled) {
-			numParentHyperedgesTable.put(node, 1);
-		} else {
-			numParentHyperedgesTable.put(node, numCalled+1);
-		}
-	}
 }
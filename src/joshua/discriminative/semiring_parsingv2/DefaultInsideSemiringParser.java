@@ -1,7 +1,6 @@
 package joshua.discriminative.semiring_parsingv2;
 
-import java.util.HashMap;
-
+import joshua.decoder.hypergraph.CompiledHyperGraph;
 import joshua.decoder.hypergraph.HGNode;
 import joshua.decoder.hypergraph.HyperEdge;
 import joshua.decoder.hypergraph.HyperGraph;
@@ -21,13 +20,16 @@ import joshua.discriminative.semiring_parsingv2.semiring.Semiring;
 
 public abstract class DefaultInsideSemiringParser<K extends Semiring<K>> {
 
-	protected HashMap<HGNode, K> insideSemiringWeightsTable ;
+	/**the inside weight of each node, indexed as in compiledHG*/
+	protected K[] insideSemiringWeights;
 
 	protected HyperGraph hg;
 	
+	/**the hypergraph with dense node and hyperedge indexes; nodes come after their antecedents*/
+	protected CompiledHyperGraph compiledHG;
+	
 
 	public DefaultInsideSemiringParser(){
-		insideSemiringWeightsTable =  new HashMap<HGNode, K>();
 	}
 	
 
@@ -41,7 +43,8 @@ public abstract class DefaultInsideSemiringParser<K extends Semiring<K>> {
 	/**for correctness and saving memory, 
 	 * external class should call this method*/
 	public  void clearState(){
-		insideSemiringWeightsTable.clear();
+		insideSemiringWeights = null;
+		compiledHG = null;
 	}
 	
 	
@@ -57,45 +60,46 @@ public abstract class DefaultInsideSemiringParser<K extends Semiring<K>> {
 //================== bottomn-up insdide estimation ===============	
 
 	public  K getGoalK(){
-		return insideSemiringWeightsTable.get(hg.goalNode);	
+		return insideSemiringWeights[compiledHG.getGoalIndex()];	
 	}
 	
+	/**visits the nodes in topological order, so the inside weights 
+	 * of the antecedents of a node are ready before the node's*/
+	@SuppressWarnings("unchecked")
 	public void insideEstimationOverHG(){
-		insideSemiringWeightsTable.clear(); 		
-		insideEstimationOverNode(hg.goalNode);
+		if(compiledHG==null)
+			compiledHG = new CompiledHyperGraph(hg);
+		
+		insideSemiringWeights = (K[]) new Semiring<?>[compiledHG.getNumNodes()];
+		for(int v=0; v<compiledHG.getNumNodes(); v++)
+			insideSemiringWeights[v] = insideEstimationOverNode(v);
 	}
 	
-	protected K insideEstimationOverNode(HGNode it){
-		
-		if(insideSemiringWeightsTable.containsKey(it))
-			return  insideSemiringWeightsTable.get(it);
+	private K insideEstimationOverNode(int v){
 		
 		K res = createNewKWeight();
 		res.setToZero();
 		
-		//=== recursive call on each hyperedge
-		for(HyperEdge edge : it.hyperedges){
-			K edgeWeight = insideEstimationOverHyperedge(edge, it);
+		HGNode it = compiledHG.getNode(v);
+		for(int e=compiledHG.getFirstEdge(v); e<compiledHG.getFirstEdge(v+1); e++){
+			K edgeWeight = insideEstimationOverHyperedge(e, it);
 			res.add(edgeWeight);
 		}		
 
-		insideSemiringWeightsTable.put(it,res);
 		return res;
 	}
 
-	private K insideEstimationOverHyperedge(HyperEdge dt, HGNode parentNode){
+	private K insideEstimationOverHyperedge(int e, HGNode parentNode){
 		K res = createNewKWeight();
 		res.setToOne();
 		 
-		//=== recursive call on each ant item
-		if(dt.getAntNodes()!=null)
-			for(HGNode antNode : dt.getAntNodes()){
-				K nodeWeight = insideEstimationOverNode(antNode);
-				res.multi(nodeWeight);				
-			}
+		//=== ant items are done already
+		for(int k=0; k<compiledHG.getNumAntNodes(e); k++){
+			res.multi(insideSemiringWeights[compiledHG.getAntNode(e, k)]);				
+		}
 				
 		//=== hyperedge operation
-		K edgeWeight = getEdgeKWeight(dt, parentNode);
+		K edgeWeight = getEdgeKWeight(compiledHG.getEdge(e), parentNode);
 		res.multi(edgeWeight);	
 		return res;
 	}
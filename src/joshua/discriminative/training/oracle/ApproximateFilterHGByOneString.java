@@ -155,9 +155,9 @@ public class ApproximateFilterHGByOneString {
 	    			int index= p_symbol.getTargetNonterminalIndex(c_id);
 	    			HGNode ant_item = (HGNode) dt.getAntNodes().get(index);
 	    			NgramDPState state     = (NgramDPState) ant_item.getDPState(this.ngramStateID);
-					List<Integer>   l_context = state.getLeftLMStateWords();
-					List<Integer>   r_context = state.getRightLMStateWords();
-					if (l_context.size() != r_context.size()) {
+					int[]   l_context = state.getLeftLMState();
+					int[]   r_context = state.getRightLMState();
+					if (l_context.length != r_context.length) {
 						System.out.println("LMModel>>lookup_words1_equv_state: left and right contexts have unequal lengths");
 						System.exit(1);
 					}
@@ -165,7 +165,7 @@ public class ApproximateFilterHGByOneString {
 					for(int t : l_context)//always have l_context
 	    				words.add(t);    				    
 	    			
-	    			if(r_context.size()>=baseline_lm_order-1){//the right and left are NOT overlapping
+	    			if(r_context.length>=baseline_lm_order-1){//the right and left are NOT overlapping
 	    				if(match_a_span(words)==false)//no match
 	    					return true;//filter out
 	    							
@@ -185,8 +185,8 @@ public class ApproximateFilterHGByOneString {
 			if(dt.getAntNodes().size()!=1){System.out.println("error deduction under goal item have more than one item"); System.exit(0);}
 			HGNode ant_item = (HGNode) dt.getAntNodes().get(0);
 			NgramDPState state     = (NgramDPState) ant_item.getDPState(this.ngramStateID);
-			List<Integer>   l_context = state.getLeftLMStateWords();
-			List<Integer>   r_context = state.getRightLMStateWords();
+			int[]   l_context = state.getLeftLMState();
+			int[]   r_context = state.getRightLMState();
 			if(matchLeftOrRightMostSpan(l_context, true)==false ||
 			   matchLeftOrRightMostSpan(r_context, false)==false )//the left-most or right-most word does not match
 				return true;
@@ -194,16 +194,16 @@ public class ApproximateFilterHGByOneString {
 		return false;
 	}
 	
-	protected  boolean matchLeftOrRightMostSpan(List<Integer> words, boolean is_left_most){
+	protected  boolean matchLeftOrRightMostSpan(int[] words, boolean is_left_most){
 		boolean res =true;
-		if(words.size()>ref_sent_wrds.length) 
+		if(words.length>ref_sent_wrds.length) 
 			res = false;
 		else{
-			for(int j=0; j<words.size(); j++){
+			for(int j=0; j<words.length; j++){
 				if(is_left_most){
-					if(words.get(j)!=ref_sent_wrds[j]) {res=false; break;}
+					if(words[j]!=ref_sent_wrds[j]) {res=false; break;}
 				}else{//right most
-					if(words.get(j)!=ref_sent_wrds[ref_sent_wrds.length-words.size()+j]) {res=false; break;}
+					if(words[j]!=ref_sent_wrds[ref_sent_wrds.length-words.length+j]) {res=false; break;}
 				}
 			}
 		}
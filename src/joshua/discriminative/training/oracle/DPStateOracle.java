@@ -77,4 +77,16 @@ public class DPStateOracle implements DPState {
 	public String getSignature(SymbolTable symbolTable, boolean forceRecompute) {
 		return getSignature();
 	}
-}
\ No newline at end of file
+
+
+
+	public long getSignatureHash() {
+		return getSignature().hashCode();
+	}
+
+
+	public boolean signatureEquals(DPState other) {
+		return (other instanceof DPStateOracle)
+			&& getSignature().equals(((DPStateOracle) other).getSignature());
+	}
+}
@@ -274,8 +274,8 @@ public class OracleExtractionOnHGV2 extends RefineHG<DPStateOracle> {
     	List<Integer>  rightLMState= null;
 		if(alwaysMaintainSeperateLMState==false && lmOrder>=bleuOrder){	//do not need to change lm state, just use orignal lm state
 			NgramDPState state     = (NgramDPState) parentNode.getDPState(this.ngramStateID);
-			leftLMState = state.getLeftLMStateWords();
-			rightLMState = state.getRightLMStateWords();
+			leftLMState = intArrayToList(state.getLeftLMState());
+			rightLMState = intArrayToList(state.getRightLMState());
 		}else{
 			leftLMState = getLeftEquivState(leftStateSequence, suffixTbl);
 			rightLMState = getRightEquivState(rightStateSequence, prefixTbl); 
@@ -293,6 +293,14 @@ public class OracleExtractionOnHGV2 extends RefineHG<DPStateOracle> {
 	}
 	
 	
+	private static List<Integer> intArrayToList(int[] words){
+		List<Integer> res = new ArrayList<Integer>(words.length);
+		for(int wrd : words)
+			res.add(wrd);
+		return res;
+	}
+	
+	
 	private List<Integer> getLeftEquivState(List<Integer> leftStateSequence, HashMap<String, Boolean> suffixTbl){
 		
 		int l_size = (leftStateSequence.size()<bleuOrder-1)? leftStateSequence.size() : (bleuOrder-1);
@@ -1,11 +1,14 @@
 package joshua.discriminative.training.risk_annealer.hypergraph;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Logger;
 
 import joshua.corpus.vocab.SymbolTable;
 import joshua.decoder.hypergraph.DiskHyperGraph;
 import joshua.decoder.hypergraph.HyperGraph;
+import joshua.decoder.hypergraph.PackedHyperGraphs;
 import joshua.discriminative.FileUtilityOld;
 
 /**provide HG and reference
@@ -17,6 +20,9 @@ public class HyperGraphFactory {
 	 private int ngramStateID;
 	    
 	 private DiskHyperGraph diskHG = null;
+	 
+	 /** Used instead of diskHG when a binary file diskHGFilePrefix.hg.bin exists. */
+	 private PackedHyperGraphs packedHG = null;
 	 private String diskHGFilePrefix;
 
 	 private String[] referenceFiles; 
@@ -69,8 +75,17 @@ public class HyperGraphFactory {
 	 private void initDiskReading(){
 		logger.info("initialize reading hypergraphss..............");
 		 
-		diskHG = new DiskHyperGraph(symbolTbl, ngramStateID, true, null); //have model costs stored
-        diskHG.initRead(diskHGFilePrefix+".hg.items", diskHGFilePrefix+".hg.rules", null);
+		File binaryFile = new File(diskHGFilePrefix+".hg.bin");
+		if (binaryFile.exists()) {
+			try {
+				packedHG = new PackedHyperGraphs(binaryFile.getPath(), symbolTbl, ngramStateID);
+			} catch (IOException e) {
+				throw new RuntimeException("Error opening hypergraph file: " + binaryFile, e);
+			}
+		} else {
+			diskHG = new DiskHyperGraph(symbolTbl, ngramStateID, true, null); //have model costs stored
+	        diskHG.initRead(diskHGFilePrefix+".hg.items", diskHGFilePrefix+".hg.rules", null);
+		}
         
         //=== references files, they are needed only when we want annote the hypergraph with risk   
         if(this.readReferences){
@@ -82,7 +97,16 @@ public class HyperGraphFactory {
 	 
 	 private void finalizeDiskReading(){
 		 logger.info("finalize reading hypergraphss..............");
-		 diskHG.closeReaders();
+		 if (packedHG != null) {
+			 try {
+				 packedHG.close();
+			 } catch (IOException e) {
+				 e.printStackTrace();
+			 }
+			 packedHG = null;
+		 } else {
+			 diskHG.closeReaders();
+		 }
 		 
 	     //=== references files
 	     if(this.readReferences){
@@ -95,6 +119,13 @@ public class HyperGraphFactory {
 	 private HyperGraph readOneHGFromDisk(){
 		 		
 		//=== disk hypergraph
+		if (packedHG != null) {
+			try {
+				return packedHG.next();
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading hypergraph", e);
+			}
+		}
 		return  diskHG.readHyperGraph();
 	 }
 	 
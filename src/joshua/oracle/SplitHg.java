@@ -24,6 +24,7 @@ import java.util.List;
 import joshua.decoder.hypergraph.HGNode;
 import joshua.decoder.hypergraph.HyperEdge;
 import joshua.decoder.hypergraph.HyperGraph;
+import joshua.decoder.hypergraph.HyperGraphTraversal;
 
 /**
  * This class implements general ways of spliting the hypergraph
@@ -75,15 +76,25 @@ public abstract class SplitHg {
 		return res;
 	}
 	
-	private void get_1best_tree_item(VirtualItem virtual_it, HGNode onebest_item){	
-		VirtualDeduction virtual_dt = virtual_it.best_virtual_deduction;
-		if(virtual_dt.l_ant_virtual_items!=null)
-			for(int i=0; i< virtual_dt.l_ant_virtual_items.size(); i++){
-				VirtualItem ant_it = (VirtualItem) virtual_dt.l_ant_virtual_items.get(i);
-				HGNode new_it = clone_item_with_best_deduction(ant_it);
-				onebest_item.bestHyperedge.getAntNodes().set(i, new_it);
-				get_1best_tree_item(ant_it,new_it);	
-			}		
+	private void get_1best_tree_item(VirtualItem virtual_goal_it, HGNode onebest_goal_item){
+		//each virtual item on the stack goes with the clone of its item
+		ArrayList<VirtualItem> virtual_stack = new ArrayList<VirtualItem>();
+		ArrayList<HGNode> onebest_stack = new ArrayList<HGNode>();
+		virtual_stack.add(virtual_goal_it);
+		onebest_stack.add(onebest_goal_item);
+		while(! virtual_stack.isEmpty()){
+			VirtualItem virtual_it = virtual_stack.remove(virtual_stack.size()-1);
+			HGNode onebest_item = onebest_stack.remove(onebest_stack.size()-1);
+			VirtualDeduction virtual_dt = virtual_it.best_virtual_deduction;
+			if(virtual_dt.l_ant_virtual_items!=null)
+				for(int i=0; i< virtual_dt.l_ant_virtual_items.size(); i++){
+					VirtualItem ant_it = (VirtualItem) virtual_dt.l_ant_virtual_items.get(i);
+					HGNode new_it = clone_item_with_best_deduction(ant_it);
+					onebest_item.bestHyperedge.getAntNodes().set(i, new_it);
+					virtual_stack.add(ant_it);
+					onebest_stack.add(new_it);
+				}
+		}
 	}	
 	
 	//TODO: tbl_states
@@ -112,19 +123,27 @@ public abstract class SplitHg {
 			//TODO: more pre-process in the extended class
 			g_tbl_split_virtual_items.clear(); 
 			g_num_virtual_items = 0;
-			g_num_virtual_deductions = 0;				
-			split_item(hg.goalNode);	
+			g_num_virtual_deductions = 0;
+			//split each item after all the items under it, without recursion
+			HyperGraphTraversal.EdgeFilter filter = new HyperGraphTraversal.EdgeFilter() {
+				public boolean follow(HGNode parent, HyperEdge edge) {
+					return speed_up_item(parent) && speed_up_deduction(edge);
+				}
+			};
+			for (HGNode it : HyperGraphTraversal.bottomUpNodes(hg.goalNode, filter)) {
+				split_item(it);
+			}
 		}	
 		
-		//for each original Item, get a list of VirtualItem
+		//for each original Item, get a list of VirtualItem; all my ant items are already split
 		private void split_item(HGNode it){
-			if(g_tbl_split_virtual_items.containsKey(it))return;//already processed
 			HashMap<String, VirtualItem> virtual_item_sigs = 
 					new HashMap<String, VirtualItem>();
-			//### recursive call on each deduction
+			//### split each deduction
 			if( speed_up_item(it) ){
 				for(HyperEdge dt : it.hyperedges){					
-					split_deduction(dt, virtual_item_sigs, it);
+					if(speed_up_deduction(dt))
+						redo_combine(dt, virtual_item_sigs, it);
 				}
 			}
 			//### item-specific operation
@@ -137,18 +156,6 @@ public abstract class SplitHg {
 			//if(virtual_item_sigs.size()!=1)System.out.println("num of split items is " + virtual_item_sigs.size());
 			//get_best_virtual_score(it);//debug
 		}	
-		
-		private void split_deduction(HyperEdge cur_dt, HashMap<String, VirtualItem> virtual_item_sigs, HGNode parent_item){
-			if(speed_up_deduction(cur_dt)==false) return;//no need to continue
-			
-			//### recursively split all my ant items, get a l_split_items for each original item
-			if(cur_dt.getAntNodes()!=null)
-				for(HGNode ant_it : cur_dt.getAntNodes())
-					split_item(ant_it);
-			
-			//### recombine the deduction
-			redo_combine(cur_dt, virtual_item_sigs, parent_item);
-		}	
 			
 		private void redo_combine(HyperEdge cur_dt, HashMap<String, VirtualItem> virtual_item_sigs, HGNode parent_item){
 			List<HGNode> l_ant_items = cur_dt.getAntNodes();
@@ -0,0 +1,275 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.prefix_tree;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+import joshua.corpus.MatchedHierarchicalPhrases;
+import joshua.corpus.suffix_array.ParallelCorpusGrammarFactory;
+import joshua.decoder.ff.tm.AbstractGrammar;
+import joshua.decoder.ff.tm.Grammar;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.RuleCollection;
+import joshua.decoder.ff.tm.Trie;
+import joshua.util.SharedForkJoinPool;
+
+/**
+ * Prefix tree built over a batch of sentences at once, such as
+ * a document or a chunk of a test set.
+ * <p>
+ * Each pattern shared by several sentences of the batch is
+ * queried against the suffix array once, and its rules are
+ * extracted once. Rule extraction is deferred until every
+ * sentence has been added, and is then run in parallel across
+ * the distinct patterns of the batch.
+ * <p>
+ * Each sentence gets a grammar that exposes only the nodes its
+ * own prefix tree would have had, so that it is translated
+ * with exactly the rules it would have been translated with
+ * on its own.
+ *
+ * @version $LastChangedDate$
+ */
+public class BatchPrefixTree extends PrefixTree {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(BatchPrefixTree.class.getName());
+
+	/** Number of nodes below which extraction is not split further. */
+	private static final int EXTRACTION_TASK_SIZE = 8;
+
+	/** Nodes whose rules have yet to be extracted. */
+	private final Set<Node> pendingNodes = newNodeSet();
+
+	/** Nodes reached by the sentence being added. */
+	private Set<Node> sentenceNodes = null;
+
+	/**
+	 * Constructs an empty prefix tree for a batch of sentences.
+	 *
+	 * @param parallelCorpus
+	 */
+	public BatchPrefixTree(ParallelCorpusGrammarFactory parallelCorpus) {
+		super(parallelCorpus);
+	}
+
+	/**
+	 * Nodes are compared by identity, since the ids of nodes in
+	 * different trees may collide.
+	 */
+	private static Set<Node> newNodeSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<Node,Boolean>());
+	}
+
+	/**
+	 * Adds a batch of sentences to this tree, then extracts the
+	 * rules of all patterns in the batch.
+	 *
+	 * @param sentences Sentences of the batch
+	 * @return a grammar for each sentence, in the same order
+	 */
+	public List<Grammar> addAll(List<int[]> sentences) {
+
+		List<Grammar> grammars = new ArrayList<Grammar>(sentences.size());
+
+		for (int[] sentence : sentences) {
+			sentenceNodes = newNodeSet();
+			sentenceNodes.add(root);
+			if (xnode != null) {
+				sentenceNodes.add(xnode);
+			}
+
+			add(sentence);
+
+			grammars.add(new SentenceGrammar(sentenceNodes));
+		}
+		sentenceNodes = null;
+
+		long startTime = System.nanoTime();
+		int numPatterns = pendingNodes.size();
+
+		Node[] nodes = pendingNodes.toArray(new Node[numPatterns]);
+		pendingNodes.clear();
+		SharedForkJoinPool.invoke(new ExtractionTask(nodes, 0, nodes.length));
+
+		float milliseconds = (System.nanoTime() - startTime) / 1000000.0f;
+		logger.info("Extracted rules for " + numPatterns + " patterns of " + sentences.size() + " sentences in " + milliseconds + " milliseconds");
+
+		return grammars;
+	}
+
+	/**
+	 * Defers extraction until the whole batch has been added.
+	 */
+	protected List<Rule> extractRules(Node node, MatchedHierarchicalPhrases phrases) {
+		if (ruleExtractor != null) {
+			pendingNodes.add(node);
+		}
+		return Collections.emptyList();
+	}
+
+	protected void visit(Node node) {
+		if (sentenceNodes != null) {
+			sentenceNodes.add(node);
+		}
+	}
+
+	/**
+	 * Rules are not written out as they are extracted, since
+	 * extraction is deferred.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	public void setPrintStream(PrintStream out) {
+		throw new UnsupportedOperationException("Rules of a batch prefix tree cannot be printed as they are extracted");
+	}
+
+
+	/** Extracts the rules of the nodes in [from, to), splitting the range among threads. */
+	private static class ExtractionTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Node[] nodes;
+		final int from, to;
+
+		ExtractionTask(Node[] nodes, int from, int to) {
+			this.nodes = nodes;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > EXTRACTION_TASK_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ExtractionTask(nodes, from, middle),
+						new ExtractionTask(nodes, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				// Looks in the shared rule cache first, then keeps
+				// the rules so that later evictions do not matter
+				nodes[i].results = nodes[i].getResults();
+			}
+		}
+	}
+
+	/** The part of this tree reached by one sentence. */
+	private class SentenceGrammar extends AbstractGrammar {
+
+		private final Set<Node> nodes;
+
+		SentenceGrammar(Set<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		public Trie getTrieRoot() {
+			return new RestrictedTrie(root, nodes);
+		}
+
+		public boolean hasRuleForSpan(int startIndex, int endIndex, int pathLength) {
+			return BatchPrefixTree.this.hasRuleForSpan(startIndex, endIndex, pathLength);
+		}
+
+		public int getNumRules() {
+			int numRules = 0;
+			for (Node node : nodes) {
+				if (node.active) {
+					numRules += node.getResults().size();
+				}
+			}
+			return numRules;
+		}
+
+		public int getOOVRuleID() {
+			return BatchPrefixTree.this.getOOVRuleID();
+		}
+
+		public Rule constructManualRule(int lhs, int[] sourceWords, int[] targetWords, float[] scores, int arity) {
+			return BatchPrefixTree.this.constructManualRule(lhs, sourceWords, targetWords, scores, arity);
+		}
+
+		public Rule constructOOVRule(int numFeatures, int sourceWord, int targetWord, boolean hasLM) {
+			return BatchPrefixTree.this.constructOOVRule(numFeatures, sourceWord, targetWord, hasLM);
+		}
+
+		public Rule constructLabeledOOVRule(int numFeatures, int sourceWord, int targetWord, int lhs, boolean hasLM) {
+			return BatchPrefixTree.this.constructLabeledOOVRule(numFeatures, sourceWord, targetWord, lhs, hasLM);
+		}
+	}
+
+	/** A node of the tree, seen through the nodes one sentence reached. */
+	private static class RestrictedTrie implements Trie {
+
+		private final Node node;
+		private final Set<Node> nodes;
+
+		RestrictedTrie(Node node, Set<Node> nodes) {
+			this.node = node;
+			this.nodes = nodes;
+		}
+
+		public Trie matchOne(int wordID) {
+			Trie child = node.matchOne(wordID);
+			if (child != null && nodes.contains(child)) {
+				return new RestrictedTrie((Node) child, nodes);
+			} else {
+				return null;
+			}
+		}
+
+		public boolean hasExtensions() {
+			for (Node child : node.getExtensions()) {
+				if (nodes.contains(child)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public Collection<RestrictedTrie> getExtensions() {
+			List<RestrictedTrie> extensions = new ArrayList<RestrictedTrie>();
+			for (Node child : node.getExtensions()) {
+				if (nodes.contains(child)) {
+					extensions.add(new RestrictedTrie(child, nodes));
+				}
+			}
+			return extensions;
+		}
+
+		public boolean hasRules() {
+			return node.hasRules();
+		}
+
+		public RuleCollection getRules() {
+			return node.getRules();
+		}
+
+		public String toString() {
+			return node.toString();
+		}
+	}
+}
@@ -27,11 +27,15 @@ import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import joshua.corpus.AlignedParallelCorpus;
 import joshua.corpus.Corpus;
 import joshua.corpus.alignment.AlignmentGrids;
 import joshua.corpus.alignment.Alignments;
 import joshua.corpus.alignment.mm.MemoryMappedAlignmentGrids;
+import joshua.corpus.lexprob.LexicalProbabilities;
+import joshua.corpus.lexprob.MemoryMappedLexProbs;
 import joshua.corpus.mm.MemoryMappedCorpusArray;
+import joshua.corpus.suffix_array.CollocationIndex;
 import joshua.corpus.suffix_array.FrequentPhrases;
 import joshua.corpus.suffix_array.ParallelCorpusGrammarFactory;
 import joshua.corpus.suffix_array.SuffixArrayFactory;
@@ -73,9 +77,11 @@ public class ExtractRules {
 	private String commonVocabFileName = "";
 	
 	private String lexCountsFileName = "";
+	private String lexiconFileName = "";
 	
 	private String testFileName = "";
 	private String frequentPhrasesFileName = "";
+	private String collocationsFileName = "";
 	
 	private int cacheSize = Cache.DEFAULT_CAPACITY;
 	
@@ -162,6 +168,7 @@ public class ExtractRules {
 		this.commonVocabFileName = joshDir + File.separator + "common.vocab";
 
 		this.lexCountsFileName = joshDir + File.separator + "lexicon.counts";
+		this.lexiconFileName = joshDir + File.separator + "lexicon.bin";
 
 		this.sourceSuffixesFileName = joshDir + File.separator + "source.suffixes";
 		this.targetSuffixesFileName = joshDir + File.separator + "target.suffixes";
@@ -170,6 +177,7 @@ public class ExtractRules {
 		this.alignmentsType = "MemoryMappedAlignmentGrids";
 		
 		this.frequentPhrasesFileName = joshDir + File.separator + "frequentPhrases";
+		this.collocationsFileName = joshDir + File.separator + "collocations";
 		
 		this.binaryCorpus = true;
 	}
@@ -352,13 +360,22 @@ public class ExtractRules {
 
 		logger.info("Constructing grammar factory from parallel corpus");
 		ParallelCorpusGrammarFactory parallelCorpus;
-		if (binaryCorpus) {
+		if (binaryCorpus && new File(lexiconFileName).exists()) {
+			if (logger.isLoggable(Level.INFO)) logger.info("Mapping lexical translation probabilities from binary file " + lexiconFileName);
+			LexicalProbabilities lexProbs = new MemoryMappedLexProbs(lexiconFileName, new AlignedParallelCorpus(sourceSuffixArray.getCorpus(), targetSuffixArray.getCorpus(), alignments), Float.MIN_VALUE);
+			parallelCorpus = new ParallelCorpusGrammarFactory(sourceSuffixArray, targetSuffixArray, alignments, null, lexProbs, ruleSampleSize, maxPhraseSpan, maxPhraseLength, maxNonterminals, minNonterminalSpan, JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
+		} else if (binaryCorpus) {
 			if (logger.isLoggable(Level.INFO)) logger.info("Constructing lexical translation probabilities from binary file " + binaryLexCountsFilename);
 			parallelCorpus = new ParallelCorpusGrammarFactory(sourceSuffixArray, targetSuffixArray, alignments, null, binaryLexCountsFilename, ruleSampleSize, maxPhraseSpan, maxPhraseLength, maxNonterminals, minNonterminalSpan, JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
 		} else { 
 			if (logger.isLoggable(Level.INFO)) logger.info("Constructing lexical translation probabilities from parallel corpus"); 
 			parallelCorpus = new ParallelCorpusGrammarFactory(sourceSuffixArray, targetSuffixArray, alignments, null, ruleSampleSize, maxPhraseSpan, maxPhraseLength, maxNonterminals, minNonterminalSpan, Float.MIN_VALUE, JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
 		}
+		
+		if (usePrecomputedFrequentPhrases && new File(collocationsFileName).exists()) {
+			logger.info("Reading precomputed collocations from disk");
+			parallelCorpus.setCollocationIndex(new CollocationIndex(collocationsFileName, sourceSuffixArray.getVocabulary()));
+		}
 		return parallelCorpus;
 	}
 
@@ -18,11 +18,10 @@
 package joshua.prefix_tree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,7 +42,8 @@ import joshua.decoder.ff.tm.BasicRuleCollection;
 import joshua.decoder.ff.tm.BilingualRule;
 import joshua.decoder.ff.tm.MonolingualRule;
 import joshua.decoder.ff.tm.Rule;
-import joshua.util.Cache;
+import joshua.util.ConcurrentCache;
+import joshua.util.SharedForkJoinPool;
 
 /**
  * Rule extractor for Hiero-style hierarchical phrase-based
@@ -114,6 +114,16 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 	 */
 	protected final int[] nonterminalIDs;
 	
+	/**
+	 * Number of sampled instances of a source pattern from
+	 * which its rules are extracted in parallel, or zero to
+	 * always extract them sequentially.
+	 */
+	protected int parallelSamples = JoshuaConfiguration.sa_parallel_samples;
+	
+	/** Number of samples below which a task is not split further. */
+	private static final int TASK_SIZE = 16;
+	
 	/**
      * Constructs a rule extractor for 
      * Hiero-style hierarchical phrase-based translation.
@@ -172,26 +182,20 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 		
 		if (logger.isLoggable(Level.FINE)) logger.fine("Extracting rules for source pattern: " + sourcePattern);
 			
-		Cache<Pattern,List<Rule>> cache = sourceSuffixArray.getCachedRules();
+		ConcurrentCache<Pattern,List<Rule>> cache = sourceSuffixArray.getCachedRules();
 		
-		if (cache.containsKey(sourcePattern)) {
-			return cache.get(sourcePattern);
+		List<Rule> cached = cache.get(sourcePattern);
+		if (cached != null) {
+			return cached;
 		} else {
 			
 			ArrayList<HierarchicalPhrase> translations = getTranslations(sourceHierarchicalPhrases);
 			
-			Map<Pattern,Integer> counts = new HashMap<Pattern,Integer>();
-			for (Pattern translation : translations) {
-				if (translation != null) {
-					Integer count = counts.get(translation);
-					if (null == count) {
-						count = 1;
-					} else {
-						count++;
-					}
-					counts.put(translation, count);
-				}
-			}
+			// Distinct translations are kept in the order they were
+			// first sampled, so the rules come out in the same order
+			// whether or not they were extracted in parallel
+			List<HierarchicalPhrase> uniqueTranslations = new ArrayList<HierarchicalPhrase>();
+			int[] counts = countTranslations(translations, uniqueTranslations);
 
 			if (logger.isLoggable(Level.FINER)) { logger.finer(
 					translations.size() + " actual translations of " + 
@@ -201,44 +205,116 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 
 			float p_e_given_f_denominator = translations.size();
 
-			// We don't want to produce duplicate rules
-			HashSet<HierarchicalPhrase> uniqueTranslations = new HashSet<HierarchicalPhrase>(translations);
-			
-			List<Rule> results = new ArrayList<Rule>(sourceHierarchicalPhrases.size());
-			
 			int sourcePatternCount = sourceHierarchicalPhrases.size();
-			for (HierarchicalPhrase translation : uniqueTranslations) {
-				float[] featureScores = 
-					calculateFeatureValues(
-							sourcePattern, 
-							sourcePatternCount, 
-							translation, 
-							counts, p_e_given_f_denominator);
-
-				Rule rule = new BilingualRule(
-						SymbolTable.X, 
-						sourcePattern.getWordIDs(), 
-						translation.getWordIDs(), 
-						featureScores, 
-						translation.arity(),
-						sourceSuffixArray.getVocabulary().addTerminal(JoshuaConfiguration.phrase_owner),
-						0.0f,
-						MonolingualRule.DUMMY_RULE_ID);
-
-				results.add(rule);
+			int owner = sourceSuffixArray.getVocabulary().addTerminal(JoshuaConfiguration.phrase_owner);
+			Rule[] rules = new Rule[uniqueTranslations.size()];
+			
+			if (isParallel(translations.size())) {
+				SharedForkJoinPool.invoke(new ScoringTask(sourcePattern, sourcePatternCount, uniqueTranslations, counts, p_e_given_f_denominator, owner, rules, 0, rules.length));
+			} else {
+				for (int i = 0; i < rules.length; i++) {
+					rules[i] = constructRule(sourcePattern, sourcePatternCount, uniqueTranslations.get(i), counts[i], p_e_given_f_denominator, owner);
+				}
 			}
 			
+			List<Rule> results = new ArrayList<Rule>(Arrays.asList(rules));
+			
 			if (models != null) {
 				BasicRuleCollection.sortRules(results, models);
 			}
 			
-			cache.put(sourcePattern, results);
+			// Another thread may have extracted the same rules meanwhile
+			List<Rule> previous = cache.putIfAbsent(sourcePattern, results);
 			
-			return results;
+			return (previous == null) ? results : previous;
 		}
 		
 	}
 
+	/**
+	 * Counts the distinct translations among the sampled ones.
+	 * <p>
+	 * The counts are kept in an array rather than a map: an
+	 * open-addressing table, probed by the hash code of each
+	 * translation, holds the index of the distinct translation
+	 * with that target pattern.
+	 *
+	 * @param translations Sampled translations, with repeats
+	 * @param uniqueTranslations List to which the distinct
+	 *                           translations are added, in the
+	 *                           order they were first sampled
+	 * @return the number of times each distinct translation
+	 *         was sampled, indexed as in uniqueTranslations
+	 */
+	private static int[] countTranslations(List<HierarchicalPhrase> translations, List<HierarchicalPhrase> uniqueTranslations) {
+		
+		int[] counts = new int[translations.size()];
+		
+		// Entries are indices into uniqueTranslations plus one,
+		// so that zero marks an empty slot
+		int[] table = new int[Math.max(2, Integer.highestOneBit(translations.size()) << 2)];
+		int mask = table.length - 1;
+		
+		for (HierarchicalPhrase translation : translations) {
+			int slot = (translation.hashCode() * 0x9E3779B9) & mask;
+			while (true) {
+				int entry = table[slot];
+				if (entry == 0) {
+					counts[uniqueTranslations.size()] = 1;
+					uniqueTranslations.add(translation);
+					table[slot] = uniqueTranslations.size();
+					break;
+				} else if (uniqueTranslations.get(entry - 1).equals(translation)) {
+					counts[entry - 1]++;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+		
+		return counts;
+	}
+	
+	/**
+	 * Constructs the rule translating a source pattern into
+	 * one of its sampled translations.
+	 */
+	private Rule constructRule(Pattern sourcePattern, int sourcePatternCount, HierarchicalPhrase translation, int count, float totalTranslationCount, int owner) {
+		
+		float[] featureScores = 
+			calculateFeatureValues(
+					sourcePattern, 
+					sourcePatternCount, 
+					translation, 
+					count, totalTranslationCount);
+
+		return new BilingualRule(
+				SymbolTable.X, 
+				sourcePattern.getWordIDs(), 
+				translation.getWordIDs(), 
+				featureScores, 
+				translation.arity(),
+				owner,
+				0.0f,
+				MonolingualRule.DUMMY_RULE_ID);
+	}
+	
+	/**
+	 * Sets the number of sampled instances of a source pattern
+	 * from which its rules are extracted in parallel.
+	 *
+	 * @param parallelSamples Number of sampled instances, or
+	 *                        zero to always extract rules
+	 *                        sequentially
+	 */
+	public void setParallelSamples(int parallelSamples) {
+		this.parallelSamples = parallelSamples;
+	}
+	
+	private boolean isParallel(int numSamples) {
+		return parallelSamples > 0 && numSamples >= parallelSamples;
+	}
+	
 	protected float calculateProbSourceGivenTarget(Pattern sourcePattern, Pattern targetPattern) {
 		
 		
@@ -253,9 +329,9 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 	 * @param sourcePattern Source language pattern
 	 * @param sourcePatternCount TODO
 	 * @param translation Target language pattern
-	 * @param counts Map from target pattern to the number of times
-	 *               that pattern was returned as the translation of
-	 *               the source pattern.
+	 * @param count Number of times the target pattern was
+	 *              returned as the translation of the source
+	 *              pattern.
 	 * @param totalTranslationCount Total number of translations 
 	 *                              of the given source pattern. 
 	 *                              If a translation was returned 
@@ -263,11 +339,11 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 	 *                              counted multiple times in this total.
 	 * @return Feature value array
 	 */
-	protected float[] calculateFeatureValues(Pattern sourcePattern, int sourcePatternCount, HierarchicalPhrase translation, Map<Pattern,Integer> counts, float totalTranslationCount) {
+	protected float[] calculateFeatureValues(Pattern sourcePattern, int sourcePatternCount, HierarchicalPhrase translation, int count, float totalTranslationCount) {
 			
 		// Get translation probability
 		float p_e_given_f = 
-			counts.get(translation) / totalTranslationCount;
+			count / totalTranslationCount;
 		float logp_e_given_f = -1.0f * (float) Math.log10(p_e_given_f);
 		if (Float.isInfinite(logp_e_given_f)) {
 			p_e_given_f = PrefixTree.VERY_UNLIKELY;
@@ -276,7 +352,7 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 			logger.finer(
 					"   prob( "+ translation.toString() + " | " + 
 					sourcePattern.toString() + " ) =  -log10(" + 
-					counts.get(translation)+ " / " +totalTranslationCount
+					count + " / " +totalTranslationCount
 					+ ") = " + p_e_given_f);
 		}
 
@@ -557,14 +633,32 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 			}
 		}
 		
-		ArrayList<HierarchicalPhrase> translations = new ArrayList<HierarchicalPhrase>();
+		int numSamples = (listSize + stepSize - 1) / stepSize;
 		
-		// For each sample HierarchicalPhrase
-		for (int i=0, n=sourceHierarchicalPhrases.size(); i<n; i+=stepSize) { 
-
-			HierarchicalPhrase translation = getTranslation(sourceHierarchicalPhrases, i);
-			if (translation != null) {
-				translations.add(translation);
+		ArrayList<HierarchicalPhrase> translations = new ArrayList<HierarchicalPhrase>(numSamples);
+		
+		if (isParallel(numSamples)) {
+			
+			// Each sample gets its own slot, so the translations
+			// are merged back in sample order
+			HierarchicalPhrase[] sampled = new HierarchicalPhrase[numSamples];
+			SharedForkJoinPool.invoke(new TranslationTask(sourceHierarchicalPhrases, stepSize, sampled, 0, numSamples));
+			
+			for (HierarchicalPhrase translation : sampled) {
+				if (translation != null) {
+					translations.add(translation);
+				}
+			}
+			
+		} else {
+			
+			// For each sample HierarchicalPhrase
+			for (int i=0, n=sourceHierarchicalPhrases.size(); i<n; i+=stepSize) { 
+	
+				HierarchicalPhrase translation = getTranslation(sourceHierarchicalPhrases, i);
+				if (translation != null) {
+					translations.add(translation);
+				}
 			}
 		}
 		
@@ -771,5 +865,74 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 		return null;
 	}
 
+	
+	/** Translates the samples in [from, to), splitting the range among threads. */
+	private class TranslationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		final MatchedHierarchicalPhrases sourcePhrases;
+		final int stepSize;
+		final HierarchicalPhrase[] translations;
+		final int from, to;
+		
+		TranslationTask(MatchedHierarchicalPhrases sourcePhrases, int stepSize, HierarchicalPhrase[] translations, int from, int to) {
+			this.sourcePhrases = sourcePhrases;
+			this.stepSize = stepSize;
+			this.translations = translations;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (to - from > TASK_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new TranslationTask(sourcePhrases, stepSize, translations, from, middle),
+						new TranslationTask(sourcePhrases, stepSize, translations, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				translations[i] = getTranslation(sourcePhrases, i * stepSize);
+			}
+		}
+	}
+	
+	/** Scores the translations in [from, to), splitting the range among threads. */
+	private class ScoringTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		final Pattern sourcePattern;
+		final int sourcePatternCount;
+		final List<HierarchicalPhrase> translations;
+		final int[] counts;
+		final float totalTranslationCount;
+		final int owner;
+		final Rule[] rules;
+		final int from, to;
+		
+		ScoringTask(Pattern sourcePattern, int sourcePatternCount, List<HierarchicalPhrase> translations, int[] counts, float totalTranslationCount, int owner, Rule[] rules, int from, int to) {
+			this.sourcePattern = sourcePattern;
+			this.sourcePatternCount = sourcePatternCount;
+			this.translations = translations;
+			this.counts = counts;
+			this.totalTranslationCount = totalTranslationCount;
+			this.owner = owner;
+			this.rules = rules;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (to - from > TASK_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ScoringTask(sourcePattern, sourcePatternCount, translations, counts, totalTranslationCount, owner, rules, from, middle),
+						new ScoringTask(sourcePattern, sourcePatternCount, translations, counts, totalTranslationCount, owner, rules, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				rules[i] = constructRule(sourcePattern, sourcePatternCount, translations.get(i), counts[i], totalTranslationCount, owner);
+			}
+		}
+	}
+
 
 }
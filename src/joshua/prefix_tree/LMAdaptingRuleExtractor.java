@@ -19,7 +19,6 @@ package joshua.prefix_tree;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Map;
 
 import joshua.corpus.Corpus;
 import joshua.corpus.Phrase;
@@ -119,8 +118,8 @@ public class LMAdaptingRuleExtractor extends HierarchicalRuleExtractor {
 	}
 	
 	@Override
-	protected float[] calculateFeatureValues(Pattern sourcePattern, int sourcePatternCount, HierarchicalPhrase translation, Map<Pattern,Integer> counts, float totalTranslationCount) {
-		float[] featureValues = super.calculateFeatureValues(sourcePattern, sourcePatternCount, translation, counts, totalTranslationCount);
+	protected float[] calculateFeatureValues(Pattern sourcePattern, int sourcePatternCount, HierarchicalPhrase translation, int count, float totalTranslationCount) {
+		float[] featureValues = super.calculateFeatureValues(sourcePattern, sourcePatternCount, translation, count, totalTranslationCount);
 		
 		return featureValues;
 	}
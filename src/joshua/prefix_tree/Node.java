@@ -35,7 +35,7 @@ import joshua.decoder.ff.tm.BasicRuleCollection;
 import joshua.decoder.ff.tm.Rule;
 import joshua.decoder.ff.tm.RuleCollection;
 import joshua.decoder.ff.tm.Trie;
-import joshua.util.Cache;
+import joshua.util.ConcurrentCache;
 
 /**
  * Represents a node in a prefix tree.
@@ -79,8 +79,11 @@ public class Node implements Comparable<Node>, Trie {
 	/** Source side hierarchical phrases for this node. */
 	MatchedHierarchicalPhrases sourceHierarchicalPhrases;
 	
-	
-//	List<Rule> results;
+	/** 
+	 * Rules extracted for this node ahead of time by a
+	 * BatchPrefixTree, or null to look them up in the rule cache.
+	 */
+	List<Rule> results;
 	
 	protected final ParallelCorpusGrammarFactory parallelCorpus;
 	
@@ -124,17 +127,20 @@ public class Node implements Comparable<Node>, Trie {
 	 */
 	protected List<Rule> getResults() {
 		
-		Cache<Pattern,List<Rule>> ruleCache = parallelCorpus.getSuffixArray().getCachedRules();
+		if (this.results != null) {
+			return this.results;
+		}
 		
-		List<Rule> results;
+		ConcurrentCache<Pattern,List<Rule>> ruleCache = parallelCorpus.getSuffixArray().getCachedRules();
 		
-		if (ruleCache.containsKey(sourcePattern)) {
-			results = ruleCache.get(sourcePattern);
-			// The rules from the cache are guaranteed to be sorted.
-		} else {
+		// The rules from the cache are guaranteed to be sorted.
+		List<Rule> results = ruleCache.get(sourcePattern);
+		
+		if (results == null) {
 			results = parallelCorpus.getRuleExtractor().extractRules(getMatchedPhrases());
 			// The above list of rules extracted is guaranteed to be sorted.
-			ruleCache.put(sourcePattern, results);
+			List<Rule> previous = ruleCache.putIfAbsent(sourcePattern, results);
+			if (previous != null) results = previous;
 		}
 		
 		// These rules are sorted.
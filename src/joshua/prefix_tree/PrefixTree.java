@@ -21,6 +21,7 @@ import joshua.corpus.Corpus;
 import joshua.corpus.MatchedHierarchicalPhrases;
 import joshua.corpus.RuleExtractor;
 import joshua.corpus.alignment.Alignments;
+import joshua.corpus.suffix_array.CollocationIndex;
 import joshua.corpus.lexprob.LexicalProbabilities;
 import joshua.corpus.suffix_array.HierarchicalPhrases;
 import joshua.corpus.suffix_array.ParallelCorpusGrammarFactory;
@@ -33,7 +34,7 @@ import joshua.decoder.ff.tm.BilingualRule;
 import joshua.decoder.ff.tm.Rule;
 import joshua.decoder.ff.tm.Trie;
 import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
-import joshua.util.Cache;
+import joshua.util.ConcurrentCache;
 
 import java.io.PrintStream;
 import java.util.Collections;
@@ -178,7 +179,7 @@ public class PrefixTree extends AbstractGrammar {
 	 * Node representing phrases that start with the nonterminal
 	 * X. This node's parent is the root node of the tree.
 	 */
-	private final Node xnode;
+	final Node xnode;
 
 	private Set<Integer> printedNodes = null;
 	
@@ -192,6 +193,9 @@ public class PrefixTree extends AbstractGrammar {
 	
 	private final float oovFeatureCost;
 	
+	/** Precomputed matchings of frequent collocations, or null. */
+	private final CollocationIndex collocationIndex;
+	
 	/**
 	 * Constructs a new prefix tree with suffix links using the
 	 * GENERATE_PREFIX_TREE algorithm from Lopez (2008) PhD
@@ -218,6 +222,7 @@ public class PrefixTree extends AbstractGrammar {
 		this.ruleOwner = vocab.getID(parallelCorpus.getRuleOwner());
 		this.defaultLHS = vocab.getID(parallelCorpus.getDefaultLHSSymbol());
 		this.oovFeatureCost = parallelCorpus.getOovFeatureCost();
+		this.collocationIndex = parallelCorpus.getCollocationIndex();
 		
 		this.root = new RootNode(this,ROOT_NODE_ID);
 		Node bot = new BotNode(parallelCorpus, root);
@@ -379,6 +384,7 @@ public class PrefixTree extends AbstractGrammar {
 
 					// child is p_alphaBetaF_j
 					Node child = prefixNode.getChild(sentence[j]);
+					visit(child);
 					
 					// 9: If p_alphaBetaF_j is inactive then
 					if (! child.active) {
@@ -405,6 +411,7 @@ public class PrefixTree extends AbstractGrammar {
 					//     (Add new child node)
 					if (logger.isLoggable(Level.FINER)) logger.finer("Adding new node to node " + prefixNode.toShortString(vocab));
 					Node newNode = prefixNode.addChild(sentence[j]);
+					visit(newNode);
 					if (logger.isLoggable(Level.FINER)) {
 						String word = (suffixArray==null) ? ""+sentence[j] : suffixArray.getVocabulary().getWord(sentence[j]);
 						logger.finer("Created new node " + newNode.toShortString(vocab) +" for \"" + word + "\" and \n  added it to " + prefixNode.toShortString(vocab));
@@ -516,8 +523,8 @@ public class PrefixTree extends AbstractGrammar {
 //		}
 //		
 		
-		if (suffixArray.getCachedHierarchicalPhrases().containsKey(pattern)) {
-			result = suffixArray.getCachedHierarchicalPhrases().get(pattern);
+		result = suffixArray.getCachedHierarchicalPhrases().get(pattern);
+		if (result != null) {
 			int[] bounds = suffixArray.findPhrase(pattern, 0, pattern.size(), prefixNode.lowBoundIndex, prefixNode.highBoundIndex);
 			if (bounds!=null) {
 				node.setBounds(bounds[0],bounds[1]);
@@ -552,12 +559,16 @@ public class PrefixTree extends AbstractGrammar {
 
 				// 8: If M_a_alpha_b has been precomputed (then result will be non-null)
 				// 9: Retrieve M_a_alpha_b from cache of precomputations
-
+				result = suffixArray.getMatchingPhrases(pattern);
+				if (result == null && collocationIndex != null) {
+					result = collocationIndex.get(pattern);
+					if (result != null) {
+						suffixArray.cacheMatchingPhrases(result);
+					}
+				}
 
 				// 10: else
-				if (suffixArray.getCachedHierarchicalPhrases().containsKey(pattern)) {	
-					result = suffixArray.getMatchingPhrases(pattern);
-				} else {
+				if (result == null) {
 
 					// 16: M_a_alpha_b <-- QUERY_INTERSECT(M_a_alpha, M_alpha_b)
 
@@ -592,7 +603,7 @@ public class PrefixTree extends AbstractGrammar {
 		}
 		
 		// 17: Return M_a_alpha_b
-		List<Rule> rules = ruleExtractor.extractRules(result);
+		List<Rule> rules = extractRules(node, result);
 //		node.storeResults(result, rules);
 		storeResults(node, result, rules);
 		
@@ -607,6 +618,34 @@ public class PrefixTree extends AbstractGrammar {
 
 	}
 	
+	/**
+	 * Extracts the translation rules for the phrases matched by
+	 * a node of this tree.
+	 * <p>
+	 * Subclasses may defer extraction by returning an empty
+	 * list here; the node then gets its rules when they are
+	 * first asked for.
+	 *
+	 * @param node Node whose phrases were matched
+	 * @param phrases Source phrases matched by the node
+	 * @return translation rules for the node
+	 */
+	protected List<Rule> extractRules(Node node, MatchedHierarchicalPhrases phrases) {
+		return (ruleExtractor==null) ? 
+				Collections.<Rule>emptyList() : 
+				ruleExtractor.extractRules(phrases);
+	}
+	
+	/**
+	 * Called for each node of this tree that is reached while
+	 * adding a sentence, whether or not the node is new.
+	 * 
+	 * @param node Node reached while adding a sentence
+	 */
+	protected void visit(Node node) {
+		
+	}
+	
 	@SuppressWarnings("deprecation")
 	private void storeResults(Node node, MatchedHierarchicalPhrases result, List<Rule> rules) {
 		if (printedNodes==null || !printedNodes.contains(node.objectID)) {
@@ -690,6 +729,8 @@ public class PrefixTree extends AbstractGrammar {
 					if (logger.isLoggable(Level.FINEST)) logger.finest("X Node is already " + xNode + " for prefixNode " + node);
 				}
 
+				visit(xNode);
+
 				// 5: Mark p_alphaX active
 				xNode.active = true; //Node.ACTIVE;
 				
@@ -711,18 +752,15 @@ public class PrefixTree extends AbstractGrammar {
 						}
 						phrasesWithFinalX = node.getMatchedPhrases().copyWithFinalX();
 					} else {
-						Cache<Pattern,MatchedHierarchicalPhrases> cache = suffixArray.getCachedHierarchicalPhrases();
-						if (cache.containsKey(xpattern)) {
-							phrasesWithFinalX = cache.get(xpattern);
-						} else {
+						ConcurrentCache<Pattern,MatchedHierarchicalPhrases> cache = suffixArray.getCachedHierarchicalPhrases();
+						phrasesWithFinalX = cache.get(xpattern);
+						if (phrasesWithFinalX == null) {
 							phrasesWithFinalX = node.getMatchedPhrases().copyWithFinalX();
 							suffixArray.cacheMatchingPhrases(phrasesWithFinalX);
 						}
 					}	
 					
-					List<Rule> rules = (ruleExtractor==null) ? 
-								Collections.<Rule>emptyList() : 
-								ruleExtractor.extractRules(phrasesWithFinalX);
+					List<Rule> rules = extractRules(xNode, phrasesWithFinalX);
 					//xNode.storeResults(phrasesWithFinalX, rules);
 					storeResults(xNode, phrasesWithFinalX, rules);
 				}
@@ -817,6 +855,7 @@ public class PrefixTree extends AbstractGrammar {
 		this.ruleOwner = Integer.MIN_VALUE;
 		this.defaultLHS = Integer.MIN_VALUE;
 		this.oovFeatureCost = Float.NaN;
+		this.collocationIndex = null;
 	}
 	
 	/**
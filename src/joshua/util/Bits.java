@@ -124,4 +124,61 @@ public class Bits {
 		return (int) l;
 		
 	}
+	
+	
+	/**
+	 * Scrambles the bits of a long so that nearby inputs give
+	 * unrelated outputs (the finalizer of MurmurHash3).
+	 * 
+	 * @param h Value to mix
+	 * @return Mixed value
+	 */
+	public static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	
+	/**
+	 * Folds an integer into a running 64-bit hash.
+	 * 
+	 * @param hash Hash of the values seen so far
+	 * @param value Next value
+	 * @return Hash of the values seen so far, followed by value
+	 */
+	public static long hash(long hash, int value) {
+		return mix(hash * 0x9E3779B97F4A7C15L + value);
+	}
+	
+	
+	/**
+	 * Computes a 64-bit hash of a sequence of integers.
+	 * 
+	 * @param values Array containing the sequence
+	 * @param offset Index of the first value of the sequence
+	 * @param length Number of values in the sequence
+	 * @return 64-bit hash of the sequence
+	 */
+	public static long hash(int[] values, int offset, int length) {
+		long h = length;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			h = hash(h, values[i]);
+		}
+		return h;
+	}
+	
+	
+	/**
+	 * Computes a 64-bit hash of an array of integers.
+	 * 
+	 * @param values Array of values
+	 * @return 64-bit hash of the array
+	 */
+	public static long hash(int[] values) {
+		return hash(values, 0, values.length);
+	}
 }
@@ -0,0 +1,317 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A least recently used cache that may be shared by many threads.
+ * <p>
+ * The cache is split into segments, each guarded by its own lock
+ * and selected by the hash code of the key, so that threads rarely
+ * contend. Each segment is an access-ordered LinkedHashMap, from
+ * which the least recently used entries are evicted once the
+ * segment holds more than its share of the capacity.
+ * <p>
+ * The capacity is a total weight. Each entry weighs what the
+ * Weigher given to the cache says it does, for example the
+ * estimated number of bytes it takes; without a Weigher each
+ * entry weighs one, and the capacity is a number of entries.
+ * <p>
+ * Unlike Cache, this is not a Map: a lookup and an insertion are
+ * each atomic, but another thread may evict an entry between
+ * the two, so callers should test the result of get for null
+ * rather than call containsKey first. Null values are not
+ * allowed.
+ *
+ * @version $LastChangedDate$
+ */
+public class ConcurrentCache<K,V> {
+
+	/**
+	 * Estimates the weight of a cache entry.
+	 */
+	public interface Weigher<K,V> {
+		long weigh(K key, V value);
+	}
+
+	private final List<Segment<K,V>> segments;
+	private final int segmentMask;
+	private final Weigher<? super K, ? super V> weigher;
+
+	/**
+	 * Constructs a cache with room for the given number of
+	 * entries.
+	 *
+	 * @param maxEntries Number of entries to cache
+	 * @param concurrency Expected number of threads using the
+	 *                    cache at once
+	 */
+	public ConcurrentCache(int maxEntries, int concurrency) {
+		this(maxEntries, concurrency, null);
+	}
+
+	/**
+	 * Constructs a cache with room for entries of the given
+	 * total weight.
+	 *
+	 * @param capacity Total weight of the entries to cache
+	 * @param concurrency Expected number of threads using the
+	 *                    cache at once
+	 * @param weigher Weighs each entry; if null, every entry
+	 *                weighs one
+	 */
+	public ConcurrentCache(long capacity, int concurrency, Weigher<? super K, ? super V> weigher) {
+		int numSegments = Integer.highestOneBit(Math.max(1, concurrency));
+		if (numSegments < concurrency) {
+			numSegments <<= 1;
+		}
+		// Each segment must have room for at least one entry
+		while (numSegments > 1 && capacity / numSegments < 1) {
+			numSegments >>= 1;
+		}
+		this.segments = new ArrayList<Segment<K,V>>(numSegments);
+		for (int i = 0; i < numSegments; i++) {
+			segments.add(new Segment<K,V>(capacity / numSegments));
+		}
+		this.segmentMask = numSegments - 1;
+		this.weigher = weigher;
+	}
+
+	private Segment<K,V> segmentFor(Object key) {
+		// Spread the hash code so that its high bits matter
+		int hash = key.hashCode();
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return segments.get(hash & segmentMask);
+	}
+
+	/**
+	 * Gets the value cached for a key, marking it as recently
+	 * used.
+	 *
+	 * @return the cached value, or null
+	 */
+	public V get(Object key) {
+		return segmentFor(key).get(key);
+	}
+
+	/**
+	 * Tells whether a value is cached for a key, without counting
+	 * a hit or miss or marking it as recently used.
+	 */
+	public boolean containsKey(Object key) {
+		return segmentFor(key).containsKey(key);
+	}
+
+	/**
+	 * Caches a value for a key, evicting least recently used
+	 * entries of the same segment to make room for it. A value
+	 * heavier than a whole segment is not cached.
+	 *
+	 * @return the value previously cached for the key, or null
+	 */
+	public V put(K key, V value) {
+		long weight = (weigher == null) ? 1 : weigher.weigh(key, value);
+		return segmentFor(key).put(key, value, weight, false);
+	}
+
+	/**
+	 * Caches a value for a key unless one is cached already. When
+	 * threads compute a value for the same key at once, this lets
+	 * them all share the first one cached.
+	 *
+	 * @return the value previously cached for the key, or null
+	 */
+	public V putIfAbsent(K key, V value) {
+		long weight = (weigher == null) ? 1 : weigher.weigh(key, value);
+		return segmentFor(key).put(key, value, weight, true);
+	}
+
+	/** Removes all entries from the cache. */
+	public void clear() {
+		for (Segment<K,V> segment : segments) {
+			synchronized (segment) {
+				segment.entries.clear();
+				segment.weight = 0;
+			}
+		}
+	}
+
+	/** Gets the number of cached entries. */
+	public int size() {
+		int size = 0;
+		for (Segment<K,V> segment : segments) {
+			synchronized (segment) {
+				size += segment.entries.size();
+			}
+		}
+		return size;
+	}
+
+	/** Gets the total weight of the cached entries. */
+	public long getWeight() {
+		long weight = 0;
+		for (Segment<K,V> segment : segments) {
+			synchronized (segment) {
+				weight += segment.weight;
+			}
+		}
+		return weight;
+	}
+
+	/** Gets a snapshot of the cached values. */
+	public List<V> values() {
+		List<V> values = new ArrayList<V>();
+		for (Segment<K,V> segment : segments) {
+			synchronized (segment) {
+				for (Entry<V> entry : segment.entries.values()) {
+					values.add(entry.value);
+				}
+			}
+		}
+		return values;
+	}
+
+	/** Gets the number of lookups answered from the cache. */
+	public long getHits() {
+		long hits = 0;
+		for (Segment<K,V> segment : segments) {
+			synchronized (segment) {
+				hits += segment.hits;
+			}
+		}
+		return hits;
+	}
+
+	/** Gets the number of lookups that found nothing cached. */
+	public long getMisses() {
+		long misses = 0;
+		for (Segment<K,V> segment : segments) {
+			synchronized (segment) {
+				misses += segment.misses;
+			}
+		}
+		return misses;
+	}
+
+	/** Gets the number of entries evicted from the cache. */
+	public long getEvictions() {
+		long evictions = 0;
+		for (Segment<K,V> segment : segments) {
+			synchronized (segment) {
+				evictions += segment.evictions;
+			}
+		}
+		return evictions;
+	}
+
+	/** Gets the fraction of lookups answered from the cache. */
+	public double getHitRate() {
+		long hits = getHits(), misses = getMisses();
+		return (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses);
+	}
+
+	public String toString() {
+		return String.format("%d entries of weight %d: %d hits, %d misses (%.1f%% hit rate), %d evictions",
+				size(), getWeight(), getHits(), getMisses(), 100.0 * getHitRate(), getEvictions());
+	}
+
+
+//===============================================================
+// Cache segments
+//===============================================================
+
+	/** A cached value, with its weight. */
+	private static class Entry<V> {
+		final V value;
+		final long weight;
+
+		Entry(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/** One lock-guarded part of the cache. */
+	private static class Segment<K,V> {
+
+		private final long capacity;
+
+		final LinkedHashMap<K,Entry<V>> entries =
+			new LinkedHashMap<K,Entry<V>>(16, 0.75f, true);
+		long weight = 0;
+
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0;
+
+		Segment(long capacity) {
+			this.capacity = capacity;
+		}
+
+		synchronized V get(Object key) {
+			Entry<V> entry = entries.get(key);
+			if (entry == null) {
+				misses++;
+				return null;
+			} else {
+				hits++;
+				return entry.value;
+			}
+		}
+
+		synchronized boolean containsKey(Object key) {
+			return entries.containsKey(key);
+		}
+
+		synchronized V put(K key, V value, long entryWeight, boolean onlyIfAbsent) {
+			if (value == null) {
+				throw new NullPointerException("Null values cannot be cached");
+			}
+
+			Entry<V> previous = entries.get(key);
+			if (previous != null && onlyIfAbsent) {
+				return previous.value;
+			}
+			if (previous != null) {
+				entries.remove(key);
+				weight -= previous.weight;
+			}
+
+			if (entryWeight <= capacity) {
+				entries.put(key, new Entry<V>(value, entryWeight));
+				weight += entryWeight;
+
+				// Evict from the least recently used end
+				Iterator<Map.Entry<K,Entry<V>>> eldest = entries.entrySet().iterator();
+				while (weight > capacity) {
+					weight -= eldest.next().getValue().weight;
+					eldest.remove();
+					evictions++;
+				}
+			}
+
+			return (previous == null) ? null : previous.value;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.util;
+
+import java.util.HashMap;
+
+/**
+ * Counts the n-gram matches between candidate translations and
+ * reference translations, as needed by BLEU, without building
+ * n-gram strings.
+ * <p>
+ * Reference words are mapped to integer IDs once, when the
+ * references are added, and each reference set is kept as an
+ * {@link NgramTable} of maximum n-gram counts. A candidate word
+ * that is not in any reference gets ID -1, and n-grams containing
+ * it are skipped, since they cannot match.
+ * <p>
+ * Adding references is not thread-safe. Once all references have
+ * been added, candidates can be matched from any number of threads.
+ */
+public class NgramMatcher {
+
+	private final int maxOrder;
+
+	private final HashMap<String,Integer> wordIDs = new HashMap<String,Integer>();
+
+	/** Per-thread table for counting the n-grams of a candidate. */
+	private final ThreadLocal<NgramTable> candidateCounts = new ThreadLocal<NgramTable>() {
+		protected NgramTable initialValue() {
+			return new NgramTable(256);
+		}
+	};
+
+	public NgramMatcher(int maxOrder) {
+		if (maxOrder < 1 || maxOrder > NgramTable.MAX_ORDER) {
+			throw new IllegalArgumentException("n-gram order must be between 1 and " + NgramTable.MAX_ORDER);
+		}
+		this.maxOrder = maxOrder;
+	}
+
+	public int maxOrder() {
+		return maxOrder;
+	}
+
+
+	/** Returns the IDs of reference words, assigning IDs to new words. */
+	public int[] addWords(String[] words) {
+		int[] ids = new int[words.length];
+		for (int k = 0; k < words.length; k++) {
+			Integer id = wordIDs.get(words[k]);
+			if (id == null) {
+				id = wordIDs.size();
+				wordIDs.put(words[k], id);
+			}
+			ids[k] = id;
+		}
+		return ids;
+	}
+
+	/** Returns the IDs of candidate words, or -1 for words not in any reference. */
+	public int[] lookupWords(String[] words) {
+		int[] ids = new int[words.length];
+		for (int k = 0; k < words.length; k++) {
+			Integer id = wordIDs.get(words[k]);
+			ids[k] = (id != null) ? id : -1;
+		}
+		return ids;
+	}
+
+
+	/** Returns the counts of the n-grams of orders 1 through maxOrder in a sentence. */
+	public NgramTable count(int[] ids) {
+		NgramTable table = new NgramTable(ids.length * maxOrder);
+		count(ids, table);
+		return table;
+	}
+
+	/**
+	 * Adds the counts of the n-grams of orders 1 through maxOrder
+	 * in a sentence to a table, skipping those with unknown words.
+	 */
+	public void count(int[] ids, NgramTable table) {
+		for (int start = 0; start < ids.length; start++) {
+			long hash = NgramTable.startHash();
+			for (int n = 1; n <= maxOrder && start + n <= ids.length; n++) {
+				int id = ids[start + n - 1];
+				if (id < 0) break;
+				hash = NgramTable.extendHash(hash, id);
+				table.increment(NgramTable.key(hash, n), 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the maximum count of each n-gram over a set of
+	 * references, adding the references' words to the vocabulary.
+	 */
+	public NgramTable maxCounts(String[][] references) {
+		NgramTable maxCounts = new NgramTable();
+		for (String[] reference : references) {
+			maxCounts.max(count(addWords(reference)));
+		}
+		return maxCounts;
+	}
+
+	/**
+	 * Adds to <code>numMatches[n-1]</code>, for each order n, the
+	 * number of n-grams of the candidate that occur in the references.
+	 *
+	 * @param ids Word IDs of the candidate, from <code>lookupWords</code>
+	 * @param maxRefCounts Maximum n-gram counts of the references
+	 * @param clip Whether to match an n-gram at most as many times as its reference count
+	 */
+	public void countMatches(int[] ids, NgramTable maxRefCounts, boolean clip, int[] numMatches) {
+		NgramTable counts = candidateCounts.get();
+		counts.clear();
+		count(ids, counts);
+		counts.countMatches(maxRefCounts, clip, numMatches);
+	}
+}
@@ -0,0 +1,209 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts of n-grams of integer word IDs, keyed by 64-bit n-gram keys
+ * in an open-addressing hash table of primitive arrays.
+ * <p>
+ * The top four bits of a key hold the order of its n-gram, and the
+ * rest hold a hash of its words. Distinct n-grams of the same order
+ * can share a key only through a 64-bit hash collision.
+ * <p>
+ * A slot whose count is zero is empty, so zero counts are never
+ * stored.
+ *
+ * @see NgramMatcher
+ */
+public class NgramTable {
+
+	/** Largest n-gram order that fits in a key. */
+	public static final int MAX_ORDER = 15;
+
+	private long[] keys;
+	private int[] counts;
+	private int size;
+
+	/** Constructs an empty table. */
+	public NgramTable() {
+		this(16);
+	}
+
+	/**
+	 * Constructs an empty table, with room for the given number
+	 * of n-grams before it needs to grow.
+	 */
+	public NgramTable(int expectedSize) {
+		int capacity = 16;
+		while (capacity < 2 * expectedSize) capacity <<= 1;
+		keys = new long[capacity];
+		counts = new int[capacity];
+	}
+
+
+	/**
+	 * Starts the hash of an n-gram, to be extended one word at a
+	 * time with <code>extendHash</code>.
+	 */
+	public static long startHash() {
+		return 0x84222325cbf29ce4L;
+	}
+
+	public static long extendHash(long hash, int wordID) {
+		hash ^= wordID;
+		hash *= 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
+	}
+
+	/** Returns the key of an n-gram, from the hash of its words. */
+	public static long key(long hash, int order) {
+		return (hash >>> 4) | ((long) order << 60);
+	}
+
+	/** Returns the key of the n-gram of the given order starting at words[start]. */
+	public static long key(int[] words, int start, int order) {
+		long hash = startHash();
+		for (int k = start; k < start + order; k++) {
+			hash = extendHash(hash, words[k]);
+		}
+		return key(hash, order);
+	}
+
+	/** Returns the order of the n-gram with the given key. */
+	public static int order(long key) {
+		return (int) (key >>> 60);
+	}
+
+
+	/** Returns the count of an n-gram, or zero if it is not in the table. */
+	public int get(long key) {
+		int mask = keys.length - 1;
+		for (int slot = slot(key, mask); counts[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) return counts[slot];
+		}
+		return 0;
+	}
+
+	/** Adds to the count of an n-gram. */
+	public void increment(long key, int count) {
+		int slot = find(key);
+		if (counts[slot] == 0) {
+			keys[slot] = key;
+			counts[slot] = count;
+			if (++size * 2 > keys.length) grow();
+		} else {
+			counts[slot] += count;
+		}
+	}
+
+	/** Raises the count of an n-gram to the given count, if it is lower. */
+	public void max(long key, int count) {
+		if (count <= 0) return;
+		int slot = find(key);
+		if (counts[slot] == 0) {
+			keys[slot] = key;
+			counts[slot] = count;
+			if (++size * 2 > keys.length) grow();
+		} else if (count > counts[slot]) {
+			counts[slot] = count;
+		}
+	}
+
+	/** Raises each count in this table to the count of the same n-gram in another. */
+	public void max(NgramTable other) {
+		for (int slot = 0; slot < other.keys.length; slot++) {
+			if (other.counts[slot] != 0) max(other.keys[slot], other.counts[slot]);
+		}
+	}
+
+	/** Returns the number of distinct n-grams in the table. */
+	public int size() {
+		return size;
+	}
+
+	/** Removes all n-grams, keeping the table's capacity. */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(counts, 0);
+			size = 0;
+		}
+	}
+
+
+	/**
+	 * Adds to <code>numMatches[n-1]</code>, for each order n, the
+	 * number of n-grams counted in this table that also occur in
+	 * the reference table. With clipping, an n-gram is matched at
+	 * most as many times as its reference count, as in BLEU.
+	 */
+	public void countMatches(NgramTable reference, boolean clip, int[] numMatches) {
+		for (int slot = 0; slot < keys.length; slot++) {
+			int count = counts[slot];
+			if (count == 0) continue;
+			int refCount = reference.get(keys[slot]);
+			if (refCount > 0) {
+				numMatches[order(keys[slot]) - 1] += clip ? Math.min(count, refCount) : count;
+			}
+		}
+	}
+
+	/** Number of slots, for iterating with <code>keyAt</code> and <code>countAt</code>. */
+	public int capacity() {
+		return keys.length;
+	}
+
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/** Returns the count in a slot, which is zero if the slot is empty. */
+	public int countAt(int slot) {
+		return counts[slot];
+	}
+
+
+	private static int slot(long key, int mask) {
+		return ((int) key ^ (int) (key >>> 32)) & mask;
+	}
+
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		while (counts[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new long[2 * oldKeys.length];
+		counts = new int[2 * oldKeys.length];
+		int mask = keys.length - 1;
+		for (int s = 0; s < oldKeys.length; s++) {
+			if (oldCounts[s] == 0) continue;
+			int slot = slot(oldKeys[s], mask);
+			while (counts[slot] != 0) slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[s];
+			counts[slot] = oldCounts[s];
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The one fork/join pool used by all the divide-and-conquer tasks
+ * of a process, such as the gains of a large nbest or the levels
+ * of a compiled hypergraph.
+ * <p>
+ * The pool is created on first use, with the parallelism last
+ * given to setParallelism (by default, the number of available
+ * processors). The decoder sets it from num_parallel_decoders, so
+ * that one setting bounds the threads of a run. The pool is
+ * stopped by shutdown, and is created anew if it is used again
+ * afterwards.
+ *
+ * @version $LastChangedDate$
+ */
+public final class SharedForkJoinPool {
+
+	private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+	private static ForkJoinPool pool = null;
+
+	private SharedForkJoinPool() {}
+
+	/**
+	 * Sets the number of threads of the pool. This takes effect
+	 * the next time the pool is created, that is, before its first
+	 * use or after a shutdown.
+	 */
+	public static synchronized void setParallelism(int numThreads) {
+		if (numThreads <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive: " + numThreads);
+		}
+		parallelism = numThreads;
+	}
+
+	/**
+	 * Returns the pool, creating it if needed.
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+		}
+		return pool;
+	}
+
+	/**
+	 * Runs the task and returns its result. A task invoked from
+	 * within a fork/join pool is run by the calling thread, which
+	 * helps with the subtasks it forks, rather than handed over
+	 * to the pool and waited for.
+	 */
+	public static <T> T invoke(ForkJoinTask<T> task) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			return task.invoke();
+		} else {
+			return getPool().invoke(task);
+		}
+	}
+
+	/**
+	 * Stops the pool once the tasks already submitted to it are
+	 * done.
+	 */
+	public static synchronized void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+}
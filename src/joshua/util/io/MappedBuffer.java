@@ -0,0 +1,129 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.util.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only, memory-mapped view of a file that may be larger
+ * than a single <code>ByteBuffer</code> can address.
+ * <p>
+ * The file is mapped in segments of 1GB. Consecutive segments
+ * overlap by eight bytes, so that any value of up to eight bytes
+ * can be read from the segment in which it starts.
+ * <p>
+ * All reads are absolute, so a single instance may be shared
+ * by any number of threads.
+ *
+ * @version $LastChangedDate$
+ */
+public class MappedBuffer {
+
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+	private static final int OVERLAP = 8;
+	
+	private final ByteBuffer[] segments;
+	private final long size;
+	
+	/**
+	 * Maps the specified file into memory.
+	 * 
+	 * @param fileName Name of the file to map
+	 * @throws IOException
+	 */
+	public MappedBuffer(String fileName) throws IOException {
+		this(new File(fileName));
+	}
+	
+	/**
+	 * Maps the specified file into memory.
+	 * 
+	 * @param file File to map
+	 * @throws IOException
+	 */
+	public MappedBuffer(File file) throws IOException {
+		RandomAccessFile binaryFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel binaryChannel = binaryFile.getChannel();
+			this.size = binaryChannel.size();
+			
+			int numSegments = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+			this.segments = new ByteBuffer[numSegments];
+			for (int i = 0; i < numSegments; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				long length = Math.min(size - start, (1L << SEGMENT_BITS) + OVERLAP);
+				segments[i] = binaryChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			}
+		} finally {
+			binaryFile.close();
+		}
+	}
+	
+	/**
+	 * Gets the size of the mapped file, in bytes.
+	 * 
+	 * @return the size of the mapped file, in bytes
+	 */
+	public long size() {
+		return size;
+	}
+	
+	public byte get(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+	}
+	
+	public short getShort(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getShort((int) (position & SEGMENT_MASK));
+	}
+	
+	public int getInt(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+	}
+	
+	public long getLong(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+	}
+	
+	public float getFloat(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getFloat((int) (position & SEGMENT_MASK));
+	}
+	
+	/**
+	 * Reads an unsigned value stored in the given number of
+	 * bits, most significant bit first, starting at the given
+	 * bit position.
+	 * <p>
+	 * The file must contain at least eight bytes starting at the
+	 * byte containing the first bit.
+	 * 
+	 * @param bitPosition Position of the first bit of the value
+	 * @param bits Number of bits in the value; at most 57
+	 * @return The value
+	 */
+	public long getBits(long bitPosition, int bits) {
+		if (bits == 0) return 0;
+		long word = getLong(bitPosition >>> 3);
+		int shift = 64 - (int) (bitPosition & 7) - bits;
+		return (word >>> shift) & (-1L >>> (64 - bits));
+	}
+}
@@ -20,6 +20,10 @@ package joshua.zmert;
 import java.util.*;
 import java.util.logging.Logger;
 
+import joshua.util.NgramMatcher;
+import joshua.util.NgramTable;
+import joshua.util.Regex;
+
 public class BLEU extends EvaluationMetric
 {
 	private static final Logger logger = Logger.getLogger(BLEU.class.getName());
@@ -27,8 +31,8 @@ public class BLEU extends EvaluationMetric
   protected int maxGramLength;
   protected EffectiveLengthMethod effLengthMethod;
     // 1: closest, 2: shortest, 3: average
-//  protected HashMap[][] maxNgramCounts;
-  protected HashMap<String,Integer>[] maxNgramCounts;
+  protected NgramMatcher ngramMatcher; // maps reference words to IDs, and matches candidate n-grams
+  protected NgramTable[] maxNgramCounts;
   protected int[][] refWordCount;
   protected double[] weights;
 
@@ -94,40 +98,10 @@ public class BLEU extends EvaluationMetric
 
   protected void set_maxNgramCounts()
   {
-    @SuppressWarnings("unchecked")
-    HashMap<String,Integer>[] temp_HMA = new HashMap[numSentences];
-    maxNgramCounts = temp_HMA;
-
-    String gram = "";
-    int oldCount = 0, nextCount = 0;
-
-      for (int i = 0; i < numSentences; ++i) {
-        maxNgramCounts[i] = getNgramCountsAll(refSentences[i][0]);
-          // initialize to ngramCounts[n] of the first reference translation...
-
-        // ...and update as necessary from the other reference translations
-        for (int r = 1; r < refsPerSen; ++r) {
-          HashMap<String,Integer> nextNgramCounts = getNgramCountsAll(refSentences[i][r]);
-          Iterator<String> it = (nextNgramCounts.keySet()).iterator();
-
-          while (it.hasNext()) {
-            gram = it.next();
-            nextCount = nextNgramCounts.get(gram);
-
-            if (maxNgramCounts[i].containsKey(gram)) { // update if necessary
-              oldCount = maxNgramCounts[i].get(gram);
-              if (nextCount > oldCount) {
-                maxNgramCounts[i].put(gram,nextCount);
-              }
-            } else { // add it
-              maxNgramCounts[i].put(gram,nextCount);
-            }
-
-          }
-
-        } // for (r)
-
-      } // for (i)
+    maxNgramCounts = new NgramTable[numSentences];
+    for (int i = 0; i < numSentences; ++i) {
+      maxNgramCounts[i] = maxNgramCounts(i,-1);
+    }
 
     // For efficiency, calculate the reference lenghts, which will be used in effLength...
 
@@ -141,6 +115,26 @@ public class BLEU extends EvaluationMetric
   }
 
 
+  /**
+   * Returns the maximum count of each n-gram over the references of the
+   * ith sentence, excluding reference skip_r (if not -1).
+   */
+  protected NgramTable maxNgramCounts(int i, int skip_r)
+  {
+    if (ngramMatcher == null) {
+      ngramMatcher = new NgramMatcher(maxGramLength);
+    }
+
+    NgramTable maxCounts = new NgramTable();
+    for (int r = 0; r < refsPerSen; ++r) {
+      if (r == skip_r) continue;
+      String ref = refSentences[i][r];
+      String[] words = ref.equals("") ? new String[0] : ref.split("\\s+");
+      maxCounts.max(ngramMatcher.count(ngramMatcher.addWords(words)));
+    }
+    return maxCounts;
+  }
+
   public int[] suffStats(String cand_str, int i)
   {
     int[] stats = new int[suffStatsCount];
@@ -149,7 +143,7 @@ public class BLEU extends EvaluationMetric
 //for (int j = 0; j < wordCount; ++j) { words[j] = words[j].intern(); }
 
     if (!cand_str.equals("")) {
-      String[] words = cand_str.split("\\s+");
+      String[] words = Regex.spaces.split(cand_str);
       set_prec_suffStats(stats,words,i);
       stats[suffStatsCount-2] = words.length;
       stats[suffStatsCount-1] = effLength(words.length,i);
@@ -165,37 +159,14 @@ public class BLEU extends EvaluationMetric
 
   public void set_prec_suffStats(int[] stats, String[] words, int i)
   {
-    HashMap<String,Integer>[] candCountsArray = getNgramCountsArray(words);
+    // candidate n-grams are matched as word IDs against the reference
+    // counts, with each n-gram type clipped to its max reference count
+    int[] correctGramCount = new int[maxGramLength];
+    ngramMatcher.countMatches(ngramMatcher.lookupWords(words),maxNgramCounts[i],true,correctGramCount);
 
     for (int n = 1; n <= maxGramLength; ++n) {
-
-      int correctGramCount = 0;
-      String gram = "";
-      int candGramCount = 0, maxRefGramCount = 0, clippedCount = 0;
-
-      Iterator<String> it = (candCountsArray[n].keySet()).iterator();
-
-      while (it.hasNext()) {
-      // for each n-gram type in the candidate
-        gram = it.next();
-        candGramCount = candCountsArray[n].get(gram);
-//        if (maxNgramCounts[i][n].containsKey(gram)) {
-//          maxRefGramCount = maxNgramCounts[i][n].get(gram);
-        if (maxNgramCounts[i].containsKey(gram)) {
-          maxRefGramCount = maxNgramCounts[i].get(gram);
-        } else {
-          maxRefGramCount = 0;
-        }
-
-        clippedCount = Math.min(candGramCount,maxRefGramCount);
-
-        correctGramCount += clippedCount;
-
-      }
-
-      stats[2*(n-1)] = correctGramCount;
+      stats[2*(n-1)] = correctGramCount[n-1];
       stats[2*(n-1)+1] = Math.max(words.length-(n-1),0); // total gram count
-
     } // for (n)
 
   }
@@ -0,0 +1,369 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package joshua.zmert;
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The candidate translations produced by the decoder in all MERT
+ * iterations so far, kept in a binary file that grows by one block of
+ * records per iteration and is memory-mapped for reading.  It replaces
+ * the temp.sents.it*, temp.feats.it* and temp.stats.it* text files.
+ *
+ * Every candidate in a decoder n-best list becomes a fixed-size record:
+ *
+ *   int sentence, int iteration, long hash,
+ *   double featVal[numParams], int suffStats[suffStatsCount]
+ *
+ * Candidates are identified by a 64-bit hash of their normalized text,
+ * so that the text itself is only needed (by the evaluation metric) the
+ * first time a candidate is seen.  Repeated candidates are recorded
+ * again, with a copy of their sufficient statistics, so that the pool
+ * knows in which iterations each candidate appeared.
+ *
+ * For each sentence, the candidates of interest are the distinct
+ * candidates of iterations firstIt through the current one.  Each is
+ * represented by its earliest record from those iterations, and they
+ * are ordered by that record, which is the order in which the
+ * file-based merge used to read them.
+ *
+ * Since the file survives the process, a MERT run that executes one
+ * iteration per process (see MertCore.main) can reopen the pool and
+ * continue from the records of the previous iterations.
+ */
+class CandidatePool
+{
+  private final int numSentences;
+  private final int numParams;
+  private final int suffStatsCount;
+  private final int recordSize;
+  private final int recordsPerSegment;
+
+  private RandomAccessFile file;
+  private ByteBuffer[] segments; // the pool file, mapped in segments of whole records
+  private int numRecords; // number of records in the pool file
+
+  // for each record (including those not yet written), its iteration,
+  // and the next record of the same candidate, or -1
+  private int[] recIteration;
+  private int[] nextOccurrence;
+
+  private final ArrayList<HashMap<Long,Occurrences>> distinct;
+    // distinct.get(i) maps the hash of a candidate of the ith sentence to its
+    // earliest and latest records from the iterations of interest
+
+  private int[][] candidates;
+    // candidates[i][k] is the earliest record of the kth candidate of
+    // interest for the ith sentence
+
+  private final ArrayList<Pending> pending = new ArrayList<Pending>();
+    // records added since the last flush()
+
+  private static class Occurrences
+  {
+    int first, last;
+    Occurrences(int record) { first = record; last = record; }
+  }
+
+  private static class Pending
+  {
+    final int sentence;
+    final long hash;
+    final double[] featVal;
+    String text; // null unless this is a new candidate
+    int copyFrom; // record whose sufficient statistics this one shares
+    int[] stats;
+
+    Pending(int sentence, long hash, double[] featVal)
+    {
+      this.sentence = sentence;
+      this.hash = hash;
+      this.featVal = featVal;
+    }
+  }
+
+  /**
+   * Opens the pool file for the given iteration, keeping the records of
+   * earlier iterations and discarding any others (e.g. those written by
+   * an earlier attempt at this iteration).
+   */
+  CandidatePool(String fileName, int numSentences, int numParams, int suffStatsCount, int iteration)
+    throws IOException
+  {
+    this.numSentences = numSentences;
+    this.numParams = numParams;
+    this.suffStatsCount = suffStatsCount;
+    recordSize = 16 + 8*numParams + 4*suffStatsCount;
+    recordsPerSegment = Integer.MAX_VALUE / recordSize;
+
+    distinct = new ArrayList<HashMap<Long,Occurrences>>(numSentences);
+    for (int i = 0; i < numSentences; ++i) {
+      distinct.add(new HashMap<Long,Occurrences>());
+    }
+    recIteration = new int[1024];
+    nextOccurrence = new int[1024];
+
+    file = new RandomAccessFile(fileName, "rw");
+
+    // records are written in iteration order, so the records to keep
+    // are a prefix of the file
+    numRecords = (int)(file.length() / recordSize);
+    map();
+    int kept = 0;
+    while (kept < numRecords && iteration(kept) < iteration) {
+      index(sentence(kept), hash(kept), kept, iteration(kept));
+      ++kept;
+    }
+    numRecords = kept;
+    file.setLength((long)numRecords * recordSize);
+    map();
+    sortCandidates();
+  }
+
+  /**
+   * Adds a candidate of the ith sentence, produced in the given
+   * iteration.  It is written to the pool by the next call to flush().
+   */
+  void add(int i, String text, double[] featVal, int iteration)
+  {
+    long hash = hash(text);
+    int record = numRecords + pending.size();
+
+    Pending p = new Pending(i, hash, featVal);
+    if (index(i, hash, record, iteration)) {
+      p.text = text;
+    } else {
+      p.copyFrom = distinct.get(i).get(hash).first;
+    }
+    pending.add(p);
+  }
+
+  /**
+   * Forgets candidate occurrences from iterations before firstIt.  A
+   * candidate that appeared in those iterations only is no longer of
+   * interest, and one that also appeared later is now represented by
+   * its earliest record from firstIt on.
+   */
+  void discardBefore(int firstIt)
+  {
+    for (int i = 0; i < numSentences; ++i) {
+      Iterator<Occurrences> It = distinct.get(i).values().iterator();
+      while (It.hasNext()) {
+        Occurrences occ = It.next();
+        while (occ.first >= 0 && recIteration[occ.first] < firstIt) {
+          occ.first = nextOccurrence[occ.first];
+        }
+        if (occ.first < 0) It.remove();
+      }
+    }
+    sortCandidates();
+  }
+
+  /**
+   * Computes the sufficient statistics of the new candidates added since
+   * the last flush (in a single call to the metric), and appends all
+   * added candidates to the pool file.
+   *
+   * @return the number of new candidates
+   */
+  int flush(EvaluationMetric evalMetric) throws IOException
+  {
+    ArrayList<Pending> unknown = new ArrayList<Pending>();
+    for (Pending p : pending) {
+      if (p.text != null) unknown.add(p);
+    }
+
+    int size = unknown.size();
+    if (size > 0) {
+      String[] cand_strings = new String[size];
+      int[] cand_indices = new int[size];
+      for (int d = 0; d < size; ++d) {
+        cand_strings[d] = unknown.get(d).text;
+        cand_indices[d] = unknown.get(d).sentence;
+      }
+
+      int[][] newStats = evalMetric.suffStats(cand_strings, cand_indices);
+      for (int d = 0; d < size; ++d) {
+        unknown.get(d).stats = newStats[d];
+      }
+    }
+
+    FileChannel channel = file.getChannel();
+    channel.position((long)numRecords * recordSize);
+    ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, (1 << 16) / recordSize) * recordSize);
+
+    for (int d = 0; d < pending.size(); ++d) {
+      Pending p = pending.get(d);
+      if (p.stats == null) {
+        // a candidate seen before, possibly earlier in this batch
+        p.stats = (p.copyFrom < numRecords) ? stats(p.copyFrom)
+                                             : pending.get(p.copyFrom - numRecords).stats;
+      }
+
+      if (buffer.remaining() < recordSize) {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+      }
+
+      buffer.putInt(p.sentence);
+      buffer.putInt(recIteration[numRecords + d]);
+      buffer.putLong(p.hash);
+      for (int c = 1; c <= numParams; ++c) buffer.putDouble(p.featVal[c]);
+      for (int s = 0; s < suffStatsCount; ++s) buffer.putInt(p.stats[s]);
+    }
+
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+
+    numRecords += pending.size();
+    pending.clear();
+    map();
+    sortCandidates();
+
+    return size;
+  }
+
+  /** Returns the number of candidates of interest for the ith sentence. */
+  int size(int i)
+  {
+    return candidates[i].length;
+  }
+
+  /** Returns the iteration in which the kth candidate of the ith sentence was (first) produced. */
+  int iteration(int i, int k)
+  {
+    return recIteration[candidates[i][k]];
+  }
+
+  /** Copies the feature values of the kth candidate of the ith sentence into featVal[1..numParams]. */
+  void featVal(int i, int k, double[] featVal)
+  {
+    int record = candidates[i][k];
+    ByteBuffer segment = segments[record / recordsPerSegment];
+    int offset = (record % recordsPerSegment) * recordSize + 16;
+    for (int c = 1; c <= numParams; ++c) {
+      featVal[c] = segment.getDouble(offset + 8*(c-1));
+    }
+  }
+
+  /** Returns the sufficient statistics of the kth candidate of the ith sentence. */
+  int[] stats(int i, int k)
+  {
+    return stats(candidates[i][k]);
+  }
+
+  /** Closes the pool file, which is kept for later iterations. */
+  void close() throws IOException
+  {
+    segments = null;
+    file.close();
+  }
+
+
+  /**
+   * Records that the candidate with the given hash appears in a record.
+   *
+   * @return true if the candidate is not among the candidates of interest
+   */
+  private boolean index(int i, long hash, int record, int iteration)
+  {
+    if (record >= recIteration.length) {
+      recIteration = Arrays.copyOf(recIteration, 2*record);
+      nextOccurrence = Arrays.copyOf(nextOccurrence, 2*record);
+    }
+    recIteration[record] = iteration;
+    nextOccurrence[record] = -1;
+
+    Occurrences occ = distinct.get(i).get(hash);
+    if (occ == null) {
+      distinct.get(i).put(hash, new Occurrences(record));
+      return true;
+    } else {
+      nextOccurrence[occ.last] = record;
+      occ.last = record;
+      return false;
+    }
+  }
+
+  private void sortCandidates()
+  {
+    candidates = new int[numSentences][];
+    for (int i = 0; i < numSentences; ++i) {
+      candidates[i] = new int[distinct.get(i).size()];
+      int k = 0;
+      for (Occurrences occ : distinct.get(i).values()) {
+        candidates[i][k++] = occ.first;
+      }
+      Arrays.sort(candidates[i]);
+    }
+  }
+
+  private void map() throws IOException
+  {
+    FileChannel channel = file.getChannel();
+    int numSegments = (numRecords + recordsPerSegment - 1) / recordsPerSegment;
+    segments = new ByteBuffer[numSegments];
+    for (int s = 0; s < numSegments; ++s) {
+      long first = (long)s * recordsPerSegment;
+      long count = Math.min(recordsPerSegment, numRecords - first);
+      segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, first * recordSize, count * recordSize);
+    }
+  }
+
+  private int sentence(int record)
+  {
+    return segments[record / recordsPerSegment].getInt((record % recordsPerSegment) * recordSize);
+  }
+
+  private int iteration(int record)
+  {
+    return segments[record / recordsPerSegment].getInt((record % recordsPerSegment) * recordSize + 4);
+  }
+
+  private long hash(int record)
+  {
+    return segments[record / recordsPerSegment].getLong((record % recordsPerSegment) * recordSize + 8);
+  }
+
+  private int[] stats(int record)
+  {
+    ByteBuffer segment = segments[record / recordsPerSegment];
+    int offset = (record % recordsPerSegment) * recordSize + 16 + 8*numParams;
+    int[] stats = new int[suffStatsCount];
+    for (int s = 0; s < suffStatsCount; ++s) {
+      stats[s] = segment.getInt(offset + 4*s);
+    }
+    return stats;
+  }
+
+  /** 64-bit FNV-1a hash of a candidate's text. */
+  static long hash(String text)
+  {
+    long h = 0xcbf29ce484222325L;
+    for (int n = 0; n < text.length(); ++n) {
+      h ^= text.charAt(n);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+}
@@ -1,9 +1,9 @@
 package joshua.zmert;
 
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.logging.Logger;
 
+import joshua.util.NgramTable;
+
 // The metric re-uses most of the BLEU code
 public class CompressionBLEU extends BLEU {
 	private static final Logger	logger	= Logger.getLogger(CompressionBLEU.class.getName());
@@ -60,41 +60,11 @@ public class CompressionBLEU extends BLEU {
 	// the only difference to BLEU here is that we're excluding the input from 
 	// the collection of ngram statistics - that's actually up for debate
 	protected void set_maxNgramCounts() {
-		@SuppressWarnings("unchecked")
-		HashMap<String, Integer>[] temp_HMA = new HashMap[numSentences];
-		maxNgramCounts = temp_HMA;
-		
-		String gram = "";
-		int oldCount = 0, nextCount = 0;
-		
+		maxNgramCounts = new NgramTable[numSentences];
 		for (int i = 0; i < numSentences; ++i) {
-			// update counts as necessary from the reference translations
-			for (int r = 0; r < refsPerSen; ++r) {
-				// skip source reference
-				if (r == this.sourceReferenceIndex)
-					continue;
-				if (maxNgramCounts[i] == null) {
-					maxNgramCounts[i] = getNgramCountsAll(refSentences[i][r]);
-				} else {
-					HashMap<String, Integer> nextNgramCounts = getNgramCountsAll(refSentences[i][r]);
-					Iterator<String> it = (nextNgramCounts.keySet()).iterator();
-					
-					while (it.hasNext()) {
-						gram = it.next();
-						nextCount = nextNgramCounts.get(gram);
-						
-						if (maxNgramCounts[i].containsKey(gram)) {
-							oldCount = maxNgramCounts[i].get(gram);
-							if (nextCount > oldCount) {
-								maxNgramCounts[i].put(gram, nextCount);
-							}
-						} else { // add it
-							maxNgramCounts[i].put(gram, nextCount);
-						}
-					}
-				}
-			} // for (r)
-		} // for (i)
+			// skip source reference
+			maxNgramCounts[i] = maxNgramCounts(i, this.sourceReferenceIndex);
+		}
 		
 		// for efficiency, calculate the reference lenghts, which will be used
 		// in effLength...
@@ -21,6 +21,8 @@ import java.util.*;
 import java.io.*;
 import java.text.DecimalFormat;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -39,6 +41,9 @@ public class IntermediateOptimizer implements Runnable
   private int[] candCount;
   private double[][][] featVal_array;
   private ConcurrentHashMap<Integer,int[]>[] suffStats_array;
+  private CandidatePool candidatePool;
+  private ForkJoinPool lineSearchPool;
+    // shared by all optimizer threads; parameters are line-searched in parallel
 
   /* static data members */
   private final static DecimalFormat f4 = new DecimalFormat("###0.0000");
@@ -99,7 +104,8 @@ public class IntermediateOptimizer implements Runnable
       int in_j, Semaphore in_blocker, Vector<String> in_threadOutput,
       double[] in_initialLambda, double[] in_finalLambda, int[][] in_best1Cand_suffStats,
       double[] in_finalScore, int[] in_candCount, double[][][] in_featVal_array,
-      ConcurrentHashMap<Integer,int[]>[] in_suffStats_array)
+      ConcurrentHashMap<Integer,int[]>[] in_suffStats_array,
+      CandidatePool in_candidatePool, ForkJoinPool in_lineSearchPool)
   {
     j = in_j;
     blocker = in_blocker;
@@ -113,323 +119,198 @@ public class IntermediateOptimizer implements Runnable
     candCount = in_candCount;
     featVal_array = in_featVal_array;
     suffStats_array = in_suffStats_array;
+    candidatePool = in_candidatePool;
+    lineSearchPool = in_lineSearchPool;
   }
 
-//  private TreeMap<Double,TreeMap> thresholdsForParam(int c, int[] candCount, double[][][] featVal_array, double[] currLambda, TreeSet<Integer>[] indicesOfInterest)
-  private void set_thresholdsForParam(
-      TreeMap<Double,TreeMap<Integer,int[]>> thresholdsAll, int c,
-      double[] currLambda, TreeSet<Integer>[] indicesOfInterest)
+  /**
+   * The values of lambda[c] (within its critical value range) at which
+   * the 1-best candidate of some sentence changes when all the other
+   * parameters are fixed, in increasing order.  At ip[t], the 1-best
+   * candidate of sentence[t] becomes candidate new_k[t].
+   */
+  private static class Thresholds
   {
-/*
-    TreeMap[] thresholds = new TreeMap[numSentences];
-      // thresholds[i] stores thresholds for the cth parameter obtained by
-      // processing the candidates of sentence i.  It not only stores the
-      // thresholds themselves, but also a triple of {i,from,to}, where from/to
-      // are indices that characterize the 1-best switch at this threshold.
+    final double[] ip;
+    final int[] sentence;
+    final int[] new_k;
+    int size;
+    int distinctCount; // number of distinct values in ip[]
+
+    Thresholds(int capacity)
+    {
+      ip = new double[capacity];
+      sentence = new int[capacity];
+      new_k = new int[capacity];
+    }
+  }
 
+  private Thresholds thresholdsForParam(
+      int c, double[] currLambda, double[][] score, TaskOutput out)
+  {
+    // For each sentence, the score of candidate k as a function of lambda_c
+    // is a line with slope h_c(k) and offset SUM_c2!=c currLambda_c2*h_c2(k).
+    // As lambda_c goes from -Inf to +Inf, the 1-best candidate follows the
+    // upper envelope of these lines.  The envelope is found by sorting the
+    // lines by slope and keeping a stack of the lines on it (the "convex
+    // hull trick"), which takes O(K log K) time instead of the O(K^2) of
+    // finding one intersection point at a time.
+
+    int maxCandCount = 0;
     for (int i = 0; i < numSentences; ++i) {
-      thresholds[i] = new TreeMap<Double,int[]>();
+      maxCandCount = Math.max(maxCandCount,candCount[i]);
     }
-*/
 
-//    TreeMap<Double,int[]> thresholds = new TreeMap<Double,int[]>();
+    double[] offset = new double[maxCandCount];
+    int[] order = new int[maxCandCount];
+    int[] tmp = new int[maxCandCount];
+    int[] hull = new int[maxCandCount];
+    double[] hullStart = new double[maxCandCount];
+      // hull[h] is the 1-best candidate for hullStart[h] < lambda_c < hullStart[h+1]
 
-    // Find threshold points
-//    TreeMap<Double,TreeMap> thresholdsAll = new TreeMap<Double,TreeMap>();
-    thresholdsAll.clear();
+    double[][] ips = new double[numSentences][];
+    int[][] new_ks = new int[numSentences][];
+    int[] ipCount = new int[numSentences];
+    int totalCount = 0;
 
-    int ipCount = 0;
     for (int i = 0; i < numSentences; ++i) {
-    // find threshold points contributed by ith sentence
-
-//      println("Processing sentence #" + i,4);
-
       int numCandidates = candCount[i];
-        // aka simply K
-
-      double[] slope = new double[numCandidates];
-        // will be h_c from candidatesInfo
-        // repeated here for easy access
-      double[] offset = new double[numCandidates];
-        // SUM_j!=c currLambda_j*h_j(x)
-
-      int minSlopeIndex = -1;          // index of line with steepest descent...
-      double minSlope = PosInf;        // ...and its slope...
-      double offset_minSlope = NegInf; // ...and its offset (needed to break ties)
-
-      int maxSlopeIndex = -1;          // index of line with steepest ascent...
-      double maxSlope = NegInf;        // ...and its slope...
-      double offset_maxSlope = NegInf; // ...and its offset (needed to break ties)
-
-      double bestScore_left = NegInf;  // these are used if the min/max values are
-      double bestScore_right = NegInf; // not neg/pos infinity
+      double[] slope = featVal_array[c][i];
 
       for (int k = 0; k < numCandidates; ++k) {
-        slope[k] = featVal_array[c][i][k];
-
-        offset[k] = 0.0;
-        for (int c2 = 1; c2 <= numParams; ++c2) {
-          if (c2 != c) { offset[k] += currLambda[c2]*featVal_array[c2][i][k]; }
-        }
-
-        // debugging
-//        println("@ (i,k)=(" + i + "," + k + "), "
-//               + "slope = " + slope[k] + "; offset = " + offset[k],4);
-
-        if (minThValue[c] == NegInf) {
-          if (slope[k] < minSlope || (slope[k] == minSlope && offset[k] > offset_minSlope)) {
-            minSlopeIndex = k;
-            minSlope = slope[k];
-            offset_minSlope = offset[k];
-          }
-        } else {
-          double score = offset[k] + ((minThValue[c]-0.1)*slope[k]);
-          if (score > bestScore_left || (score == bestScore_left && slope[k] > minSlope)) {
-            minSlopeIndex = k;
-            minSlope = slope[k];
-            bestScore_left = score;
-          }
-        }
-
-        if (maxThValue[c] == PosInf) {
-          if (slope[k] > maxSlope || (slope[k] == maxSlope && offset[k] > offset_maxSlope)) {
-            maxSlopeIndex = k;
-            maxSlope = slope[k];
-            offset_maxSlope = offset[k];
-          }
-        } else {
-          double score = offset[k] + ((maxThValue[c]+0.1)*slope[k]);
-          if (score > bestScore_right || (score == bestScore_right && slope[k] < maxSlope)) {
-            maxSlopeIndex = k;
-            maxSlope = slope[k];
-            bestScore_right = score;
-          }
-        }
+        offset[k] = score[i][k] - currLambda[c]*slope[k];
+        order[k] = k;
       }
 
-      // debugging
-//      println("minSlope is @ k = " + minSlopeIndex + ": slope " + minSlope
-//            + " (offset " + offset_minSlope + ")",4);
-//      println("maxSlope is @ k = " + maxSlopeIndex + ": slope " + maxSlope
-//            + " (offset " + offset_maxSlope + ")",4);
-
-
-      // some lines can be eliminated: the ones that have a lower offset
-      // than some other line with the same slope.
-      // That is, for any k1 and k2:
-      //   if slope[k1] = slope[k2] and offset[k1] > offset[k2],
-      //   then k2 can be eliminated.
-      // (This is actually important to do as it eliminates a bug.)
-//      HashSet<Integer> discardedIndices = indicesToDiscard(slope,offset);
-
-
-//      println("Extracting thresholds[(i,c)=(" + i + "," + c + ")]",4);
-
-      int currIndex = minSlopeIndex;
-        // As we traverse the currLambda_c dimension, the "winner" candidate will
-        // change at intersection points.  currIndex tells us which candidate is
-        // the winner in the interval currently under investigation.
-
-        // We traverse the lambda_c dimension starting at -Inf.  The line with
-        // steepest descent is the winner as lambda_c -> -Inf, so we initialize
-        // currIndex to minSlopeIndex to reflect that fact.
-
-        // Similarly, the winner as lambda_c -> +Inf is the line with the
-        // steepest *ascent* (i.e. max slope), and so we continue finding
-        // intersection points until we hit that line.
-
-        // Notice that we didn't have to investigate the entire space (-Inf,+Inf)
-        // if the parameter's range is more restricted than that.  That is why, in
-        // the loop above, the "left-most" winner is not necessarily the one with
-        // the steepest descent (though it will be if minThValue[c] is -Inf).
-        // And similarly, the "right-most" winner is not necessarily the one with
-        // the steepest ascent (though it will be if minThValue[c] is +Inf).  The
-        // point of doing this is to avoid extracting thresholds that will end up
-        // being discarded anyway due to range constraints, thus saving us a little
-        // bit of time.
-
-      int last_new_k = -1;
-
-      while (currIndex != maxSlopeIndex) {
-
-        if (currIndex < 0) break;
-          // Due to rounding errors, the index identified as maxSlopeIndex above
-          // might be different from the one this loop expects, in which case
-          // it won't be found and currIndex remains -1.  So if currIndex is -1
-          // a rounding error happened, which is cool since we can just break.
-
-//        print("cI=" + currIndex + " ",4);
-
-        // find the candidate whose line is the first to intersect the current
-        // line.  ("first" meaning with an intersection point that has the
-        //         lowest possible lambda_c value.)
-
-        double nearestIntersectionPoint = PosInf;
-        int nearestIntersectingLineIndex = -1;
-
-        for (int k = 0; k < numCandidates; ++k) {
-//          if (slope[k] > slope[currIndex] && !discardedIndices.contains(k)) {
-          if (slope[k] > slope[currIndex]) {
-          // only higher-sloped lines will intersect the current line
-          // (If we didn't have discardedIndices a bug would creep up here.)
-
-            // find intersection point ip_k
-            double ip_k = (offset[k] - offset[currIndex])/(slope[currIndex] - slope[k]);
-            if (ip_k < nearestIntersectionPoint) {
-              nearestIntersectionPoint = ip_k;
-              nearestIntersectingLineIndex = k;
-            }
-          }
-        }
-
-//        print("ip=" + f4.format(nearestIntersectionPoint) + " ",4);
-        ++ipCount;
-
-        if (nearestIntersectionPoint > minThValue[c] && nearestIntersectionPoint < maxThValue[c]) {
-
-          int[] th_info = {currIndex,nearestIntersectingLineIndex};
-          last_new_k = nearestIntersectingLineIndex;
-
-          indicesOfInterest[i].add(currIndex); // old_k
-//          indicesOfInterest_all[i].add(currIndex); // old_k   ***/
-
-          if (!thresholdsAll.containsKey(nearestIntersectionPoint)) {
-            TreeMap<Integer,int[]> A = new TreeMap<Integer,int[]>();
-            A.put(i,th_info);
-            thresholdsAll.put(nearestIntersectionPoint,A);
+      // sort by increasing slope; among lines with the same slope, the one
+      // with the highest offset (and then the lowest index) comes first
+      sortLines(order,tmp,0,numCandidates,slope,offset);
+
+      int H = 0;
+      for (int n = 0; n < numCandidates; ++n) {
+        int k = order[n];
+        if (H > 0 && slope[k] == slope[hull[H-1]]) continue;
+          // parallel to, and no higher than, a line already considered
+
+        double x = NegInf;
+        while (H > 0) {
+          int top = hull[H-1];
+          x = (offset[k] - offset[top])/(slope[top] - slope[k]);
+          if (H > 1 && x <= hullStart[H-1]) {
+            --H; // top is never the 1-best
           } else {
-            TreeMap<Integer,int[]> A = thresholdsAll.get(nearestIntersectionPoint);
-            if (!A.containsKey(i)) {
-              A.put(i,th_info);
-            } else {
-              int[] old_th_info = A.get(i);
-              old_th_info[1] = th_info[1]; // replace the existing new_k
-              A.put(i,th_info);
-            }
-            thresholdsAll.put(nearestIntersectionPoint,A);
-          }
-/*
-          if (!thresholds.containsKey(nearestIntersectionPoint)) {
-            thresholds.put(nearestIntersectionPoint,th_info);
-              // i.e., at lambda_c = nIP, the (index of the) 1-best changes
-              // from currIndex to nearestIntersectingLineIndex (which is
-              // indicated in th_info)
-          } else { // extremely rare, but causes problem if it does occur
-            // in essence, just replace the new_k of the existing th_info
-            int[] old_th_info = (int[])thresholds.get(nearestIntersectionPoint);
-            old_th_info[1] = th_info[1];
-            thresholds.put(nearestIntersectionPoint,old_th_info);
-            // When does this happen?  If two consecutive intersection points are so close
-            // to each other so as to appear as having the same value.  For instance, assume
-            // we have two intersection points ip1 and ip2 corresponding to two transitions,
-            // one from k_a to k_b, and the other from k_b to k_c.  It might be the case
-            // that ip2-ip1 is extremeley small, so that the ip2 entry would actually REPLACE
-            // the ip1 entry.  This would be bad.
-
-            // Instead, we pretend that k_b never happened, and just assume there is a single
-            // intersection point, ip (which equals whatever value Java calculates for ip1
-            // and ip2), with a corresponding transition of k_a to k_c.
+            break;
           }
-*/
-          } // if (in-range)
-
-        currIndex = nearestIntersectingLineIndex;
-
-      } // end while (currIndex != maxSlopeIndex)
+        }
 
-      if (last_new_k != -1) {
-        indicesOfInterest[i].add(last_new_k); // last new_k
-//        indicesOfInterest_all[i].add(last_new_k); // last new_k  ***/
+        hull[H] = k;
+        hullStart[H] = x;
+        ++H;
       }
 
-//      println("cI=" + currIndex + "(=? " + maxSlopeIndex + " = mxSI)",4);
-
-      // now thresholds has the values for lambda_c at which score changes
-      // based on the candidates for the ith sentence
-
-//      println("",4);
-
-/*
-      Iterator<Double> It = (thresholds.keySet()).iterator();
-      int[] th_info = null;
-      while (It.hasNext()) { // process intersection points contributed by this sentence
-        double ip = It.next();
+      // the intersection points within the parameter's range
+      ips[i] = new double[Math.max(0,H-1)];
+      new_ks[i] = new int[Math.max(0,H-1)];
+      for (int h = 1; h < H; ++h) {
+        double ip = hullStart[h];
         if (ip > minThValue[c] && ip < maxThValue[c]) {
-          th_info = thresholds.get(ip);
-          if (!thresholdsAll.containsKey(ip)) {
-            TreeMap A = new TreeMap();
-            A.put(i,th_info);
-            thresholdsAll.put(ip,A);
-          } else {
-            // not frequent, but does happen (when same intersection point
-            // corresponds to a candidate switch for more than one i)
-            TreeMap A = thresholdsAll.get(ip);
-            A.put(i,th_info);
-            thresholdsAll.put(ip,A);
-          }
-
-//          if (useDisk == 2) {
-            // th_info[0] = old_k, th_info[1] = new_k
-            indicesOfInterest[i].add(th_info[0]);
-//          }
+          ips[i][ipCount[i]] = ip;
+          new_ks[i][ipCount[i]] = hull[h];
+          ++ipCount[i];
+        }
+      }
+      totalCount += ipCount[i];
 
-        } // if (in-range)
+    } // for (i)
 
-      } // while (It.hasNext())
-*/
+    // k-way merge of the sentences' intersection points, ties broken by sentence
+    Thresholds thresholds = new Thresholds(totalCount);
 
-/*
-//      if (useDisk == 2 && th_info != null) {
-      if (th_info != null) {
-        // new_k from the last th_info (previous new_k already appear as the next old_k)
-        indicesOfInterest[i].add(th_info[1]);
-      }
-*/
+    int[] pos = new int[numSentences];
+    int[] heap = new int[numSentences];
+    int heapSize = 0;
+    for (int i = 0; i < numSentences; ++i) {
+      if (ipCount[i] > 0) heap[heapSize++] = i;
+    }
+    for (int h = heapSize/2 - 1; h >= 0; --h) {
+      siftDown(heap,heapSize,h,ips,pos);
+    }
 
-//      thresholds.clear();
+    while (heapSize > 0) {
+      int i = heap[0];
+      int t = thresholds.size++;
+      thresholds.ip[t] = ips[i][pos[i]];
+      thresholds.sentence[t] = i;
+      thresholds.new_k[t] = new_ks[i][pos[i]];
+      if (t == 0 || thresholds.ip[t] != thresholds.ip[t-1]) ++thresholds.distinctCount;
 
-    } // for (i)
+      if (++pos[i] == ipCount[i]) heap[0] = heap[--heapSize];
+      siftDown(heap,heapSize,0,ips,pos);
+    }
 
-    // now thresholdsAll has the values for lambda_c at which score changes
-    // based on the candidates for *all* the sentences (that satisfy
-    // range constraints).
-    // Each lambda_c value maps to a Vector of th_info.  An overwhelming majority
-    // of these Vectors are of size 1.
+    if (thresholds.size != 0) {
+      out.println("# extracted thresholds: " + thresholds.distinctCount,2);
+      out.println("Smallest extracted threshold: " + thresholds.ip[0],2);
+      out.println("Largest extracted threshold: " + thresholds.ip[thresholds.size-1],2);
+    }
 
-    // indicesOfInterest[i] tells us which candidates for the ith sentence need
-    // to be read from the merged decoder output file.
+    return thresholds;
 
-    if (thresholdsAll.size() != 0) {
-      double smallest_th = thresholdsAll.firstKey();
-      double largest_th = thresholdsAll.lastKey();
-      println("# extracted thresholds: " + thresholdsAll.size(),2);
-      println("Smallest extracted threshold: " + smallest_th,2);
-      println("Largest extracted threshold: " + largest_th,2);
+  } // Thresholds thresholdsForParam(int c)
 
-      if (maxThValue[c] != PosInf) {
-        thresholdsAll.put(maxThValue[c],null);
+  private static void sortLines(int[] order, int[] tmp, int from, int to, double[] slope, double[] offset)
+  {
+    // stable merge sort by (slope ascending, offset descending)
+    if (to - from < 2) return;
+    int mid = (from + to) >>> 1;
+    sortLines(order,tmp,from,mid,slope,offset);
+    sortLines(order,tmp,mid,to,slope,offset);
+
+    int a = from, b = mid, t = from;
+    while (a < mid && b < to) {
+      int ka = order[a], kb = order[b];
+      if (slope[kb] < slope[ka] || (slope[kb] == slope[ka] && offset[kb] > offset[ka])) {
+        tmp[t++] = order[b++];
       } else {
-        thresholdsAll.put((thresholdsAll.lastKey() + 0.1),null);
+        tmp[t++] = order[a++];
       }
     }
+    while (a < mid) tmp[t++] = order[a++];
+    while (b < to) tmp[t++] = order[b++];
+    System.arraycopy(tmp,from,order,from,to-from);
+  }
 
-//    return thresholdsAll;
+  private static void siftDown(int[] heap, int heapSize, int h, double[][] ips, int[] pos)
+  {
+    while (true) {
+      int smallest = h;
+      int left = 2*h + 1, right = left + 1;
+      if (left < heapSize && ipBefore(heap[left],heap[smallest],ips,pos)) smallest = left;
+      if (right < heapSize && ipBefore(heap[right],heap[smallest],ips,pos)) smallest = right;
+      if (smallest == h) return;
+      int temp = heap[h]; heap[h] = heap[smallest]; heap[smallest] = temp;
+      h = smallest;
+    }
+  }
 
-  } // TreeMap<Double,TreeMap> thresholdsForParam (int c)
+  private static boolean ipBefore(int i1, int i2, double[][] ips, int[] pos)
+  {
+    double ip1 = ips[i1][pos[i1]], ip2 = ips[i2][pos[i2]];
+    return ip1 < ip2 || (ip1 == ip2 && i1 < i2);
+  }
 
   private double[] line_opt(
-      TreeMap<Double,TreeMap<Integer,int[]>> thresholdsAll, int[] indexOfCurrBest,
-      int c, double[] lambda)
+      Thresholds thresholds, int c, double[] lambda, double[][] score, TaskOutput out)
   {
-    println("Line-optimizing lambda[" + c + "]...",3);
+    out.println("Line-optimizing lambda[" + c + "]...",3);
 
     double[] bestScoreInfo = new double[2];
       // to be returned: [0] will store the best lambda, and [1] will store its score
 
-    if (thresholdsAll.size() == 0) {
+    if (thresholds.size == 0) {
       // no thresholds extracted!  Possible in theory...
       // simply return current value for this parameter
-      println("No thresholds extracted!  Returning this parameter's current value...",2);
+      out.println("No thresholds extracted!  Returning this parameter's current value...",2);
 
       bestScoreInfo[0] = lambda[c];
       bestScoreInfo[1] = evalMetric.worstPossibleScore();
@@ -437,31 +318,25 @@ public class IntermediateOptimizer implements Runnable
       return bestScoreInfo;
     }
 
-    double smallest_th = thresholdsAll.firstKey();
-    double largest_th = thresholdsAll.lastKey();
-    println("Minimum threshold: " + smallest_th,3);
-    println("Maximum threshold: " + largest_th,3);
-
-    double[] temp_lambda = new double[1+numParams];
-    System.arraycopy(lambda,1,temp_lambda,1,numParams);
-
-    double ip_prev = 0.0, ip_curr = 0.0;
+    double smallest_th = thresholds.ip[0];
+    double largest_th;
+    if (maxThValue[c] != PosInf) {
+      largest_th = maxThValue[c];
+    } else {
+      largest_th = thresholds.ip[thresholds.size-1] + 0.1;
+    }
+    out.println("Minimum threshold: " + smallest_th,3);
+    out.println("Maximum threshold: " + largest_th,3);
 
+    double temp_lambda_c;
     if (minThValue[c] != NegInf) {
-      temp_lambda[c] = (minThValue[c] + smallest_th) / 2.0;
-      ip_curr = minThValue[c];
+      temp_lambda_c = (minThValue[c] + smallest_th) / 2.0;
     } else {
-      temp_lambda[c] = smallest_th - 0.05;
-      ip_curr = smallest_th - 0.1;
+      temp_lambda_c = smallest_th - 0.05;
     }
 
-
-
-
-    int[][] suffStats = new int[numSentences][suffStatsCount];
-      // suffStats[i][s] stores the contribution to the sth sufficient
-      // statistic from the candidate for the ith sentence (the candidate
-      // indicated by indexOfCurrBest[i]).
+    int[][] suffStats = new int[numSentences][];
+      // suffStats[i] is the SS of the current 1-best candidate for the ith sentence
 
     int[][] suffStats_doc = new int[numDocuments][suffStatsCount];
       // suffStats_doc[doc][s] := SUM_i suffStats[i][s], over sentences in the doc'th document
@@ -469,96 +344,77 @@ public class IntermediateOptimizer implements Runnable
       // (if not doing document-level optimization, all sentences will belong in a single
       //  document: the 1st one, indexed 0)
 
-    // initialize document SS
-    for (int doc = 0; doc < numDocuments; ++doc) {
-      for (int s = 0; s < suffStatsCount; ++s) {
-        suffStats_doc[doc][s] = 0;
+    // find the 1-best candidates to the left of the smallest threshold,
+    // and set suffStats[][] and suffStats_doc[][]
+    for (int i = 0; i < numSentences; ++i) {
+      double max = NegInf;
+      int indexOfMax = -1;
+      for (int k = 0; k < candCount[i]; ++k) {
+        double candScore = score[i][k] + (temp_lambda_c - lambda[c])*featVal_array[c][i][k];
+        if (candScore > max) {
+          max = candScore;
+          indexOfMax = k;
+        }
       }
-    }
 
-    // Now, set suffStats[][], and increment suffStats_doc[][]
-    for (int i = 0; i < numSentences; ++i) {
-      suffStats[i] = suffStats_array[i].get(indexOfCurrBest[i]);
+      suffStats[i] = suffStats(i,indexOfMax);
 
       for (int s = 0; s < suffStatsCount; ++s) {
         suffStats_doc[docOfSentence[i]][s] += suffStats[i][s];
       }
     }
 
-
-
     double bestScore = 0.0;
     if (optimizeSubset) bestScore = evalMetric.score(suffStats_doc,docSubset_firstRank,docSubset_lastRank);
     else bestScore = evalMetric.score(suffStats_doc);
-    double bestLambdaVal = temp_lambda[c];
+    double bestLambdaVal = temp_lambda_c;
     double nextLambdaVal = bestLambdaVal;
-    println("At lambda[" + c + "] = " + bestLambdaVal + ","
-          + "\t" + metricName_display + " = " + bestScore + " (*)",3);
-
-    Iterator<Double> It = (thresholdsAll.keySet()).iterator();
-    if (It.hasNext()) { ip_curr = It.next(); }
-
-    while (It.hasNext()) {
-      ip_prev = ip_curr;
-      ip_curr = It.next();
-      nextLambdaVal = (ip_prev + ip_curr)/2.0;
-
-      TreeMap<Integer,int[]> th_info_M = thresholdsAll.get(ip_prev);
-      Iterator<Integer> It2 = (th_info_M.keySet()).iterator();
-      while (It2.hasNext()) {
-        int i = It2.next();
-          // i.e. the 1-best for the i'th sentence changes at this threshold value
+    out.println("At lambda[" + c + "] = " + bestLambdaVal + ","
+              + "\t" + metricName_display + " = " + bestScore + " (*)",3);
+
+    // sweep lambda_c across the thresholds, updating the SS of the
+    // sentences whose 1-best changes at each one, and scoring the
+    // interval that follows it
+    int t = 0;
+    while (t < thresholds.size) {
+      double ip_prev = thresholds.ip[t];
+
+      for (; t < thresholds.size && thresholds.ip[t] == ip_prev; ++t) {
+        int i = thresholds.sentence[t];
         int docOf_i = docOfSentence[i];
 
-        int[] th_info = th_info_M.get(i);
-        @SuppressWarnings("unused")
-        int old_k = th_info[0]; // should be equal to indexOfCurrBest[i]
-        int new_k = th_info[1];
-
         for (int s = 0; s < suffStatsCount; ++s) {
           suffStats_doc[docOf_i][s] -= suffStats[i][s]; // subtract stats for candidate old_k
         }
 
-        indexOfCurrBest[i] = new_k;
-        suffStats[i] = suffStats_array[i].get(indexOfCurrBest[i]); // update the SS for the i'th sentence
+        suffStats[i] = suffStats(i,thresholds.new_k[t]);
 
         for (int s = 0; s < suffStatsCount; ++s) {
           suffStats_doc[docOf_i][s] += suffStats[i][s]; // add stats for candidate new_k
         }
-
       }
 
+      double ip_curr = (t < thresholds.size) ? thresholds.ip[t] : largest_th;
+      nextLambdaVal = (ip_prev + ip_curr)/2.0;
+
       double nextTestScore = 0.0;
       if (optimizeSubset) nextTestScore = evalMetric.score(suffStats_doc,docSubset_firstRank,docSubset_lastRank);
       else nextTestScore = evalMetric.score(suffStats_doc);
 
-      print("At lambda[" + c + "] = " + nextLambdaVal + ","
-          + "\t" + metricName_display + " = " + nextTestScore,3);
+      out.print("At lambda[" + c + "] = " + nextLambdaVal + ","
+              + "\t" + metricName_display + " = " + nextTestScore,3);
 
       if (evalMetric.isBetter(nextTestScore,bestScore)) {
         bestScore = nextTestScore;
         bestLambdaVal = nextLambdaVal;
-        print(" (*)",3);
+        out.print(" (*)",3);
       }
 
-      println("",3);
-
-    } // while (It.hasNext())
+      out.println("",3);
 
-    println("",3);
+    } // while (t)
 
-    // what is the purpose of this block of code ?????????????????????
-/*
-    if (maxThValue[c] != PosInf) {
-      nextLambdaVal = (largest_th + maxThValue[c]) / 2.0;
-    } else {
-      nextLambdaVal = largest_th + 0.05;
-    }
-*/
-    // ???????????????????????????????????????????????????????????????
-
-    /*************************************************/
-    /*************************************************/
+    out.println("",3);
 
     bestScoreInfo[0] = bestLambdaVal;
     bestScoreInfo[1] = bestScore;
@@ -567,78 +423,16 @@ public class IntermediateOptimizer implements Runnable
 
   } // double[] line_opt(int c)
 
-  private void set_suffStats_array(TreeSet<Integer>[] indicesOfInterest)
+  private int[] suffStats(int i, int k)
   {
-    int candsOfInterestCount = 0;
-    int candsOfInterestCount_all = 0;
-    for (int i = 0; i < numSentences; ++i) {
-      candsOfInterestCount += indicesOfInterest[i].size();
-//      candsOfInterestCount_all += indicesOfInterest_all[i].size();  ****/
-    }
-    println("Processing merged stats file; extracting SS "
-          + "for " + candsOfInterestCount + " candidates of interest.",2);
-//    println("(*_all: " + candsOfInterestCount_all + ")",2); *****/
-
-
-    try {
-
-      // process the merged sufficient statistics file, and read (and store) the
-      // stats for candidates of interest
-      BufferedReader inFile = new BufferedReader(new FileReader(tmpDirPrefix+"temp.stats.merged"));
-      String candidate_suffStats;
-
-      for (int i = 0; i < numSentences; ++i) {
-        int numCandidates = candCount[i];
-
-        int currCand = 0;
-        Iterator<Integer> It = indicesOfInterest[i].iterator();
-
-        while (It.hasNext()) {
-          int nextIndex = It.next();
-
-          // skip candidates until you get to the nextIndex'th candidate
-          while (currCand < nextIndex) {
-            inFile.readLine();
-            ++currCand;
-          }
-
-          // now currCand == nextIndex, and the next line in inFile
-          // contains the sufficient statistics we want
-
-          candidate_suffStats = inFile.readLine();
-          ++currCand;
-
-          String[] suffStats_str = candidate_suffStats.split("\\s+");
-
-          int[] suffStats = new int[suffStatsCount];
-
-          for (int s = 0; s < suffStatsCount; ++s) {
-            suffStats[s] = Integer.parseInt(suffStats_str[s]);
-          }
-
-          suffStats_array[i].put(nextIndex,suffStats);
-
-        }
-
-        // skip the rest of ith sentence's candidates
-        while (currCand < numCandidates) {
-          inFile.readLine();
-          ++currCand;
-        }
-
-      } // for (i)
-
-      inFile.close();
-
-    } catch (FileNotFoundException e) {
-      System.err.println("FileNotFoundException in MertCore.initialize(int): " + e.getMessage());
-      System.exit(99901);
-    } catch (IOException e) {
-      System.err.println("IOException in MertCore.initialize(int): " + e.getMessage());
-      System.exit(99902);
+    // SS are read from the candidate pool the first time they are needed
+    int[] stats = suffStats_array[i].get(k);
+    if (stats == null) {
+      stats = candidatePool.stats(i,k);
+      suffStats_array[i].put(k,stats);
     }
-
-  } // set_suffStats_array(HashMap[] suffStats_array, TreeSet[] indicesOfInterest, Vector[] candidates)
+    return stats;
+  }
 
   private double L_norm(double[] A, double pow)
   {
@@ -651,46 +445,56 @@ public class IntermediateOptimizer implements Runnable
     return Math.pow(sum,1/pow);
   }
 
-  private int[] initial_indexOfCurrBest(double[] temp_lambda, TreeSet<Integer>[] indicesOfInterest)
+  /**
+   * Buffers the output of a line search, so that the output of all
+   * parameters can be printed in order once they have been searched.
+   */
+  private static class TaskOutput
   {
-    int[] indexOfCurrBest = new int[numSentences];
-      // As we traverse lambda_c, indexOfCurrBest indicates which is the
-      // current best candidate.
-
-    // initialize indexOfCurrBest[]
+    final ArrayList<String> lines = new ArrayList<String>();
+    String pending = "";
 
-    for (int i = 0; i < numSentences; ++i) {
-      int numCandidates = candCount[i];
+    void println(String str, int priority) { if (priority <= verbosity) { lines.add(pending + str); pending = ""; } }
+    void print(String str, int priority) { if (priority <= verbosity) pending += str; }
+  }
 
-      double max = NegInf;
-      int indexOfMax = -1;
-      for (int k = 0; k < numCandidates; ++k) {
-        double score = 0;
+  /**
+   * Finds the thresholds for one parameter (unless they are kept from
+   * the previous step) and line-optimizes it.
+   */
+  private class LineSearch extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    final int c;
+    final double[] currLambda;
+    final double[][] score;
+    Thresholds thresholds;
+    double[] bestScoreInfo;
+    final TaskOutput thresholdsOutput = new TaskOutput();
+    final TaskOutput lineOptOutput = new TaskOutput();
+
+    LineSearch(int c, double[] currLambda, double[][] score, Thresholds thresholds)
+    {
+      this.c = c;
+      this.currLambda = currLambda;
+      this.score = score;
+      this.thresholds = thresholds;
+    }
 
-        for (int c2 = 1; c2 <= numParams; ++c2) {
-          score += temp_lambda[c2] * featVal_array[c2][i][k];
-        }
-        if (score > max) {
-          max = score;
-          indexOfMax = k;
-        }
+    protected void compute()
+    {
+      if (thresholds == null) {
+        thresholdsOutput.println("Investigating lambda[j=" + j + "][" + c + "]...",2);
+        thresholds = thresholdsForParam(c,currLambda,score,thresholdsOutput);
+      } else {
+        thresholdsOutput.println("Keeping thresholds for lambda[j=" + j + "][" + c + "] from previous step.",2);
       }
-
-      indexOfCurrBest[i] = indexOfMax;
-
-//      if (useDisk == 2) {
-        // add indexOfCurrBest[i] to indicesOfInterest
-        indicesOfInterest[i].add(indexOfMax);
-//        indicesOfInterest_all[i].add(indexOfMax);
-//      }
-
+      bestScoreInfo = line_opt(thresholds,c,currLambda,score,lineOptOutput);
     }
+  }
 
-    return indexOfCurrBest;
-
-  } // int[] initial_indexOfCurrBest (int c)
-
-  private double[] bestParamToChange(TreeMap<Double,TreeMap<Integer,int[]>>[] thresholdsAll, int lastChanged_c, double[] currLambda)
+  private double[] bestParamToChange(Thresholds[] thresholds, int lastChanged_c, double[] currLambda)
   {
     int c_best = 0; // which parameter to change?
     double bestLambdaVal = 0.0;
@@ -701,82 +505,51 @@ public class IntermediateOptimizer implements Runnable
       bestScore = evalMetric.worstPossibleScore() - 1.0;
     }
 
-
-
-
-    // prep for line_opt
-
-    TreeSet<Integer>[] indicesOfInterest = null;
-    // indicesOfInterest[i] tells us which candidates for the ith sentence need
-    // to be read from the merged decoder output file.
-
-//    if (useDisk == 2) {
-      @SuppressWarnings("unchecked")
-      TreeSet<Integer>[] temp_TSA = new TreeSet[numSentences];
-      indicesOfInterest = temp_TSA;
-      for (int i = 0; i < numSentences; ++i) {
-        indicesOfInterest[i] = new TreeSet<Integer>();
+    // score[i][k] is the score assigned by the decoder to the kth
+    // candidate of the ith sentence, under currLambda
+    double[][] score = new double[numSentences][];
+    for (int i = 0; i < numSentences; ++i) {
+      score[i] = new double[candCount[i]];
+      for (int k = 0; k < candCount[i]; ++k) {
+        for (int c2 = 1; c2 <= numParams; ++c2) {
+          score[i][k] += currLambda[c2]*featVal_array[c2][i][k];
+        }
       }
-//    }
+    }
 
-    int[][] indexOfCurrBest = new int[1+numParams][numSentences];
+    // search along all parameters in parallel
+    LineSearch[] searches = new LineSearch[1+numParams];
+    for (int c = 1; c <= numParams; ++c) {
+      if (isOptimizable[c]) {
+        searches[c] = new LineSearch(c,currLambda,score,(c == lastChanged_c) ? thresholds[c] : null);
+          // thresholds for lastChanged_c are kept, since they do not
+          // depend on the value of lambda[lastChanged_c]
+        lineSearchPool.execute(searches[c]);
+      }
+    }
 
     for (int c = 1; c <= numParams; ++c) {
       if (!isOptimizable[c]) {
         println("Not investigating lambda[j=" + j + "][" + c + "].",2);
       } else {
-        if (c != lastChanged_c) {
-          println("Investigating lambda[j=" + j + "][" + c + "]...",2);
-//          thresholdsAll[c] = thresholdsForParam(c,candCount,featVal_array,currLambda,indicesOfInterest);
-          set_thresholdsForParam(
-            thresholdsAll[c],c,currLambda,indicesOfInterest);
-        } else {
-          println("Keeping thresholds for lambda[j=" + j + "][" + c + "] from previous step.",2);
-        }
-        // now thresholdsAll has the values for lambda_c at which score changes
-        // based on the candidates for *all* the sentences (that satisfy
-        // range constraints).
-        // Each lambda_c value maps to a Vector of th_info.  An overwhelming majority
-        // of these Vectors are of size 1.
-
-        if (thresholdsAll[c].size() != 0) {
-
-          double[] temp_lambda = new double[1+numParams];
-          System.arraycopy(currLambda,1,temp_lambda,1,numParams);
-
-          double smallest_th = thresholdsAll[c].firstKey();
-
-          if (minThValue[c] != NegInf) {
-            temp_lambda[c] = (minThValue[c] + smallest_th) / 2.0;
-          } else {
-            temp_lambda[c] = smallest_th - 0.05;
-          }
-
-          indexOfCurrBest[c] =
-            initial_indexOfCurrBest(temp_lambda,indicesOfInterest);
+        searches[c].join();
+        thresholds[c] = searches[c].thresholds;
+        for (String line : searches[c].thresholdsOutput.lines) {
+          println(line); // verbosity already checked
         }
       }
-
       println("",2);
-
     }
 
-
-
-//    if (useDisk == 2) {
-
-      set_suffStats_array(indicesOfInterest);
-
-//    } // if (useDisk == 2)
-
-
-
     for (int c = 1; c <= numParams; ++c) {
     // investigate currLambda[j][c]
 
       if (isOptimizable[c]) {
-        double[] bestScoreInfo_c =
-          line_opt(thresholdsAll[c],indexOfCurrBest[c],c,currLambda);
+        for (String line : searches[c].lineOptOutput.lines) {
+          println(line); // verbosity already checked
+        }
+
+        double[] bestScoreInfo_c = searches[c].bestScoreInfo;
           // get best score and its lambda value
 
         double bestLambdaVal_c = bestScoreInfo_c[0];
@@ -792,34 +565,6 @@ public class IntermediateOptimizer implements Runnable
 
     }
 
-
-
-
-    // delete according to indicesOfInterest
-
-//    printMemoryUsage();
-
-//    if (useDisk == 2) {
-
-      for (int i = 0; i < numSentences; ++i) {
-
-        indicesOfInterest[i].clear();
-
-      }
-
-//    }
-
-//    cleanupMemory();
-//    printMemoryUsage();
-//    println("",2);
-
-
-
-
-
-
-
-
     double[] c_best_info = {c_best,bestLambdaVal,bestScore};
     return c_best_info;
 
@@ -885,16 +630,8 @@ public class IntermediateOptimizer implements Runnable
   }
 
   private void real_run() {
-    @SuppressWarnings("unchecked")
-    TreeMap<Double,TreeMap<Integer,int[]>>[] thresholdsAll = new TreeMap[1+numParams];
-    thresholdsAll[0] = null;
-    for (int c = 1; c <= numParams; ++c) {
-      if (isOptimizable[c]) {
-        thresholdsAll[c] = new TreeMap<Double,TreeMap<Integer,int[]>>();
-      } else {
-        thresholdsAll[c] = null;
-      }
-    }
+    Thresholds[] thresholds = new Thresholds[1+numParams];
+      // thresholds[c] is kept from one step to the next if lambda[c] was changed
 
 
 //    cleanupMemory();
@@ -932,7 +669,7 @@ public class IntermediateOptimizer implements Runnable
 
     while (true) {
 
-      double[] c_best_info = bestParamToChange(thresholdsAll,c_best,currLambda);
+      double[] c_best_info = bestParamToChange(thresholds,c_best,currLambda);
           // we pass in c_best because we don't need
           // to recalculate thresholds for it
       c_best = (int)c_best_info[0]; // which param to change?
@@ -25,6 +25,7 @@ import java.text.DecimalFormat;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
 
 public class MertCore
@@ -129,6 +130,15 @@ public class MertCore
   private JoshuaDecoder myDecoder;
     // COMMENT OUT if decoder is not Joshua
 
+  private boolean decodeInProcess;
+    // true if neither a decoder command nor a fake decoder is used, in which
+    // case myDecoder stays loaded across iterations, and its n-best output
+    // is read from memory rather than from decoderOutFileName
+
+  private CandidatePool candidatePool;
+    // the candidates of all iterations so far (in tmpDirPrefix+"temp.pool");
+    // opened by the first call to run_single_iteration
+
   private String decoderCommand;
     // the command that runs the decoder; read from decoderCommandFileName
 
@@ -142,6 +152,10 @@ public class MertCore
   private int numOptThreads;
     // number of threads to run things in parallel
 
+  private ForkJoinPool lineSearchPool;
+    // numOptThreads threads, shared by the optimizer threads for their
+    // line searches; created on first use and shut down in finish()
+
   private int saveInterFiles;
     // 0: nothing, 1: only configs, 2: only n-bests, 3: both configs and n-bests
 
@@ -437,12 +451,11 @@ println(docSubsetInfo[6] + "}",1);
 
 
     if (decoderCommand == null && fakeFileNameTemplate == null) {
-      println("Loading Joshua decoder...",1);
-      myDecoder = new JoshuaDecoder(decoderConfigFileName+".ZMERT.orig");
-      println("...finished loading @ " + (new Date()),1);
-      println("");
+      loadDecoder();
+      decodeInProcess = true;
     } else {
       myDecoder = null;
+      decodeInProcess = false;
     }
 
 
@@ -542,26 +555,8 @@ println(docSubsetInfo[6] + "}",1);
     }
     println("",1);
 
-    // delete intermediate .temp.*.it* decoder output files
-    for (int iteration = 1; iteration <= maxIts; ++iteration) {
-      if (compressFiles == 1) {
-        deleteFile(tmpDirPrefix+"temp.sents.it"+iteration+".gz");
-        deleteFile(tmpDirPrefix+"temp.feats.it"+iteration+".gz");
-        if (fileExists(tmpDirPrefix+"temp.stats.it"+iteration+".copy.gz")) {
-          deleteFile(tmpDirPrefix+"temp.stats.it"+iteration+".copy.gz");
-        } else {
-          deleteFile(tmpDirPrefix+"temp.stats.it"+iteration+".gz");
-        }
-      } else {
-        deleteFile(tmpDirPrefix+"temp.sents.it"+iteration);
-        deleteFile(tmpDirPrefix+"temp.feats.it"+iteration);
-        if (fileExists(tmpDirPrefix+"temp.stats.it"+iteration+".copy")) {
-          deleteFile(tmpDirPrefix+"temp.stats.it"+iteration+".copy");
-        } else {
-          deleteFile(tmpDirPrefix+"temp.stats.it"+iteration);
-        }
-      }
-    }
+    // delete the candidate pool
+    deleteCandidatePool();
 
   } // void run_MERT(int maxIts)
 
@@ -618,48 +613,29 @@ public double[] run_single_iteration(
         println("Redecoding using weight vector " + lambdaToString(lambda),1);
       }
 
-      String[] decRunResult = run_decoder(iteration); // iteration passed in case fake decoder will be used
-        // [0] name of file to be processed
-        // [1] indicates how the output file was obtained:
-        //   1: external decoder
-        //   2: fake decoder
-        //   3: internal decoder
+      String nbestOutput = null;
+        // the decoder's n-best output, if decodeInProcess
+      String nbestFileName = null;
+        // otherwise, the file containing it
 
-      if (!decRunResult[1].equals("2")) {
-        println("...finished decoding @ " + (new Date()),1);
-      }
+      if (decodeInProcess) {
 
-      checkFile(decRunResult[0]);
+        nbestOutput = runLoadedDecoder();
+        println("...finished decoding @ " + (new Date()),1);
 
-      println("Producing temp files for iteration "+iteration,3);
+        if (saveInterFiles == 2 || saveInterFiles == 3) { // save decoder output
+          saveDecoderOutput(nbestOutput, decoderOutFileName+".ZMERT.it"+iteration);
+        }
 
-      produceTempFiles(decRunResult[0], iteration);
+      } else {
+        nbestFileName = decodeToFile(iteration);
+      }
 
       if (saveInterFiles == 1 || saveInterFiles == 3) { // make copy of intermediate config file
         if (!copyFile(decoderConfigFileName,decoderConfigFileName+".ZMERT.it"+iteration)) {
           println("Warning: attempt to make copy of decoder config file (to create" + decoderConfigFileName+".ZMERT.it"+iteration + ") was unsuccessful!",1);
         }
       }
-      if (saveInterFiles == 2 || saveInterFiles == 3) { // make copy of intermediate decoder output file...
-
-        if (!decRunResult[1].equals("2")) { // ...but only if no fake decoder
-          if (!decRunResult[0].endsWith(".gz")) {
-            if (!copyFile(decRunResult[0],decRunResult[0]+".ZMERT.it"+iteration)) {
-              println("Warning: attempt to make copy of decoder output file (to create" + decRunResult[0]+".ZMERT.it"+iteration + ") was unsuccessful!",1);
-            }
-          } else {
-            String prefix = decRunResult[0].substring(0,decRunResult[0].length()-3);
-            if (!copyFile(prefix+".gz",prefix+".ZMERT.it"+iteration+".gz")) {
-              println("Warning: attempt to make copy of decoder output file (to create" + prefix+".ZMERT.it"+iteration+".gz" + ") was unsuccessful!",1);
-            }
-          }
-
-          if (compressFiles == 1 && !decRunResult[0].endsWith(".gz")) {
-            gzipFile(decRunResult[0]+".ZMERT.it"+iteration);
-          }
-        } // if (!fake)
-
-      }
 
       int[] candCount = new int[numSentences];
       int[] lastUsedIndex = new int[numSentences];
@@ -704,7 +680,6 @@ public double[] run_single_iteration(
         // from up to prevIts previous iterations.
       println("Reading candidate translations from iterations " + firstIt + "-" + iteration,1);
       println("(and computing " + metricName + " sufficient statistics for previously unseen candidates)",1);
-      print("  Progress: ");
 
       int[] newCandidatesAdded = new int[1+iteration];
       for (int it = 1; it <= iteration; ++it) { newCandidatesAdded[it] = 0; }
@@ -713,471 +688,10 @@ public double[] run_single_iteration(
 
 
 
-      try {
-
-        // each inFile corresponds to the output of an iteration
-        // (index 0 is not used; no corresponding index for the current iteration)
-        BufferedReader[] inFile_sents = new BufferedReader[iteration];
-        BufferedReader[] inFile_feats = new BufferedReader[iteration];
-        BufferedReader[] inFile_stats = new BufferedReader[iteration];
-
-        for (int it = firstIt; it < iteration; ++it) {
-          InputStream inStream_sents, inStream_feats, inStream_stats;
-          if (compressFiles == 0) {
-            inStream_sents = new FileInputStream(tmpDirPrefix+"temp.sents.it"+it);
-            inStream_feats = new FileInputStream(tmpDirPrefix+"temp.feats.it"+it);
-            inStream_stats = new FileInputStream(tmpDirPrefix+"temp.stats.it"+it);
-          } else {
-            inStream_sents = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+it+".gz"));
-            inStream_feats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.feats.it"+it+".gz"));
-            inStream_stats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+it+".gz"));
-          }
-
-          inFile_sents[it] = new BufferedReader(new InputStreamReader(inStream_sents, "utf8"));
-          inFile_feats[it] = new BufferedReader(new InputStreamReader(inStream_feats, "utf8"));
-          inFile_stats[it] = new BufferedReader(new InputStreamReader(inStream_stats, "utf8"));
-        }
-
-
-        InputStream inStream_sentsCurrIt, inStream_featsCurrIt, inStream_statsCurrIt;
-        if (compressFiles == 0) {
-          inStream_sentsCurrIt = new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration);
-          inStream_featsCurrIt = new FileInputStream(tmpDirPrefix+"temp.feats.it"+iteration);
-        } else {
-          inStream_sentsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration+".gz"));
-          inStream_featsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.feats.it"+iteration+".gz"));
-        }
-
-        BufferedReader inFile_sentsCurrIt = new BufferedReader(new InputStreamReader(inStream_sentsCurrIt, "utf8"));
-        BufferedReader inFile_featsCurrIt = new BufferedReader(new InputStreamReader(inStream_featsCurrIt, "utf8"));
-
-        BufferedReader inFile_statsCurrIt = null; // will only be used if statsCurrIt_exists below is set to true
-        PrintWriter outFile_statsCurrIt = null; // will only be used if statsCurrIt_exists below is set to false
-        boolean statsCurrIt_exists = false;
-        if (fileExists(tmpDirPrefix+"temp.stats.it"+iteration)) {
-          inStream_statsCurrIt = new FileInputStream(tmpDirPrefix+"temp.stats.it"+iteration);
-          inFile_statsCurrIt = new BufferedReader(new InputStreamReader(inStream_statsCurrIt, "utf8"));
-          statsCurrIt_exists = true;
-          copyFile(tmpDirPrefix+"temp.stats.it"+iteration,tmpDirPrefix+"temp.stats.it"+iteration+".copy");
-        } else if (fileExists(tmpDirPrefix+"temp.stats.it"+iteration+".gz")) {
-          inStream_statsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+iteration+".gz"));
-          inFile_statsCurrIt = new BufferedReader(new InputStreamReader(inStream_statsCurrIt, "utf8"));
-          statsCurrIt_exists = true;
-          copyFile(tmpDirPrefix+"temp.stats.it"+iteration+".gz",tmpDirPrefix+"temp.stats.it"+iteration+".copy.gz");
-        } else {
-          outFile_statsCurrIt = new PrintWriter(tmpDirPrefix+"temp.stats.it"+iteration);
-        }
-
-        PrintWriter outFile_statsMerged = new PrintWriter(tmpDirPrefix+"temp.stats.merged");
-          // write sufficient statistics from all the sentences
-          // from the output files into a single file
-        PrintWriter outFile_statsMergedKnown = new PrintWriter(tmpDirPrefix+"temp.stats.mergedKnown");
-          // write sufficient statistics from all the sentences
-          // from the output files into a single file
-
-        FileOutputStream outStream_unknownCands = new FileOutputStream(tmpDirPrefix+"temp.currIt.unknownCands", false);
-        OutputStreamWriter outStreamWriter_unknownCands = new OutputStreamWriter(outStream_unknownCands, "utf8");
-        BufferedWriter outFile_unknownCands = new BufferedWriter(outStreamWriter_unknownCands);
-
-        PrintWriter outFile_unknownIndices = new PrintWriter(tmpDirPrefix+"temp.currIt.unknownIndices");
-
-
-        String sents_str, feats_str, stats_str;
-
-        // BUG: this assumes a candidate string cannot be produced for two
-        //      different source sentences, which is not necessarily true
-        //   (It's not actually a bug, but only because existingCandStats gets
-        //    cleared before moving to the next source sentence.)
-        // FIX: should be made an array, indexed by i
-        HashMap<String,String> existingCandStats = new HashMap<String,String>();
-          // Stores precalculated sufficient statistics for candidates, in case
-          // the same candidate is seen again. (SS stored as a String.)
-          // Q: Why do we care?  If we see the same candidate again, aren't we going
-          //    to ignore it?  So, why do we care about the SS of this repeat candidate?
-          // A: A "repeat" candidate may not be a repeat candidate in later
-          //    iterations if the user specifies a value for prevMERTIterations
-          //    that causes MERT to skip candidates from early iterations.
-        double[] currFeatVal = new double[1+numParams];
-        String[] featVal_str;
-
-        int totalCandidateCount = 0;
-
-
-
-        int[] sizeUnknown_currIt = new int[numSentences];
-
-
-
-        for (int i = 0; i < numSentences; ++i) {
-
-          for (int j = 1; j <= initsPerIt; ++j) {
-            best1Score[j][i] = NegInf;
-          }
-
-          for (int it = firstIt; it < iteration; ++it) {
-          // Why up to but *excluding* iteration?
-          // Because the last iteration is handled a little differently, since
-          // the SS must be claculated (and the corresponding file created),
-          // which is not true for previous iterations.
-
-            for (int n = 0; n <= sizeOfNBest; ++n) {
-            // Why up to and *including* sizeOfNBest?
-            // So that it would read the "||||||" separator even if there is
-            // a complete list of sizeOfNBest candidates.
-
-              // for the nth candidate for the ith sentence, read the sentence, feature values,
-              // and sufficient statistics from the various temp files
-
-              sents_str = inFile_sents[it].readLine();
-              feats_str = inFile_feats[it].readLine();
-              stats_str = inFile_stats[it].readLine();
-
-              if (sents_str.equals("||||||")) {
-                n = sizeOfNBest+1;
-              } else if (!existingCandStats.containsKey(sents_str)) {
-
-                outFile_statsMergedKnown.println(stats_str);
-
-                featVal_str = feats_str.split("\\s+");
-
-                for (int c = 1; c <= numParams; ++c) {
-                  currFeatVal[c] = Double.parseDouble(featVal_str[c-1]);
-//                  print("fV[" + c + "]=" + currFeatVal[c] + " ",4);
-                }
-//                println("",4);
-
-
-                for (int j = 1; j <= initsPerIt; ++j) {
-                  double score = 0; // i.e. score assigned by decoder
-                  for (int c = 1; c <= numParams; ++c) {
-                    score += initialLambda[j][c] * currFeatVal[c];
-                  }
-                  if (score > best1Score[j][i]) {
-                    best1Score[j][i] = score;
-                    String[] tempStats = stats_str.split("\\s+");
-                    for (int s = 0; s < suffStatsCount; ++s)
-                      best1Cand_suffStats[j][i][s] = Integer.parseInt(tempStats[s]);
-                  }
-                } // for (j)
-
-                existingCandStats.put(sents_str,stats_str);
-
-                setFeats(featVal_array,i,lastUsedIndex,maxIndex,currFeatVal);
-                candCount[i] += 1;
-
-                newCandidatesAdded[it] += 1;
-
-              } // if unseen candidate
-
-            } // for (n)
-
-          } // for (it)
-
-          outFile_statsMergedKnown.println("||||||");
-
-
-          // now process the candidates of the current iteration
-          // now determine the new candidates of the current iteration
-
-          /* remember:
-               BufferedReader inFile_sentsCurrIt
-               BufferedReader inFile_featsCurrIt
-               PrintWriter outFile_statsCurrIt
-          */
-
-          String[] sentsCurrIt_currSrcSent = new String[sizeOfNBest+1];
-
-          Vector<String> unknownCands_V = new Vector<String>();
-            // which candidates (of the i'th source sentence) have not been seen before
-            // this iteration?
-
-          for (int n = 0; n <= sizeOfNBest; ++n) {
-          // Why up to and *including* sizeOfNBest?
-          // So that it would read the "||||||" separator even if there is
-          // a complete list of sizeOfNBest candidates.
-
-            // for the nth candidate for the ith sentence, read the sentence,
-            // and store it in the sentsCurrIt_currSrcSent array
-
-            sents_str = inFile_sentsCurrIt.readLine();
-            sentsCurrIt_currSrcSent[n] = sents_str; // Note: possibly "||||||"
-
-            if (sents_str.equals("||||||")) {
-              n = sizeOfNBest+1;
-            } else if (!existingCandStats.containsKey(sents_str)) {
-              unknownCands_V.add(sents_str);
-              writeLine(sents_str,outFile_unknownCands);
-              outFile_unknownIndices.println(i);
-              newCandidatesAdded[iteration] += 1;
-              existingCandStats.put(sents_str,"U"); // i.e. unknown
-              // we add sents_str to avoid duplicate entries in unknownCands_V
-            }
-
-          } // for (n)
-
-
-
-          // now unknownCands_V has the candidates for which we need to calculate
-          // sufficient statistics (for the i'th source sentence)
-          int sizeUnknown = unknownCands_V.size();
-          sizeUnknown_currIt[i] = sizeUnknown;
-
-          /*********************************************/
-/*
-          String[] unknownCands = new String[sizeUnknown];
-          unknownCands_V.toArray(unknownCands);
-          int[] indices = new int[sizeUnknown];
-          for (int d = 0; d < sizeUnknown; ++d) {
-            existingCandStats.remove(unknownCands[d]);
-            // remove the (unknownCands[d],"U") entry from existingCandStats
-            // (we had added it while constructing unknownCands_V to avoid duplicate entries)
-            indices[d] = i;
-          }
-*/
-          /*********************************************/
-
-          existingCandStats.clear();
-
-        } // for (i)
-
-/*
-          int[][] newSuffStats = null;
-          if (!statsCurrIt_exists && sizeUnknown > 0) {
-            newSuffStats = evalMetric.suffStats(unknownCands, indices);
-          }
-*/
-
-        outFile_statsMergedKnown.close();
-        outFile_unknownCands.close();
-        outFile_unknownIndices.close();
-
-
-        for (int it = firstIt; it < iteration; ++it) {
-          inFile_sents[it].close();
-          inFile_stats[it].close();
-
-          InputStream inStream_sents, inStream_stats;
-          if (compressFiles == 0) {
-            inStream_sents = new FileInputStream(tmpDirPrefix+"temp.sents.it"+it);
-            inStream_stats = new FileInputStream(tmpDirPrefix+"temp.stats.it"+it);
-          } else {
-            inStream_sents = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+it+".gz"));
-            inStream_stats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+it+".gz"));
-          }
-
-          inFile_sents[it] = new BufferedReader(new InputStreamReader(inStream_sents, "utf8"));
-          inFile_stats[it] = new BufferedReader(new InputStreamReader(inStream_stats, "utf8"));
-        }
-
-        inFile_sentsCurrIt.close();
-        if (compressFiles == 0) {
-          inStream_sentsCurrIt = new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration);
-        } else {
-          inStream_sentsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration+".gz"));
-        }
-        inFile_sentsCurrIt = new BufferedReader(new InputStreamReader(inStream_sentsCurrIt, "utf8"));
-
-
-
-        // calculate SS for unseen candidates and write them to file
-        FileInputStream inStream_statsCurrIt_unknown = null;
-        BufferedReader inFile_statsCurrIt_unknown = null;
-
-        if (!statsCurrIt_exists && newCandidatesAdded[iteration] > 0) {
-          // create the file...
-          evalMetric.createSuffStatsFile(tmpDirPrefix+"temp.currIt.unknownCands", tmpDirPrefix+"temp.currIt.unknownIndices", tmpDirPrefix+"temp.stats.unknown", sizeOfNBest);
-
-          // ...and open it
-          inStream_statsCurrIt_unknown = new FileInputStream(tmpDirPrefix+"temp.stats.unknown");
-          inFile_statsCurrIt_unknown = new BufferedReader(new InputStreamReader(inStream_statsCurrIt_unknown, "utf8"));
-        }
-
-        // OPEN mergedKnown file
-        FileInputStream instream_statsMergedKnown = new FileInputStream(tmpDirPrefix+"temp.stats.mergedKnown");
-        BufferedReader inFile_statsMergedKnown = new BufferedReader(new InputStreamReader(instream_statsMergedKnown, "utf8"));
-
-
-        for (int i = 0; i < numSentences; ++i) {
-
-          // reprocess candidates from previous iterations
-          for (int it = firstIt; it < iteration; ++it) {
-            for (int n = 0; n <= sizeOfNBest; ++n) {
-
-              sents_str = inFile_sents[it].readLine();
-              stats_str = inFile_stats[it].readLine();
-
-              if (sents_str.equals("||||||")) {
-                n = sizeOfNBest+1;
-              } else if (!existingCandStats.containsKey(sents_str)) {
-                existingCandStats.put(sents_str,stats_str);
-              } // if unseen candidate
-
-            } // for (n)
-          } // for (it)
-
-          // copy relevant portion from mergedKnown to the merged file
-          String line_mergedKnown = inFile_statsMergedKnown.readLine();
-          while (!line_mergedKnown.equals("||||||")) {
-            outFile_statsMerged.println(line_mergedKnown);
-            line_mergedKnown = inFile_statsMergedKnown.readLine();
-          }
-
-
-          int d = -1;
-
-
-          int[] stats = new int[suffStatsCount];
-
-          for (int n = 0; n <= sizeOfNBest; ++n) {
-          // Why up to and *including* sizeOfNBest?
-          // So that it would read the "||||||" separator even if there is
-          // a complete list of sizeOfNBest candidates.
-
-            // for the nth candidate for the ith sentence, read the sentence, feature values,
-            // and sufficient statistics from the various temp files
-
-            sents_str = inFile_sentsCurrIt.readLine();
-            feats_str = inFile_featsCurrIt.readLine();
-
-            if (sents_str.equals("||||||")) {
-              n = sizeOfNBest+1;
-            } else if (!existingCandStats.containsKey(sents_str)) {
-
-              ++d;
-
-              if (!statsCurrIt_exists) {
-                stats_str = inFile_statsCurrIt_unknown.readLine();
-
-                String[] temp_stats = stats_str.split("\\s+");
-                for (int s = 0; s < suffStatsCount; ++s) {
-                  stats[s] = Integer.parseInt(temp_stats[s]);
-                }
-
-/*
-                stats_str = "";
-                for (int s = 0; s < suffStatsCount-1; ++s) {
-                  stats[s] = newSuffStats[d][s];
-                  stats_str += (stats[s] + " ");
-                }
-                stats[suffStatsCount-1] = newSuffStats[d][suffStatsCount-1];
-                stats_str += stats[suffStatsCount-1];
-*/
-
-                outFile_statsCurrIt.println(stats_str);
-              } else {
-                stats_str = inFile_statsCurrIt.readLine();
-                String[] temp_stats = stats_str.split("\\s+");
-                for (int s = 0; s < suffStatsCount; ++s) {
-                  stats[s] = Integer.parseInt(temp_stats[s]);
-                }
-              }
-
-              outFile_statsMerged.println(stats_str);
-
-              featVal_str = feats_str.split("\\s+");
-
-              for (int c = 1; c <= numParams; ++c) {
-                currFeatVal[c] = Double.parseDouble(featVal_str[c-1]);
-//                print("fV[" + c + "]=" + currFeatVal[c] + " ",4);
-              }
-//              println("",4);
-
-
-              for (int j = 1; j <= initsPerIt; ++j) {
-                double score = 0; // i.e. score assigned by decoder
-                for (int c = 1; c <= numParams; ++c) {
-                  score += initialLambda[j][c] * currFeatVal[c];
-                }
-                if (score > best1Score[j][i]) {
-                  best1Score[j][i] = score;
-                  for (int s = 0; s < suffStatsCount; ++s)
-                    best1Cand_suffStats[j][i][s] = stats[s];
-                }
-              } // for (j)
-
-              existingCandStats.put(sents_str,stats_str);
-
-              setFeats(featVal_array,i,lastUsedIndex,maxIndex,currFeatVal);
-              candCount[i] += 1;
-
-//              newCandidatesAdded[iteration] += 1;
-              // moved to code above detecting new candidates
-
-            } else {
-              if (statsCurrIt_exists)
-                inFile_statsCurrIt.readLine();
-              else {
-                // write SS to outFile_statsCurrIt
-                stats_str = existingCandStats.get(sents_str);
-                outFile_statsCurrIt.println(stats_str);
-              }
-            }
-
-          } // for (n)
-
-          // now d = sizeUnknown_currIt[i] - 1
-
-          if (statsCurrIt_exists)
-            inFile_statsCurrIt.readLine();
-          else
-            outFile_statsCurrIt.println("||||||");
-
-          existingCandStats.clear();
-          totalCandidateCount += candCount[i];
-
-          if ((i+1) % 500 == 0) { print((i+1) + "\n" + "            ",1); }
-          else if ((i+1) % 100 == 0) { print("+",1); }
-          else if ((i+1) % 25 == 0) { print(".",1); }
-
-        } // for (i)
-
-        outFile_statsMerged.close();
-
-
-
-
-        println("",1); // finish progress line
-
-        for (int it = firstIt; it < iteration; ++it) {
-          inFile_sents[it].close();
-          inFile_feats[it].close();
-          inFile_stats[it].close();
-        }
-
-        inFile_sentsCurrIt.close();
-        inFile_featsCurrIt.close();
-        if (statsCurrIt_exists)
-          inFile_statsCurrIt.close();
-        else
-          outFile_statsCurrIt.close();
-
-        if (compressFiles == 1 && !statsCurrIt_exists) {
-          gzipFile(tmpDirPrefix+"temp.stats.it"+iteration);
-        }
-
-        deleteFile(tmpDirPrefix+"temp.currIt.unknownCands");
-        deleteFile(tmpDirPrefix+"temp.currIt.unknownIndices");
-        deleteFile(tmpDirPrefix+"temp.stats.unknown");
-        deleteFile(tmpDirPrefix+"temp.stats.mergedKnown");
-
-//        cleanupMemory();
-
-        println("Processed " + totalCandidateCount + " distinct candidates "
-              + "(about " + totalCandidateCount/numSentences + " per sentence):",1);
-        for (int it = firstIt; it <= iteration; ++it) {
-          println("newCandidatesAdded[it=" + it + "] = " + newCandidatesAdded[it]
-                + " (about " + newCandidatesAdded[it]/numSentences + " per sentence)",1);
-        }
-
-        println("",1);
-
-      } catch (FileNotFoundException e) {
-        System.err.println("FileNotFoundException in MertCore.run_single_iteration(6): " + e.getMessage());
-        System.exit(99901);
-      } catch (IOException e) {
-        System.err.println("IOException in MertCore.run_single_iteration(6): " + e.getMessage());
-        System.exit(99902);
-      }
+      mergeCandidates(nbestOutput, nbestFileName, iteration, firstIt,
+                      initialLambda, best1Score, best1Cand_suffStats,
+                      featVal_array, candCount, lastUsedIndex, maxIndex,
+                      newCandidatesAdded);
 
 
       if (newCandidatesAdded[iteration] == 0) {
@@ -1194,6 +708,9 @@ public double[] run_single_iteration(
 
       // run the initsPerIt optimizations, in parallel, across numOptThreads threads
       ExecutorService pool = Executors.newFixedThreadPool(numOptThreads);
+      if (lineSearchPool == null) {
+        lineSearchPool = new ForkJoinPool(numOptThreads);
+      }
       Semaphore blocker = new Semaphore(0);
       Vector<String>[] threadOutput = new Vector[initsPerIt+1];
 
@@ -1201,7 +718,8 @@ public double[] run_single_iteration(
         threadOutput[j] = new Vector<String>();
         pool.execute(new IntermediateOptimizer(j, blocker, threadOutput[j],
                              initialLambda[j], finalLambda[j], best1Cand_suffStats[j],
-                             finalScore, candCount, featVal_array, suffStats_array));
+                             finalScore, candCount, featVal_array, suffStats_array,
+                             candidatePool, lineSearchPool));
       }
 
       pool.shutdown();
@@ -1310,10 +828,6 @@ public double[] run_single_iteration(
     } // while (!done) // NOTE: this "loop" will only be carried out once
 
 
-    // delete .temp.stats.merged file, since it is not needed in the next
-    // iteration (it will be recreated from scratch)
-    deleteFile(tmpDirPrefix+"temp.stats.merged");
-
     retA[0] = FINAL_score;
     retA[1] = earlyStop;
     return retA;
@@ -1331,6 +845,47 @@ public double[] run_single_iteration(
     return retStr;
   }
 
+  // runs the decoder (or fake decoder) for the given iteration, and
+  // returns the name of the file containing its n-best output
+  private String decodeToFile(int iteration)
+  {
+    String[] decRunResult = run_decoder(iteration); // iteration passed in case fake decoder will be used
+      // [0] name of file to be processed
+      // [1] indicates how the output file was obtained:
+      //   1: external decoder
+      //   2: fake decoder
+      //   3: internal decoder
+
+    if (!decRunResult[1].equals("2")) {
+      println("...finished decoding @ " + (new Date()),1);
+    }
+
+    checkFile(decRunResult[0]);
+
+    if (saveInterFiles == 2 || saveInterFiles == 3) { // make copy of intermediate decoder output file...
+
+      if (!decRunResult[1].equals("2")) { // ...but only if no fake decoder
+        if (!decRunResult[0].endsWith(".gz")) {
+          if (!copyFile(decRunResult[0],decRunResult[0]+".ZMERT.it"+iteration)) {
+            println("Warning: attempt to make copy of decoder output file (to create" + decRunResult[0]+".ZMERT.it"+iteration + ") was unsuccessful!",1);
+          }
+        } else {
+          String prefix = decRunResult[0].substring(0,decRunResult[0].length()-3);
+          if (!copyFile(prefix+".gz",prefix+".ZMERT.it"+iteration+".gz")) {
+            println("Warning: attempt to make copy of decoder output file (to create" + prefix+".ZMERT.it"+iteration+".gz" + ") was unsuccessful!",1);
+          }
+        }
+
+        if (compressFiles == 1 && !decRunResult[0].endsWith(".gz")) {
+          gzipFile(decRunResult[0]+".ZMERT.it"+iteration);
+        }
+      } // if (!fake)
+
+    }
+
+    return decRunResult[0];
+  }
+
   private String[] run_decoder(int iteration)
   {
     String[] retSA = new String[2];
@@ -1357,18 +912,22 @@ public double[] run_single_iteration(
     } else if (decoderCommand == null) {
 
       if (myDecoder == null) {
-        println("Loading Joshua decoder...",1);
-        myDecoder = new JoshuaDecoder(decoderConfigFileName+".ZMERT.orig");
-        println("...finished loading @ " + (new Date()),1);
-        println("");
+        loadDecoder();
       }
 
       println("Running Joshua decoder on source file " + sourceFileName + "...",1);
 //      myDecoder.initialize(decoderConfigFileName);
       double[] zeroBased_lambda = new double[numParams];
       System.arraycopy(lambda,1,zeroBased_lambda,0,numParams);
-      myDecoder.changeBaselineFeatureWeights(zeroBased_lambda);
-      myDecoder.decodeTestSet(sourceFileName, decoderOutFileName);
+      myDecoder.changeFeatureWeightVector(zeroBased_lambda, null);
+      try {
+        OutputStream outStream_nbest = new BufferedOutputStream(new FileOutputStream(decoderOutFileName));
+        myDecoder.decodeTestSet(sourceFileName, outStream_nbest);
+        outStream_nbest.close();
+      } catch (IOException e) {
+        System.err.println("IOException in MertCore.run_decoder(int): " + e.getMessage());
+        System.exit(99902);
+      }
 
       retSA[0] = decoderOutFileName;
       retSA[1] = "3";
@@ -1419,35 +978,89 @@ public double[] run_single_iteration(
 
   }
 
-  private void produceTempFiles(String nbestFileName, int iteration)
+  private void loadDecoder()
   {
+    println("Loading Joshua decoder...",1);
     try {
-      String sentsFileName = tmpDirPrefix+"temp.sents.it"+iteration;
-      String featsFileName = tmpDirPrefix+"temp.feats.it"+iteration;
+      // the decoder reads its settings from JoshuaConfiguration
+      JoshuaConfiguration.readConfigFile(decoderConfigFileName+".ZMERT.orig");
+    } catch (IOException e) {
+      System.err.println("IOException in MertCore.loadDecoder(): " + e.getMessage());
+      System.exit(99902);
+    }
+    myDecoder = new JoshuaDecoder(decoderConfigFileName+".ZMERT.orig");
+    println("...finished loading @ " + (new Date()),1);
+    println("");
+  }
 
-      FileOutputStream outStream_sents = new FileOutputStream(sentsFileName, false);
-      OutputStreamWriter outStreamWriter_sents = new OutputStreamWriter(outStream_sents, "utf8");
-      BufferedWriter outFile_sents = new BufferedWriter(outStreamWriter_sents);
+  private String runLoadedDecoder()
+  {
+    // the decoder is already loaded; only its weights change between iterations
+    println("Running Joshua decoder on source file " + sourceFileName + "...",1);
+    double[] zeroBased_lambda = new double[numParams];
+    System.arraycopy(lambda,1,zeroBased_lambda,0,numParams);
+    myDecoder.changeFeatureWeightVector(zeroBased_lambda, null);
 
-      PrintWriter outFile_feats = new PrintWriter(featsFileName);
+    ByteArrayOutputStream nbestOutput = new ByteArrayOutputStream();
+    myDecoder.decodeTestSet(sourceFileName, nbestOutput);
 
+    // the decoder renders n-best lists in the default encoding
+    return nbestOutput.toString();
+  }
 
-      InputStream inStream_nbest = null;
-      if (nbestFileName.endsWith(".gz")) {
-        inStream_nbest = new GZIPInputStream(new FileInputStream(nbestFileName));
+  private void saveDecoderOutput(String nbestOutput, String fileName)
+  {
+    try {
+      OutputStream outStream;
+      if (compressFiles == 1) {
+        fileName += ".gz";
+        outStream = new GZIPOutputStream(new FileOutputStream(fileName));
       } else {
-        inStream_nbest = new FileInputStream(nbestFileName);
+        outStream = new FileOutputStream(fileName);
       }
-      BufferedReader inFile_nbest = new BufferedReader(new InputStreamReader(inStream_nbest, "utf8"));
+      Writer outFile = new BufferedWriter(new OutputStreamWriter(outStream));
+      outFile.write(nbestOutput);
+      outFile.close();
+    } catch (IOException e) {
+      println("Warning: attempt to save decoder output (to create " + fileName + ") was unsuccessful!",1);
+    }
+  }
 
-      String line; //, prevLine;
-      String candidate_str = "";
-      String feats_str = "";
+  private void mergeCandidates(
+    String nbestOutput, String nbestFileName, int iteration, int firstIt,
+    double[][] initialLambda, double[][] best1Score, int[][][] best1Cand_suffStats,
+    double[][][] featVal_array, int[] candCount, int[] lastUsedIndex, int[] maxIndex,
+    int[] newCandidatesAdded)
+  {
+    // add the candidates of this iteration to the candidate pool, which already
+    // holds those of the previous iterations (and their sufficient statistics),
+    // so that only this iteration's n-best lists need to be parsed
 
-      int i = 0; int n = 0;
-      line = inFile_nbest.readLine();
+    try {
 
-      while (line != null) {
+      if (candidatePool == null) {
+        candidatePool = new CandidatePool(tmpDirPrefix+"temp.pool", numSentences, numParams, suffStatsCount, iteration);
+      }
+
+      candidatePool.discardBefore(firstIt);
+
+      BufferedReader inFile_nbest;
+      if (nbestOutput != null) {
+        inFile_nbest = new BufferedReader(new StringReader(nbestOutput));
+      } else {
+        InputStream inStream_nbest = null;
+        if (nbestFileName.endsWith(".gz")) {
+          inStream_nbest = new GZIPInputStream(new FileInputStream(nbestFileName));
+        } else {
+          inStream_nbest = new FileInputStream(nbestFileName);
+        }
+        inFile_nbest = new BufferedReader(new InputStreamReader(inStream_nbest, "utf8"));
+      }
+
+      String line;
+      while ((line = inFile_nbest.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0) continue;
 
 /*
 line format:
@@ -1456,20 +1069,12 @@ i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numPar
 
 */
 
-        // in a well formed file, we'd find the nth candidate for the ith sentence
-
-        int read_i = Integer.parseInt((line.substring(0,line.indexOf("|||"))).trim());
-
-        if (read_i != i) {
-          writeLine("||||||",outFile_sents);
-          outFile_feats.println("||||||");
-          n = 0; ++i;
-        }
+        int i = Integer.parseInt((line.substring(0,line.indexOf("|||"))).trim());
 
         line = (line.substring(line.indexOf("|||")+3)).trim(); // get rid of initial text
 
-        candidate_str = (line.substring(0,line.indexOf("|||"))).trim();
-        feats_str = (line.substring(line.indexOf("|||")+3)).trim();
+        String candidate_str = (line.substring(0,line.indexOf("|||"))).trim();
+        String feats_str = (line.substring(line.indexOf("|||")+3)).trim();
           // get rid of candidate string
 
         int junk_i = feats_str.indexOf("|||");
@@ -1477,41 +1082,98 @@ i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numPar
           feats_str = (feats_str.substring(0,junk_i)).trim();
         }
 
-        writeLine(normalize(candidate_str,textNormMethod), outFile_sents);
-        outFile_feats.println(feats_str);
-
-        ++n;
-        if (n == sizeOfNBest) {
-          writeLine("||||||",outFile_sents);
-          outFile_feats.println("||||||");
-          n = 0; ++i;
+        String[] featVal_str = feats_str.split("\\s+");
+        double[] currFeatVal = new double[1+numParams];
+        for (int c = 1; c <= numParams; ++c) {
+          currFeatVal[c] = Double.parseDouble(featVal_str[c-1]);
         }
 
-        line = inFile_nbest.readLine();
-      }
-
-      if (i != numSentences) { // last sentence had too few candidates
-        writeLine("||||||",outFile_sents);
-        outFile_feats.println("||||||");
+        candidatePool.add(i, normalize(candidate_str,textNormMethod), currFeatVal, iteration);
       }
 
       inFile_nbest.close();
-      outFile_sents.close();
-      outFile_feats.close();
 
-      if (compressFiles == 1) {
-        gzipFile(sentsFileName);
-        gzipFile(featsFileName);
-      }
+      candidatePool.flush(evalMetric);
 
     } catch (FileNotFoundException e) {
-      System.err.println("FileNotFoundException in MertCore.produceTempFiles(int): " + e.getMessage());
+      System.err.println("FileNotFoundException in MertCore.mergeCandidates(...): " + e.getMessage());
       System.exit(99901);
     } catch (IOException e) {
-      System.err.println("IOException in MertCore.produceTempFiles(int): " + e.getMessage());
+      System.err.println("IOException in MertCore.mergeCandidates(...): " + e.getMessage());
       System.exit(99902);
     }
 
+    print("  Progress: ");
+
+    int totalCandidateCount = 0;
+    double[] currFeatVal = new double[1+numParams];
+
+    for (int i = 0; i < numSentences; ++i) {
+
+      for (int j = 1; j <= initsPerIt; ++j) {
+        best1Score[j][i] = NegInf;
+      }
+
+      for (int k = 0; k < candidatePool.size(i); ++k) {
+
+        candidatePool.featVal(i,k,currFeatVal);
+
+        for (int j = 1; j <= initsPerIt; ++j) {
+          double score = 0; // i.e. score assigned by decoder
+          for (int c = 1; c <= numParams; ++c) {
+            score += initialLambda[j][c] * currFeatVal[c];
+          }
+          if (score > best1Score[j][i]) {
+            best1Score[j][i] = score;
+            best1Cand_suffStats[j][i] = candidatePool.stats(i,k);
+          }
+        } // for (j)
+
+        setFeats(featVal_array,i,lastUsedIndex,maxIndex,currFeatVal);
+        candCount[i] += 1;
+
+        newCandidatesAdded[candidatePool.iteration(i,k)] += 1;
+
+      }
+
+      totalCandidateCount += candCount[i];
+
+      if ((i+1) % 500 == 0) { print((i+1) + "\n" + "            ",1); }
+      else if ((i+1) % 100 == 0) { print("+",1); }
+      else if ((i+1) % 25 == 0) { print(".",1); }
+
+    } // for (i)
+
+    println("",1); // finish progress line
+
+    println("Processed " + totalCandidateCount + " distinct candidates "
+          + "(about " + totalCandidateCount/numSentences + " per sentence):",1);
+    for (int it = firstIt; it <= iteration; ++it) {
+      println("newCandidatesAdded[it=" + it + "] = " + newCandidatesAdded[it]
+            + " (about " + newCandidatesAdded[it]/numSentences + " per sentence)",1);
+    }
+
+    println("",1);
+
+  }
+
+  // the candidates merged so far; package-private for MertCoreTest
+  CandidatePool getCandidatePool()
+  {
+    return candidatePool;
+  }
+
+  private void deleteCandidatePool()
+  {
+    if (candidatePool != null) {
+      try {
+        candidatePool.close();
+      } catch (IOException e) {
+        println("Warning: could not close candidate pool: " + e.getMessage(),1);
+      }
+      candidatePool = null;
+    }
+    deleteFile(tmpDirPrefix+"temp.pool");
   }
 
   private void createConfigFile(double[] params, String cfgFileName, String templateFileName)
@@ -1926,6 +1588,11 @@ i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numPar
       myDecoder.cleanUp();
     }
 
+    if (lineSearchPool != null) {
+      lineSearchPool.shutdown();
+      lineSearchPool = null;
+    }
+
     // create config file with final values
     createConfigFile(lambda, decoderConfigFileName+".ZMERT.final",decoderConfigFileName+".ZMERT.orig");
 
@@ -3189,26 +2856,8 @@ i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numPar
       }
       DMC.println("",1);
 
-      // delete intermediate .temp.*.it* decoder output files
-      for (int iteration = 1; iteration <= DMC.maxMERTIterations; ++iteration) {
-        if (DMC.compressFiles == 1) {
-          DMC.deleteFile(DMC.tmpDirPrefix+"temp.sents.it"+iteration+".gz");
-          DMC.deleteFile(DMC.tmpDirPrefix+"temp.feats.it"+iteration+".gz");
-          if (DMC.fileExists(DMC.tmpDirPrefix+"temp.stats.it"+iteration+".copy.gz")) {
-            DMC.deleteFile(DMC.tmpDirPrefix+"temp.stats.it"+iteration+".copy.gz");
-          } else {
-            DMC.deleteFile(DMC.tmpDirPrefix+"temp.stats.it"+iteration+".gz");
-          }
-        } else {
-          DMC.deleteFile(DMC.tmpDirPrefix+"temp.sents.it"+iteration);
-          DMC.deleteFile(DMC.tmpDirPrefix+"temp.feats.it"+iteration);
-          if (DMC.fileExists(DMC.tmpDirPrefix+"temp.stats.it"+iteration+".copy")) {
-            DMC.deleteFile(DMC.tmpDirPrefix+"temp.stats.it"+iteration+".copy");
-          } else {
-            DMC.deleteFile(DMC.tmpDirPrefix+"temp.stats.it"+iteration);
-          }
-        }
-      }
+      // delete the candidate pool
+      DMC.deleteCandidatePool();
 
 
       DMC.finish();
@@ -17,10 +17,10 @@
  */
 
 package joshua.zmert;
-import java.io.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 public class TER extends EvaluationMetric
 {
@@ -28,17 +28,23 @@ public class TER extends EvaluationMetric
   private boolean withPunctuation;
   private int beamWidth;
   private int maxShiftDist;
-  private String tercomJarFileName;
   private int numScoringThreads;
 
+  private TERCalculator.Reference[][] references;
+    // the reference sentences, preprocessed once (see references())
+  private ExecutorService scoringPool;
+    // numScoringThreads daemon threads, created on first use and reused by every call
+  private static boolean warnedAboutTercom = false;
+    // whether the ignored tercom jar option has been reported
+
   public TER(String[] Metric_options)
   {
     // M_o[0]: case sensitivity, case/nocase
     // M_o[1]: with-punctuation, punc/nopunc
     // M_o[2]: beam width, positive integer
     // M_o[3]: maximum shift distance, positive integer
-    // M_o[4]: filename of tercom jar file
-    // M_o[5]: number of threads to use for TER scoring (= number of tercom processes launched)
+    // M_o[4]: filename of tercom jar file (no longer used, since TER is computed in-process)
+    // M_o[5]: number of threads to use for TER scoring
 
     // for 0-3, default values in tercom-0.7.25 are: nocase, punc, 20, 50
 
@@ -74,18 +80,9 @@ public class TER extends EvaluationMetric
       System.exit(1);
     }
 
-    tercomJarFileName = Metric_options[4];
-
-    if (tercomJarFileName == null || tercomJarFileName.equals("")) {
-      System.out.println("Problem processing tercom's jar filename");
-      System.exit(1);
-    } else {
-      File checker = new File(tercomJarFileName);
-      if (!checker.exists()) {
-        System.out.println("Could not find tercom jar file " + tercomJarFileName);
-        System.out.println("(Please make sure you use the full path in the filename)");
-        System.exit(1);
-      }
+    if (!Metric_options[4].equals("-") && !warnedAboutTercom) {
+      warnedAboutTercom = true;
+      System.out.println("TER is computed in-process: tercom is no longer run, option " + Metric_options[4] + " ignored.");
     }
 
     numScoringThreads = Integer.parseInt(Metric_options[5]);
@@ -95,9 +92,6 @@ public class TER extends EvaluationMetric
     }
 
 
-    TercomRunner.set_TercomParams(caseSensitive, withPunctuation, beamWidth, maxShiftDist, tercomJarFileName);
-
-
     initialize(); // set the data members of the metric
   }
 
@@ -113,304 +107,110 @@ public class TER extends EvaluationMetric
 
   public int[] suffStats(String cand_str, int i)
   {
-    // this method should never be used when the metric is TER,
-    // because TER.java overrides createSuffStatsFile below,
-    // which is the only method that calls suffStats(String,int).
-    return null;
+    return suffStats(newCalculator(), references()[i], cand_str);
   }
 
   public int[][] suffStats(String[] cand_strings, int[] cand_indices)
   {
     // calculate sufficient statistics for each sentence in an arbitrary set of candidates
 
-    int candCount = cand_strings.length;
+    final int candCount = cand_strings.length;
     if (cand_indices.length != candCount) {
       System.out.println("Array lengths mismatch in suffStats(String[],int[]); returning null.");
       return null;
     }
 
-    int[][] stats = new int[candCount][suffStatsCount];
-
-    try {
-
-      // 1) Create input files for tercom
-
-      // 1a) Create hypothesis file
-      FileOutputStream outStream = new FileOutputStream("hyp.txt.TER", false); // false: don't append
-      OutputStreamWriter outStreamWriter = new OutputStreamWriter(outStream, "utf8");
-      BufferedWriter outFile = new BufferedWriter(outStreamWriter);
-
-      for (int d = 0; d < candCount; ++d) {
-        writeLine(cand_strings[d] + " (ID" + d + ")",outFile);
-      }
-
-      outFile.close();
-
-      // 1b) Create reference file
-      outStream = new FileOutputStream("ref.txt.TER", false); // false: don't append
-      outStreamWriter = new OutputStreamWriter(outStream, "utf8");
-      outFile = new BufferedWriter(outStreamWriter);
-
-      for (int d = 0; d < candCount; ++d) {
-        for (int r = 0; r < refsPerSen; ++r) {
-          writeLine(refSentences[cand_indices[d]][r] + " (ID" + d + ")",outFile);
+    final int[][] stats = new int[candCount][];
+    final String[] cands = cand_strings;
+    final int[] indices = cand_indices;
+    final TERCalculator.Reference[][] refs = references();
+
+    // score the candidates in numScoringThreads interleaved slices, in parallel
+    int numSlices = Math.max(1, Math.min(numScoringThreads, candCount));
+    ExecutorService pool = scoringPool();
+    final Semaphore blocker = new Semaphore(0);
+
+    for (int t = 0; t < numSlices; ++t) {
+      final int firstCand = t;
+      final int step = numSlices;
+      pool.execute(new Runnable() {
+        public void run() {
+          try {
+            TERCalculator calculator = newCalculator();
+            for (int d = firstCand; d < candCount; d += step) {
+              stats[d] = suffStats(calculator, refs[indices[d]], cands[d]);
+            }
+          } catch (Exception e) {
+            System.err.println("Exception in TER.suffStats(String[],int[]): " + e.getMessage());
+            System.exit(99905);
+          }
+          blocker.release();
         }
-      }
-
-      outFile.close();
-
-      // 2) Launch tercom as an external process
-
-      runTercom("ref.txt.TER", "hyp.txt.TER", "TER_out", 500);
-
-      // 3) Read SS from output file produced by tercom.7.25.jar
-
-      BufferedReader inFile = new BufferedReader(new FileReader("TER_out.ter"));
-      String line = "";
-
-      line = inFile.readLine(); // skip hyp line
-      line = inFile.readLine(); // skip ref line
-
-      for (int d = 0; d < candCount; ++d) {
-        line = inFile.readLine(); // read info
-        String[] strA = line.split("\\s+");
-
-        stats[d][0] = (int)Double.parseDouble(strA[1]);
-        stats[d][1] = (int)Double.parseDouble(strA[2]);
-      }
-
-
-      // 4) Delete TER files
-
-      File fd;
-      fd = new File("hyp.txt.TER"); if (fd.exists()) fd.delete();
-      fd = new File("ref.txt.TER"); if (fd.exists()) fd.delete();
-      fd = new File("TER_out.ter"); if (fd.exists()) fd.delete();
-
-    } catch (IOException e) {
-      System.err.println("IOException in TER.suffStats(String[],int[]): " + e.getMessage());
-      System.exit(99902);
+      });
     }
 
-    return stats;
-  }
-
-  public void createSuffStatsFile(String cand_strings_fileName, String cand_indices_fileName, String outputFileName, int maxBatchSize)
-  {
-
     try {
-      int batchCount = 0;
-
-      FileInputStream inStream_cands = new FileInputStream(cand_strings_fileName);
-      BufferedReader inFile_cands = new BufferedReader(new InputStreamReader(inStream_cands, "utf8"));
-
-      FileInputStream inStream_indices = new FileInputStream(cand_indices_fileName);
-      BufferedReader inFile_indices = new BufferedReader(new InputStreamReader(inStream_indices, "utf8"));
-
-      while (true) {
-        ++batchCount;
-        int readCount = createTercomHypFile(inFile_cands, tmpDirPrefix+"hyp.txt.TER.batch"+batchCount, 10000);
-        createTercomRefFile(inFile_indices, tmpDirPrefix+"ref.txt.TER.batch"+batchCount, 10000);
-
-        if (readCount == 0) {
-          --batchCount;
-          break;
-        } else if (readCount < 10000) {
-          break;
-        }
-      }
-
-      // score the batchCount batches of candidates, in parallel, across numThreads threads
-      ExecutorService pool = Executors.newFixedThreadPool(numScoringThreads);
-      Semaphore blocker = new Semaphore(0);
-
-      for (int b = 1; b <= batchCount; ++b) {
-        pool.execute(new TercomRunner(blocker, tmpDirPrefix+"ref.txt.TER.batch"+b, tmpDirPrefix+"hyp.txt.TER.batch"+b, tmpDirPrefix+"TER_out.batch"+b, 500));
-          // Each thread scores the candidates, creating a tercom output file,
-          // and then deletes the .hyp. and .ref. files, which are not needed
-          // for other batches.
-      }
-
-      pool.shutdown();
-
-      try {
-        blocker.acquire(batchCount);
-      } catch(java.lang.InterruptedException e) {
-        System.err.println("InterruptedException in TER.createSuffStatsFile(...): " + e.getMessage());
-        System.exit(99906);
-      }
-
-      PrintWriter outFile = new PrintWriter(outputFileName);
-      for (int b = 1; b <= batchCount; ++b) {
-        copySS(tmpDirPrefix+"TER_out.batch"+b+".ter", outFile);
-        File fd;
-        fd = new File(tmpDirPrefix+"TER_out.batch"+b+".ter"); if (fd.exists()) fd.delete();
-        // .hyp. and .ref. already deleted by individual threads
-      }
-      outFile.close();
-
-    } catch (IOException e) {
-      System.err.println("IOException in TER.createSuffStatsFile(...): " + e.getMessage());
-      System.exit(99902);
+      blocker.acquire(numSlices);
+    } catch(java.lang.InterruptedException e) {
+      System.err.println("InterruptedException in TER.suffStats(String[],int[]): " + e.getMessage());
+      System.exit(99906);
     }
 
+    return stats;
   }
 
-  public int createTercomHypFile(BufferedReader inFile_cands, String hypFileName, int numCands)
+  private int[] suffStats(TERCalculator calculator, TERCalculator.Reference[] refs, String cand_str)
   {
-    // returns # lines read
-
-    int readCount = 0;
-
-    try {
-      FileOutputStream outStream = new FileOutputStream(hypFileName, false); // false: don't append
-      OutputStreamWriter outStreamWriter = new OutputStreamWriter(outStream, "utf8");
-      BufferedWriter outFile = new BufferedWriter(outStreamWriter);
-
-      String line_cand = "";
-
-      if (numCands > 0) {
-        for (int d = 0; d < numCands; ++d) {
-          line_cand = inFile_cands.readLine();
-          if (line_cand != null) {
-            ++readCount;
-            writeLine(line_cand + " (ID" + d + ")",outFile);
-          } else {
-            break;
-          }
-        }
-      } else {
-        line_cand = inFile_cands.readLine();
-        int d = -1;
-        while (line_cand != null) {
-          ++readCount;
-          ++d;
-          writeLine(line_cand + " (ID" + d + ")",outFile);
-          line_cand = inFile_cands.readLine();
-        }
+    // as in tercom, the number of edits is that of the closest reference,
+    // and the reference length is the average length of the references
+    int numEdits = 0;
+    int totalRefLength = 0;
+    for (int r = 0; r < refsPerSen; ++r) {
+      int edits_r = calculator.numEdits(cand_str, refs[r]);
+      if (r == 0 || edits_r < numEdits) {
+        numEdits = edits_r;
       }
-
-      outFile.close();
-
-    } catch (IOException e) {
-      System.err.println("IOException in TER.createTercomHypFile(...): " + e.getMessage());
-      System.exit(99902);
+      totalRefLength += refs[r].length();
     }
 
-    return readCount;
+    int[] stats = new int[suffStatsCount];
+    stats[0] = numEdits;
+    stats[1] = (int)(totalRefLength / (double)refsPerSen);
 
+    return stats;
   }
 
-  public int createTercomRefFile(BufferedReader inFile_indices, String refFileName, int numIndices)
+  private TERCalculator newCalculator()
   {
-    // returns # lines read
-
-    int readCount = 0;
-
-    try {
-      FileOutputStream outStream = new FileOutputStream(refFileName, false); // false: don't append
-      OutputStreamWriter outStreamWriter = new OutputStreamWriter(outStream, "utf8");
-      BufferedWriter outFile = new BufferedWriter(outStreamWriter);
-
-      String line_index = "";
-
-      if (numIndices > 0) {
-        for (int d = 0; d < numIndices; ++d) {
-          line_index = inFile_indices.readLine();
-          if (line_index != null) {
-            ++readCount;
-            int index = Integer.parseInt(line_index);
-            for (int r = 0; r < refsPerSen; ++r) {
-              writeLine(refSentences[index][r] + " (ID" + d + ")",outFile);
-            }
-          } else {
-            break;
-          }
-        }
-      } else {
-        line_index = inFile_indices.readLine();
-        int d = -1;
-        while (line_index != null) {
-          ++readCount;
-          ++d;
-          int index = Integer.parseInt(line_index);
-          for (int r = 0; r < refsPerSen; ++r) {
-            writeLine(refSentences[index][r] + " (ID" + d + ")",outFile);
-          }
-          line_index = inFile_indices.readLine();
-        }
-      }
-
-      outFile.close();
-
-    } catch (IOException e) {
-      System.err.println("IOException in TER.createTercomRefFile(...): " + e.getMessage());
-      System.exit(99902);
-    }
-
-    return readCount;
-
+    return new TERCalculator(caseSensitive, withPunctuation, beamWidth, maxShiftDist);
   }
 
-  public int runTercom(String refFileName, String hypFileName, String outFileNamePrefix, int memSize)
+  private synchronized ExecutorService scoringPool()
   {
-    int exitValue = -1;
-
-    try {
-
-      String cmd_str = "java -Xmx" + memSize + "m -Dfile.encoding=utf8 -jar " + tercomJarFileName + " -r " + refFileName + " -h " + hypFileName + " -o ter -n " + outFileNamePrefix;
-      cmd_str += " -b " + beamWidth;
-      cmd_str += " -d " + maxShiftDist;
-      if (caseSensitive) { cmd_str += " -s"; }
-      if (!withPunctuation) { cmd_str += " -P"; }
-      /* From tercom's README:
-           -s case sensitivity, optional, default is insensitive
-           -P no punctuations, default is with punctuations.
-      */
-
-      Runtime rt = Runtime.getRuntime();
-      Process p = rt.exec(cmd_str);
-
-      StreamGobbler errorGobbler = new StreamGobbler(p.getErrorStream(), 0);
-      StreamGobbler outputGobbler = new StreamGobbler(p.getInputStream(), 0);
-
-      errorGobbler.start();
-      outputGobbler.start();
-
-      exitValue = p.waitFor();
-
-    } catch (IOException e) {
-      System.err.println("IOException in TER.runTercom(...): " + e.getMessage());
-      System.exit(99902);
-    } catch (InterruptedException e) {
-      System.err.println("InterruptedException in TER.runTercom(...): " + e.getMessage());
-      System.exit(99903);
+    if (scoringPool == null) {
+      scoringPool = Executors.newFixedThreadPool(numScoringThreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "TER scoring");
+          t.setDaemon(true); // so that an idle pool does not keep Z-MERT running
+          return t;
+        }
+      });
     }
-
-    return exitValue;
-
+    return scoringPool;
   }
 
-  public void copySS(String inputFileName, PrintWriter outFile)
+  private synchronized TERCalculator.Reference[][] references()
   {
-    try {
-      BufferedReader inFile = new BufferedReader(new FileReader(inputFileName));
-      String line = "";
-
-      line = inFile.readLine(); // skip hyp line
-      line = inFile.readLine(); // skip ref line
-
-      line = inFile.readLine(); // read info for first line
-
-      while (line != null) {
-        String[] strA = line.split("\\s+");
-        outFile.println((int)Double.parseDouble(strA[1]) + " " + (int)Double.parseDouble(strA[2]));
-        line = inFile.readLine(); // read info for next line
+    if (references == null) {
+      TERCalculator calculator = newCalculator();
+      references = new TERCalculator.Reference[numSentences][refsPerSen];
+      for (int i = 0; i < numSentences; ++i) {
+        for (int r = 0; r < refsPerSen; ++r) {
+          references[i][r] = calculator.reference(refSentences[i][r]);
+        }
       }
-    } catch (IOException e) {
-      System.err.println("IOException in TER.copySS(String,PrintWriter): " + e.getMessage());
-      System.exit(99902);
     }
+    return references;
   }
 
   public double score(int[] stats)
@@ -438,13 +238,4 @@ public class TER extends EvaluationMetric
     }
   }
 
-  private void writeLine(String line, BufferedWriter writer) throws IOException
-  {
-    writer.write(line, 0, line.length());
-    writer.newLine();
-    writer.flush();
-  }
-
 }
-
-
@@ -0,0 +1,337 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package joshua.zmert;
+import java.util.*;
+
+/**
+ * Computes the number of edits of translation edit rate (TER), as
+ * tercom does: the minimum number of word insertions, deletions,
+ * substitutions and phrase shifts needed to turn a hypothesis into a
+ * reference, with the shifts found by tercom's greedy search.
+ * Repeatedly, the shift that most reduces the edit distance between
+ * the shifted hypothesis and the reference is applied, until no shift
+ * reduces it.  A shifted phrase must match the reference at its new
+ * position, and contain an error at its old one.
+ *
+ * Edit distances are computed within a band of beamWidth words on
+ * either side of the diagonal of the dynamic programming matrix.
+ *
+ * A TERCalculator keeps scratch space between calls, and should be
+ * used by one thread only.  References are preprocessed once (see
+ * reference(String)) and can be shared across threads.
+ */
+public class TERCalculator
+{
+  private static final int MAX_SHIFT_SIZE = 10; // maximum length of a shifted phrase, as in tercom
+  private static final int INF = Integer.MAX_VALUE / 2;
+
+  private final boolean caseSensitive;
+  private final boolean withPunctuation;
+  private final int beamWidth;
+  private final int maxShiftDist;
+
+  // scratch space for editDistance
+  private int[][] cost = new int[1][1];
+  private int[] bandStart = new int[1];
+  private int[] bandEnd = new int[1];
+
+  /**
+   * A reference sentence, as word IDs.  Hypothesis words that do not
+   * appear in the reference never match, and get distinct negative IDs.
+   */
+  public static class Reference
+  {
+    final int[] words;
+    final HashMap<String,Integer> wordIDs;
+    final int[][] positions; // positions[id] lists the positions of word id, in increasing order
+
+    Reference(String[] tokens)
+    {
+      words = new int[tokens.length];
+      wordIDs = new HashMap<String,Integer>();
+      int[] counts = new int[tokens.length];
+      for (int p = 0; p < tokens.length; ++p) {
+        Integer id = wordIDs.get(tokens[p]);
+        if (id == null) {
+          id = wordIDs.size();
+          wordIDs.put(tokens[p],id);
+        }
+        words[p] = id;
+        ++counts[id];
+      }
+
+      positions = new int[wordIDs.size()][];
+      for (int id = 0; id < positions.length; ++id) {
+        positions[id] = new int[counts[id]];
+        counts[id] = 0;
+      }
+      for (int p = 0; p < words.length; ++p) {
+        positions[words[p]][counts[words[p]]++] = p;
+      }
+    }
+
+    public int length() { return words.length; }
+  }
+
+  public TERCalculator(boolean caseSensitive, boolean withPunctuation, int beamWidth, int maxShiftDist)
+  {
+    this.caseSensitive = caseSensitive;
+    this.withPunctuation = withPunctuation;
+    this.beamWidth = beamWidth;
+    this.maxShiftDist = maxShiftDist;
+  }
+
+  public Reference reference(String ref)
+  {
+    return new Reference(tokenize(ref));
+  }
+
+  /**
+   * Returns the number of edits (including shifts) needed to turn the
+   * hypothesis into the reference.
+   */
+  public int numEdits(String hyp, Reference ref)
+  {
+    String[] tokens = tokenize(hyp);
+    int[] h = new int[tokens.length];
+    for (int p = 0; p < tokens.length; ++p) {
+      Integer id = ref.wordIDs.get(tokens[p]);
+      h[p] = (id != null) ? id : -1 - p;
+    }
+
+    int[] r = ref.words;
+    int numShifts = 0;
+    int dist = editDistance(h,r);
+
+    while (true) {
+      // the current alignment: which words are errors, and for each
+      // reference word, the (last) hypothesis word aligned to it
+      boolean[] herr = new boolean[h.length];
+      boolean[] rerr = new boolean[r.length];
+      int[] ralign = new int[r.length];
+      align(h,r,herr,rerr,ralign);
+
+      // the candidate shifts, by length: {start, newloc} pairs, where the
+      // phrase starting at start is moved to just after position newloc
+      ArrayList<ArrayList<int[]>> shifts = new ArrayList<ArrayList<int[]>>(MAX_SHIFT_SIZE+1);
+      for (int len = 0; len <= MAX_SHIFT_SIZE; ++len) {
+        shifts.add(new ArrayList<int[]>());
+      }
+      gatherShifts(h,ref,herr,rerr,ralign,shifts);
+
+      // find the best shift, trying longer phrases first; as in tercom,
+      // a shift is only made if it strictly reduces the number of edits,
+      // and a phrase of length len can reduce the edit distance by at
+      // most 2*len
+      int[] bestShifted = null;
+      int bestGain = 0;
+      for (int len = MAX_SHIFT_SIZE; len >= 1; --len) {
+        if (bestGain >= 2*len - 1) break;
+        for (int[] shift : shifts.get(len)) {
+          int[] shifted = shift(h,shift[0],len,shift[1]);
+          int newDist = editDistance(shifted,r);
+          int gain = dist - (newDist + 1);
+          if (gain > bestGain) {
+            bestShifted = shifted;
+            bestGain = gain;
+          }
+        }
+      }
+
+      if (bestShifted == null) break;
+
+      h = bestShifted;
+      dist = editDistance(h,r); // refill the matrix for align()
+      ++numShifts;
+    }
+
+    return dist + numShifts;
+  }
+
+  private String[] tokenize(String s)
+  {
+    if (!caseSensitive) {
+      s = s.toLowerCase();
+    }
+    if (!withPunctuation) {
+      s = s.replaceAll("[\\.,\\?:;!\"\\(\\)]", "");
+      s = s.replaceAll("\\s+-\\s+", " ");
+    }
+    s = s.trim();
+    if (s.length() == 0) {
+      return new String[0];
+    }
+    return s.split("\\s+");
+  }
+
+  private void gatherShifts(
+      int[] h, Reference ref, boolean[] herr, boolean[] rerr, int[] ralign, ArrayList<ArrayList<int[]>> shifts)
+  {
+    int[] r = ref.words;
+    boolean[] tried = new boolean[h.length+1]; // tried[newloc+1]
+
+    for (int start = 0; start < h.length; ++start) {
+      if (h[start] < 0) continue; // not in the reference
+
+      // reference positions where the phrase starting at start matches
+      int[] matches = ref.positions[h[start]].clone();
+      int matchCount = matches.length;
+      boolean anyHypErr = false;
+
+      for (int len = 1; len <= MAX_SHIFT_SIZE && start + len <= h.length; ++len) {
+        if (len > 1) {
+          // keep the matches that extend to this length
+          int kept = 0;
+          for (int m = 0; m < matchCount; ++m) {
+            int p = matches[m];
+            if (p + len <= r.length && r[p+len-1] == h[start+len-1]) {
+              matches[kept++] = p;
+            }
+          }
+          matchCount = kept;
+        }
+        if (matchCount == 0) break;
+
+        anyHypErr |= herr[start+len-1];
+        if (!anyHypErr) continue; // phrase is already correct
+
+        Arrays.fill(tried,false);
+        for (int m = 0; m < matchCount; ++m) {
+          int moveto = matches[m];
+
+          boolean anyRefErr = false;
+          for (int p = moveto; p < moveto + len; ++p) {
+            anyRefErr |= rerr[p];
+          }
+          if (!anyRefErr) continue;
+
+          for (int roff = -1; roff < len; ++roff) {
+            int newloc;
+            if (roff == -1 && moveto == 0) {
+              newloc = -1;
+            } else if (roff == 0 || ralign[moveto+roff] != ralign[moveto]) {
+              newloc = ralign[moveto+roff];
+            } else {
+              continue;
+            }
+
+            if (newloc >= start - 1 && newloc < start + len) continue; // not a move
+            if (Math.abs(newloc - start) > maxShiftDist) continue;
+            if (tried[newloc+1]) continue;
+            tried[newloc+1] = true;
+
+            shifts.get(len).add(new int[] {start,newloc});
+          }
+        }
+      } // for (len)
+    } // for (start)
+  }
+
+  /** Moves the len words starting at start to just after position newloc. */
+  private static int[] shift(int[] h, int start, int len, int newloc)
+  {
+    int[] shifted = new int[h.length];
+    int n = 0;
+    if (newloc < start) {
+      for (int p = 0; p <= newloc; ++p) shifted[n++] = h[p];
+      for (int p = start; p < start + len; ++p) shifted[n++] = h[p];
+      for (int p = newloc + 1; p < start; ++p) shifted[n++] = h[p];
+      for (int p = start + len; p < h.length; ++p) shifted[n++] = h[p];
+    } else {
+      for (int p = 0; p < start; ++p) shifted[n++] = h[p];
+      for (int p = start + len; p <= newloc; ++p) shifted[n++] = h[p];
+      for (int p = start; p < start + len; ++p) shifted[n++] = h[p];
+      for (int p = newloc + 1; p < h.length; ++p) shifted[n++] = h[p];
+    }
+    return shifted;
+  }
+
+  /**
+   * Fills cost[i][j], the edit distance between the first i reference
+   * words and the first j hypothesis words, for j within the band of
+   * row i, and returns the edit distance between h and r.
+   */
+  private int editDistance(int[] h, int[] r)
+  {
+    int R = r.length, H = h.length;
+    if (cost.length < R+1 || cost[0].length < H+1) {
+      cost = new int[Math.max(cost.length,R+1)][Math.max(cost[0].length,H+1)];
+      bandStart = new int[cost.length];
+      bandEnd = new int[cost.length];
+    }
+
+    for (int i = 0; i <= R; ++i) {
+      // the band follows the diagonal from (0,0) to (R,H), and always
+      // overlaps the previous row's band, so that (R,H) is reachable
+      int center = (R == 0) ? H : (int)((long)i * H / R);
+      int lo = Math.max(0,center - beamWidth);
+      int hi = Math.min(H,center + beamWidth);
+      if (i > 0) lo = Math.min(lo,bandEnd[i-1]);
+      if (i == R) hi = H;
+      bandStart[i] = lo;
+      bandEnd[i] = hi;
+
+      for (int j = lo; j <= hi; ++j) {
+        int best = INF;
+        if (i == 0 && j == 0) {
+          best = 0;
+        }
+        if (i > 0 && j > 0 && j-1 >= bandStart[i-1] && j-1 <= bandEnd[i-1]) {
+          best = Math.min(best,cost[i-1][j-1] + (r[i-1] == h[j-1] ? 0 : 1));
+        }
+        if (i > 0 && j >= bandStart[i-1] && j <= bandEnd[i-1]) {
+          best = Math.min(best,cost[i-1][j] + 1); // reference word deleted
+        }
+        if (j > lo) {
+          best = Math.min(best,cost[i][j-1] + 1); // hypothesis word inserted
+        }
+        cost[i][j] = best;
+      }
+    }
+
+    return cost[R][H];
+  }
+
+  /** Traces back the alignment found by the last call to editDistance(h,r). */
+  private void align(int[] h, int[] r, boolean[] herr, boolean[] rerr, int[] ralign)
+  {
+    int i = r.length, j = h.length;
+    Arrays.fill(ralign,-1);
+    while (i > 0 || j > 0) {
+      if (i > 0 && j > 0 && j-1 >= bandStart[i-1] && j-1 <= bandEnd[i-1]
+          && cost[i][j] == cost[i-1][j-1] + (r[i-1] == h[j-1] ? 0 : 1)) {
+        // match or substitution
+        --i; --j;
+        herr[j] = rerr[i] = (r[i] != h[j]);
+        ralign[i] = j;
+      } else if (i > 0 && j >= bandStart[i-1] && j <= bandEnd[i-1]
+                 && cost[i][j] == cost[i-1][j] + 1) {
+        // deletion
+        --i;
+        rerr[i] = true;
+        ralign[i] = j - 1;
+      } else {
+        // insertion
+        --j;
+        herr[j] = true;
+      }
+    }
+  }
+
+}
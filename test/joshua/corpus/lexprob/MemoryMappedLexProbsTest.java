@@ -0,0 +1,181 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.lexprob;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import joshua.corpus.AlignedParallelCorpus;
+import joshua.corpus.CorpusArray;
+import joshua.corpus.ParallelCorpus;
+import joshua.corpus.alignment.AlignmentArray;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.corpus.vocab.Vocabulary;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for MemoryMappedLexProbs.
+ *
+ * @version $LastChangedDate$
+ */
+public class MemoryMappedLexProbsTest {
+
+	String[] sourceSentences = {
+			"the house is small",
+			"the house is big",
+			"a small house"
+	};
+	
+	String[] targetSentences = {
+			"das haus ist klein",
+			"das haus ist gross",
+			"ein kleines haus"
+	};
+	
+	/** Alignment points of each sentence; "big" and "gross" are unaligned. */
+	int[][][] alignmentPoints = {
+			{ {0,0}, {1,1}, {2,2}, {3,3} },
+			{ {0,0}, {1,1}, {2,2} },
+			{ {0,0}, {1,1}, {1,2}, {2,2} }
+	};
+	
+	Vocabulary sourceVocab, targetVocab;
+	ParallelCorpus parallelCorpus;
+	LexProbs lexProbs;
+	String fileName;
+
+	private CorpusArray createCorpusArray(String[] sentences, Vocabulary vocab) {
+		List<Integer> words = new ArrayList<Integer>();
+		int[] sentenceStartPositions = new int[sentences.length];
+		for (int i = 0; i < sentences.length; i++) {
+			sentenceStartPositions[i] = words.size();
+			for (String word : sentences[i].split("\\s+")) {
+				words.add(vocab.addTerminal(word));
+			}
+		}
+		int[] corpus = new int[words.size()];
+		for (int i = 0; i < corpus.length; i++) {
+			corpus[i] = words.get(i);
+		}
+		return new CorpusArray(corpus, sentenceStartPositions, vocab);
+	}
+	
+	@Test
+	public void setup() throws IOException {
+		
+		sourceVocab = new Vocabulary();
+		targetVocab = new Vocabulary();
+		CorpusArray sourceCorpus = createCorpusArray(sourceSentences, sourceVocab);
+		CorpusArray targetCorpus = createCorpusArray(targetSentences, targetVocab);
+		
+		int[][] alignedTargetIndices = new int[sourceCorpus.size()][];
+		int[][] alignedSourceIndices = new int[targetCorpus.size()][];
+		for (int sentence = 0; sentence < alignmentPoints.length; sentence++) {
+			int sourceStart = sourceCorpus.getSentencePosition(sentence);
+			int targetStart = targetCorpus.getSentencePosition(sentence);
+			for (int[] point : alignmentPoints[sentence]) {
+				alignedTargetIndices[sourceStart + point[0]] = append(alignedTargetIndices[sourceStart + point[0]], targetStart + point[1]);
+				alignedSourceIndices[targetStart + point[1]] = append(alignedSourceIndices[targetStart + point[1]], sourceStart + point[0]);
+			}
+		}
+		AlignmentArray alignments = new AlignmentArray(alignedTargetIndices, alignedSourceIndices, sourceSentences.length);
+		
+		parallelCorpus = new AlignedParallelCorpus(sourceCorpus, targetCorpus, alignments);
+		lexProbs = new LexProbs(parallelCorpus, Float.MIN_VALUE);
+		
+		File file = File.createTempFile("lexicon", null);
+		file.deleteOnExit();
+		fileName = file.getAbsolutePath();
+		MemoryMappedLexProbs.write(fileName, lexProbs);
+	}
+	
+	private static int[] append(int[] array, int value) {
+		if (array == null) {
+			return new int[] { value };
+		} else {
+			int[] result = new int[array.length + 1];
+			System.arraycopy(array, 0, result, 0, array.length);
+			result[array.length] = value;
+			return result;
+		}
+	}
+	
+	private List<Integer> getWords(SymbolTable vocab) {
+		List<Integer> words = new ArrayList<Integer>();
+		words.add(null);
+		for (int word : vocab.getAllIDs()) {
+			words.add(word);
+		}
+		return words;
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void mappedProbabilitiesMatchCounted() throws IOException {
+		
+		MemoryMappedLexProbs mappedLexProbs = new MemoryMappedLexProbs(fileName, parallelCorpus, Float.MIN_VALUE);
+		
+		int seen = 0;
+		for (Integer sourceWord : getWords(sourceVocab)) {
+			for (Integer targetWord : getWords(targetVocab)) {
+				float sourceGivenTarget = lexProbs.sourceGivenTarget(sourceWord, targetWord);
+				float targetGivenSource = lexProbs.targetGivenSource(targetWord, sourceWord);
+				Assert.assertEquals(mappedLexProbs.sourceGivenTarget(sourceWord, targetWord), sourceGivenTarget);
+				Assert.assertEquals(mappedLexProbs.targetGivenSource(targetWord, sourceWord), targetGivenSource);
+				if (sourceGivenTarget > Float.MIN_VALUE) {
+					seen++;
+				}
+			}
+		}
+		Assert.assertTrue(seen > 0);
+		
+		// Unaligned words are aligned to NULL
+		Assert.assertEquals(mappedLexProbs.sourceGivenTarget("big", null), 1.0f);
+		Assert.assertEquals(mappedLexProbs.targetGivenSource("gross", null), lexProbs.targetGivenSource(targetVocab.getID("gross"), null));
+		Assert.assertEquals(mappedLexProbs.targetGivenSource("haus", "house"), 1.0f);
+		Assert.assertEquals(mappedLexProbs.sourceGivenTarget("small", "kleines"), 1.0f);
+		Assert.assertEquals(mappedLexProbs.targetGivenSource("kleines", "small"), 1.0f / 3.0f);
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void unseenPairsGetFloorProbability() throws IOException {
+		
+		MemoryMappedLexProbs mappedLexProbs = new MemoryMappedLexProbs(fileName, parallelCorpus, 0.25f);
+		
+		Assert.assertEquals(mappedLexProbs.getFloorProbability(), 0.25f);
+		Assert.assertEquals(mappedLexProbs.sourceGivenTarget("small", "haus"), 0.25f);
+		Assert.assertEquals(mappedLexProbs.targetGivenSource(targetVocab.getID("haus"), SymbolTable.X), 0.25f);
+		Assert.assertEquals(mappedLexProbs.sourceGivenTarget(sourceVocab.getID("small"), Integer.MAX_VALUE - 1), 0.25f);
+	}
+	
+	@Test(dependsOnMethods={"setup"}, expectedExceptions={IOException.class})
+	public void otherFilesAreRejected() throws IOException {
+		
+		File file = File.createTempFile("lexicon", null);
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[32]);
+		out.close();
+		
+		new MemoryMappedLexProbs(file.getAbsolutePath(), parallelCorpus, Float.MIN_VALUE);
+	}
+}
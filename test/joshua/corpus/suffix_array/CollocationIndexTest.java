@@ -0,0 +1,199 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.suffix_array;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import joshua.corpus.CorpusArray;
+import joshua.corpus.MatchedHierarchicalPhrases;
+import joshua.corpus.alignment.AlignmentArray;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.Trie;
+import joshua.prefix_tree.PrefixTree;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for CollocationIndex.
+ *
+ * @version $LastChangedDate$
+ */
+public class CollocationIndexTest {
+
+	String[] sentences = {
+			"it makes him and it mars him , it sets him on and it takes him off .",
+			"and it makes him off and it sets him on .",
+			"it takes him , and it mars him , and it makes him ."
+	};
+
+	int maxPhraseSpan = 10;
+	int maxPhraseLength = 10;
+	int maxNonterminals = 2;
+	int minNonterminalSpan = 2;
+
+	Vocabulary sourceVocab, targetVocab;
+	int[] corpus, targetCorpus, sentenceStartPositions;
+	AlignmentArray alignments;
+	CollocationIndex collocationIndex;
+
+	@Test
+	public void setup() throws IOException {
+
+		sourceVocab = new Vocabulary();
+		targetVocab = new Vocabulary();
+
+		List<Integer> words = new ArrayList<Integer>();
+		List<Integer> targetWords = new ArrayList<Integer>();
+		sentenceStartPositions = new int[sentences.length];
+		for (int i = 0; i < sentences.length; i++) {
+			sentenceStartPositions[i] = words.size();
+			for (String word : sentences[i].split("\\s+")) {
+				words.add(sourceVocab.addTerminal(word));
+				targetWords.add(targetVocab.addTerminal(word.toUpperCase()));
+			}
+		}
+		corpus = new int[words.size()];
+		targetCorpus = new int[words.size()];
+		for (int i = 0; i < corpus.length; i++) {
+			corpus[i] = words.get(i);
+			targetCorpus[i] = targetWords.get(i);
+		}
+
+		// Each word is aligned to the word at the same position
+		int[][] alignedTargetIndices = new int[corpus.length][];
+		int[][] alignedSourceIndices = new int[corpus.length][];
+		for (int i = 0; i < corpus.length; i++) {
+			alignedTargetIndices[i] = new int[] { i };
+			alignedSourceIndices[i] = new int[] { i };
+		}
+		alignments = new AlignmentArray(alignedTargetIndices, alignedSourceIndices, sentences.length);
+
+		SuffixArray suffixArray = new SuffixArray(new CorpusArray(corpus, sentenceStartPositions, sourceVocab));
+		FrequentPhrases frequentPhrases = new FrequentPhrases(suffixArray, 2, (short) 10, maxPhraseLength, maxPhraseLength, maxPhraseSpan, minNonterminalSpan);
+
+		File file = File.createTempFile("collocations", null);
+		file.deleteOnExit();
+		CollocationIndex.write(file.getAbsolutePath(), frequentPhrases, 20, maxPhraseLength, minNonterminalSpan, maxPhraseSpan);
+
+		collocationIndex = new CollocationIndex(file.getAbsolutePath(), sourceVocab);
+		Assert.assertTrue(collocationIndex.size() > 0);
+		Assert.assertTrue(collocationIndex.size() <= 20);
+		Assert.assertTrue(collocationIndex.isCompatible(minNonterminalSpan, maxPhraseSpan));
+		Assert.assertFalse(collocationIndex.isCompatible(minNonterminalSpan + 1, maxPhraseSpan));
+
+		// Only collocations are indexed
+		int it = sourceVocab.getID("it");
+		int him = sourceVocab.getID("him");
+		Assert.assertNull(collocationIndex.get(new Pattern(sourceVocab, it, him)));
+	}
+
+	private ParallelCorpusGrammarFactory newGrammarFactory() {
+		SuffixArray suffixArray = new SuffixArray(new CorpusArray(corpus, sentenceStartPositions, sourceVocab));
+		SuffixArray targetSuffixArray = new SuffixArray(new CorpusArray(targetCorpus, sentenceStartPositions, targetVocab));
+		return new ParallelCorpusGrammarFactory(suffixArray, targetSuffixArray, alignments, null, 300, maxPhraseSpan, maxPhraseLength, maxNonterminals, minNonterminalSpan, Float.MIN_VALUE, JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
+	}
+
+	/** Collects the rules of each pattern reachable from a trie. */
+	private void collect(Trie trie, String path, Set<Integer> symbols, Map<String,List<String>> rules) {
+		if (trie.hasRules()) {
+			List<String> ruleStrings = new ArrayList<String>();
+			for (Rule rule : trie.getRules().getSortedRules()) {
+				ruleStrings.add(Arrays.toString(rule.getFrench()) + " ||| " + Arrays.toString(rule.getEnglish()) + " ||| " + Arrays.toString(rule.getFeatureScores()));
+			}
+			rules.put(path, ruleStrings);
+		}
+		for (int symbol : symbols) {
+			Trie child = trie.matchOne(symbol);
+			if (child != null) {
+				collect(child, path + " " + symbol, symbols, rules);
+			}
+		}
+	}
+
+	private Map<String,List<String>> collect(ParallelCorpusGrammarFactory grammarFactory, int[] sentence) {
+		PrefixTree prefixTree = new PrefixTree(grammarFactory);
+		prefixTree.add(sentence);
+
+		Set<Integer> symbols = new HashSet<Integer>();
+		for (int word : sentence) {
+			symbols.add(word);
+		}
+		symbols.add(SymbolTable.X);
+		Map<String,List<String>> rules = new TreeMap<String,List<String>>();
+		collect(prefixTree.getTrieRoot(), "", symbols, rules);
+		return rules;
+	}
+
+	@Test(dependsOnMethods={"setup"})
+	public void precomputedMatchingsMatchQueries() {
+
+		ParallelCorpusGrammarFactory plain = newGrammarFactory();
+		ParallelCorpusGrammarFactory indexed = newGrammarFactory();
+		indexed.setCollocationIndex(collocationIndex);
+		Assert.assertSame(indexed.getCollocationIndex(), collocationIndex);
+
+		for (String sentence : sentences) {
+			int[] words = new BasicPhrase(sentence, sourceVocab).getWordIDs();
+			Map<String,List<String>> expected = collect(plain, words);
+			Assert.assertFalse(expected.isEmpty());
+			Assert.assertEquals(collect(indexed, words), expected, sentence);
+		}
+
+		// Every indexed collocation found by the prefix trees
+		// was matched in the same places as by query intersection
+		int compared = 0;
+		for (MatchedHierarchicalPhrases queried : plain.getSuffixArray().getCachedHierarchicalPhrases().values()) {
+			MatchedHierarchicalPhrases precomputed = collocationIndex.get(queried.getPattern());
+			if (precomputed != null) {
+				Assert.assertEquals(precomputed.size(), queried.size(), queried.getPattern().toString());
+				for (int i = 0; i < queried.size(); i++) {
+					Assert.assertEquals(precomputed.getSentenceNumber(i), queried.getSentenceNumber(i));
+					for (int j = 0; j < queried.getNumberOfTerminalSequences(); j++) {
+						Assert.assertEquals(precomputed.getStartPosition(i, j), queried.getStartPosition(i, j));
+					}
+				}
+				compared++;
+			}
+		}
+		Assert.assertTrue(compared > 0);
+	}
+
+	@Test(dependsOnMethods={"setup"})
+	public void incompatibleIndexIsNotUsed() {
+		maxPhraseSpan += 1;
+		try {
+			ParallelCorpusGrammarFactory grammarFactory = newGrammarFactory();
+			grammarFactory.setCollocationIndex(collocationIndex);
+			Assert.assertNull(grammarFactory.getCollocationIndex());
+		} finally {
+			maxPhraseSpan -= 1;
+		}
+	}
+}
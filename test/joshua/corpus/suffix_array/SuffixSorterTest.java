@@ -0,0 +1,124 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.suffix_array;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import joshua.corpus.CorpusArray;
+import joshua.corpus.vocab.Vocabulary;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for linear-time and parallel suffix sorting.
+ *
+ * @version $LastChangedDate$
+ */
+public class SuffixSorterTest {
+
+	/** Sorts suffixes by comparing them to their ends. */
+	private static int[] naiveSort(final int[] text) {
+		Integer[] order = new Integer[text.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				for (int i = a, j = b; ; i++, j++) {
+					if (i == text.length) return (j == text.length) ? 0 : -1;
+					if (j == text.length) return 1;
+					if (text[i] != text[j]) return (text[i] < text[j]) ? -1 : 1;
+				}
+			}
+		});
+		int[] suffixes = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			suffixes[i] = order[i];
+		}
+		return suffixes;
+	}
+
+	private static void assertAllMethodsAgree(int[] text) {
+		String expected = Arrays.toString(naiveSort(text));
+		Assert.assertEquals(Arrays.toString(SuffixSorter.sortInduced(text)), expected);
+		Assert.assertEquals(Arrays.toString(SuffixSorter.sortParallel(text, 3)), expected);
+	}
+
+	@Test
+	public void smallTexts() {
+		assertAllMethodsAgree(new int[] {});
+		assertAllMethodsAgree(new int[] {5});
+		assertAllMethodsAgree(new int[] {2, 1});
+		assertAllMethodsAgree(new int[] {1, 2});
+		assertAllMethodsAgree(new int[] {3, 3, 3, 3});
+		assertAllMethodsAgree(new int[] {3, 2, 1, 0});
+		// "mississippi"
+		assertAllMethodsAgree(new int[] {4, 1, 5, 5, 1, 5, 5, 1, 3, 3, 1});
+	}
+
+	@Test
+	public void randomTexts() {
+		Random random = new Random(42);
+		for (int alphabet : new int[] {2, 3, 20, 5000}) {
+			for (int trial = 0; trial < 10; trial++) {
+				int[] text = new int[1 + random.nextInt(3000)];
+				for (int i = 0; i < text.length; i++) {
+					text[i] = random.nextInt(alphabet);
+				}
+				assertAllMethodsAgree(text);
+			}
+		}
+	}
+
+	@Test
+	public void repetitiveText() {
+		// a passage repeated many times, longer than any comparison
+		// cutoff, with a few edits so that recursion is needed
+		int[] passage = new int[50];
+		Random random = new Random(7);
+		for (int i = 0; i < passage.length; i++) {
+			passage[i] = 1 + random.nextInt(10);
+		}
+		int[] text = new int[passage.length * 60];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = passage[i % passage.length];
+		}
+		text[777] = 0;
+		text[2222] = 11;
+		assertAllMethodsAgree(text);
+	}
+
+	@Test
+	public void consistentWithCorpusComparison() {
+		Vocabulary vocab = new Vocabulary();
+		BasicPhrase phrase = new BasicPhrase("it makes him and it mars him , it sets him on and it takes him off .", vocab);
+		int[] corpus = new int[phrase.size()];
+		for (int i = 0; i < corpus.length; i++) {
+			corpus[i] = phrase.getWordID(i);
+		}
+		CorpusArray corpusArray = new CorpusArray(corpus, new int[] {0}, vocab);
+
+		int[] suffixes = SuffixSorter.sortInduced(SuffixSorter.wordIDs(corpusArray));
+		for (int i = 1; i < suffixes.length; i++) {
+			Assert.assertTrue(corpusArray.compareSuffixes(suffixes[i-1], suffixes[i], Integer.MAX_VALUE) < 0);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.state_maintenance.StateComputer;
+import joshua.decoder.ff.tm.GrammarFactory;
+import joshua.decoder.segment_file.Sentence;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for DecoderServer.
+ *
+ * @version $LastChangedDate$
+ */
+public class DecoderServerTest {
+
+	static final int NUM_REQUESTS = 8;
+
+	/**
+	 * Echoes each request as its 1-best, taking longer for the
+	 * earlier requests so that they are done last.
+	 */
+	static class EchoDecoder extends DecoderThread {
+
+		EchoDecoder() throws IOException {
+			super(new ArrayList<GrammarFactory>(), new ArrayList<FeatureFunction>(),
+				new ArrayList<StateComputer>(), new Vocabulary(), null);
+		}
+
+		public Translation decode(Sentence sentence) throws IOException {
+			try {
+				Thread.sleep(20 * (NUM_REQUESTS - sentence.id()));
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+			Translation translation = new Translation(sentence, null, new ArrayList<FeatureFunction>());
+			translation.render();
+			return translation;
+		}
+	}
+
+	@Test
+	public void pipelinedRepliesInOrder() throws IOException {
+		List<DecoderThread> decoders = new ArrayList<DecoderThread>();
+		for (int i = 0; i < 4; i++) {
+			decoders.add(new EchoDecoder());
+		}
+		final DecoderServer server = new DecoderServer(decoders, 0);
+
+		// an ephemeral port
+		final ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getByName("localhost"));
+		Thread serving = new Thread() {
+			public void run() {
+				try {
+					server.serve(serverSocket);
+				} catch (IOException e) {
+					// the socket was closed at the end of the test
+				}
+			}
+		};
+		serving.setDaemon(true);
+		serving.start();
+
+		Socket client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+		try {
+			// send every request before reading any reply
+			Writer out = new OutputStreamWriter(client.getOutputStream(), "UTF-8");
+			for (int i = 0; i < NUM_REQUESTS; i++) {
+				out.write("größe " + i + " 日本\n");
+			}
+			out.flush();
+			client.shutdownOutput();
+
+			BufferedReader in = new BufferedReader(
+				new InputStreamReader(client.getInputStream(), "UTF-8"));
+			for (int i = 0; i < NUM_REQUESTS; i++) {
+				Assert.assertEquals(in.readLine(), i + " ||| größe " + i + " 日本 |||  ||| 0.0");
+				Assert.assertEquals(in.readLine(), "");
+			}
+
+			// the server closes the connection once all are answered
+			Assert.assertNull(in.readLine());
+
+		} finally {
+			client.close();
+			serverSocket.close();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.WordPenaltyFF;
+import joshua.decoder.ff.lm.NgramExtractor;
+import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.decoder.ff.state_maintenance.NgramDPState;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.hypergraph.HGNode;
+import joshua.decoder.hypergraph.HyperEdge;
+import joshua.decoder.hypergraph.HyperGraph;
+import joshua.decoder.hypergraph.TrivialInsideOutside;
+import joshua.util.NgramTable;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for NbestMinRiskReranker.
+ */
+public class NbestMinRiskRerankerTest {
+
+	private static List<String> nbest(int sentID, String[] hyps, double[] logPs) {
+		List<String> nbest = new ArrayList<String>();
+		for (int i = 0; i < hyps.length; i++) {
+			nbest.add(sentID + " ||| " + hyps[i] + " ||| 0.0 ||| " + logPs[i]);
+		}
+		return nbest;
+	}
+
+	/** The hyp that agrees most with the others wins, even if it is not the most probable. */
+	@Test
+	public void consensusHypWins() {
+		String[] hyps = {
+				"a dog sat on the mat",
+				"the cat sat on the mat",
+				"the cat sat on a mat",
+				"the cat is on the mat" };
+		double[] logPs = { -1.0, -1.1, -1.2, -1.3 };
+
+		NbestMinRiskReranker bleuReranker = new NbestMinRiskReranker(false, 1.0);
+		Assert.assertEquals(bleuReranker.processOneSent(nbest(0, hyps, logPs), 0), hyps[1]);
+
+		NbestMinRiskReranker linearReranker = new NbestMinRiskReranker(false, 1.0, null);
+		Assert.assertEquals(linearReranker.processOneSent(nbest(0, hyps, logPs), 0), hyps[1]);
+	}
+
+	/** Computing the gains of a long nbest in parallel must not change the result. */
+	@Test
+	public void parallelGainsAgree() {
+		String[] words = { "the", "cat", "sat", "on", "a", "mat", "dog", "is" };
+		java.util.Random random = new java.util.Random(7);
+		int size = 300;
+		String[] hyps = new String[size];
+		double[] logPs = new double[size];
+		for (int i = 0; i < size; i++) {
+			StringBuffer hyp = new StringBuffer(words[random.nextInt(words.length)]);
+			for (int k = random.nextInt(8); k > 0; k--) {
+				hyp.append(' ').append(words[random.nextInt(words.length)]);
+			}
+			hyps[i] = hyp.toString();
+			logPs[i] = -10 * random.nextDouble();
+		}
+
+		int minParallelNbestSize = NbestMinRiskReranker.minParallelNbestSize;
+		try {
+			for (boolean linear : new boolean[] { false, true }) {
+				NbestMinRiskReranker reranker = linear
+					? new NbestMinRiskReranker(false, 1.0, null)
+					: new NbestMinRiskReranker(false, 1.0);
+				NbestMinRiskReranker.minParallelNbestSize = Integer.MAX_VALUE;
+				String sequential = reranker.processOneSent(nbest(5, hyps, logPs), 5);
+				NbestMinRiskReranker.minParallelNbestSize = 1;
+				String parallel = reranker.processOneSent(nbest(5, hyps, logPs), 5);
+				Assert.assertEquals(parallel, sequential);
+			}
+		} finally {
+			NbestMinRiskReranker.minParallelNbestSize = minParallelNbestSize;
+		}
+	}
+
+	private static HyperEdge edge(BilingualRule rule, double bestLogP, double logP, HGNode... antNodes) {
+		List<HGNode> ants = (antNodes.length == 0) ? null : Arrays.asList(antNodes);
+		return new HyperEdge(rule, bestLogP, logP, ants, null);
+	}
+
+	private static HGNode node(int i, int j, int lhs, HashMap<Integer,DPState> states, HyperEdge... hyperedges) {
+		return new HGNode(i, j, lhs, new ArrayList<HyperEdge>(Arrays.asList(hyperedges)), hyperedges[0], states);
+	}
+
+	/**
+	 * A hypergraph with the translations "a dog sat" (the most
+	 * probable), "the cat sat" and "the cat sits", the last two
+	 * sharing the node that translates "the".
+	 */
+	@Test
+	public void hypergraphMBR() {
+		SymbolTable symbolTable = new BuildinSymbol(null);
+		int x = symbolTable.addNonterminal("X");
+		int x1 = symbolTable.addNonterminal("[X,1]");
+		int the = symbolTable.addTerminal("the");
+		int cat = symbolTable.addTerminal("cat");
+		int sat = symbolTable.addTerminal("sat");
+		int sits = symbolTable.addTerminal("sits");
+		int a = symbolTable.addTerminal("a");
+		int dog = symbolTable.addTerminal("dog");
+		int ngramStateID = 0;
+
+		int[] theWords = { the };
+		HashMap<Integer,DPState> theState = new HashMap<Integer,DPState>();
+		theState.put(ngramStateID, new NgramDPState(theWords, theWords));
+		HGNode theNode = node(0, 1, x, theState, edge(new BilingualRule(x, theWords, theWords, new float[0], 0), 0, 0));
+
+		int[] catSat = { x1, cat, sat };
+		int[] catSits = { x1, cat, sits };
+		int[] aDogSat = { a, dog, sat };
+		HGNode top = node(0, 3, x, null,
+			edge(new BilingualRule(x, catSat, catSat, new float[0], 1), -1.1, -1.1, theNode),
+			edge(new BilingualRule(x, catSits, catSits, new float[0], 1), -1.2, -1.2, theNode),
+			edge(new BilingualRule(x, aDogSat, aDogSat, new float[0], 0), -1.0, -1.0));
+		HyperGraph hg = new HyperGraph(node(0, 3, x, null, edge(null, -1.0, 0, top)), 3, 5, 0, 3);
+
+		double z = Math.exp(-1.0) + Math.exp(-1.1) + Math.exp(-1.2);
+		double pADogSat = Math.exp(-1.0) / z;
+		double pCatSat = Math.exp(-1.1) / z;
+		double pCatSits = Math.exp(-1.2) / z;
+
+		TrivialInsideOutside insideOutside = new TrivialInsideOutside();
+		insideOutside.runInsideOutside(hg, 0, 1, 1.0);
+		NgramExtractor ngramExtractor = new NgramExtractor(symbolTable, ngramStateID, true, 3);
+		NbestMinRiskReranker.NgramPosteriors posteriors =
+			NbestMinRiskReranker.computeNgramPosteriors(hg, insideOutside, ngramExtractor, symbolTable);
+		insideOutside.clearState();
+
+		Assert.assertEquals(posteriors.get(NgramTable.key(new int[] { the }, 0, 1)), pCatSat + pCatSits, 1e-9);
+		Assert.assertEquals(posteriors.get(NgramTable.key(new int[] { sat }, 0, 1)), pADogSat + pCatSat, 1e-9);
+		Assert.assertEquals(posteriors.get(NgramTable.key(new int[] { the, cat }, 0, 2)), pCatSat + pCatSits, 1e-9);
+		Assert.assertEquals(posteriors.get(NgramTable.key(new int[] { cat, sat }, 0, 2)), pCatSat, 1e-9);
+		Assert.assertEquals(posteriors.get(NgramTable.key(new int[] { the, cat, sits }, 0, 3)), pCatSits, 1e-9);
+		Assert.assertEquals(posteriors.get(NgramTable.key(new int[] { a, dog, sat }, 0, 3)), pADogSat, 1e-9);
+		Assert.assertEquals(posteriors.get(NgramTable.key(new int[] { dog, cat }, 0, 2)), 0.0);
+
+		// words of the hyps are looked up without being added
+		Assert.assertTrue(Arrays.equals(posteriors.getWordIDs(new String[] { "the", "zebra" }), new int[] { the, -1 }));
+
+		// the consensus of the other two beats the most probable translation
+		List<FeatureFunction> models = new ArrayList<FeatureFunction>();
+		models.add(new WordPenaltyFF(0, 0.0));
+		NbestMinRiskReranker reranker = new NbestMinRiskReranker(false, 1.0, null);
+		Assert.assertEquals(reranker.processOneSent(hg, 0, models, 10, symbolTable, ngramStateID, 3), "the cat sat");
+	}
+
+	@Test
+	public void posteriorsAccumulate() {
+		NbestMinRiskReranker.NgramPosteriors posteriors = new NbestMinRiskReranker.NgramPosteriors();
+		for (long key = 1; key <= 5000; key++) {
+			posteriors.add(key * 7919L, 0.25);
+		}
+		posteriors.add(7919L, 0.5);
+
+		Assert.assertEquals(posteriors.size(), 5000);
+		Assert.assertEquals(posteriors.get(7919L), 0.75, 1e-12);
+		Assert.assertEquals(posteriors.get(5000 * 7919L), 0.25, 1e-12);
+		Assert.assertEquals(posteriors.get(3L), 0.0);
+	}
+}
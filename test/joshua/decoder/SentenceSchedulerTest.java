@@ -0,0 +1,193 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.segment_file.Sentence;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for SentenceScheduler, with decoders that only
+ * record the sentences they are given.
+ *
+ * @version $LastChangedDate$
+ */
+public class SentenceSchedulerTest {
+
+	/** Output that counts the translations written to it. */
+	private static class CountingOutput extends ByteArrayOutputStream {
+		int written = 0;
+
+		public synchronized void write(byte[] b, int off, int len) {
+			super.write(b, off, len);
+			for (int n = off; n < off + len; n++) {
+				if (b[n] == '\n') written++;
+			}
+		}
+
+		synchronized int written() {
+			return written;
+		}
+	}
+
+	/**
+	 * Decoders that copy their input, taking longer for the given
+	 * sentences, and record the order in which sentences are
+	 * decoded and the most sentences ever in flight.
+	 */
+	private static class Decoders {
+		final CountingOutput output;
+		final List<Integer> decoded = new ArrayList<Integer>();
+		int maxInFlight = 0;
+		final List<Integer> slowSentences;
+
+		Decoders(CountingOutput output, Integer... slowSentences) {
+			this.output = output;
+			this.slowSentences = Arrays.asList(slowSentences);
+		}
+
+		List<DecoderThread> create(int numDecoders) throws IOException {
+			List<DecoderThread> decoders = new ArrayList<DecoderThread>();
+			for (int d = 0; d < numDecoders; d++) {
+				decoders.add(new DecoderThread(null, Collections.<FeatureFunction>emptyList(),
+						null, new BuildinSymbol(null), null) {
+					public Translation decode(Sentence sentence) {
+						started(sentence.id());
+						if (slowSentences.contains(sentence.id())) {
+							try {
+								Thread.sleep(200);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+						Translation translation = new Translation(sentence, null,
+								Collections.<FeatureFunction>emptyList());
+						translation.render();
+						return translation;
+					}
+				});
+			}
+			return decoders;
+		}
+
+		synchronized void started(int id) {
+			decoded.add(id);
+			// this sentence and those started before it, less
+			// those whose translations have been written out
+			maxInFlight = Math.max(maxInFlight, decoded.size() - output.written());
+		}
+	}
+
+	private static InputHandler inputHandler(CountingOutput output, String... sentences) throws IOException {
+		File file = File.createTempFile("input", ".txt");
+		file.deleteOnExit();
+		PrintStream out = new PrintStream(file, "UTF-8");
+		for (String sentence : sentences) {
+			out.println(sentence);
+		}
+		out.close();
+		return new InputHandler(file.getAbsolutePath(), output);
+	}
+
+	private static List<Integer> outputIDs(CountingOutput output) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (String line : output.toString().split("\n")) {
+			ids.add(Integer.parseInt(line.split(" \\|\\|\\| ")[0]));
+		}
+		return ids;
+	}
+
+	/** Sentences of one to five words, shortest first. */
+	private static String[] sentences(int count) {
+		String[] sentences = new String[count];
+		for (int i = 0; i < count; i++) {
+			StringBuilder words = new StringBuilder("w");
+			for (int n = 0; n < i % 5; n++) {
+				words.append(" w");
+			}
+			sentences[i] = words.toString();
+		}
+		return sentences;
+	}
+
+	/**
+	 * Sentences decoded out of order, longest first and by
+	 * several decoders, are still written out in input order.
+	 */
+	@Test
+	public void outputInInputOrder() throws Exception {
+		CountingOutput output = new CountingOutput();
+		Decoders decoders = new Decoders(output, 0, 7);
+		new SentenceScheduler(decoders.create(4), inputHandler(output, sentences(20)),
+				true, 5, 0).run();
+
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 20; i++) {
+			expected.add(i);
+		}
+		Assert.assertEquals(outputIDs(output), expected);
+		Assert.assertFalse(decoders.decoded.equals(expected));
+	}
+
+	/**
+	 * While the first sentence is slow, the others are decoded
+	 * only up to the bound on sentences in flight.
+	 */
+	@Test
+	public void inFlightBound() throws Exception {
+		CountingOutput output = new CountingOutput();
+		Decoders decoders = new Decoders(output, 0);
+		new SentenceScheduler(decoders.create(4), inputHandler(output, sentences(12)),
+				false, 1, 3).run();
+
+		Assert.assertEquals(outputIDs(output).size(), 12);
+		Assert.assertEquals(decoders.maxInFlight, 3);
+	}
+
+	/**
+	 * Each window is dispatched costliest first, keeping input
+	 * order among sentences of equal cost.
+	 */
+	@Test
+	public void costliestFirstWithinWindows() throws Exception {
+		CountingOutput output = new CountingOutput();
+		Decoders decoders = new Decoders(output);
+		InputHandler inputHandler = inputHandler(output,
+				"a", "a b c", "a b", "a b c",
+				"a b c d e", "a", "a b c d", "a b",
+				"a b");
+
+		// one decoder, so that sentences are decoded as dispatched
+		new SentenceScheduler(decoders.create(1), inputHandler, true, 4, 0).run();
+
+		Assert.assertEquals(decoders.decoded, Arrays.asList(1, 3, 2, 0, 4, 6, 7, 5, 8));
+		Assert.assertEquals(outputIDs(output), Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8));
+	}
+}
@@ -0,0 +1,145 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the shared n-gram probability cache.
+ * 
+ * @version $LastChangedDate$
+ */
+public class CachedLanguageModelTest {
+
+	/** Scores n-grams by a function of their words, counting queries. */
+	static class CountingLM extends DefaultNGramLanguageModel {
+		
+		final AtomicInteger queries = new AtomicInteger();
+		
+		CountingLM(int order) {
+			super(null, order);
+		}
+		
+		static double score(int[] ngram) {
+			return score(ngram, 0, ngram.length);
+		}
+		
+		static double score(int[] words, int offset, int length) {
+			double score = 0.0;
+			for (int i = offset; i < offset + length; i++) {
+				score = score * 0.5 - words[i];
+			}
+			return score;
+		}
+		
+		public double ngramLogProbability(int[] ngram, int order) {
+			queries.incrementAndGet();
+			return score(ngram);
+		}
+		
+		public double ngramLogProbability(int[] words, int offset, int length) {
+			queries.incrementAndGet();
+			return score(words, offset, length);
+		}
+	}
+	
+	@Test
+	public void hitsAndMisses() {
+		CountingLM lm = new CountingLM(3);
+		CachedLanguageModel cache = new CachedLanguageModel(lm, 1024, 4);
+		
+		int[] sentence = { 5, 6, 7, 8 };
+		Assert.assertEquals(cache.ngramLogProbability(sentence, 1, 3), CountingLM.score(new int[] { 6, 7, 8 }));
+		Assert.assertEquals(cache.ngramLogProbability(new int[] { 6, 7, 8 }), CountingLM.score(new int[] { 6, 7, 8 }));
+		Assert.assertEquals(cache.ngramLogProbability(sentence, 2, 2), CountingLM.score(new int[] { 7, 8 }));
+		Assert.assertEquals(cache.ngramLogProbability(new int[] { 7, 8 }, 3), CountingLM.score(new int[] { 7, 8 }));
+		
+		Assert.assertEquals(lm.queries.get(), 2);
+		Assert.assertEquals(cache.getHits(), 2);
+		Assert.assertEquals(cache.getMisses(), 2);
+		Assert.assertEquals(cache.getEvictions(), 0);
+		
+		// Longer than the order: passed through
+		Assert.assertEquals(cache.ngramLogProbability(sentence, 0, 4), CountingLM.score(sentence));
+		Assert.assertEquals(lm.queries.get(), 3);
+		Assert.assertEquals(cache.getMisses(), 2);
+	}
+	
+	@Test
+	public void eviction() {
+		CountingLM lm = new CountingLM(2);
+		CachedLanguageModel cache = new CachedLanguageModel(lm, 64, 1);
+		
+		int[] ngram = new int[2];
+		for (int i = 0; i < 1000; i++) {
+			ngram[0] = i;
+			ngram[1] = i + 1;
+			Assert.assertEquals(cache.ngramLogProbability(ngram, 0, 2), CountingLM.score(ngram));
+		}
+		Assert.assertEquals(cache.getMisses(), 1000);
+		Assert.assertTrue(cache.getEvictions() >= 1000 - 64);
+		
+		// Recently added n-grams are still there
+		ngram[0] = 999;
+		ngram[1] = 1000;
+		Assert.assertEquals(cache.ngramLogProbability(ngram, 0, 2), CountingLM.score(ngram));
+		Assert.assertEquals(cache.getHits(), 1);
+	}
+	
+	@Test
+	public void concurrentQueries() throws Exception {
+		final CountingLM lm = new CountingLM(3);
+		final CachedLanguageModel cache = new CachedLanguageModel(lm, 256, 4);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < 4; t++) {
+			final int seed = t;
+			results.add(pool.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					int[] words = new int[3];
+					for (int i = 0; i < 20000; i++) {
+						words[0] = (i * 7 + seed) % 50;
+						words[1] = (i * 13) % 50;
+						words[2] = i % 50;
+						if (cache.ngramLogProbability(words, 0, 3) != CountingLM.score(words)) {
+							return false;
+						}
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			Assert.assertTrue(result.get());
+		}
+		pool.shutdown();
+		
+		Assert.assertEquals(cache.getHits() + cache.getMisses(), 80000);
+		Assert.assertEquals(lm.queries.get(), cache.getMisses());
+	}
+}
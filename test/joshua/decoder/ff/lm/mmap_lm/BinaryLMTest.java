@@ -0,0 +1,242 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.mmap_lm;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.lm.ArpaFile;
+import joshua.decoder.ff.lm.LanguageModelFF;
+import joshua.decoder.ff.lm.NGramLanguageModel;
+import joshua.decoder.ff.lm.buildin_lm.LMGrammarJAVA;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the memory-mapped binary language models.
+ * 
+ * @version $LastChangedDate$
+ */
+public class BinaryLMTest {
+
+	String arpaFileName;
+	SymbolTable vocab;
+	NGramLanguageModel[] models;
+	
+	ArpaConverter converter;
+	File builderTrie;
+	File convertedTrie;
+	File convertedProbing;
+	
+	static final String[] WORDS = {
+		"a", "because", "boycott", "of", "parliament", "potato", "resumption", "the", "banana"
+	};
+	
+	@Test
+	public void setup() throws IOException {
+		
+		File file = File.createTempFile("testLM", "arpa");
+		file.deleteOnExit();
+		PrintStream out = new PrintStream(file, "UTF-8");
+		
+		out.println();
+		out.println("\\data\\");
+		out.println("ngram 1=8");
+		out.println("ngram 2=5");
+		out.println("ngram 3=2");
+		out.println();
+		
+		out.println("\\1-grams:");
+		out.println("-1.992672       a       -0.1195484");
+		out.println("-2.713723       because -0.4665429");
+		out.println("-4.678545       boycott -0.0902521");
+		out.println("-1.609573       of      -0.1991907");
+		out.println("-3.875917       parliament      -0.1274891");
+		out.println("-9.753210       potato");
+		out.println("-4.678545       resumption      -0.07945678");
+		out.println("-1.712444       the     -0.1606644");
+		
+		out.println();
+		out.println("\\2-grams:");
+		out.println("-0.3552987      because of      -0.03083654");
+		out.println("-1.403534       of a");
+		out.println("-0.7507797      of the  -0.05237135");
+		out.println("-0.7266324      resumption of");
+		out.println("-3.936147       the resumption");
+		
+		out.println();
+		out.println("\\3-grams:");
+		out.println("-0.6309999      because of the");
+		out.println("-0.2517344      potato of a");
+		out.println();
+		
+		out.println("\\end\\");
+		out.close();
+		this.arpaFileName = file.getAbsolutePath();
+		
+		BinaryLMBuilder builder = new BinaryLMBuilder(new ArpaFile(arpaFileName, new Vocabulary()));
+		
+		File probing = File.createTempFile("testLM", "probing");
+		probing.deleteOnExit();
+		builder.writeProbing(probing.getAbsolutePath());
+		
+		File trie = File.createTempFile("testLM", "trie");
+		trie.deleteOnExit();
+		builder.writeTrie(trie.getAbsolutePath());
+		
+		builderTrie = trie;
+		
+		converter = new ArpaConverter(2, 64, null, 100);
+		
+		convertedProbing = File.createTempFile("testLM", "probing");
+		convertedProbing.deleteOnExit();
+		converter.convert(arpaFileName, convertedProbing.getAbsolutePath(), BinaryLM.PROBING);
+		
+		convertedTrie = File.createTempFile("testLM", "trie");
+		convertedTrie.deleteOnExit();
+		converter.convert(arpaFileName, convertedTrie.getAbsolutePath(), BinaryLM.TRIE);
+		
+		vocab = new Vocabulary();
+		models = new NGramLanguageModel[] {
+				BinaryLM.open(vocab, probing.getAbsolutePath()),
+				BinaryLM.open(vocab, trie.getAbsolutePath()),
+				BinaryLM.open(vocab, convertedProbing.getAbsolutePath()),
+				BinaryLM.open(vocab, convertedTrie.getAbsolutePath())
+		};
+		
+		Assert.assertTrue(models[0] instanceof ProbingHashLM);
+		Assert.assertTrue(models[1] instanceof PackedTrieLM);
+		Assert.assertTrue(models[2] instanceof ProbingHashLM);
+		Assert.assertTrue(models[3] instanceof PackedTrieLM);
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void knownNgrams() {
+		for (NGramLanguageModel lm : models) {
+			Assert.assertEquals(lm.getOrder(), 3);
+			
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("a")), -1.992672, 0.000001f);
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("potato")), -9.753210, 0.000001f);
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("because of")), -0.3552987, 0.000001f);
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("the resumption")), -3.936147, 0.000001f);
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("because of the")), -0.6309999, 0.000001f);
+			
+			// The context "potato of" is not in the file
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("potato of a")), -0.2517344, 0.000001f);
+		}
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void backoff() {
+		for (NGramLanguageModel lm : models) {
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("a boycott")), -4.678545 + -0.1195484, 0.000001f);
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("because of a")), -1.403534 + -0.03083654, 0.000001f);
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("of the potato")), -9.753210 + -0.05237135 + -0.1606644, 0.000001f);
+		}
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void backoffState() {
+		int bo = LanguageModelFF.BACKOFF_LEFT_LM_STATE_SYM_ID;
+		int[] state = { vocab.getID("because"), vocab.getID("of"), bo };
+		int[] words = { vocab.getID("a"), vocab.getID("because"), vocab.getID("of"), bo };
+		for (NGramLanguageModel lm : models) {
+			Assert.assertEquals(lm.logProbabilityOfBackoffState(state, 3, 1), -0.03083654, 0.000001f);
+			Assert.assertEquals(lm.logProbabilityOfBackoffState(state, 3, 2), -0.03083654 + -0.1991907, 0.000001f);
+			Assert.assertEquals(lm.logProbabilityOfBackoffState(words, 1, 3, 1), -0.03083654, 0.000001f);
+			Assert.assertEquals(lm.logProbabilityOfBackoffState(words, 2, 2, 1), -0.1991907, 0.000001f);
+		}
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void unknownWords() {
+		for (NGramLanguageModel lm : models) {
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("banana")), -JoshuaConfiguration.lm_ceiling_cost, 0.000001f);
+			Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("banana the")), -1.712444, 0.000001f);
+		}
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void offsets() {
+		int[] sentence = vocab.getIDs("a because of the resumption");
+		for (NGramLanguageModel lm : models) {
+			Assert.assertEquals(lm.ngramLogProbability(sentence, 1, 3), -0.6309999, 0.000001f);
+			Assert.assertEquals(lm.ngramLogProbability(sentence, 3, 2), -3.936147, 0.000001f);
+		}
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void converter() throws IOException {
+		Assert.assertEquals(converter.verify(convertedProbing.getAbsolutePath()), 0);
+		Assert.assertEquals(converter.verify(convertedTrie.getAbsolutePath()), 0);
+		
+		// Both write the trie in the same order, with the same word indices
+		Assert.assertTrue(Arrays.equals(readFile(convertedTrie), readFile(builderTrie)));
+	}
+	
+	private static byte[] readFile(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		return bytes;
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void matchesJavaLM() throws IOException {
+		
+		NGramLanguageModel reference = new LMGrammarJAVA(vocab, 3, arpaFileName, false, false);
+		
+		int[] ngram = new int[3];
+		for (String x : WORDS) {
+			for (String y : WORDS) {
+				for (String z : WORDS) {
+					ngram[0] = vocab.addTerminal(x);
+					ngram[1] = vocab.addTerminal(y);
+					ngram[2] = vocab.addTerminal(z);
+					
+					for (int length = 1; length <= 3; length++) {
+						double expected = reference.ngramLogProbability(ngram, 3 - length, length);
+						for (NGramLanguageModel lm : models) {
+							Assert.assertEquals(lm.ngramLogProbability(ngram, 3 - length, length), expected, 0.00001, x + " " + y + " " + z);
+						}
+					}
+					
+					int[] state = { ngram[0], ngram[1], LanguageModelFF.BACKOFF_LEFT_LM_STATE_SYM_ID };
+					for (int qty = 1; qty <= 2; qty++) {
+						double expected = reference.logProbabilityOfBackoffState(state, 3, qty);
+						for (NGramLanguageModel lm : models) {
+							Assert.assertEquals(lm.logProbabilityOfBackoffState(state, 3, qty), expected, 0.00001, x + " " + y + " <bo> " + qty);
+						}
+					}
+				}
+			}
+		}
+	}
+}
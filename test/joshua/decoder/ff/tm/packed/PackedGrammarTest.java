@@ -0,0 +1,153 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.tm.packed;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.RuleCollection;
+import joshua.decoder.ff.tm.Trie;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for packing a grammar and reading it back.
+ * 
+ * @version $LastChangedDate$
+ */
+public class PackedGrammarTest {
+
+	SymbolTable vocab;
+	PackedGrammar grammar;
+	
+	@Test
+	public void setup() throws IOException {
+		
+		File grammarFile = File.createTempFile("testGrammar", "hiero");
+		grammarFile.deleteOnExit();
+		PrintStream out = new PrintStream(grammarFile, "UTF-8");
+		out.println("[X] ||| el gato ||| the cat ||| 0.5 1.25 -3");
+		out.println("[X] ||| el [X,1] ||| the [X,1] ||| 0.1 0.2 0.3");
+		out.println("[X] ||| el gato ||| cat ||| 2 3 4");
+		out.println("[S] ||| [X,1] negro ||| black [X,1] ||| 1 1 1");
+		out.close();
+		
+		File packedDir = File.createTempFile("testGrammar", "packed");
+		packedDir.delete();
+		
+		GrammarPacker packer = new GrammarPacker();
+		packer.setGrammar(grammarFile.getAbsolutePath());
+		packer.setOutputDir(packedDir.getAbsolutePath());
+		packer.execute();
+		
+		for (File file : packedDir.listFiles()) {
+			file.deleteOnExit();
+		}
+		packedDir.deleteOnExit();
+		
+		// One file per feature column; the single-byte columns hold one byte per rule
+		for (int f = 0; f < 3; f++) {
+			Assert.assertEquals(PackedGrammar.featureColumnFile(packedDir, f).length(), 4);
+		}
+		Assert.assertFalse(PackedGrammar.featureColumnFile(packedDir, 3).exists());
+		
+		vocab = new Vocabulary();
+		grammar = new PackedGrammar(packedDir.getAbsolutePath(), vocab, "pt", "[X]", 10, 100);
+		
+		Assert.assertEquals(grammar.getNumRules(), 4);
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void terminalRules() {
+		
+		Trie node = grammar.getTrieRoot().matchOne(vocab.getID("el"));
+		Assert.assertNotNull(node);
+		Assert.assertFalse(node.hasRules());
+		
+		node = node.matchOne(vocab.getID("gato"));
+		Assert.assertNotNull(node);
+		Assert.assertTrue(node.hasRules());
+		Assert.assertFalse(node.hasExtensions());
+		
+		RuleCollection bin = node.getRules();
+		Assert.assertEquals(bin.getArity(), 0);
+		Assert.assertTrue(Arrays.equals(bin.getSourceSide(), vocab.getIDs("el gato")));
+		
+		List<Rule> rules = bin.getRules();
+		Assert.assertEquals(rules.size(), 2);
+		
+		BilingualRule first = (BilingualRule) rules.get(0);
+		Assert.assertEquals(first.getLHS(), vocab.addNonterminal("[X]"));
+		Assert.assertTrue(Arrays.equals(first.getEnglish(), vocab.getIDs("the cat")));
+		Assert.assertTrue(Arrays.equals(first.getFeatureScores(), new float[] {0.5f, 1.25f, -3f}));
+		
+		BilingualRule second = (BilingualRule) rules.get(1);
+		Assert.assertTrue(Arrays.equals(second.getEnglish(), vocab.getIDs("cat")));
+		Assert.assertTrue(Arrays.equals(second.getFeatureScores(), new float[] {2f, 3f, 4f}));
+		
+		Assert.assertTrue(first.getRuleID() != second.getRuleID());
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void nonterminalRules() {
+		
+		int x = vocab.addNonterminal("[X]");
+		int x1 = vocab.addNonterminal("[X,1]");
+		
+		Trie node = grammar.getTrieRoot().matchOne(vocab.getID("el")).matchOne(x);
+		Assert.assertNotNull(node);
+		Assert.assertEquals(node.getRules().getArity(), 1);
+		Assert.assertTrue(Arrays.equals(node.getRules().getSourceSide(), new int[] {vocab.getID("el"), x1}));
+		
+		node = grammar.getTrieRoot().matchOne(x);
+		Assert.assertNotNull(node);
+		Assert.assertTrue(node.hasExtensions());
+		Assert.assertEquals(node.getExtensions().size(), 1);
+		
+		Rule rule = node.matchOne(vocab.getID("negro")).getRules().getRules().get(0);
+		Assert.assertEquals(rule.getLHS(), vocab.addNonterminal("[S]"));
+		Assert.assertTrue(Arrays.equals(((BilingualRule) rule).getEnglish(), new int[] {vocab.getID("black"), x1}));
+	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void unknownWords() {
+		Assert.assertNull(grammar.getTrieRoot().matchOne(vocab.addTerminal("perro")));
+		Assert.assertNull(grammar.getTrieRoot().matchOne(vocab.getID("gato")));
+	}
+	
+	@Test(dependsOnMethods={"terminalRules","nonterminalRules"})
+	public void sorting() {
+		Assert.assertFalse(grammar.isSorted());
+		
+		grammar.sortGrammar(new ArrayList<FeatureFunction>());
+		Assert.assertTrue(grammar.isSorted());
+		
+		Trie node = grammar.getTrieRoot().matchOne(vocab.getID("el")).matchOne(vocab.getID("gato"));
+		Assert.assertEquals(node.getRules().getSortedRules().size(), 2);
+	}
+}
@@ -0,0 +1,149 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for CompiledHyperGraph and the inside-outside
+ * computations built on it.
+ *
+ * @version $LastChangedDate$
+ */
+public class CompiledHyperGraphTest {
+
+	private static HGNode node(int i, int j) {
+		return new HGNode(i, j, 0, new ArrayList<HyperEdge>(), null, null);
+	}
+
+	private static HyperEdge addEdge(HGNode parent, double logP, HGNode... antNodes) {
+		List<HGNode> ants = (antNodes.length == 0) ? null : Arrays.asList(antNodes);
+		HyperEdge edge = new HyperEdge(null, logP, logP, ants, null);
+		parent.hyperedges.add(edge);
+		return edge;
+	}
+
+	/**
+	 * Builds a chart over n words: a leaf per word, and a node per
+	 * longer span with a hyperedge per split point.
+	 */
+	private static HyperGraph chart(int n, Random random) {
+		HGNode[][] spans = new HGNode[n][n + 1];
+		int numEdges = 0;
+		for (int len = 1; len <= n; len++) {
+			for (int i = 0; i + len <= n; i++) {
+				HGNode node = node(i, i + len);
+				if (len == 1) {
+					addEdge(node, -random.nextDouble());
+					numEdges++;
+				}
+				for (int k = i + 1; k < i + len; k++) {
+					addEdge(node, -random.nextDouble(), spans[i][k], spans[k][i + len]);
+					numEdges++;
+				}
+				spans[i][i + len] = node;
+			}
+		}
+		return new HyperGraph(spans[0][n], n * (n + 1) / 2, numEdges, 0, n);
+	}
+
+	@Test
+	public void nodesFollowTheirAntecedents() {
+		HyperGraph hg = chart(6, new Random(1));
+		CompiledHyperGraph compiled = new CompiledHyperGraph(hg);
+
+		Assert.assertEquals(compiled.getNumNodes(), hg.numNodes);
+		Assert.assertEquals(compiled.getNumEdges(), hg.numEdges);
+		Assert.assertSame(compiled.getNode(compiled.getGoalIndex()), hg.goalNode);
+		Assert.assertEquals(compiled.getLevelStart(0), 0);
+		Assert.assertEquals(compiled.getLevelStart(compiled.getNumLevels()), compiled.getNumNodes());
+
+		for (int v = 0; v < compiled.getNumNodes(); v++) {
+			Assert.assertEquals(compiled.getNodeIndex(compiled.getNode(v)), v);
+			HGNode node = compiled.getNode(v);
+			Assert.assertEquals(compiled.getFirstEdge(v + 1) - compiled.getFirstEdge(v), node.hyperedges.size());
+			for (int e = compiled.getFirstEdge(v); e < compiled.getFirstEdge(v + 1); e++) {
+				Assert.assertEquals(compiled.getEdgeIndex(compiled.getEdge(e)), e);
+				Assert.assertEquals(compiled.getEdgeParent(e), v);
+				for (int k = 0; k < compiled.getNumAntNodes(e); k++) {
+					Assert.assertTrue(compiled.getAntNode(e, k) < v);
+				}
+			}
+		}
+		Assert.assertEquals(compiled.getNodeIndex(node(0, 1)), -1);
+	}
+
+	@Test
+	public void insideOutsideOfSmallGraph() {
+		// goal -> a b | c ; a -> (leaf) ; b -> (leaf) ; c -> a
+		HGNode a = node(0, 1);
+		HGNode b = node(1, 2);
+		HGNode c = node(0, 2);
+		HGNode goal = node(0, 2);
+		addEdge(a, Math.log(0.5));
+		addEdge(b, Math.log(0.25));
+		addEdge(c, Math.log(0.2), a);
+		addEdge(goal, Math.log(0.5), a, b);
+		addEdge(goal, Math.log(0.1), c);
+		HyperGraph hg = new HyperGraph(goal, 4, 5, 0, 2);
+
+		TrivialInsideOutside insideOutside = new TrivialInsideOutside();
+		insideOutside.runInsideOutside(hg, 0, 1, 1.0);
+
+		// two derivations: 0.5*0.5*0.25 and 0.1*0.2*0.5
+		double z = 0.0625 + 0.01;
+		Assert.assertEquals(insideOutside.getLogNormalizationConstant(), Math.log(z), 1e-12);
+		Assert.assertEquals(insideOutside.getNodePosteriorProb(a), 1.0, 1e-12);
+		Assert.assertEquals(insideOutside.getNodePosteriorProb(b), 0.0625 / z, 1e-12);
+		Assert.assertEquals(insideOutside.getNodePosteriorProb(c), 0.01 / z, 1e-12);
+		Assert.assertEquals(insideOutside.getEdgePosteriorProb(goal.hyperedges.get(1), goal), 0.01 / z, 1e-12);
+		insideOutside.clearState();
+	}
+
+	/** Processing the levels in parallel must not change the inside and outside values. */
+	@Test
+	public void parallelPassesAgree() {
+		HyperGraph hg = chart(30, new Random(3));
+		CompiledHyperGraph compiled = new CompiledHyperGraph(hg);
+		double[] edgeLogProbs = new double[compiled.getNumEdges()];
+		for (int e = 0; e < edgeLogProbs.length; e++) {
+			edgeLogProbs[e] = compiled.getEdge(e).getTransitionLogP(false);
+		}
+
+		int minParallelLevelSize = CompiledHyperGraph.minParallelLevelSize;
+		try {
+			CompiledHyperGraph.minParallelLevelSize = 1;
+			for (int addMode = 0; addMode <= 2; addMode++) {
+				double[] inside = compiled.computeInside(edgeLogProbs, addMode, false);
+				double[] outside = compiled.computeOutside(edgeLogProbs, inside, addMode, false);
+				double[] parallelInside = compiled.computeInside(edgeLogProbs, addMode, true);
+				double[] parallelOutside = compiled.computeOutside(edgeLogProbs, parallelInside, addMode, true);
+				Assert.assertTrue(Arrays.equals(parallelInside, inside));
+				Assert.assertTrue(Arrays.equals(parallelOutside, outside));
+			}
+		} finally {
+			CompiledHyperGraph.minParallelLevelSize = minParallelLevelSize;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.ff.tm.BilingualRule;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for HyperGraphTraversal, and for the traversals that
+ * must not recurse on deep hypergraphs.
+ *
+ * @version $LastChangedDate$
+ */
+public class HyperGraphTraversalTest {
+
+	/** Deep enough to overflow the stack of a recursive visit. */
+	private static final int CHAIN_LENGTH = 100000;
+
+	private static HGNode node(int i, int j, List<HyperEdge> hyperedges, HyperEdge bestHyperedge) {
+		return new HGNode(i, j, 0, hyperedges, bestHyperedge, null);
+	}
+
+	private static HyperEdge edge(BilingualRule rule, double logP, HGNode... antNodes) {
+		List<HGNode> ants = (antNodes.length == 0) ? null : new ArrayList<HGNode>(Arrays.asList(antNodes));
+		return new HyperEdge(rule, logP, logP, ants, null);
+	}
+
+	private static HGNode node(int i, int j, HyperEdge... hyperedges) {
+		return node(i, j, new ArrayList<HyperEdge>(Arrays.asList(hyperedges)), hyperedges[0]);
+	}
+
+	//the order of a recursive depth-first visit
+	private static void recursiveBottomUp(HGNode node, Set<HGNode> visited, List<HGNode> nodes) {
+		if (! visited.add(node)) return;
+		for (HyperEdge edge : node.hyperedges) {
+			if (null != edge.getAntNodes()) {
+				for (HGNode antNode : edge.getAntNodes()) {
+					recursiveBottomUp(antNode, visited, nodes);
+				}
+			}
+		}
+		nodes.add(node);
+	}
+
+	@Test
+	public void bottomUpNodesFollowRecursiveOrder() {
+		HGNode a = node(0, 1, edge(null, -1));
+		HGNode b = node(1, 2, edge(null, -1));
+		HGNode c = node(2, 3, edge(null, -1));
+		HGNode ab = node(0, 2, edge(null, -1, a, b), edge(null, -2, b, a));
+		HGNode bc = node(1, 3, edge(null, -1, b, c));
+		HGNode goal = node(0, 3, edge(null, -1, ab, c), edge(null, -1, a, bc));
+
+		List<HGNode> expected = new ArrayList<HGNode>();
+		recursiveBottomUp(goal, new HashSet<HGNode>(), expected);
+		Assert.assertEquals(HyperGraphTraversal.bottomUpNodes(goal), expected);
+		Assert.assertEquals(expected, Arrays.asList(a, b, ab, c, bc, goal));
+
+		// not following the first hyperedge of the goal leaves out ab
+		final HyperEdge skipped = goal.hyperedges.get(0);
+		List<HGNode> filtered = HyperGraphTraversal.bottomUpNodes(goal, new HyperGraphTraversal.EdgeFilter() {
+			public boolean follow(HGNode parent, HyperEdge edge) {
+				return edge != skipped;
+			}
+		});
+		Assert.assertEquals(filtered, Arrays.asList(a, b, c, bc, goal));
+	}
+
+	/**
+	 * A chain of nodes, each translating one word after those of
+	 * the node below it.
+	 */
+	@Test
+	public void deepHyperGraphDoesNotOverflow() {
+		SymbolTable symbolTable = new BuildinSymbol(null);
+		int x = symbolTable.addNonterminal("X");
+		int x1 = symbolTable.addNonterminal("[X,1]");
+		int word = symbolTable.addTerminal("w");
+
+		BilingualRule leafRule = new BilingualRule(x, new int[] { word }, new int[] { word }, new float[0], 0);
+		BilingualRule chainRule = new BilingualRule(x, new int[] { x1, word }, new int[] { x1, word }, new float[0], 1);
+
+		HGNode top = node(0, 1, edge(leafRule, -0.5));
+		for (int i = 1; i < CHAIN_LENGTH; i++) {
+			top = node(0, i + 1, edge(chainRule, -0.5 * (i + 1), top));
+		}
+		HyperGraph hg = new HyperGraph(node(0, CHAIN_LENGTH, edge(null, -0.5 * CHAIN_LENGTH, top)), CHAIN_LENGTH + 1, CHAIN_LENGTH + 1, 0, CHAIN_LENGTH);
+
+		List<HGNode> nodes = HyperGraphTraversal.bottomUpNodes(hg.goalNode);
+		Assert.assertEquals(nodes.size(), CHAIN_LENGTH + 1);
+		Assert.assertSame(nodes.get(CHAIN_LENGTH), hg.goalNode);
+
+		StringBuilder expected = new StringBuilder("w");
+		for (int i = 1; i < CHAIN_LENGTH; i++) {
+			expected.append(" w");
+		}
+		Assert.assertEquals(ViterbiExtractor.extractViterbiString(symbolTable, hg.goalNode), expected.toString());
+
+		// as trees, since the yields remembered by each derivation
+		// would take space quadratic in the length of the chain
+		StringBuilder expectedTree = new StringBuilder("(ROOT ");
+		for (int i = 0; i < CHAIN_LENGTH; i++) {
+			expectedTree.append("(X ");
+		}
+		expectedTree.append("w)");
+		for (int i = 1; i < CHAIN_LENGTH; i++) {
+			expectedTree.append(" w)");
+		}
+		expectedTree.append(")");
+		KBestExtractor kbestExtractor = new KBestExtractor(symbolTable, false, true, false, false, false, false);
+		Assert.assertEquals(kbestExtractor.getKthHyp(hg.goalNode, 1, -1, null, null), expectedTree.toString());
+		Assert.assertNull(kbestExtractor.getKthHyp(hg.goalNode, 2, -1, null, null));
+
+		TrivialInsideOutside insideOutside = new TrivialInsideOutside();
+		insideOutside.runInsideOutside(hg, 0, 1, 1.0);
+		Assert.assertEquals(insideOutside.getNodePosteriorProb(nodes.get(0)), 1.0, 1e-9);
+		insideOutside.clearState();
+	}
+}
@@ -0,0 +1,154 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.tm.BilingualRule;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for KBestExtractor, on small hand-built hypergraphs.
+ *
+ * @version $LastChangedDate$
+ */
+public class KBestExtractorTest {
+
+	private static HyperEdge edge(BilingualRule rule, double logP, HGNode... antNodes) {
+		List<HGNode> ants = (antNodes.length == 0) ? null : new ArrayList<HGNode>(Arrays.asList(antNodes));
+		return new HyperEdge(rule, logP, logP, ants, null);
+	}
+
+	private static HGNode node(int i, int j, HyperEdge... hyperedges) {
+		return new HGNode(i, j, 0, new ArrayList<HyperEdge>(Arrays.asList(hyperedges)), hyperedges[0], null);
+	}
+
+	/** A rule rewriting X as the given terminals. */
+	private static BilingualRule leafRule(SymbolTable symbolTable, String... words) {
+		int[] ids = new int[words.length];
+		for (int k = 0; k < words.length; k++) {
+			ids[k] = symbolTable.addTerminal(words[k]);
+		}
+		return new BilingualRule(symbolTable.addNonterminal("X"), ids, ids, new float[0], 0);
+	}
+
+	private static List<String> extract(KBestExtractor kbestExtractor, HyperGraph hg, int topN) {
+		List<String> nbest = new ArrayList<String>();
+		kbestExtractor.lazyKBestExtractOnHG(hg, null, topN, 0, nbest);
+		return nbest;
+	}
+
+	/**
+	 * Two of the derivations have the same yield, which the unique
+	 * n-best lists only once.
+	 */
+	@Test
+	public void uniqueNbestSkipsRepeatedYields() {
+		SymbolTable symbolTable = new BuildinSymbol(null);
+		HGNode a = node(0, 1,
+			edge(leafRule(symbolTable, "w"), -1),
+			edge(leafRule(symbolTable, "w"), -2),
+			edge(leafRule(symbolTable, "u"), -3));
+		HGNode b = node(1, 2, edge(leafRule(symbolTable, "v"), -1));
+		HyperGraph hg = new HyperGraph(node(0, 2, edge(null, -2, a, b)), 3, 5, 0, 2);
+
+		KBestExtractor all = new KBestExtractor(symbolTable, false, false, false, true, false, false);
+		Assert.assertEquals(extract(all, hg, 10), Arrays.asList(
+			"0 ||| w v ||| -2.000",
+			"0 ||| w v ||| -3.000",
+			"0 ||| u v ||| -4.000"));
+		Assert.assertEquals(extract(all, hg, 2), Arrays.asList(
+			"0 ||| w v ||| -2.000",
+			"0 ||| w v ||| -3.000"));
+
+		KBestExtractor unique = new KBestExtractor(symbolTable, true, false, false, true, false, false);
+		Assert.assertEquals(extract(unique, hg, 10), Arrays.asList(
+			"0 ||| w v ||| -2.000",
+			"0 ||| u v ||| -4.000"));
+	}
+
+	/**
+	 * A hyperedge with so many antecedents that only the ranks of its
+	 * best derivation fit in a packed key, so that the others are
+	 * told apart by their signatures. The derivation that swaps the
+	 * first two antecedents is reached from both single swaps, and
+	 * must still be listed once.
+	 */
+	@Test
+	public void derivationsThatDoNotFitInAKeyAreListedOnce() {
+		final int numAntNodes = 22;
+		SymbolTable symbolTable = new BuildinSymbol(null);
+		HGNode[] antNodes = new HGNode[numAntNodes];
+		for (int i = 0; i < numAntNodes; i++) {
+			// the second choice costs i+1 more than the first
+			antNodes[i] = node(i, i + 1,
+				edge(leafRule(symbolTable, "a" + i), -1),
+				edge(leafRule(symbolTable, "b" + i), -(i + 2)));
+		}
+		HyperGraph hg = new HyperGraph(node(0, numAntNodes, edge(null, -numAntNodes, antNodes)),
+			numAntNodes + 1, 2 * numAntNodes + 1, 0, numAntNodes);
+
+		KBestExtractor kbestExtractor = new KBestExtractor(symbolTable, false, false, false, true, false, false);
+		List<String> nbest = extract(kbestExtractor, hg, 10);
+		Assert.assertEquals(nbest.size(), 10);
+
+		// the smallest sums of distinct numbers in 1..22
+		int[] extraCosts = { 0, 1, 2, 3, 3, 4, 4, 5, 5, 5 };
+		Set<String> yields = new HashSet<String>();
+		for (int n = 0; n < nbest.size(); n++) {
+			String[] fields = nbest.get(n).split(" \\|\\|\\| ");
+			Assert.assertEquals(fields[2], String.format("%.3f", (double) -(numAntNodes + extraCosts[n])));
+			Assert.assertTrue(yields.add(fields[1]), "repeated derivation: " + fields[1]);
+		}
+		Assert.assertTrue(nbest.get(0).startsWith("0 ||| a0 a1 a2 "));
+		Assert.assertTrue(nbest.get(1).startsWith("0 ||| b0 a1 a2 "));
+		Assert.assertTrue(yields.contains(nbest.get(1).split(" \\|\\|\\| ")[1].replace("b0 a1 a2", "b0 b1 a2")));
+	}
+
+	/** Parentheses in the words are escaped only if escape_trees is set. */
+	@Test
+	public void escapeTrees() {
+		SymbolTable symbolTable = new BuildinSymbol(null);
+		HGNode x = node(0, 1, edge(leafRule(symbolTable, "(", "w", ")"), -1));
+		HyperGraph hg = new HyperGraph(node(0, 1, edge(null, -1, x)), 2, 2, 0, 1);
+
+		KBestExtractor trees = new KBestExtractor(symbolTable, true, true, false, false, false, false);
+		KBestExtractor strings = new KBestExtractor(symbolTable, true, false, false, false, false, false);
+		boolean escapeTrees = JoshuaConfiguration.escape_trees;
+		try {
+			JoshuaConfiguration.escape_trees = false;
+			Assert.assertEquals(extract(trees, hg, 1), Arrays.asList("0 ||| (ROOT (X ( w )))"));
+			Assert.assertEquals(extract(strings, hg, 1), Arrays.asList("0 ||| ( w )"));
+
+			JoshuaConfiguration.escape_trees = true;
+			Assert.assertEquals(extract(trees, hg, 1), Arrays.asList("0 ||| (ROOT (X -LRB- w -RRB-))"));
+			Assert.assertEquals(extract(strings, hg, 1), Arrays.asList("0 ||| -LRB- w -RRB-"));
+		} finally {
+			JoshuaConfiguration.escape_trees = escapeTrees;
+		}
+	}
+}
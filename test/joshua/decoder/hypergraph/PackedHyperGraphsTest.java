@@ -0,0 +1,126 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.util.io.LineReader;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the binary hypergraph format.
+ *
+ * @version $LastChangedDate$
+ */
+public class PackedHyperGraphsTest {
+
+	private static final String TEXT_PREFIX =
+		"src/joshua/discriminative/training/risk_annealer/data/example.nbest.javalm.hgmert.1.withMatches";
+
+	private static List<String> lines(String fileName, boolean sort) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		LineReader reader = new LineReader(fileName);
+		for (String line : reader) {
+			lines.add(line);
+		}
+		reader.close();
+		if (sort) Collections.sort(lines);
+		return lines;
+	}
+
+	/** Packs the example hypergraphs, returning how many there are. */
+	private static int pack(File binaryFile) throws IOException {
+		// OOV rules are built with this many features
+		JoshuaConfiguration.num_phrasal_features = 3;
+
+		SymbolTable symbolTable = new BuildinSymbol(null);
+		DiskHyperGraph text = new DiskHyperGraph(symbolTable, 0, true, null);
+		text.initRead(TEXT_PREFIX + ".hg.items", TEXT_PREFIX + ".hg.rules", null);
+
+		HyperGraphPacker packer = new HyperGraphPacker(binaryFile.getPath(), symbolTable, 0, true, null);
+		int count = 0;
+		for (HyperGraph hg; (hg = text.readHyperGraph()) != null; count++) {
+			packer.write(hg);
+		}
+		packer.close();
+		text.closeReaders();
+		return count;
+	}
+
+	@Test
+	public void roundTripThroughText() throws IOException {
+		File binaryFile = File.createTempFile("hypergraphs", ".hg.bin");
+		binaryFile.deleteOnExit();
+		String exportPrefix = binaryFile.getPath() + ".export";
+		int count = pack(binaryFile);
+
+		PackedHyperGraphs packed = new PackedHyperGraphs(binaryFile.getPath(), new BuildinSymbol(null), 0);
+		Assert.assertEquals(packed.size(), count);
+
+		// random access agrees with sequential access
+		HyperGraph last = packed.get(count - 1);
+		HyperGraph first = packed.get(0);
+		Assert.assertEquals(first.sentID, 0);
+		Assert.assertEquals(last.sentID, count - 1);
+		Assert.assertEquals(packed.next().numEdges, first.numEdges);
+
+		packed.exportText(exportPrefix);
+		packed.close();
+		new File(exportPrefix + ".hg.items").deleteOnExit();
+		new File(exportPrefix + ".hg.rules").deleteOnExit();
+
+		Assert.assertEquals(lines(exportPrefix + ".hg.items", false), lines(TEXT_PREFIX + ".hg.items", false));
+		Assert.assertEquals(lines(exportPrefix + ".hg.rules", true), lines(TEXT_PREFIX + ".hg.rules", true));
+	}
+
+	@Test
+	public void mappedInSegments() throws IOException {
+		File binaryFile = File.createTempFile("hypergraphs", ".hg.bin");
+		binaryFile.deleteOnExit();
+		String exportPrefix = binaryFile.getPath() + ".export";
+		int count = pack(binaryFile);
+
+		// small enough that no two hypergraphs share a segment
+		long maxSegmentSize = PackedHyperGraphs.maxSegmentSize;
+		PackedHyperGraphs.maxSegmentSize = 1;
+		PackedHyperGraphs packed;
+		try {
+			packed = new PackedHyperGraphs(binaryFile.getPath(), new BuildinSymbol(null), 0);
+		} finally {
+			PackedHyperGraphs.maxSegmentSize = maxSegmentSize;
+		}
+		Assert.assertEquals(packed.size(), count);
+		Assert.assertEquals(packed.get(count - 1).sentID, count - 1);
+
+		packed.exportText(exportPrefix);
+		packed.close();
+		new File(exportPrefix + ".hg.items").deleteOnExit();
+		new File(exportPrefix + ".hg.rules").deleteOnExit();
+
+		Assert.assertEquals(lines(exportPrefix + ".hg.items", false), lines(TEXT_PREFIX + ".hg.items", false));
+	}
+}
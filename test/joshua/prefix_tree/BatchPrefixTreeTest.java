@@ -0,0 +1,171 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.prefix_tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import joshua.corpus.CorpusArray;
+import joshua.corpus.alignment.AlignmentArray;
+import joshua.corpus.suffix_array.BasicPhrase;
+import joshua.corpus.suffix_array.ParallelCorpusGrammarFactory;
+import joshua.corpus.suffix_array.SuffixArray;
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.tm.Grammar;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.Trie;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for BatchPrefixTree.
+ *
+ * @version $LastChangedDate$
+ */
+public class BatchPrefixTreeTest {
+
+	String[] sentences = {
+			"it makes him",
+			"it makes him and it mars him",
+			"him , it sets him on",
+			"it makes him",
+			"and it takes him off ."
+	};
+
+	Vocabulary sourceVocab;
+	ParallelCorpusGrammarFactory parallelCorpus;
+
+	@Test
+	public void setup() {
+
+		String corpusString = "it makes him and it mars him , it sets him on and it takes him off .";
+		String targetCorpusString = "das macht ihn und es beschädigt ihn , es setzt ihn auf und es führt ihn aus .";
+
+		sourceVocab = new Vocabulary(new HashSet<String>(Arrays.asList(corpusString.split("\\s+"))));
+		Vocabulary targetVocab = new Vocabulary(new HashSet<String>(Arrays.asList(targetCorpusString.split("\\s+"))));
+
+		int[] sentenceStartPositions = {0};
+		int[] corpus = new BasicPhrase(corpusString, sourceVocab).getWordIDs();
+		int[] targetCorpus = new BasicPhrase(targetCorpusString, targetVocab).getWordIDs();
+		Assert.assertEquals(corpus.length, 18);
+		Assert.assertEquals(targetCorpus.length, 18);
+
+		SuffixArray suffixArray = new SuffixArray(new CorpusArray(corpus, sentenceStartPositions, sourceVocab));
+		SuffixArray targetSuffixArray = new SuffixArray(new CorpusArray(targetCorpus, sentenceStartPositions, targetVocab));
+
+		// Each word is aligned to the word at the same position
+		int[][] alignedTargetIndices = new int[18][];
+		int[][] alignedSourceIndices = new int[18][];
+		for (int i = 0; i < 18; i++) {
+			alignedTargetIndices[i] = new int[] { i };
+			alignedSourceIndices[i] = new int[] { i };
+		}
+		AlignmentArray alignments = new AlignmentArray(alignedTargetIndices, alignedSourceIndices, 1);
+
+		int maxPhraseSpan = 10;
+		int maxPhraseLength = 10;
+		int maxNonterminals = 2;
+		int sampleSize = 300;
+		int minNonterminalSpan = 2;
+		parallelCorpus = new ParallelCorpusGrammarFactory(suffixArray, targetSuffixArray, alignments, null, sampleSize, maxPhraseSpan, maxPhraseLength, maxNonterminals, minNonterminalSpan, Float.MIN_VALUE, JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
+	}
+
+	/** Collects the rules of each pattern reachable from a trie. */
+	private void collect(Trie trie, String path, Set<Integer> symbols, Map<String,List<String>> rules) {
+		if (trie.hasRules()) {
+			List<String> ruleStrings = new ArrayList<String>();
+			for (Rule rule : trie.getRules().getSortedRules()) {
+				ruleStrings.add(Arrays.toString(rule.getFrench()) + " ||| " + Arrays.toString(rule.getEnglish()) + " ||| " + Arrays.toString(rule.getFeatureScores()));
+			}
+			rules.put(path, ruleStrings);
+		} else {
+			rules.put(path, null);
+		}
+		for (int symbol : symbols) {
+			Trie child = trie.matchOne(symbol);
+			if (child != null) {
+				collect(child, path + " " + symbol, symbols, rules);
+			}
+		}
+	}
+
+	private Map<String,List<String>> collect(Grammar grammar, int[] sentence) {
+		Set<Integer> symbols = new HashSet<Integer>();
+		for (int word : sentence) {
+			symbols.add(word);
+		}
+		symbols.add(PrefixTree.X);
+		Map<String,List<String>> rules = new TreeMap<String,List<String>>();
+		collect(grammar.getTrieRoot(), "", symbols, rules);
+		return rules;
+	}
+
+	@Test(dependsOnMethods={"setup"})
+	public void sentenceGrammarsMatchPrefixTrees() {
+
+		List<int[]> batch = new ArrayList<int[]>();
+		for (String sentence : sentences) {
+			batch.add(new BasicPhrase(sentence, sourceVocab).getWordIDs());
+		}
+
+		BatchPrefixTree batchTree = new BatchPrefixTree(parallelCorpus);
+		List<Grammar> grammars = batchTree.addAll(batch);
+		Assert.assertEquals(grammars.size(), batch.size());
+
+		int numPatterns = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			PrefixTree prefixTree = new PrefixTree(parallelCorpus);
+			prefixTree.add(batch.get(i));
+
+			Map<String,List<String>> expected = collect(prefixTree, batch.get(i));
+			Map<String,List<String>> actual = collect(grammars.get(i), batch.get(i));
+			Assert.assertEquals(actual, expected, sentences[i]);
+			Assert.assertEquals(grammars.get(i).getNumRules(), prefixTree.getNumRules(), sentences[i]);
+
+			numPatterns += expected.size();
+		}
+
+		// The shared tree holds each pattern once
+		Assert.assertTrue(batchTree.size() < numPatterns);
+	}
+
+	@Test(dependsOnMethods={"setup"})
+	public void preparedGrammarsAreReturned() {
+
+		List<BasicPhrase> phrases = new ArrayList<BasicPhrase>();
+		for (String sentence : sentences) {
+			phrases.add(new BasicPhrase(sentence, sourceVocab));
+		}
+		parallelCorpus.prepareGrammars(phrases);
+
+		Grammar first = parallelCorpus.getGrammarForSentence(phrases.get(0));
+		Assert.assertFalse(first instanceof PrefixTree);
+		Assert.assertSame(parallelCorpus.getGrammarForSentence(phrases.get(3)), first);
+
+		// Sentences outside the batch get a prefix tree of their own
+		BasicPhrase other = new BasicPhrase("him on", sourceVocab);
+		Assert.assertTrue(parallelCorpus.getGrammarForSentence(other) instanceof PrefixTree);
+	}
+}
@@ -17,6 +17,23 @@
  */
 package joshua.prefix_tree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import joshua.corpus.CorpusArray;
+import joshua.corpus.MatchedHierarchicalPhrases;
+import joshua.corpus.alignment.AlignmentArray;
+import joshua.corpus.suffix_array.BasicPhrase;
+import joshua.corpus.suffix_array.ParallelCorpusGrammarFactory;
+import joshua.corpus.suffix_array.SuffixArray;
+import joshua.corpus.vocab.Vocabulary;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.tm.Rule;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
 /**
  * Unit tests for HierarchicalRuleExtractor.
  * 
@@ -25,4 +42,94 @@ package joshua.prefix_tree;
  */
 public class HierarchicalRuleExtractorTest {
 
+	String[] sentences = {
+			"it makes him and it mars him , it sets him on and it takes him off .",
+			"and it makes him off and it sets him on .",
+			"it takes him , and it mars him , and it makes him ."
+	};
+	
+	/** Number of times the sentences are repeated in the corpus. */
+	int copies = 20;
+
+	Vocabulary sourceVocab, targetVocab;
+	int[] corpus, targetCorpus, sentenceStartPositions;
+	AlignmentArray alignments;
+
+	@Test
+	public void setup() {
+
+		sourceVocab = new Vocabulary();
+		targetVocab = new Vocabulary();
+
+		List<Integer> words = new ArrayList<Integer>();
+		List<Integer> targetWords = new ArrayList<Integer>();
+		sentenceStartPositions = new int[sentences.length * copies];
+		for (int i = 0; i < sentenceStartPositions.length; i++) {
+			sentenceStartPositions[i] = words.size();
+			String[] sentence = sentences[i % sentences.length].split("\\s+");
+			for (int j = 0; j < sentence.length; j++) {
+				words.add(sourceVocab.addTerminal(sentence[j]));
+				// Vary the translations of the same source words
+				String target = ((i + j) % 3 == 0) ? sentence[j] : sentence[j].toUpperCase();
+				targetWords.add(targetVocab.addTerminal(target));
+			}
+		}
+		corpus = new int[words.size()];
+		targetCorpus = new int[words.size()];
+		for (int i = 0; i < corpus.length; i++) {
+			corpus[i] = words.get(i);
+			targetCorpus[i] = targetWords.get(i);
+		}
+
+		// Each word is aligned to the word at the same position
+		int[][] alignedTargetIndices = new int[corpus.length][];
+		int[][] alignedSourceIndices = new int[corpus.length][];
+		for (int i = 0; i < corpus.length; i++) {
+			alignedTargetIndices[i] = new int[] { i };
+			alignedSourceIndices[i] = new int[] { i };
+		}
+		alignments = new AlignmentArray(alignedTargetIndices, alignedSourceIndices, sentenceStartPositions.length);
+	}
+
+	private ParallelCorpusGrammarFactory newGrammarFactory() {
+		SuffixArray suffixArray = new SuffixArray(new CorpusArray(corpus, sentenceStartPositions, sourceVocab));
+		SuffixArray targetSuffixArray = new SuffixArray(new CorpusArray(targetCorpus, sentenceStartPositions, targetVocab));
+		return new ParallelCorpusGrammarFactory(suffixArray, targetSuffixArray, alignments, null, 300, 10, 10, 2, 2, Float.MIN_VALUE, JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
+	}
+
+	private List<String> toStrings(List<Rule> rules) {
+		List<String> strings = new ArrayList<String>(rules.size());
+		for (Rule rule : rules) {
+			strings.add(Arrays.toString(rule.getFrench()) + " ||| " + Arrays.toString(rule.getEnglish()) + " ||| " + Arrays.toString(rule.getFeatureScores()));
+		}
+		return strings;
+	}
+
+	@Test(dependsOnMethods={"setup"})
+	public void parallelExtractionMatchesSequential() {
+
+		ParallelCorpusGrammarFactory sequential = newGrammarFactory();
+		HierarchicalRuleExtractor sequentialExtractor = (HierarchicalRuleExtractor) sequential.getRuleExtractor();
+		sequentialExtractor.setParallelSamples(0);
+
+		ParallelCorpusGrammarFactory parallel = newGrammarFactory();
+		HierarchicalRuleExtractor parallelExtractor = (HierarchicalRuleExtractor) parallel.getRuleExtractor();
+		parallelExtractor.setParallelSamples(2);
+
+		PrefixTree prefixTree = new PrefixTree(sequential);
+		for (String sentence : sentences) {
+			prefixTree.add(new BasicPhrase(sentence, sourceVocab).getWordIDs());
+		}
+
+		int compared = 0;
+		for (MatchedHierarchicalPhrases matchings : sequential.getSuffixArray().getCachedHierarchicalPhrases().values()) {
+			List<Rule> expected = sequentialExtractor.extractRules(matchings);
+			List<Rule> actual = parallelExtractor.extractRules(matchings);
+			Assert.assertEquals(toStrings(actual), toStrings(expected), matchings.getPattern().toString());
+			if (matchings.size() > 2 && expected.size() > 1) {
+				compared++;
+			}
+		}
+		Assert.assertTrue(compared > 0);
+	}
 }
@@ -0,0 +1,142 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the thread-safe least recently used cache.
+ * 
+ * @version $LastChangedDate$
+ */
+public class ConcurrentCacheTest {
+
+	/** Weighs a string by its length. */
+	static final ConcurrentCache.Weigher<Integer,String> LENGTH =
+		new ConcurrentCache.Weigher<Integer,String>() {
+			public long weigh(Integer key, String value) {
+				return value.length();
+			}
+		};
+	
+	@Test
+	public void hitsAndMisses() {
+		ConcurrentCache<Integer,String> cache = new ConcurrentCache<Integer,String>(100, 4);
+		
+		Assert.assertNull(cache.get(1));
+		Assert.assertNull(cache.put(1, "one"));
+		Assert.assertEquals(cache.get(1), "one");
+		Assert.assertEquals(cache.put(1, "uno"), "one");
+		Assert.assertEquals(cache.putIfAbsent(1, "eins"), "uno");
+		Assert.assertEquals(cache.get(1), "uno");
+		Assert.assertTrue(cache.containsKey(1));
+		Assert.assertFalse(cache.containsKey(2));
+		
+		Assert.assertEquals(cache.size(), 1);
+		Assert.assertEquals(cache.getHits(), 2);
+		Assert.assertEquals(cache.getMisses(), 1);
+		Assert.assertEquals(cache.getHitRate(), 2.0 / 3.0, 1e-12);
+		
+		cache.clear();
+		Assert.assertEquals(cache.size(), 0);
+		Assert.assertNull(cache.get(1));
+	}
+	
+	@Test
+	public void leastRecentlyUsedAreEvicted() {
+		ConcurrentCache<Integer,String> cache = new ConcurrentCache<Integer,String>(3, 1);
+		
+		cache.put(1, "a");
+		cache.put(2, "b");
+		cache.put(3, "c");
+		cache.get(1);
+		cache.put(4, "d");
+		
+		Assert.assertEquals(cache.size(), 3);
+		Assert.assertFalse(cache.containsKey(2));
+		Assert.assertTrue(cache.containsKey(1));
+		Assert.assertEquals(cache.getEvictions(), 1);
+	}
+	
+	@Test
+	public void boundedByWeight() {
+		ConcurrentCache<Integer,String> cache = new ConcurrentCache<Integer,String>(10, 1, LENGTH);
+		
+		cache.put(1, "aaaa");
+		cache.put(2, "bbbb");
+		Assert.assertEquals(cache.getWeight(), 8);
+		
+		cache.put(3, "cccc");
+		Assert.assertEquals(cache.getWeight(), 8);
+		Assert.assertFalse(cache.containsKey(1));
+		
+		// Replacing a value replaces its weight
+		cache.put(3, "c");
+		Assert.assertEquals(cache.getWeight(), 5);
+		
+		// Heavier than the whole cache: not cached
+		cache.put(4, "dddddddddddd");
+		Assert.assertFalse(cache.containsKey(4));
+		Assert.assertEquals(cache.size(), 2);
+	}
+	
+	@Test
+	public void concurrentUse() throws Exception {
+		final ConcurrentCache<Integer,String> cache = new ConcurrentCache<Integer,String>(200, 8, LENGTH);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < 4; t++) {
+			final int seed = t;
+			results.add(pool.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					for (int i = 0; i < 20000; i++) {
+						int key = (i * 7 + seed) % 100;
+						String value = cache.get(key);
+						if (value == null) {
+							cache.putIfAbsent(key, Integer.toString(key));
+						} else if (! value.equals(Integer.toString(key))) {
+							return false;
+						}
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			Assert.assertTrue(result.get());
+		}
+		pool.shutdown();
+		
+		Assert.assertEquals(cache.getHits() + cache.getMisses(), 80000);
+		Assert.assertTrue(cache.getWeight() <= 200);
+		long weight = 0;
+		for (String value : cache.values()) {
+			weight += value.length();
+		}
+		Assert.assertEquals(cache.getWeight(), weight);
+	}
+}
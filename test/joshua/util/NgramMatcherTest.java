@@ -0,0 +1,103 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for NgramMatcher and NgramTable classes.
+ */
+public class NgramMatcherTest {
+
+	@Test
+	public void tableCounts() {
+		NgramTable table = new NgramTable();
+		for (int k = 0; k < 1000; k++) {
+			table.increment(k * 7919L, k % 5 + 1);
+		}
+		table.increment(0L, 2);
+		table.max(7919L, 1);
+		table.max(2 * 7919L, 10);
+		
+		Assert.assertEquals(table.size(), 1000);
+		Assert.assertEquals(table.get(0L), 3);
+		Assert.assertEquals(table.get(7919L), 2);
+		Assert.assertEquals(table.get(2 * 7919L), 10);
+		Assert.assertEquals(table.get(999 * 7919L), 5);
+		Assert.assertEquals(table.get(1L), 0);
+		
+		table.clear();
+		Assert.assertEquals(table.size(), 0);
+		Assert.assertEquals(table.get(0L), 0);
+	}
+	
+	@Test
+	public void keysKeepOrder() {
+		int[] words = {3, 1, 4, 1, 5};
+		for (int n = 1; n <= 5; n++) {
+			Assert.assertEquals(NgramTable.order(NgramTable.key(words, 0, n)), n);
+		}
+		Assert.assertEquals(NgramTable.key(words, 1, 1), NgramTable.key(words, 3, 1));
+		Assert.assertFalse(NgramTable.key(words, 0, 2) == NgramTable.key(words, 1, 2));
+	}
+	
+	/** Matches must agree with those computed on n-gram strings. */
+	@Test
+	public void matchesAgreeWithStrings() {
+		String[][] refs = {
+				Regex.spaces.split("the cat sat on the mat"),
+				Regex.spaces.split("there is a cat on the mat on the mat") };
+		String[] hyp = Regex.spaces.split("the the cat on the mat on the mat dog");
+		
+		NgramMatcher matcher = new NgramMatcher(4);
+		NgramTable maxRefCounts = matcher.maxCounts(refs);
+		
+		for (boolean clip : new boolean[] {true, false}) {
+			int[] numMatches = new int[4];
+			matcher.countMatches(matcher.lookupWords(hyp), maxRefCounts, clip, numMatches);
+			
+			// the same counts, from n-gram strings
+			Map<String,Integer> refMax = new HashMap<String,Integer>();
+			for (String[] ref : refs) {
+				Map<String,Integer> refCounts = new HashMap<String,Integer>();
+				Ngram.getNgrams(refCounts, 1, 4, ref);
+				for (Map.Entry<String,Integer> e : refCounts.entrySet()) {
+					Integer old = refMax.get(e.getKey());
+					if (old == null || old < e.getValue()) refMax.put(e.getKey(), e.getValue());
+				}
+			}
+			Map<String,Integer> hypCounts = new HashMap<String,Integer>();
+			Ngram.getNgrams(hypCounts, 1, 4, hyp);
+			int[] expected = new int[4];
+			for (Map.Entry<String,Integer> e : hypCounts.entrySet()) {
+				Integer refCount = refMax.get(e.getKey());
+				if (refCount != null) {
+					expected[Regex.spaces.split(e.getKey()).length - 1] += clip ? Math.min(refCount, e.getValue()) : e.getValue();
+				}
+			}
+			
+			for (int n = 0; n < 4; n++) {
+				Assert.assertEquals(numMatches[n], expected[n]);
+			}
+		}
+	}
+}
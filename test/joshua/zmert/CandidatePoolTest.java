@@ -0,0 +1,211 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package joshua.zmert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for CandidatePool.
+ *
+ * @version $LastChangedDate$
+ */
+public class CandidatePoolTest {
+
+	private static final int numParams = 2;
+
+	/** BLEU, counting the candidates whose statistics it computes. */
+	private static class CountingBLEU extends BLEU {
+		int computed = 0;
+
+		public int[][] suffStats(String[] cand_strings, int[] cand_indices) {
+			computed += cand_strings.length;
+			return super.suffStats(cand_strings, cand_indices);
+		}
+	}
+
+	private CountingBLEU bleu;
+
+	@BeforeMethod
+	public void setUp() {
+		String[][] refSentences = {
+			{ "the cat sat on the mat" },
+			{ "a dog barked" } };
+		EvaluationMetric.set_numSentences(2);
+		EvaluationMetric.set_refsPerSen(1);
+		EvaluationMetric.set_refSentences(refSentences);
+		bleu = new CountingBLEU();
+	}
+
+	private static File createPoolFile() throws IOException {
+		File file = File.createTempFile("pool", "");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private CandidatePool open(File file, int iteration) throws IOException {
+		return new CandidatePool(file.getPath(), 2, numParams, bleu.get_suffStatsCount(), iteration);
+	}
+
+	private static double[] featVal(double f1, double f2) {
+		return new double[] { 0, f1, f2 };
+	}
+
+	private static double[] featVal(CandidatePool pool, int i, int k) {
+		double[] featVal = new double[1 + numParams];
+		pool.featVal(i, k, featVal);
+		return featVal;
+	}
+
+	/** Asserts that the candidates of the ith sentence have the given feature values, in order. */
+	private static void assertFeatVals(CandidatePool pool, int i, double[]... expected) {
+		Assert.assertEquals(pool.size(i), expected.length);
+		for (int k = 0; k < expected.length; k++) {
+			Assert.assertEquals(Arrays.toString(featVal(pool, i, k)), Arrays.toString(expected[k]));
+		}
+	}
+
+	private static void assertStats(int[] actual, int[] expected) {
+		Assert.assertEquals(Arrays.toString(actual), Arrays.toString(expected));
+	}
+
+	/** The first two iterations: "the cat sat" is produced by both. */
+	private void addTwoIterations(CandidatePool pool) throws IOException {
+		pool.add(0, "the cat", featVal(1, 1), 1);
+		pool.add(0, "the cat sat", featVal(1, 2), 1);
+		pool.add(1, "a dog", featVal(2, 1), 1);
+		pool.flush(bleu);
+
+		pool.add(0, "the cat sat", featVal(3, 2), 2);
+		pool.add(0, "a cat sat", featVal(3, 3), 2);
+		pool.flush(bleu);
+	}
+
+	/**
+	 * A candidate produced more than once is a single candidate, whose
+	 * statistics are computed once, and which keeps the feature values
+	 * and iteration of its first occurrence.
+	 */
+	@Test
+	public void repeatedCandidates() throws IOException {
+		CandidatePool pool = open(createPoolFile(), 1);
+
+		pool.add(0, "the cat", featVal(1, 1), 1);
+		pool.add(0, "the cat sat", featVal(1, 2), 1);
+		pool.add(0, "the cat", featVal(1, 3), 1);
+		pool.add(1, "the cat", featVal(1, 4), 1);
+		Assert.assertEquals(pool.flush(bleu), 3);
+		Assert.assertEquals(bleu.computed, 3);
+
+		assertFeatVals(pool, 0, featVal(1, 1), featVal(1, 2));
+		assertFeatVals(pool, 1, featVal(1, 4));
+		assertStats(pool.stats(0, 0), bleu.suffStats("the cat", 0));
+		assertStats(pool.stats(0, 1), bleu.suffStats("the cat sat", 0));
+		assertStats(pool.stats(1, 0), bleu.suffStats("the cat", 1));
+
+		pool.add(0, "the cat sat", featVal(2, 2), 2);
+		pool.add(0, "the cat sat", featVal(2, 3), 2);
+		Assert.assertEquals(pool.flush(bleu), 0);
+		Assert.assertEquals(bleu.computed, 3);
+
+		assertFeatVals(pool, 0, featVal(1, 1), featVal(1, 2));
+		Assert.assertEquals(pool.iteration(0, 1), 1);
+		assertStats(pool.stats(0, 1), bleu.suffStats("the cat sat", 0));
+
+		pool.close();
+	}
+
+	/**
+	 * Candidates of earlier iterations stay in the pool until they are
+	 * discarded, and a discarded candidate that was produced again later
+	 * is represented by its later occurrence.
+	 */
+	@Test
+	public void discardBefore() throws IOException {
+		CandidatePool pool = open(createPoolFile(), 1);
+		addTwoIterations(pool);
+
+		assertFeatVals(pool, 0, featVal(1, 1), featVal(1, 2), featVal(3, 3));
+		Assert.assertEquals(pool.iteration(0, 0), 1);
+		Assert.assertEquals(pool.iteration(0, 1), 1);
+		Assert.assertEquals(pool.iteration(0, 2), 2);
+		assertFeatVals(pool, 1, featVal(2, 1));
+
+		pool.discardBefore(1);
+		assertFeatVals(pool, 0, featVal(1, 1), featVal(1, 2), featVal(3, 3));
+
+		pool.discardBefore(2);
+		assertFeatVals(pool, 0, featVal(3, 2), featVal(3, 3));
+		Assert.assertEquals(pool.iteration(0, 0), 2);
+		Assert.assertEquals(pool.iteration(0, 1), 2);
+		assertStats(pool.stats(0, 0), bleu.suffStats("the cat sat", 0));
+		assertStats(pool.stats(0, 1), bleu.suffStats("a cat sat", 0));
+		Assert.assertEquals(pool.size(1), 0);
+
+		pool.close();
+	}
+
+	/**
+	 * A reopened pool gives back the candidates of the iterations before
+	 * the one it is opened for, with the same feature values and
+	 * statistics, and drops those of later iterations.
+	 */
+	@Test
+	public void reopen() throws IOException {
+		File file = createPoolFile();
+		CandidatePool pool = open(file, 1);
+		addTwoIterations(pool);
+
+		double[][][] featVals = new double[2][][];
+		int[][][] stats = new int[2][][];
+		for (int i = 0; i < 2; i++) {
+			featVals[i] = new double[pool.size(i)][];
+			stats[i] = new int[pool.size(i)][];
+			for (int k = 0; k < pool.size(i); k++) {
+				featVals[i][k] = featVal(pool, i, k);
+				stats[i][k] = pool.stats(i, k);
+			}
+		}
+		pool.close();
+
+		pool = open(file, 3);
+		for (int i = 0; i < 2; i++) {
+			assertFeatVals(pool, i, featVals[i]);
+			for (int k = 0; k < pool.size(i); k++) {
+				assertStats(pool.stats(i, k), stats[i][k]);
+			}
+		}
+		Assert.assertEquals(pool.iteration(0, 2), 2);
+
+		// already known candidates still need no statistics
+		pool.add(0, "a cat sat", featVal(4, 4), 3);
+		Assert.assertEquals(pool.flush(bleu), 0);
+		pool.close();
+
+		// reopening for iteration 2 drops what iterations 2 and 3 added
+		pool = open(file, 2);
+		assertFeatVals(pool, 0, featVal(1, 1), featVal(1, 2));
+		assertFeatVals(pool, 1, featVal(2, 1));
+		assertStats(pool.stats(0, 1), stats[0][1]);
+		pool.close();
+	}
+}
@@ -0,0 +1,197 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package joshua.zmert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import joshua.decoder.JoshuaConfiguration;
+import joshua.util.io.LineReader;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for MertCore, on the five sentences of the decoder example.
+ *
+ * @version $LastChangedDate$
+ */
+public class MertCoreTest {
+
+	private static final int topN = 20;
+
+	private static final String[] exampleFiles = {
+		"example.test.in", "example.test.ref.0", "example.test.ref.1", "example.test.ref.2", "example.test.ref.3" };
+
+	private static final String[] copiedFiles = {
+		"src.txt", "ref.0", "ref.1", "ref.2", "ref.3" };
+
+	private static File createTempDir() throws IOException {
+		File dir = File.createTempFile("zmert", "");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+
+	private static void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	private static void write(File file, String... lines) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		for (String line : lines) {
+			out.println(line);
+		}
+		out.close();
+	}
+
+	/** Sets up a MERT run on the example in the given directory. */
+	private static void setUp(File dir) throws IOException {
+		for (int f = 0; f < exampleFiles.length; f++) {
+			LineReader reader = new LineReader("example/" + exampleFiles[f]);
+			PrintWriter out = new PrintWriter(new File(dir, copiedFiles[f]), "UTF-8");
+			for (String line : reader) {
+				out.println(line);
+			}
+			reader.close();
+			out.close();
+		}
+
+		write(new File(dir, "params.txt"),
+			"lm\t\t\t|||\t1.000000\t\tOpt\t0.1\t+Inf\t+0.5\t+1.5",
+			"phrasemodel pt 0\t|||\t1.066893\t\tOpt\t-Inf\t+Inf\t-1\t+1",
+			"phrasemodel pt 1\t|||\t0.752247\t\tOpt\t-Inf\t+Inf\t-1\t+1",
+			"phrasemodel pt 2\t|||\t0.589793\t\tOpt\t-Inf\t+Inf\t-1\t+1",
+			"wordpenalty\t\t|||\t-2.844814\t\tOpt\t-Inf\t+Inf\t-5\t0",
+			"normalization = absval 1 lm");
+
+		write(new File(dir, "config.txt"),
+			"lm_file=" + new File("example/example.trigram.lm.gz").getAbsolutePath(),
+			"tm_file=" + new File("example/example.hiero.tm.gz").getAbsolutePath(),
+			"tm_format=hiero",
+			"glue_file=" + new File("grammars/hiero.glue").getAbsolutePath(),
+			"glue_format=hiero",
+			"default_non_terminal=X",
+			"goalSymbol=S",
+			"use_unique_nbest=true",
+			"top_n=" + topN,
+			"lm 1.000000",
+			"phrasemodel pt 0 1.066893",
+			"phrasemodel pt 1 0.752247",
+			"phrasemodel pt 2 0.589793",
+			"wordpenalty -2.844814");
+	}
+
+	/** Runs the first MERT iteration, with the given extra options. */
+	private static MertCore runFirstIteration(File dir, String... options) {
+		String[] common = {
+			"-dir", dir.getPath(), "-s", "src.txt", "-r", "ref", "-rps", "4",
+			"-p", "params.txt", "-m", "BLEU", "4", "closest", "-ipi", "1",
+			"-decOut", "nbest.out", "-dcfg", "config.txt", "-N", "" + topN,
+			"-seed", "12341234", "-v", "0", "-decV", "0" };
+		String[] args = new String[common.length + options.length];
+		System.arraycopy(common, 0, args, 0, common.length);
+		System.arraycopy(options, 0, args, common.length, options.length);
+
+		MertCore mert = new MertCore(args);
+		int[] maxIndex = new int[5];
+		for (int i = 0; i < maxIndex.length; i++) {
+			maxIndex[i] = topN - 1;
+		}
+		mert.run_single_iteration(1, 1, 1, 1, 0, maxIndex);
+		return mert;
+	}
+
+	/**
+	 * The candidates that an iteration merges from the n-best output of
+	 * the in-process decoder are the same as those it merges when it
+	 * reads the same output from a file.
+	 */
+	@Test
+	public void inProcessMergeMatchesFileBasedMerge() throws IOException {
+		String lmFile = JoshuaConfiguration.lm_file;
+		String tmFile = JoshuaConfiguration.tm_file;
+		String tmFormat = JoshuaConfiguration.tm_format;
+		String glueFile = JoshuaConfiguration.glue_file;
+		String glueFormat = JoshuaConfiguration.glue_format;
+		String defaultNonTerminal = JoshuaConfiguration.default_non_terminal;
+		String goalSymbol = JoshuaConfiguration.goal_symbol;
+		boolean useUniqueNbest = JoshuaConfiguration.use_unique_nbest;
+		int topNSetting = JoshuaConfiguration.topN;
+		int numPhrasalFeatures = JoshuaConfiguration.num_phrasal_features;
+
+		File inProcessDir = createTempDir();
+		File fileBasedDir = createTempDir();
+		try {
+			setUp(inProcessDir);
+			setUp(fileBasedDir);
+
+			// decode in process, saving the decoder output
+			MertCore inProcess = runFirstIteration(inProcessDir, "-save", "2");
+
+			// and have the fake decoder read it back
+			File nbestFile = new File(inProcessDir, "nbest.out.ZMERT.it1");
+			Assert.assertTrue(nbestFile.exists());
+			Assert.assertTrue(nbestFile.renameTo(new File(fileBasedDir, "nbest.out.ZMERT.it1")));
+			MertCore fileBased = runFirstIteration(fileBasedDir, "-fake", "nbest.out.ZMERT.it?");
+
+			CandidatePool expected = fileBased.getCandidatePool();
+			CandidatePool actual = inProcess.getCandidatePool();
+			double[] expectedFeatVal = new double[6];
+			double[] actualFeatVal = new double[6];
+			int total = 0;
+			for (int i = 0; i < 5; i++) {
+				Assert.assertEquals(actual.size(i), expected.size(i));
+				Assert.assertTrue(actual.size(i) > 1);
+				for (int k = 0; k < actual.size(i); k++) {
+					actual.featVal(i, k, actualFeatVal);
+					expected.featVal(i, k, expectedFeatVal);
+					Assert.assertEquals(Arrays.toString(actualFeatVal), Arrays.toString(expectedFeatVal));
+					Assert.assertEquals(Arrays.toString(actual.stats(i, k)), Arrays.toString(expected.stats(i, k)));
+					Assert.assertEquals(actual.iteration(i, k), 1);
+					Assert.assertEquals(expected.iteration(i, k), 1);
+				}
+				total += actual.size(i);
+			}
+			Assert.assertTrue(total <= 5 * topN);
+
+			actual.close();
+			expected.close();
+			inProcess.finish();
+			fileBased.finish();
+		} finally {
+			deleteDir(inProcessDir);
+			deleteDir(fileBasedDir);
+
+			JoshuaConfiguration.lm_file = lmFile;
+			JoshuaConfiguration.tm_file = tmFile;
+			JoshuaConfiguration.tm_format = tmFormat;
+			JoshuaConfiguration.glue_file = glueFile;
+			JoshuaConfiguration.glue_format = glueFormat;
+			JoshuaConfiguration.default_non_terminal = defaultNonTerminal;
+			JoshuaConfiguration.goal_symbol = goalSymbol;
+			JoshuaConfiguration.use_unique_nbest = useUniqueNbest;
+			JoshuaConfiguration.topN = topNSetting;
+			JoshuaConfiguration.num_phrasal_features = numPhrasalFeatures;
+		}
+	}
+}
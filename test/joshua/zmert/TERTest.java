@@ -0,0 +1,124 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or 
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package joshua.zmert;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for TER and TERCalculator classes.
+ * 
+ * @version $LastChangedDate$
+ */
+public class TERTest {
+
+	private static int numEdits(String hyp, String ref) {
+		TERCalculator calculator = new TERCalculator(false, true, 20, 50);
+		return calculator.numEdits(hyp, calculator.reference(ref));
+	}
+
+	@Test
+	public void identical() {
+		Assert.assertEquals(numEdits("the cat sat on the mat", "the cat sat on the mat"), 0);
+		Assert.assertEquals(numEdits("", ""), 0);
+	}
+
+	@Test
+	public void insertionsDeletionsSubstitutions() {
+		Assert.assertEquals(numEdits("the cat sat on a mat", "the cat sat on the mat"), 1);
+		Assert.assertEquals(numEdits("the cat sat on the mat", "the cat sat on mat"), 1);
+		Assert.assertEquals(numEdits("the cat sat on mat", "the cat sat on the mat"), 1);
+		Assert.assertEquals(numEdits("", "the cat"), 2);
+	}
+
+	@Test
+	public void shifts() {
+		// moving "a b" to the front is one edit, where the edit distance is 4
+		Assert.assertEquals(numEdits("c d e a b", "a b c d e"), 1);
+
+		// one shift and one substitution
+		Assert.assertEquals(numEdits("sat on a mat the cat", "the cat sat on the mat"), 2);
+
+		// a shifted phrase must match the reference: "the dog" cannot be
+		// moved, so "the" is moved, "cat" is inserted and "dog" deleted
+		Assert.assertEquals(numEdits("sat on the mat the dog", "the cat sat on the mat"), 3);
+	}
+
+	/**
+	 * Sentence pairs whose number of edits, as reported by tercom, is
+	 * known.
+	 */
+	@Test
+	public void tercomOutputs() {
+		// the example of Snover et al. (2006): a shift of "this week",
+		// two substitutions and an insertion, or 4 edits over 13 words
+		Assert.assertEquals(numEdits(
+				"this week the saudis denied information published in the new york times",
+				"SAUDI ARABIA denied this week information published in the AMERICAN new york times"), 4);
+
+		// one shift of "a b c" fixes the hypothesis
+		Assert.assertEquals(numEdits("d e f g h a b c", "a b c d e f g h"), 1);
+
+		// nothing in common: substitutions only
+		Assert.assertEquals(numEdits("dddd eeee ffff", "aaaa bbbb cccc"), 3);
+		Assert.assertEquals(numEdits("", "a"), 1);
+	}
+
+	@Test
+	public void caseAndPunctuation() {
+		Assert.assertEquals(numEdits("The cat .", "the cat ."), 0);
+
+		TERCalculator caseSensitive = new TERCalculator(true, true, 20, 50);
+		Assert.assertEquals(caseSensitive.numEdits("The cat .", caseSensitive.reference("the cat .")), 1);
+
+		TERCalculator noPunctuation = new TERCalculator(false, false, 20, 50);
+		Assert.assertEquals(noPunctuation.numEdits("the cat", noPunctuation.reference("the cat .")), 0);
+	}
+
+	@Test
+	public void suffStats() {
+
+		String[][] refSentences = {
+				{"the cat sat on the mat", "a cat was sitting on the mat"},
+				{"c d e a b", "a b c d e f g"} };
+
+		EvaluationMetric.set_numSentences(2);
+		EvaluationMetric.set_refsPerSen(2);
+		EvaluationMetric.set_refSentences(refSentences);
+
+		TER ter = new TER(new String[] {"nocase", "punc", "20", "50", "-", "2"});
+
+		String[] cands = {"the cat sat on a mat", "a b c d e", "the cat sat on the mat"};
+		int[] indices = {0, 1, 0};
+
+		int[][] stats = ter.suffStats(cands, indices);
+
+		// edits to the closest reference, and the average reference length
+		Assert.assertTrue(Arrays.equals(stats[0], new int[] {1, 6}));
+		Assert.assertTrue(Arrays.equals(stats[1], new int[] {1, 6}));
+		Assert.assertTrue(Arrays.equals(stats[2], new int[] {0, 6}));
+
+		Assert.assertTrue(Arrays.equals(ter.suffStats(cands[0], indices[0]), stats[0]));
+
+		// configurations that still name the tercom jar are accepted
+		TER withJar = new TER(new String[] {"nocase", "punc", "20", "50", "tercom.7.25.jar", "2"});
+		Assert.assertTrue(Arrays.equals(withJar.suffStats(cands, indices)[1], stats[1]));
+	}
+
+}